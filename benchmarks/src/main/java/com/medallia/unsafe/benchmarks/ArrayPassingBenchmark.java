@@ -0,0 +1,83 @@
+package com.medallia.unsafe.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of summing a {@code long[]} when it is passed to a thunk with {@code GetLongArrayElements},
+ * {@code GetPrimitiveArrayCritical} or as a direct buffer, compared with plain Java loops.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArrayPassingBenchmark {
+	@Param({"16", "1024", "65536", "1048576"})
+	public int size;
+
+	private Kernels kernels;
+	private long[] array;
+	private ByteBuffer direct;
+	private LongBuffer directLongs;
+
+	@Setup
+	public void setup() {
+		kernels = new Kernels();
+		array = new long[size];
+		direct = ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder());
+		directLongs = direct.asLongBuffer();
+		for (int i = 0; i < size; i++) {
+			array[i] = i;
+			directLongs.put(i, i);
+		}
+	}
+
+	@Benchmark
+	public long javaArray() {
+		long result = 0;
+		for (long value : array) {
+			result += value;
+		}
+		return result;
+	}
+
+	@Benchmark
+	public long javaDirectBuffer() {
+		long result = 0;
+		for (int i = 0; i < size; i++) {
+			result += directLongs.get(i);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public long arrayElements() {
+		return kernels.sumElements(array);
+	}
+
+	@Benchmark
+	public long arrayCritical() {
+		return kernels.sumCritical(array);
+	}
+
+	@Benchmark
+	public long directBuffer() {
+		return kernels.sumDirect(direct, size);
+	}
+}
@@ -0,0 +1,96 @@
+package com.medallia.unsafe.benchmarks;
+
+import com.medallia.unsafe.NativeFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of every way of calling between Java and compiled code, compared with plain Java calls.
+ * Replaces the ad-hoc timing loops of the {@code FastCall}, {@code AutoFastCall} and {@code ReverseCall} examples.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallPathBenchmark {
+	/** Number of upcalls per invocation of the reverse call benchmarks */
+	private static final int UPCALLS = 10_000;
+
+	private Kernels kernels;
+	private NativeFunction square;
+	private FastCallShim fastCall;
+	private int x;
+
+	@Setup
+	public void setup() {
+		kernels = new Kernels();
+		square = Kernels.IMPLEMENTATION.getFunctionByName("square");
+		fastCall = new FastCallShim(square);
+		x = 42;
+	}
+
+	@Benchmark
+	public int javaCall() {
+		return javaSquare(x);
+	}
+
+	@Benchmark
+	public Object nativeFunctionInvoke() {
+		return square.invoke(null, x);
+	}
+
+	@Benchmark
+	public int fastCallShim() {
+		return fastCall.process(x);
+	}
+
+	@Benchmark
+	public int thunk() {
+		return kernels.square(x);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UPCALLS)
+	public long javaToJava() {
+		long result = 0;
+		for (int i = 0; i < UPCALLS; i++) {
+			result += kernels.identity(i);
+		}
+		return result;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UPCALLS)
+	public long reverseCallLookup() {
+		return kernels.upcallLookup(UPCALLS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UPCALLS)
+	public long reverseCallCached() {
+		return kernels.upcallCached(UPCALLS);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(UPCALLS)
+	public long reverseCallBatched() {
+		return kernels.upcallBatched(UPCALLS);
+	}
+
+	private static int javaSquare(int x) {
+		return x * x;
+	}
+}
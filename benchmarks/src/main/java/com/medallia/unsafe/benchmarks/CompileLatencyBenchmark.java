@@ -0,0 +1,151 @@
+package com.medallia.unsafe.benchmarks;
+
+import com.medallia.unsafe.CompileStatistics;
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeFootprint;
+import com.medallia.unsafe.NativeModule;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end and per-phase latency of {@link Driver#compileInMemory(String, String...)} for generated sources
+ * of 1 to 1000 functions, with increasingly heavy headers and different optimization levels.
+ * <p>
+ * {@code cold} measures the first compile in a fresh JVM, {@code warm} the steady state. The {@link Phases}
+ * counters accumulate the time and native footprint of each phase, divide them by {@code compiles} to get
+ * per-compile figures. The footprint is that of the compiled module: the IR after the frontend and after
+ * optimization, then the code and data sections from {@link NativeModule#getNativeFootprint()}. Run with
+ * {@code -prof gc} to also get heap allocation rates.
+ * <p>
+ * Note that the optimization level only affects the IR generated by Clang, NativeModule always runs its own
+ * pass pipeline afterwards.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class CompileLatencyBenchmark {
+	@Param({"1", "10", "100", "1000"})
+	public int functions;
+
+	@Param({"bare", "jni", "avx"})
+	public String headers;
+
+	@Param({"-O0", "-O2", "-O3"})
+	public String optLevel;
+
+	private String source;
+
+	/** Accumulated time spent in each compilation phase */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Phases {
+		public long compiles;
+		public long frontendNs;
+		public long engineCreationNs;
+		public long optimizationNs;
+		public long codeGenerationNs;
+		public long frontendIrBytes;
+		public long optimizedIrBytes;
+		public long codeBytes;
+		public long dataBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			compiles = 0;
+			frontendNs = 0;
+			engineCreationNs = 0;
+			optimizationNs = 0;
+			codeGenerationNs = 0;
+			frontendIrBytes = 0;
+			optimizedIrBytes = 0;
+			codeBytes = 0;
+			dataBytes = 0;
+		}
+
+		void add(CompileStatistics statistics, NativeFootprint footprint) {
+			compiles++;
+			frontendNs += statistics.getFrontendNanos();
+			engineCreationNs += statistics.getEngineCreationNanos();
+			optimizationNs += statistics.getOptimizationNanos();
+			codeGenerationNs += statistics.getCodeGenerationNanos();
+			frontendIrBytes += statistics.getFrontendIrBytes();
+			optimizedIrBytes += statistics.getOptimizedIrBytes();
+			codeBytes += footprint.getCodeBytes();
+			dataBytes += footprint.getDataBytes();
+		}
+	}
+
+	@Setup
+	public void setup() {
+		source = generateSource(headers, functions);
+	}
+
+	@Benchmark
+	@Fork(10)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@BenchmarkMode(Mode.SingleShotTime)
+	public NativeModule cold(Phases phases) {
+		return compile(phases);
+	}
+
+	@Benchmark
+	@Fork(1)
+	@Warmup(iterations = 3, time = 5)
+	@Measurement(iterations = 5, time = 5)
+	public NativeModule warm(Phases phases) {
+		return compile(phases);
+	}
+
+	private NativeModule compile(Phases phases) {
+		final NativeModule module = Driver.compileInMemory(source, "-std=c++11", optLevel);
+		if (module.hasErrors()) {
+			throw new IllegalStateException(module.getErrors());
+		}
+		phases.add(module.getCompileStatistics(), module.getNativeFootprint());
+		return module;
+	}
+
+	/**
+	 * Generates a source with the specified number of filter/sum kernels.
+	 * @param headers "bare" for no includes, "jni" for jni.h, "avx" for the includes used by avx.cpp
+	 * @param functions number of functions to generate
+	 */
+	static String generateSource(String headers, int functions) {
+		final StringBuilder sb = new StringBuilder();
+		switch (headers) {
+			case "avx":
+				sb.append("#include <immintrin.h>\n#include <vector>\n#include <functional>\n#include <iostream>\n" +
+						"#include <chrono>\n#include <random>\n");
+				// fall through
+			case "jni":
+				sb.append("#include <jni.h>\n");
+				break;
+			case "bare":
+				break;
+			default:
+				throw new IllegalArgumentException("unknown headers: " + headers);
+		}
+		for (int i = 0; i < functions; i++) {
+			sb.append("extern \"C\" long long kernel").append(i).append("(const long long* data, int len) {\n")
+					.append("  long long result = 0;\n")
+					.append("  for (int i = 0; i < len; ++i) if (data[i] > ").append(i).append(") result += data[i] * ").append(i + 1).append(";\n")
+					.append("  return result;\n")
+					.append("}\n");
+		}
+		return sb.toString();
+	}
+}
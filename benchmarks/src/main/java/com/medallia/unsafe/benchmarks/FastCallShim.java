@@ -0,0 +1,39 @@
+package com.medallia.unsafe.benchmarks;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeFunction;
+import com.medallia.unsafe.NativeModule;
+
+/**
+ * A hand-written shim, as in the {@code FastCall} example, that calls a function pointer stored in a field.
+ * See fastCallShim.cpp.
+ */
+class FastCallShim {
+	/** The pointer to the target function. This is called by native code. */
+	@Native
+	private final long functionPtr;
+
+	/** This is needed to prevent garbage collection of the module containing the compiled code. */
+	@SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
+	private final NativeFunction function;
+
+	FastCallShim(NativeFunction target) {
+		this.function = target;
+		this.functionPtr = target.getPointerToCompiledFunction();
+	}
+
+	/** Calls the target as {@code jint(*)(JNIEnv*, jint)} */
+	native int process(int arg);
+
+	/** This is needed to hold a reference to the implementation of {@link #process(int)} for the duration of this class. */
+	private static final NativeModule HANDLER;
+
+	static {
+		HANDLER = Driver.compileInMemory(Resources.load(FastCallShim.class, "fastCallShim.cpp"));
+		if (HANDLER.hasErrors()) {
+			throw new IllegalStateException(HANDLER.getErrors());
+		}
+		HANDLER.getFunctionByName("registerNative").invoke((Object) null);
+	}
+}
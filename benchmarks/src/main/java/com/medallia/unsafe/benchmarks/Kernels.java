@@ -0,0 +1,69 @@
+package com.medallia.unsafe.benchmarks;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.Callback;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+import java.nio.ByteBuffer;
+
+/** Thunked kernels used by the benchmarks. See kernels.cpp. */
+class Kernels {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Kernels.class);
+
+	/** Implementation of all kernels, also holds {@code extern "C"} functions for {@link com.medallia.unsafe.NativeFunction#invoke(Object...)}. */
+	static final NativeModule IMPLEMENTATION = compile();
+
+	@Native
+	private final long[] functions;
+
+	/** Sum of all values received by {@link #consume(long[], int)} */
+	long consumed;
+
+	Kernels() {
+		functions = BINDINGS.getFunctionPointers(IMPLEMENTATION);
+	}
+
+	native int square(int x);
+
+	/** Sums the array using {@code GetLongArrayElements} */
+	native long sumElements(long[] data);
+
+	/** Sums the array using {@code GetPrimitiveArrayCritical} */
+	native long sumCritical(long[] data);
+
+	/** Sums {@code length} longs of a direct buffer using {@code GetDirectBufferAddress} */
+	native long sumDirect(ByteBuffer data, int length);
+
+	/** Calls {@link #identity(long)} n times, looking up the method on every call to the kernel */
+	native long upcallLookup(int n);
+
+	/** Calls {@link #identity(long)} n times through the cached callback wrapper */
+	native long upcallCached(int n);
+
+	/** Delivers n values to {@link #consume(long[], int)} in batches */
+	native long upcallBatched(int n);
+
+	@Callback
+	long identity(long value) {
+		return value;
+	}
+
+	@Callback(batchSize = 1024)
+	void consume(long[] values, int count) {
+		for (int i = 0; i < count; i++) {
+			consumed += values[i];
+		}
+	}
+
+	private static NativeModule compile() {
+		final NativeModule module = Driver.compileInMemory(
+				BINDINGS.getHeader() + Resources.load(Kernels.class, "kernels.cpp"), "-std=c++11", "-O3");
+		if (module.hasErrors()) {
+			throw new IllegalStateException(module.getErrors());
+		}
+		return module;
+	}
+}
@@ -0,0 +1,24 @@
+package com.medallia.unsafe.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/** Assorted utility functions */
+class Resources {
+	/** Load the a resource file as string using the specified class' classloader. */
+	static String load(Class<?> aClass, String name) {
+		final StringWriter sw = new StringWriter();
+		try (final InputStreamReader in = new InputStreamReader(aClass.getResourceAsStream(name))) {
+			char[] buffer = new char[4096];
+			int count;
+			while ( (count = in.read(buffer)) != -1 ) {
+				sw.write(buffer, 0, count);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sw.toString();
+	}
+}
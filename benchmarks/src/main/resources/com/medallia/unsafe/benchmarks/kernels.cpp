@@ -0,0 +1,54 @@
+#include <jni.h>
+
+// Used through NativeFunction.invoke() and FastCallShim
+extern "C" jint square(JNIEnv* env, jint x) {
+    return x * x;
+}
+
+jint square(JNIEnv* env, jobject self, jint x) {
+    return x * x;
+}
+
+jlong sumElements(JNIEnv* env, jobject self, jlongArray data) {
+    const jint len = env->GetArrayLength(data);
+    jlong* rawData = env->GetLongArrayElements(data, NULL);
+    jlong result = 0;
+    for (jint i = 0; i < len; ++i) result += rawData[i];
+    env->ReleaseLongArrayElements(data, rawData, JNI_ABORT);
+    return result;
+}
+
+jlong sumCritical(JNIEnv* env, jobject self, jlongArray data) {
+    const jint len = env->GetArrayLength(data);
+    jlong* rawData = (jlong*) env->GetPrimitiveArrayCritical(data, NULL);
+    jlong result = 0;
+    for (jint i = 0; i < len; ++i) result += rawData[i];
+    env->ReleasePrimitiveArrayCritical(data, rawData, JNI_ABORT);
+    return result;
+}
+
+jlong sumDirect(JNIEnv* env, jobject self, jobject data, jint len) {
+    const jlong* rawData = (const jlong*) env->GetDirectBufferAddress(data);
+    jlong result = 0;
+    for (jint i = 0; i < len; ++i) result += rawData[i];
+    return result;
+}
+
+jlong upcallLookup(JNIEnv* env, jobject self, jint n) {
+    const jmethodID method = env->GetMethodID(env->GetObjectClass(self), "identity", "(J)J");
+    jlong result = 0;
+    for (jint i = 0; i < n; ++i) result += env->CallLongMethod(self, method, (jlong) i);
+    return result;
+}
+
+jlong upcallCached(JNIEnv* env, jobject self, jint n) {
+    jlong result = 0;
+    for (jint i = 0; i < n; ++i) result += callbacks::identity(env, self, (jlong) i);
+    return result;
+}
+
+jlong upcallBatched(JNIEnv* env, jobject self, jint n) {
+    callbacks::consume_batch batch(env, self);
+    for (jint i = 0; i < n; ++i) batch.add((jlong) i);
+    return n;
+}
@@ -0,0 +1,178 @@
+#include "ArenaRuntime.h"
+
+#include <llvm/Support/DynamicLibrary.h>
+
+#include <algorithm>
+#include <atomic>
+#include <cstdlib>
+#include <vector>
+
+namespace {
+    std::atomic<int64_t> blockSize(1 << 20);
+    std::atomic<int64_t> totalCapacity(0);
+
+    struct Block {
+        char* start;
+        uint64_t size;
+        uint64_t position; // bytes in the blocks before this one
+    };
+
+    // The arena of a thread. Blocks are kept when they are released, so a thread stops allocating
+    // memory once its arena has grown to the peak it needs.
+    class Arena {
+        std::vector<Block> blocks;
+        uint64_t peak;
+
+        void select(uint32_t index, char* cursor) {
+            state.block = index;
+            state.cursor = cursor;
+            state.high = cursor;
+            state.limit = blocks[index].start + blocks[index].size;
+        }
+
+        // Folds the usage of the current block, up to its high water mark, into the peak
+        void updatePeak() {
+            const Block& current = blocks[state.block];
+            peak = std::max(peak, current.position + (std::max(state.high, state.cursor) - current.start));
+        }
+
+        // Adds a block with room for size bytes at the given alignment
+        void add(uint64_t size, uint64_t alignment) {
+            const uint64_t bytes = std::max<uint64_t>(blockSize.load(), size + alignment);
+            const Block block = { static_cast<char*>(malloc(bytes)), bytes,
+                                  blocks.empty() ? 0 : blocks.back().position + blocks.back().size };
+            if (!block.start) abort();
+            blocks.push_back(block);
+            totalCapacity += bytes;
+        }
+
+        static bool fits(char* cursor, char* limit, uint64_t size, uint64_t alignment) {
+            const uintptr_t start = ((uintptr_t) cursor + alignment - 1) & ~(uintptr_t) (alignment - 1);
+            return start + size <= (uintptr_t) limit;
+        }
+
+    public:
+        unsafe_arena_state state;
+
+        Arena() : peak(0) {
+            add(0, 1);
+            select(0, blocks[0].start);
+        }
+
+        ~Arena() {
+            for (const Block& block : blocks) {
+                free(block.start);
+                totalCapacity -= block.size;
+            }
+        }
+
+        void* allocateSlow(uint64_t size, uint64_t alignment) {
+            updatePeak();
+            // Skip the rest of the current block, reusing the next ones that are large enough
+            uint32_t next = state.block + 1;
+            while (next < blocks.size() && !fits(blocks[next].start, blocks[next].start + blocks[next].size, size, alignment)) {
+                next++;
+            }
+            if (next == blocks.size()) {
+                add(size, alignment);
+            }
+            select(next, blocks[next].start);
+            const uintptr_t start = ((uintptr_t) state.cursor + alignment - 1) & ~(uintptr_t) (alignment - 1);
+            state.cursor = (char*) (start + size);
+            return (void*) start;
+        }
+
+        void release(unsafe_arena_mark mark) {
+            updatePeak();
+            select(mark.block, mark.cursor);
+        }
+
+        void reset() {
+            release({ 0, blocks[0].start });
+        }
+
+        void trim() {
+            updatePeak();
+            if (state.block != 0 || state.cursor != blocks[0].start) return;
+            for (size_t i = 1; i < blocks.size(); i++) {
+                free(blocks[i].start);
+                totalCapacity -= blocks[i].size;
+            }
+            blocks.resize(1);
+        }
+
+        uint64_t used() const {
+            const Block& current = blocks[state.block];
+            return current.position + (state.cursor - current.start);
+        }
+
+        void stats(int64_t* stats) {
+            updatePeak();
+            stats[0] = used();
+            stats[1] = blocks.back().position + blocks.back().size;
+            stats[2] = peak;
+        }
+    };
+
+    thread_local Arena* arena = nullptr;
+
+    // Frees the arena when its thread exits
+    struct ArenaOwner {
+        ~ArenaOwner() {
+            delete arena;
+            arena = nullptr;
+        }
+    };
+    thread_local ArenaOwner owner;
+
+    Arena& current() {
+        if (!arena) {
+            arena = new Arena();
+            (void) &owner; // constructs the owner of this thread
+        }
+        return *arena;
+    }
+}
+
+unsafe_arena_state* unsafe_arena_current() {
+    return &current().state;
+}
+
+void* unsafe_arena_allocate_slow(uint64_t size, uint64_t alignment) {
+    return current().allocateSlow(size, alignment);
+}
+
+void unsafe_arena_release(unsafe_arena_mark mark) {
+    current().release(mark);
+}
+
+void unsafe_arena_reset() {
+    current().reset();
+}
+
+void unsafe_arena_trim() {
+    current().trim();
+}
+
+void unsafe_arena_stats(int64_t* stats) {
+    current().stats(stats);
+}
+
+int64_t unsafe_arena_total_capacity() {
+    return totalCapacity.load();
+}
+
+void unsafe_arena_set_block_size(int64_t bytes) {
+    blockSize = bytes;
+}
+
+void registerArenaRuntimeSymbols() {
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_current", (void*) &unsafe_arena_current);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_allocate_slow", (void*) &unsafe_arena_allocate_slow);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_release", (void*) &unsafe_arena_release);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_reset", (void*) &unsafe_arena_reset);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_trim", (void*) &unsafe_arena_trim);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_stats", (void*) &unsafe_arena_stats);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_total_capacity", (void*) &unsafe_arena_total_capacity);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_arena_set_block_size", (void*) &unsafe_arena_set_block_size);
+}
@@ -0,0 +1,54 @@
+#include <stdint.h>
+
+#ifndef _Included_ArenaRuntime
+#define _Included_ArenaRuntime
+
+// C entry points of the per-thread scratch arenas. These are made visible to JIT compiled code by
+// registerArenaRuntimeSymbols() and wrapped by the inline functions in unsafe/arena.h, which must declare
+// the same structs.
+extern "C" {
+    // The bump pointer of the current block of a thread's arena, read and advanced inline by compiled code.
+    // Releases within the block raise high to the cursor they move back from, for the peak usage.
+    struct unsafe_arena_state {
+        char* cursor;
+        char* limit;
+        char* high;
+        uint32_t block;
+    };
+
+    // A position in an arena, everything allocated after it is freed by unsafe_arena_release()
+    struct unsafe_arena_mark {
+        uint32_t block;
+        char* cursor;
+    };
+
+    // Returns the arena of the current thread, creating it on first use
+    unsafe_arena_state* unsafe_arena_current();
+
+    // Allocates from the next block of the current thread's arena, adding one if needed.
+    // Called when the current block does not have room for the allocation.
+    void* unsafe_arena_allocate_slow(uint64_t size, uint64_t alignment);
+
+    // Frees everything allocated in the current thread's arena after the mark, keeping the blocks
+    void unsafe_arena_release(unsafe_arena_mark mark);
+
+    // Frees everything allocated in the current thread's arena
+    void unsafe_arena_reset();
+
+    // Frees the blocks of the current thread's arena beyond the first, which must be empty
+    void unsafe_arena_trim();
+
+    // Writes the bytes in use, the capacity and the peak bytes in use of the current thread's arena
+    void unsafe_arena_stats(int64_t* stats);
+
+    // Sum of the capacities of the arenas of all live threads
+    int64_t unsafe_arena_total_capacity();
+
+    // Size of the blocks added to arenas from now on
+    void unsafe_arena_set_block_size(int64_t bytes);
+}
+
+// Registers the runtime entry points so that the execution engine can resolve them
+void registerArenaRuntimeSymbols();
+
+#endif
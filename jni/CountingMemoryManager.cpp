@@ -0,0 +1,16 @@
+#include "CountingMemoryManager.h"
+
+CountingMemoryManager::CountingMemoryManager() : codeBytes(0), dataBytes(0) {
+}
+
+uint8_t* CountingMemoryManager::allocateCodeSection(uintptr_t size, unsigned alignment, unsigned sectionID,
+                                                    llvm::StringRef sectionName) {
+    codeBytes += size;
+    return llvm::SectionMemoryManager::allocateCodeSection(size, alignment, sectionID, sectionName);
+}
+
+uint8_t* CountingMemoryManager::allocateDataSection(uintptr_t size, unsigned alignment, unsigned sectionID,
+                                                    llvm::StringRef sectionName, bool isReadOnly) {
+    dataBytes += size;
+    return llvm::SectionMemoryManager::allocateDataSection(size, alignment, sectionID, sectionName, isReadOnly);
+}
@@ -0,0 +1,25 @@
+#include <llvm/ExecutionEngine/SectionMemoryManager.h>
+
+#include <atomic>
+#include <cstdint>
+
+#ifndef _Included_CountingMemoryManager
+#define _Included_CountingMemoryManager
+
+// A SectionMemoryManager that keeps track of the bytes allocated for the code and data sections of a module,
+// so that the native footprint of compiled modules can be reported and bounded from Java.
+// Sizes are the ones requested by the linker, the pages backing them are rounded up by the base class.
+class CountingMemoryManager : public llvm::SectionMemoryManager {
+    std::atomic<uint64_t> codeBytes;
+    std::atomic<uint64_t> dataBytes;
+public:
+    CountingMemoryManager();
+    uint8_t* allocateCodeSection(uintptr_t size, unsigned alignment, unsigned sectionID,
+                                 llvm::StringRef sectionName) override;
+    uint8_t* allocateDataSection(uintptr_t size, unsigned alignment, unsigned sectionID,
+                                 llvm::StringRef sectionName, bool isReadOnly) override;
+    uint64_t getCodeBytes() const { return codeBytes; }
+    uint64_t getDataBytes() const { return dataBytes; }
+};
+
+#endif
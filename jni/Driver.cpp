@@ -1,5 +1,15 @@
+#include "ArenaRuntime.h"
 #include "Driver.h"
 #include "NativeModule.h"
+#include "ParallelRuntime.h"
+#include "PerfMap.h"
+#include "ProfileRuntime.h"
+
+#include <llvm/ADT/StringMap.h>
+#include <llvm/Support/Host.h>
+#if defined(__x86_64__) || defined(__i386__)
+#include <cpuid.h>
+#endif
 
 // Mapping from JNI types as seen by LLVM to Java types
 static const std::map<std::string,std::string> LLVM_TO_JAVA_TYPES {
@@ -15,7 +25,9 @@ static const std::map<std::string,std::string> LLVM_TO_JAVA_TYPES {
     { "class._jdoubleArray" , "[D"              }
 };
 
-// Commonly used jmethodIDs and jfieldIDs
+// Commonly used jmethodIDs and jfieldIDs.
+// These are written once by initializeNativeCode() while Driver's class initialization lock is held
+// and are read-only afterwards, so they can be read without synchronization by concurrent compiles.
 namespace IDS {
     // unsafe.NativeFunction
     namespace nativeFunction {
@@ -32,6 +44,12 @@ namespace IDS {
         static jfieldID modulePtrFldId;
     }
 
+    // unsafe.OptimizationRemark
+    namespace optimizationRemark {
+        static jclass jClass;
+        static jmethodID constructor;
+    }
+
     // java.lang.Class
     namespace javaClass {
         static jclass jClass;
@@ -63,6 +81,62 @@ const std::string getClassName(JNIEnv* env, jclass aClass) {
     return toString(env,(jstring) env->CallObjectMethod(aClass, IDS::javaClass::getNameMtdId));
 }
 
+// Returns the CPU features of the host usable by compiled code, with the names of -target-feature.
+// Features whose registers are not saved by the OS, such as AVX on a kernel without XSAVE support, are left out.
+static std::vector<std::string> getHostFeatures() {
+    std::vector<std::string> features;
+#if defined(__x86_64__) || defined(__i386__)
+    unsigned eax, ebx, ecx, edx;
+    if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx)) {
+        return features;
+    }
+    const bool sse42 = ecx & bit_SSE4_2;
+    const bool popcnt = ecx & bit_POPCNT;
+    const bool fma = ecx & bit_FMA;
+    const bool f16c = ecx & bit_F16C;
+    bool avx = false, avx512 = false;
+    if ((ecx & bit_OSXSAVE) && (ecx & bit_AVX)) {
+        unsigned xcr0, xcr0High;
+        __asm__("xgetbv" : "=a"(xcr0), "=d"(xcr0High) : "c"(0));
+        avx = (xcr0 & 0x6) == 0x6; // XMM and YMM state
+        avx512 = (xcr0 & 0xe6) == 0xe6; // also opmask and ZMM state
+    }
+    unsigned maxLeaf = __get_cpuid_max(0, nullptr);
+    unsigned leaf7 = 0;
+    if (maxLeaf >= 7) {
+        __cpuid_count(7, 0, eax, leaf7, ecx, edx);
+    }
+    bool lzcnt = false;
+    if (__get_cpuid(0x80000001, &eax, &ebx, &ecx, &edx)) {
+        lzcnt = ecx & bit_LZCNT;
+    }
+
+    if (sse42) features.push_back("sse4.2");
+    if (popcnt) features.push_back("popcnt");
+    if (lzcnt) features.push_back("lzcnt");
+    if (leaf7 & bit_BMI) features.push_back("bmi");
+    if (leaf7 & bit_BMI2) features.push_back("bmi2");
+    if (avx) {
+        features.push_back("avx");
+        if (fma) features.push_back("fma");
+        if (f16c) features.push_back("f16c");
+        if (leaf7 & bit_AVX2) features.push_back("avx2");
+    }
+    if (avx512) {
+        if (leaf7 & bit_AVX512F) features.push_back("avx512f");
+        if (leaf7 & bit_AVX512CD) features.push_back("avx512cd");
+    }
+#else
+    llvm::StringMap<bool> hostFeatures;
+    if (llvm::sys::getHostCPUFeatures(hostFeatures)) {
+        for (const auto& feature : hostFeatures) {
+            if (feature.getValue()) features.push_back(feature.getKey());
+        }
+    }
+#endif
+    return features;
+}
+
 extern "C" {
     /*
      * Class:     com.medallia.unsafe.Driver
@@ -74,6 +148,11 @@ extern "C" {
         llvm::llvm_start_multithreaded();
         llvm::InitializeNativeTarget();
 
+        // Make the runtime available to compiled code
+        registerArenaRuntimeSymbols();
+        registerParallelRuntimeSymbols();
+        registerProfileRuntimeSymbols();
+
         // Lookup commonly used method and field ids.
         // Classes are pinned so the GC does not collect them
         IDS::nativeFunction::jClass = (jclass) env->NewGlobalRef(env->FindClass("com/medallia/unsafe/NativeFunction"));
@@ -85,6 +164,9 @@ extern "C" {
         IDS::nativeModule::constructor = env->GetMethodID(IDS::nativeModule::jClass, "<init>", "(JLjava/lang/String;)V");
         IDS::nativeModule::modulePtrFldId = env->GetFieldID(IDS::nativeModule::jClass, "modulePtr", "J");
 
+        IDS::optimizationRemark::jClass = (jclass) env->NewGlobalRef(env->FindClass("com/medallia/unsafe/OptimizationRemark"));
+        IDS::optimizationRemark::constructor = env->GetMethodID(IDS::optimizationRemark::jClass, "<init>", "(Ljava/lang/String;Ljava/lang/String;ILjava/lang/String;)V");
+
         IDS::javaClass::jClass = (jclass) env->NewGlobalRef(env->FindClass("java/lang/Class"));
         IDS::javaClass::getNameMtdId = env->GetMethodID(IDS::javaClass::jClass, "getName", "()Ljava/lang/String;");
         
@@ -95,20 +177,27 @@ extern "C" {
     /*
      * Class:     com.medallia.unsafe.Driver
      * Method:    compileInMemory0
-     * Signature: (Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;)Lcom/medallia/unsafe/NativeModule;
+     * Signature: (Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;I)Lcom/medallia/unsafe/NativeModule;
      */
     JNIEXPORT jobject JNICALL Java_com_medallia_unsafe_Driver_compileInMemory0
-    (JNIEnv * env, jclass clazz, jstring fileName, jstring sourceCode, jobjectArray compilerArgs) {
+    (JNIEnv * env, jclass clazz, jstring fileName, jstring sourceCode, jobjectArray compilerArgs, jint options) {
         std::vector<std::string> args;
         const jsize nArgs = env->GetArrayLength(compilerArgs);
         for (jsize i = 0; i < nArgs; i++) {
-            args.push_back(toString(env, static_cast<jstring>(env->GetObjectArrayElement(compilerArgs, i))));
+            const jstring arg = static_cast<jstring>(env->GetObjectArrayElement(compilerArgs, i));
+            args.push_back(toString(env, arg));
+            env->DeleteLocalRef(arg);
         }
 
+        // Each NativeModule owns its LLVMContext, compiler instance and execution engine, so any number of threads
+        // can compile at the same time. The only process wide lock below is the PerfMapListener mutex, taken for
+        // every emitted object once the perf map is enabled. The Java side then registers the module with
+        // ModuleRegistry, which takes its global lock.
         NativeModule* nativeModule = new NativeModule(
             toString(env, fileName),
             toString(env, sourceCode),
-            args
+            args,
+            (unsigned) options
         );
         
         // Create and initinalize a new unsafe.NativeModule
@@ -249,7 +338,7 @@ extern "C" {
     JNIEXPORT jobjectArray JNICALL Java_com_medallia_unsafe_Driver_getFunctions
     (JNIEnv * env, jclass clazz, jobject aNativeModule) {
         // Get a reference to a NativeModule
-        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
 
         // Get all native functions
         const std::vector<llvm::Function*> nativeFunctions = nativeModule->getFunctions();
@@ -261,7 +350,7 @@ extern "C" {
                                                               (jlong)nativeFunctions[i],
                                                               env->NewStringUTF(nativeFunctions[i]->getName().str().c_str()),
                                                               aNativeModule,
-                                                              nativeFunctions[i]->isIntrinsic() ? 0L : nativeModule->getPointerToFunction(nativeFunctions[i]));
+                                                              nativeFunctions[i]->isIntrinsic() || nativeModule->hasOption(LAZY) ? 0L : nativeModule->getPointerToFunction(nativeFunctions[i]));
             env->SetObjectArrayElement(result, i, javaNativeFunction);
         }
 
@@ -269,6 +358,182 @@ extern "C" {
     }
 
 
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getPointerToFunction
+     * Signature: (Lcom/medallia/unsafe/NativeFunction;)J
+     */
+    JNIEXPORT jlong JNICALL Java_com_medallia_unsafe_Driver_getPointerToFunction
+    (JNIEnv * env, jclass clazz, jobject aNativeFunction) {
+        const jobject aNativeModule = env->GetObjectField(aNativeFunction, IDS::nativeFunction::parentFldId);
+        NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        llvm::Function* function = (llvm::Function*) env->GetLongField(aNativeFunction, IDS::nativeFunction::functionPtrFldId);
+        return function->isIntrinsic() ? 0L : (jlong) nativeModule->getPointerToFunction(function);
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getCompileStatistics
+     * Signature: (Lcom/medallia/unsafe/NativeModule;)[J
+     */
+    JNIEXPORT jlongArray JNICALL Java_com_medallia_unsafe_Driver_getCompileStatistics
+    (JNIEnv * env, jclass clazz, jobject aNativeModule) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+
+        // Same order as the CompileStatistics constructor
+        const jlong statistics[] = {
+            (jlong) nativeModule->frontendTime.count(),
+            (jlong) nativeModule->engineCreationTime.count(),
+            (jlong) nativeModule->optimizationTime.count(),
+            (jlong) nativeModule->codeGenerationTime.count(),
+            (jlong) nativeModule->frontendIRBytes,
+            (jlong) nativeModule->optimizedIRBytes
+        };
+        const jsize length = sizeof(statistics) / sizeof(statistics[0]);
+        jlongArray result = env->NewLongArray(length);
+        env->SetLongArrayRegion(result, 0, length, statistics);
+        return result;
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getNativeFootprint
+     * Signature: (Lcom/medallia/unsafe/NativeModule;)[J
+     */
+    JNIEXPORT jlongArray JNICALL Java_com_medallia_unsafe_Driver_getNativeFootprint
+    (JNIEnv * env, jclass clazz, jobject aNativeModule) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        const NativeFootprint footprint = nativeModule->getFootprint();
+
+        // Same order as the NativeFootprint constructor
+        const jlong values[] = { (jlong) footprint.irBytes, (jlong) footprint.codeBytes, (jlong) footprint.dataBytes };
+        jlongArray result = env->NewLongArray(3);
+        env->SetLongArrayRegion(result, 0, 3, values);
+        return result;
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getOptimizedIR
+     * Signature: (Lcom/medallia/unsafe/NativeModule;)Ljava/lang/String;
+     */
+    JNIEXPORT jstring JNICALL Java_com_medallia_unsafe_Driver_getOptimizedIR
+    (JNIEnv * env, jclass clazz, jobject aNativeModule) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        if (!nativeModule->hasOption(INTROSPECTION)) return nullptr;
+        return env->NewStringUTF(nativeModule->optimizedIR.c_str());
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getAssembly
+     * Signature: (Lcom/medallia/unsafe/NativeModule;)Ljava/lang/String;
+     */
+    JNIEXPORT jstring JNICALL Java_com_medallia_unsafe_Driver_getAssembly
+    (JNIEnv * env, jclass clazz, jobject aNativeModule) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        if (!nativeModule->hasOption(INTROSPECTION)) return nullptr;
+        return env->NewStringUTF(nativeModule->assembly.c_str());
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getBitcode
+     * Signature: (Lcom/medallia/unsafe/NativeModule;)[B
+     */
+    JNIEXPORT jbyteArray JNICALL Java_com_medallia_unsafe_Driver_getBitcode
+    (JNIEnv * env, jclass clazz, jobject aNativeModule) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        if (!nativeModule->hasOption(BITCODE)) return nullptr;
+        const std::string& bitcode = nativeModule->bitcode;
+        jbyteArray result = env->NewByteArray((jsize) bitcode.size());
+        env->SetByteArrayRegion(result, 0, (jsize) bitcode.size(), (const jbyte*) bitcode.data());
+        return result;
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    loadBitcode0
+     * Signature: (Ljava/lang/String;[B)Lcom/medallia/unsafe/NativeModule;
+     */
+    JNIEXPORT jobject JNICALL Java_com_medallia_unsafe_Driver_loadBitcode0
+    (JNIEnv * env, jclass clazz, jstring fileName, jbyteArray bitcode) {
+        std::string bytes(env->GetArrayLength(bitcode), '\0');
+        env->GetByteArrayRegion(bitcode, 0, (jsize) bytes.size(), (jbyte*) &bytes[0]);
+
+        NativeModule* nativeModule = new NativeModule(toString(env, fileName), bytes);
+        return env->NewObject(IDS::nativeModule::jClass, IDS::nativeModule::constructor,
+                              (jlong) nativeModule,
+                              env->NewStringUTF(nativeModule->errors.c_str()));
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getOptimizationRemarks
+     * Signature: (Lcom/medallia/unsafe/NativeModule;)[Lcom/medallia/unsafe/OptimizationRemark;
+     */
+    JNIEXPORT jobjectArray JNICALL Java_com_medallia_unsafe_Driver_getOptimizationRemarks
+    (JNIEnv * env, jclass clazz, jobject aNativeModule) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        if (!nativeModule->hasOption(INTROSPECTION)) return nullptr;
+
+        const std::vector<OptimizationRemark>& remarks = nativeModule->remarks;
+        jobjectArray result = env->NewObjectArray((jsize)remarks.size(), IDS::optimizationRemark::jClass, nullptr);
+        for (jsize i = 0; i < remarks.size(); ++i) {
+            const jobject javaRemark = env->NewObject(IDS::optimizationRemark::jClass, IDS::optimizationRemark::constructor,
+                                                      env->NewStringUTF(remarks[i].passName.c_str()),
+                                                      env->NewStringUTF(remarks[i].functionName.c_str()),
+                                                      (jint) remarks[i].line,
+                                                      env->NewStringUTF(remarks[i].message.c_str()));
+            env->SetObjectArrayElement(result, i, javaRemark);
+            env->DeleteLocalRef(javaRemark);
+        }
+        return result;
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    writeProfile
+     * Signature: (Lcom/medallia/unsafe/NativeModule;Ljava/lang/String;)Ljava/lang/String;
+     */
+    JNIEXPORT jstring JNICALL Java_com_medallia_unsafe_Driver_writeProfile
+    (JNIEnv * env, jclass clazz, jobject aNativeModule, jstring path) {
+        const NativeModule* nativeModule = (NativeModule*) env->GetLongField(aNativeModule, IDS::nativeModule::modulePtrFldId);
+        if (!nativeModule->hasOption(PROFILE_INSTRUMENTATION)) {
+            env->ThrowNew(env->FindClass("java/lang/IllegalStateException"), "module was not compiled with PROFILE_INSTRUMENTATION");
+            return nullptr;
+        }
+        const std::string error = nativeModule->writeProfile(toString(env, path));
+        return error.empty() ? nullptr : env->NewStringUTF(error.c_str());
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    enablePerfMap0
+     * Signature: (Z)V
+     */
+    JNIEXPORT void JNICALL Java_com_medallia_unsafe_Driver_enablePerfMap0
+    (JNIEnv * env, jclass clazz, jboolean jitDump) {
+        PerfMapListener::enable(jitDump);
+    }
+
+    /*
+     * Class:     unsafe_Driver
+     * Method:    getHostFeatures0
+     * Signature: ()[Ljava/lang/String;
+     */
+    JNIEXPORT jobjectArray JNICALL Java_com_medallia_unsafe_Driver_getHostFeatures0
+    (JNIEnv * env, jclass clazz) {
+        const std::vector<std::string> features = getHostFeatures();
+        jobjectArray result = env->NewObjectArray((jsize) features.size(), env->FindClass("java/lang/String"), nullptr);
+        for (size_t i = 0; i < features.size(); i++) {
+            jstring feature = env->NewStringUTF(features[i].c_str());
+            env->SetObjectArrayElement(result, (jsize) i, feature);
+            env->DeleteLocalRef(feature);
+        }
+        return result;
+    }
+
     /*
      * Class:     unsafe_Driver
      * Method:    delete
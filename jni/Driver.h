@@ -10,10 +10,10 @@ extern "C" {
 /*
  * Class:     unsafe_Driver
  * Method:    compileInMemory0
- * Signature: (Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;)Lcom/medallia/unsafe/NativeModule;
+ * Signature: (Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;I)Lcom/medallia/unsafe/NativeModule;
  */
 JNIEXPORT jobject JNICALL Java_com_medallia_unsafe_Driver_compileInMemory0
-  (JNIEnv *, jclass, jstring, jstring, jobjectArray);
+  (JNIEnv *, jclass, jstring, jstring, jobjectArray, jint);
 
 /*
  * Class:     unsafe_Driver
@@ -39,6 +39,94 @@ JNIEXPORT jobjectArray JNICALL Java_com_medallia_unsafe_Driver_getFunctions
 JNIEXPORT void JNICALL Java_com_medallia_unsafe_Driver_delete
   (JNIEnv *, jclass, jobject);
 
+/*
+ * Class:     unsafe_Driver
+ * Method:    getPointerToFunction
+ * Signature: (Lcom/medallia/unsafe/NativeFunction;)J
+ */
+JNIEXPORT jlong JNICALL Java_com_medallia_unsafe_Driver_getPointerToFunction
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getCompileStatistics
+ * Signature: (Lcom/medallia/unsafe/NativeModule;)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_com_medallia_unsafe_Driver_getCompileStatistics
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getNativeFootprint
+ * Signature: (Lcom/medallia/unsafe/NativeModule;)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_com_medallia_unsafe_Driver_getNativeFootprint
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getOptimizedIR
+ * Signature: (Lcom/medallia/unsafe/NativeModule;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_com_medallia_unsafe_Driver_getOptimizedIR
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getAssembly
+ * Signature: (Lcom/medallia/unsafe/NativeModule;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_com_medallia_unsafe_Driver_getAssembly
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getBitcode
+ * Signature: (Lcom/medallia/unsafe/NativeModule;)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_com_medallia_unsafe_Driver_getBitcode
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    loadBitcode0
+ * Signature: (Ljava/lang/String;[B)Lcom/medallia/unsafe/NativeModule;
+ */
+JNIEXPORT jobject JNICALL Java_com_medallia_unsafe_Driver_loadBitcode0
+  (JNIEnv *, jclass, jstring, jbyteArray);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getOptimizationRemarks
+ * Signature: (Lcom/medallia/unsafe/NativeModule;)[Lcom/medallia/unsafe/OptimizationRemark;
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_medallia_unsafe_Driver_getOptimizationRemarks
+  (JNIEnv *, jclass, jobject);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    writeProfile
+ * Signature: (Lcom/medallia/unsafe/NativeModule;Ljava/lang/String;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_com_medallia_unsafe_Driver_writeProfile
+  (JNIEnv *, jclass, jobject, jstring);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    enablePerfMap0
+ * Signature: (Z)V
+ */
+JNIEXPORT void JNICALL Java_com_medallia_unsafe_Driver_enablePerfMap0
+  (JNIEnv *, jclass, jboolean);
+
+/*
+ * Class:     unsafe_Driver
+ * Method:    getHostFeatures0
+ * Signature: ()[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_medallia_unsafe_Driver_getHostFeatures0
+  (JNIEnv *, jclass);
+
 /*
  * Class:     unsafe_Driver
  * Method:    initializeNativeCode
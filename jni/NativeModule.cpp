@@ -1,4 +1,6 @@
 #include "NativeModule.h"
+#include "CountingMemoryManager.h"
+#include "PerfMap.h"
 #include <clang/Driver/Driver.h>
 #include <clang/Driver/Job.h>
 #include <clang/Driver/Tool.h>
@@ -36,8 +38,20 @@
 #include <llvm/Support/TargetRegistry.h>
 #include <llvm/Target/TargetLibraryInfo.h>
 #include <llvm/ExecutionEngine/GenericValue.h>
+#include <llvm/IR/Constants.h>
+#include <llvm/IR/DiagnosticPrinter.h>
+#include <llvm/ProfileData/InstrProfWriter.h>
+#include <llvm/Support/FileSystem.h>
+#include <llvm/Support/FormattedStream.h>
+#include <llvm/Target/TargetMachine.h>
+#include <llvm/Transforms/Utils/Cloning.h>
+#include <llvm/Bitcode/ReaderWriter.h>
+#include <llvm/ADT/Triple.h>
 
 #include <chrono>
+#include <mutex>
+#include <set>
+#include <cstring>
 
 using namespace clang;
 
@@ -130,10 +144,117 @@ public:
     ~arg_vector() { for (const char * elem : *this) std::free((void*)elem); }
 };
 
-NativeModule::NativeModule(std::string _fileName, std::string _sourceCode, std::vector<std::string> _compilerArgs) :
+// Passes whose remarks are kept, see NativeModule::remarks
+static const char* const REMARK_PASSES[] = { "loop-vectorize", "inline" };
+
+void NativeModule::handleDiagnostic(const llvm::DiagnosticInfo &diagnostic, void *context) {
+    NativeModule* nativeModule = static_cast<NativeModule*>(context);
+    if (diagnostic.getKind() == llvm::DK_OptimizationRemark) {
+        const llvm::DiagnosticInfoOptimizationRemark& remark = static_cast<const llvm::DiagnosticInfoOptimizationRemark&>(diagnostic);
+        for (const char* passName : REMARK_PASSES) {
+            if (std::strcmp(remark.getPassName(), passName) == 0) {
+                nativeModule->remarks.push_back(OptimizationRemark {
+                    passName,
+                    remark.getFunction().getName().str(),
+                    remark.getDebugLoc().getLine(),
+                    remark.getMsg().str()
+                });
+            }
+        }
+    } else if (diagnostic.getSeverity() == llvm::DS_Error) {
+        // Without a handler, the context would print the error and exit the process
+        llvm::raw_string_ostream errs(nativeModule->errors);
+        llvm::DiagnosticPrinterRawOStream printer(errs);
+        diagnostic.print(printer);
+        errs << "\n";
+    }
+}
+
+// Generates the assembly of the optimized module. Code generation modifies the IR,
+// so it runs on a copy, before the execution engine generates the code it will run.
+void NativeModule::emitAssembly() {
+    std::unique_ptr<llvm::Module> copy(llvm::CloneModule(module));
+    llvm::PassManager passes;
+    passes.add(new llvm::DataLayoutPass(copy.get()));
+
+    llvm::raw_string_ostream out(assembly);
+    llvm::formatted_raw_ostream formattedOut(out);
+    if (executionEngine->getTargetMachine()->addPassesToEmitFile(passes, formattedOut, llvm::TargetMachine::CGFT_AssemblyFile)) {
+        formattedOut << "; the target does not support emitting assembly\n";
+        return;
+    }
+    passes.run(*copy);
+}
+
+// Finds the counters of every instrumented function. Counters of internal functions are private, so they
+// are made external to be able to look up their address once the module is loaded. This is done before
+// optimization, which could otherwise split private counter arrays into separate variables.
+void NativeModule::exposeProfileCounters() {
+    for (llvm::GlobalVariable& data : module->getGlobalList()) {
+        if (!data.hasSection() || data.getSection().find("llvm_prf_data") == std::string::npos) continue;
+
+        // { i32 NameSize, i32 NumCounters, i64 FuncHash, i8* Name, i64* Counters }
+        const llvm::ConstantStruct* fields = llvm::dyn_cast_or_null<llvm::ConstantStruct>(data.getInitializer());
+        if (!fields || fields->getNumOperands() != 5) continue;
+        const llvm::ConstantInt* numCounters = llvm::dyn_cast<llvm::ConstantInt>(fields->getOperand(1));
+        const llvm::ConstantInt* hash = llvm::dyn_cast<llvm::ConstantInt>(fields->getOperand(2));
+        const llvm::GlobalVariable* name = llvm::dyn_cast<llvm::GlobalVariable>(fields->getOperand(3)->stripPointerCasts());
+        llvm::GlobalVariable* counters = llvm::dyn_cast<llvm::GlobalVariable>(fields->getOperand(4)->stripPointerCasts());
+        if (!numCounters || !hash || !name || !counters) continue;
+        const llvm::ConstantDataSequential* nameChars = llvm::dyn_cast<llvm::ConstantDataSequential>(name->getInitializer());
+        if (!nameChars) continue;
+
+        if (counters->hasLocalLinkage()) {
+            counters->setLinkage(llvm::GlobalValue::ExternalLinkage);
+            counters->setVisibility(llvm::GlobalValue::HiddenVisibility);
+        }
+        profiledFunctions.push_back(ProfiledFunction {
+            nameChars->getAsString().str(),
+            hash->getZExtValue(),
+            counters->getName().str(),
+            numCounters->getZExtValue(),
+            nullptr
+        });
+    }
+}
+
+std::string NativeModule::writeProfile(const std::string& path) const {
+    llvm::InstrProfWriter writer;
+    for (const ProfiledFunction& function : profiledFunctions) {
+        if (!function.counters) continue;
+        // Counters are updated without synchronization, the copy is a best effort snapshot
+        const std::vector<uint64_t> counts(function.counters, function.counters + function.numCounters);
+        if (auto error = writer.addFunctionCounts(function.name, function.hash, counts)) {
+            return function.name + ": " + error.message();
+        }
+    }
+
+    std::string errorInfo;
+    llvm::raw_fd_ostream out(path.c_str(), errorInfo, llvm::sys::fs::F_None);
+    if (!errorInfo.empty()) {
+        return errorInfo;
+    }
+    writer.write(out);
+    return "";
+}
+
+static uint64_t estimateIRBytes(const llvm::Module& module);
+
+NativeModule::NativeModule(std::string _fileName, std::string _sourceCode, std::vector<std::string> _compilerArgs, unsigned _options) :
+memoryManager(nullptr),
 fileName(_fileName),
 sourceCode(_sourceCode),
-compilerArgs(_compilerArgs) {
+compilerArgs(_compilerArgs),
+options(_options),
+globalsRequired(false),
+frontendTime(0),
+engineCreationTime(0),
+optimizationTime(0),
+codeGenerationTime(0),
+frontendIRBytes(0),
+optimizedIRBytes(0) {
+    typedef std::chrono::steady_clock Clock;
+    Clock::time_point phaseStart = Clock::now();
     
 	// Arguments to pass to the clang frontend
     arg_vector args;
@@ -143,6 +264,15 @@ compilerArgs(_compilerArgs) {
     
     // We'll fake the contents of this file later
 	args.push_back(strdup(fileName.c_str()));
+
+    // The code generator must target the same CPU features as the frontend, which only defines their macros
+    for (size_t i = 0; i + 1 < compilerArgs.size(); i++) {
+        if (compilerArgs[i] == "-target-cpu") {
+            targetCPU = compilerArgs[++i];
+        } else if (compilerArgs[i] == "-target-feature") {
+            targetFeatures.push_back(compilerArgs[++i]);
+        }
+    }
     
 	// The compiler invocation needs a DiagnosticsEngine so it can report problems
     llvm::raw_string_ostream errs(errors);
@@ -187,23 +317,133 @@ compilerArgs(_compilerArgs) {
     
 	// Create an action and make the compiler instance carry it out
 	llvm::OwningPtr<clang::CodeGenAction> codeGenAction(new clang::EmitLLVMOnlyAction(&context));
-	if (!Clang.ExecuteAction(*codeGenAction))
+	const bool frontendSucceeded = Clang.ExecuteAction(*codeGenAction);
+    frontendTime = Clock::now() - phaseStart;
+	if (!frontendSucceeded)
 		return;
 
 	// Grab the module built by the EmitLLVMOnlyAction (will be owned by the execution engine)
 	module = codeGenAction->takeModule();
-    
+    frontendIRBytes = estimateIRBytes(*module);
+
+    phaseStart = Clock::now();
+    const bool engineCreated = createExecutionEngine(errs);
+    engineCreationTime = Clock::now() - phaseStart;
+    if (!engineCreated) {
+        return;
+    }
+
+    // Functions are optimized and compiled when they are first requested
+    if (hasOption(LAZY)) {
+        splitFunctions();
+        return;
+    }
+
+    phaseStart = Clock::now();
+    optimize(module);
+    optimizationTime = Clock::now() - phaseStart;
+    optimizedIRBytes = estimateIRBytes(*module);
+
+    if (hasOption(INTROSPECTION)) {
+        llvm::raw_string_ostream irOut(optimizedIR);
+        module->print(irOut, nullptr);
+        irOut.flush();
+        emitAssembly();
+    }
+
+    // Code generation modifies the IR, so the bitcode is written before
+    if (hasOption(BITCODE)) {
+        llvm::raw_string_ostream bitcodeOut(bitcode);
+        llvm::WriteBitcodeToFile(module, bitcodeOut);
+        bitcodeOut.flush();
+    }
+
+    phaseStart = Clock::now();
+    generateCode();
+    codeGenerationTime = Clock::now() - phaseStart;
+}
+
+NativeModule::NativeModule(std::string _fileName, const std::string& _bitcode) :
+memoryManager(nullptr),
+fileName(_fileName),
+options(0),
+globalsRequired(false),
+frontendTime(0),
+engineCreationTime(0),
+optimizationTime(0),
+codeGenerationTime(0),
+frontendIRBytes(0),
+optimizedIRBytes(0) {
+    typedef std::chrono::steady_clock Clock;
+    llvm::raw_string_ostream errs(errors);
+
+    std::unique_ptr<llvm::MemoryBuffer> buffer(llvm::MemoryBuffer::getMemBuffer(_bitcode, fileName, false));
+    llvm::ErrorOr<llvm::Module*> parsed = llvm::parseBitcodeFile(buffer.get(), context);
+    if (!parsed) {
+        errs << "Cannot read bitcode: " << parsed.getError().message() << "\n";
+        return;
+    }
+    module = parsed.get();
+
+    // Bitcode is target specific, e.g. it was compiled by a build machine with a different OS
+    const std::string processTriple = llvm::Triple::normalize(llvm::sys::getProcessTriple());
+    if (llvm::Triple::normalize(module->getTargetTriple()) != processTriple) {
+        errs << "Bitcode compiled for " << module->getTargetTriple() << ", expected " << processTriple << "\n";
+        delete module;
+        return;
+    }
+    optimizedIRBytes = estimateIRBytes(*module);
+
+    Clock::time_point phaseStart = Clock::now();
+    const bool engineCreated = createExecutionEngine(errs);
+    engineCreationTime = Clock::now() - phaseStart;
+    if (!engineCreated) {
+        return;
+    }
+
+    // The bitcode was optimized before it was written
+    phaseStart = Clock::now();
+    generateCode();
+    codeGenerationTime = Clock::now() - phaseStart;
+}
+
+// Creates the execution engine, which takes ownership of the module
+bool NativeModule::createExecutionEngine(llvm::raw_ostream& errs) {
     std::string ErrStr;
+    memoryManager = new CountingMemoryManager();
     executionEngine.reset(llvm::EngineBuilder(module)
     .setErrorStr(&ErrStr)
     .setUseMCJIT(true)
+    .setMCJITMemoryManager(memoryManager)
     .setOptLevel(llvm::CodeGenOpt::Aggressive)
+    .setMCPU(targetCPU)
+    .setMAttrs(targetFeatures)
     .create());
     if (!executionEngine) {
         errs <<  "Cannot create execution engine: " <<  ErrStr << "\n";
-        return;
+        return false;
     }
-    
+    return true;
+}
+
+NativeModule::~NativeModule() {
+    // Modules that were never materialized are not owned by the execution engine
+    for (llvm::Module* pending : pendingModules) {
+        delete pending;
+    }
+}
+
+// Runs the standard -O3 pipeline plus vectorization and LTO passes
+void NativeModule::optimize(llvm::Module* module) {
+    if (hasOption(PROFILE_INSTRUMENTATION)) {
+        exposeProfileCounters();
+    }
+
+    // Collect the remarks of the optimization passes
+    if (hasOption(INTROSPECTION)) {
+        context.setDiagnosticHandler(&NativeModule::handleDiagnostic, this);
+    }
+
     // Create a PassManager to hold and optimize the collection of passes we are
     // about to build.
     //
@@ -249,10 +489,19 @@ compilerArgs(_compilerArgs) {
 
     // Run module level passes
     Passes.run(*module);
-    
+}
+
+// Generates and loads the machine code of the module, and collects its functions
+void NativeModule::generateCode() {
+    registerPerfMap();
+
     // Tell the ExecutionEngine we're done
     executionEngine->generateCodeForModule(module);
     executionEngine->finalizeObject();
+
+    for (ProfiledFunction& function : profiledFunctions) {
+        function.counters = (const uint64_t*) executionEngine->getGlobalValueAddress(function.countersName);
+    }
     
     // Save all functions that survived optimization
     for (llvm::Module::iterator it = module->begin(), E = module->end(); it != E; ++it) {
@@ -260,19 +509,259 @@ compilerArgs(_compilerArgs) {
     }
 }
 
+// Publishes the emitted functions to external profilers, if enabled
+void NativeModule::registerPerfMap() {
+    if (PerfMapListener* perfMap = PerfMapListener::instance()) {
+        executionEngine->RegisterJITEventListener(perfMap);
+    }
+}
+
+// Returns the global values referenced by the instructions of a function, also through constant expressions
+static std::vector<const llvm::GlobalValue*> getReferences(const llvm::Function& function) {
+    std::vector<const llvm::GlobalValue*> references;
+    std::set<const llvm::Constant*> visited;
+    std::vector<const llvm::Constant*> pending;
+    for (const llvm::BasicBlock& block : function) {
+        for (const llvm::Instruction& instruction : block) {
+            for (const llvm::Use& operand : instruction.operands()) {
+                if (const llvm::Constant* constant = llvm::dyn_cast<llvm::Constant>(operand.get())) {
+                    pending.push_back(constant);
+                }
+            }
+        }
+    }
+    while (!pending.empty()) {
+        const llvm::Constant* constant = pending.back();
+        pending.pop_back();
+        if (!visited.insert(constant).second) {
+            continue;
+        }
+        if (const llvm::GlobalValue* global = llvm::dyn_cast<llvm::GlobalValue>(constant)) {
+            references.push_back(global);
+            continue;
+        }
+        for (const llvm::Use& operand : constant->operands()) {
+            pending.push_back(llvm::cast<llvm::Constant>(operand.get()));
+        }
+    }
+    return references;
+}
+
+// Declares a global value of another module in target, with the same name and type
+static llvm::GlobalValue* declare(llvm::Module* target, const llvm::GlobalValue* value) {
+    llvm::Type* type = value->getType()->getElementType();
+    if (llvm::FunctionType* functionType = llvm::dyn_cast<llvm::FunctionType>(type)) {
+        llvm::Function* declaration = llvm::Function::Create(functionType, llvm::GlobalValue::ExternalLinkage, value->getName(), target);
+        if (const llvm::Function* function = llvm::dyn_cast<llvm::Function>(value)) {
+            declaration->setAttributes(function->getAttributes());
+            declaration->setCallingConv(function->getCallingConv());
+        }
+        return declaration;
+    }
+    const llvm::GlobalVariable* variable = llvm::dyn_cast<llvm::GlobalVariable>(value);
+    return new llvm::GlobalVariable(*target, type, variable && variable->isConstant(), llvm::GlobalValue::ExternalLinkage,
+                                    nullptr, value->getName(), nullptr,
+                                    variable ? variable->getThreadLocalMode() : llvm::GlobalValue::NotThreadLocal,
+                                    value->getType()->getAddressSpace());
+}
+
+// Makes a symbol of the module visible to the modules split from it
+static void externalize(llvm::GlobalValue& value) {
+    if (!value.hasName()) {
+        value.setName("unsafe.anonymous");
+    }
+    if (!value.isDeclaration()) {
+        value.setLinkage(llvm::GlobalValue::ExternalLinkage);
+        value.setVisibility(llvm::GlobalValue::DefaultVisibility);
+    }
+}
+
+// Copies a function to a new module. The functions it calls that are worth inlining are copied along as
+// available_externally definitions, so that they can still be inlined, and everything else it references is declared.
+llvm::Module* NativeModule::extractFunction(llvm::Function& function, const std::set<const llvm::Function*>& inlinable) {
+    llvm::Module* target = new llvm::Module(function.getName(), context);
+    target->setTargetTriple(module->getTargetTriple());
+    target->setDataLayout(module->getDataLayout());
+
+    llvm::ValueToValueMapTy valueMap;
+    std::vector<const llvm::Function*> bodies(1, &function);
+    valueMap[&function] = declare(target, &function);
+    for (size_t i = 0; i < bodies.size(); i++) {
+        for (const llvm::GlobalValue* reference : getReferences(*bodies[i])) {
+            if (valueMap.count(reference)) {
+                continue;
+            }
+            valueMap[reference] = declare(target, reference);
+            const llvm::Function* callee = llvm::dyn_cast<llvm::Function>(reference);
+            if (callee && inlinable.count(callee)) {
+                bodies.push_back(callee);
+            }
+        }
+    }
+
+    for (const llvm::Function* body : bodies) {
+        llvm::Function* copy = llvm::cast<llvm::Function>((llvm::Value*) valueMap[body]);
+        llvm::Function::arg_iterator copyArg = copy->arg_begin();
+        for (llvm::Function::const_arg_iterator arg = body->arg_begin(); arg != body->arg_end(); ++arg, ++copyArg) {
+            copyArg->setName(arg->getName());
+            valueMap[&*arg] = &*copyArg;
+        }
+        llvm::SmallVector<llvm::ReturnInst*, 8> returns;
+        llvm::CloneFunctionInto(copy, body, valueMap, true, returns);
+        if (body != &function) {
+            copy->setLinkage(llvm::GlobalValue::AvailableExternallyLinkage);
+        }
+    }
+    return target;
+}
+
+// Moves every function defined in the module to a module of its own, which is only optimized and compiled when
+// the function is first requested, see materialize(). The module keeps the global variables.
+void NativeModule::splitFunctions() {
+    registerPerfMap();
+
+    // Inline C++ functions and file local ones, which are worth inlining into their callers
+    std::set<const llvm::Function*> inlinable;
+    for (const llvm::Function& function : *module) {
+        if (!function.isDeclaration() &&
+            (function.hasLinkOnceODRLinkage() || function.hasWeakODRLinkage() || function.hasLocalLinkage())) {
+            inlinable.insert(&function);
+        }
+    }
+
+    // Symbols local to the module are referenced from other modules from now on
+    for (llvm::Function& function : *module) {
+        externalize(function);
+    }
+    for (llvm::Module::global_iterator it = module->global_begin(), E = module->global_end(); it != E; ++it) {
+        externalize(*it);
+    }
+
+    // All functions are extracted before any body is deleted, since the bodies of callees are copied too
+    for (llvm::Function& function : *module) {
+        if (function.isDeclaration()) {
+            functions.push_back(&function);
+            continue;
+        }
+        llvm::Module* functionModule = extractFunction(function, inlinable);
+        llvm::Function* extracted = functionModule->getFunction(function.getName());
+        lazyFunctions[extracted->getName()] = extracted;
+        pendingModules.insert(functionModule);
+        functions.push_back(extracted);
+    }
+    for (llvm::Function& function : *module) {
+        if (lazyFunctions.count(function.getName())) {
+            function.deleteBody();
+        }
+    }
+}
+
+// Optimizes and compiles the module of a function split by splitFunctions(). The modules of the functions it still
+// references after inlining are compiled along, since the linker cannot compile modules while it resolves symbols.
+void NativeModule::materialize(const llvm::Function* function) {
+    typedef std::chrono::steady_clock Clock;
+    std::lock_guard<std::mutex> guard(lazyMutex);
+
+    std::vector<llvm::Module*> required;
+    auto require = [&](const llvm::Function& callee) {
+        auto lazyFunction = lazyFunctions.find(callee.getName());
+        if (lazyFunction != lazyFunctions.end() && pendingModules.erase(lazyFunction->second->getParent())) {
+            required.push_back(lazyFunction->second->getParent());
+        }
+    };
+
+    // The module with the global variables is compiled on the first request, with the functions its initializers
+    // reference, such as the methods in a vtable
+    if (!globalsRequired) {
+        globalsRequired = true;
+        for (const llvm::Function& declaration : *module) {
+            if (!declaration.use_empty()) {
+                require(declaration);
+            }
+        }
+    }
+    require(*function);
+    if (required.empty()) {
+        return;
+    }
+
+    Clock::time_point phaseStart = Clock::now();
+    for (size_t i = 0; i < required.size(); i++) {
+        optimize(required[i]);
+        for (const llvm::Function& callee : *required[i]) {
+            if ((callee.isDeclaration() || callee.hasAvailableExternallyLinkage()) && !callee.use_empty()) {
+                require(callee);
+            }
+        }
+        executionEngine->addModule(required[i]);
+    }
+    optimizationTime += Clock::now() - phaseStart;
+    for (llvm::Module* optimized : required) {
+        optimizedIRBytes += estimateIRBytes(*optimized);
+    }
+
+    // Compiles all the modules added above
+    phaseStart = Clock::now();
+    executionEngine->finalizeObject();
+    codeGenerationTime += Clock::now() - phaseStart;
+}
+
+bool NativeModule::hasOption(CompileOptions option) const {
+    return (options & option) != 0;
+}
+
 std::vector<llvm::Function*> NativeModule::getFunctions() const {
     return functions;
 }
 
+// Estimates the IR of a module from the size of its objects, ignoring types and constants shared through the context
+static uint64_t estimateIRBytes(const llvm::Module& module) {
+    uint64_t bytes = module.getGlobalList().size() * sizeof(llvm::GlobalVariable);
+    for (const llvm::Function& function : module) {
+        bytes += sizeof(llvm::Function);
+        for (const llvm::BasicBlock& block : function) {
+            bytes += sizeof(llvm::BasicBlock);
+            for (const llvm::Instruction& instruction : block) {
+                bytes += sizeof(llvm::Instruction) + instruction.getNumOperands() * sizeof(llvm::Use);
+            }
+        }
+    }
+    return bytes;
+}
+
+NativeFootprint NativeModule::getFootprint() const {
+    NativeFootprint footprint = { sourceCode.capacity() + optimizedIR.capacity() + assembly.capacity() + bitcode.capacity(), 0, 0 };
+    if (!executionEngine) {
+        return footprint;
+    }
+
+    footprint.irBytes += estimateIRBytes(*module);
+    if (hasOption(LAZY)) {
+        std::lock_guard<std::mutex> guard(lazyMutex);
+        for (const auto& lazyFunction : lazyFunctions) {
+            footprint.irBytes += estimateIRBytes(*lazyFunction.second->getParent());
+        }
+    }
+    footprint.codeBytes = memoryManager->getCodeBytes();
+    footprint.dataBytes = memoryManager->getDataBytes();
+    return footprint;
+}
+
 llvm::GenericValue NativeModule::runFunction(llvm::Function *function, const std::vector<llvm::GenericValue> &argValues) {
     llvm::GenericValue result;
     if (executionEngine) {
+        if (hasOption(LAZY)) {
+            materialize(function);
+        }
         result = executionEngine->runFunction(function, argValues);
     }
     return result;
 }
 
-void* NativeModule::getPointerToFunction(llvm::Function *F) const {
+void* NativeModule::getPointerToFunction(llvm::Function *F) {
+    if (hasOption(LAZY)) {
+        materialize(F);
+    }
     return executionEngine->getPointerToFunction(F);
 }
 
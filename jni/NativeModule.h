@@ -4,25 +4,113 @@
 #include <llvm/IR/DerivedTypes.h>
 #include <llvm/ExecutionEngine/ExecutionEngine.h>
 #include <llvm/ExecutionEngine/GenericValue.h>
+#include <llvm/IR/DiagnosticInfo.h>
 #include <llvm/Support/TargetSelect.h>
 
+#include <chrono>
+#include <map>
+#include <mutex>
+#include <set>
+
 #ifndef _Included_NativeModule
 #define _Included_NativeModule
 
+// Compile options, same bits as the ordinals of com.medallia.unsafe.CompileOption
+enum CompileOptions {
+    // Keep the optimized IR, the assembly and the optimization remarks of the module
+    INTROSPECTION = 1 << 0,
+    // Instrument the module with -fprofile-instr-generate and keep track of its counters
+    PROFILE_INSTRUMENTATION = 1 << 1,
+    // Keep the optimized bitcode of the module, which can be loaded without compiling it again
+    BITCODE = 1 << 2,
+    // Optimize and compile each function when it is first requested
+    LAZY = 1 << 3
+};
+
+// An optimization reported by a pass while optimizing a module
+struct OptimizationRemark {
+    std::string passName;
+    std::string functionName;
+    unsigned line; // zero if the module has no line information
+    std::string message;
+};
+
+// The counters of an instrumented function, as described by its __llvm_profile_data_ variable
+struct ProfiledFunction {
+    std::string name; // as computed by clang, prefixed with the file name for internal functions
+    uint64_t hash;
+    std::string countersName;
+    uint64_t numCounters;
+    const uint64_t* counters; // owned by the execution engine
+};
+
+// Approximate native memory held by a module
+struct NativeFootprint {
+    uint64_t irBytes; // the IR kept by the execution engine, and the source, introspection and bitcode strings
+    uint64_t codeBytes;
+    uint64_t dataBytes;
+};
+
+class CountingMemoryManager;
+
 class NativeModule {
     llvm::LLVMContext context;
     llvm::Module * module; // This is owned by the execution engine
     std::unique_ptr<llvm::ExecutionEngine> executionEngine;
+    CountingMemoryManager* memoryManager; // This is owned by the execution engine
     std::vector<llvm::Function*> functions; // These are owned by the module
     std::string fileName;
     std::string sourceCode;
     std::vector<std::string> compilerArgs;
+    unsigned options;
+    // Passed to the code generator, taken from the -target-cpu and -target-feature compiler arguments
+    std::string targetCPU;
+    std::vector<std::string> targetFeatures;
+    static void handleDiagnostic(const llvm::DiagnosticInfo &diagnostic, void *context);
+    bool createExecutionEngine(llvm::raw_ostream& errs);
+    void optimize(llvm::Module* module);
+    void generateCode();
+    void registerPerfMap();
+    // Only used with LAZY: the functions extracted to modules of their own by name, and the modules that were not
+    // materialized yet, which are not owned by the execution engine
+    std::map<std::string, llvm::Function*> lazyFunctions;
+    std::set<llvm::Module*> pendingModules;
+    bool globalsRequired;
+    mutable std::mutex lazyMutex;
+    llvm::Module* extractFunction(llvm::Function& function, const std::set<const llvm::Function*>& inlinable);
+    void splitFunctions();
+    void materialize(const llvm::Function* function);
+    void emitAssembly();
+    void exposeProfileCounters();
+    std::vector<ProfiledFunction> profiledFunctions;
 public:
     std::string errors;
-    NativeModule(std::string fileName, std::string sourceCode, std::vector<std::string> compilerArgs);
+    // Time spent in each compilation phase, zero for phases that did not run
+    std::chrono::nanoseconds frontendTime;
+    std::chrono::nanoseconds engineCreationTime;
+    std::chrono::nanoseconds optimizationTime;
+    std::chrono::nanoseconds codeGenerationTime;
+    // Estimated IR bytes produced by the frontend and left after optimization, zero for phases that did not run
+    uint64_t frontendIRBytes;
+    uint64_t optimizedIRBytes;
+    // Only kept when compiled with INTROSPECTION
+    std::string optimizedIR;
+    std::string assembly;
+    std::vector<OptimizationRemark> remarks;
+    // Only kept when compiled with BITCODE
+    std::string bitcode;
+    NativeModule(std::string fileName, std::string sourceCode, std::vector<std::string> compilerArgs, unsigned options);
+    // Loads bitcode written by a module compiled with BITCODE, skipping the frontend and the optimizer
+    NativeModule(std::string fileName, const std::string& bitcode);
+    ~NativeModule();
+    bool hasOption(CompileOptions option) const;
+    // Writes the current counters as an indexed profile for -fprofile-instr-use, returns an error message on failure
+    std::string writeProfile(const std::string& path) const;
     std::vector<llvm::Function*> getFunctions() const;
+    NativeFootprint getFootprint() const;
     llvm::GenericValue runFunction(llvm::Function *F, const std::vector<llvm::GenericValue> &ArgValues);
-    void* getPointerToFunction(llvm::Function *F) const;
+    // Materializes the function first if the module is LAZY
+    void* getPointerToFunction(llvm::Function *F);
 };
 
 #endif
@@ -0,0 +1,191 @@
+#include "ParallelRuntime.h"
+
+#include <llvm/Support/DynamicLibrary.h>
+
+#include <atomic>
+#include <condition_variable>
+#include <cstdlib>
+#include <deque>
+#include <memory>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+namespace {
+    // A single call to unsafe_parallel_for()
+    struct Job {
+        void (*body)(void*, int64_t, int64_t);
+        void* context;
+        int64_t grain;
+        std::atomic<int64_t> remaining; // number of elements not yet processed
+    };
+
+    // A range of elements of a job
+    struct Range {
+        Job* job;
+        int64_t begin;
+        int64_t end;
+    };
+
+    // A deque of ranges. The owner pushes and pops at the back, thieves steal from the front.
+    class WorkQueue {
+        std::mutex mutex;
+        std::deque<Range> ranges;
+    public:
+        void push(const Range& range) {
+            std::lock_guard<std::mutex> lock(mutex);
+            ranges.push_back(range);
+        }
+        bool pop(Range& range) {
+            std::lock_guard<std::mutex> lock(mutex);
+            if (ranges.empty()) return false;
+            range = ranges.back();
+            ranges.pop_back();
+            return true;
+        }
+        bool steal(Range& range) {
+            std::lock_guard<std::mutex> lock(mutex);
+            if (ranges.empty()) return false;
+            range = ranges.front();
+            ranges.pop_front();
+            return true;
+        }
+    };
+
+    // Marks a thread that has not been given a queue yet
+    const size_t NO_QUEUE = (size_t) -1;
+
+    // Index of the queue owned by the current thread. Workers own one queue each, other threads are given
+    // one of the caller queues on their first call.
+    thread_local size_t currentQueue = NO_QUEUE;
+
+    // A work-stealing pool with one queue per worker plus as many queues for external callers, handed out
+    // round-robin so that concurrent callers rarely share one.
+    // Idle workers sleep until a range is queued, so an unused pool costs nothing.
+    class ThreadPool {
+        const size_t workers;
+        std::vector<std::unique_ptr<WorkQueue>> queues;
+        std::atomic<size_t> nextCallerQueue;
+        std::atomic<int64_t> queued;    // number of ranges in all queues
+        std::atomic<int> sleepers;      // number of workers waiting on wakeUp, only incremented under sleepMutex
+        std::mutex sleepMutex;
+        std::condition_variable wakeUp;
+
+        void workerLoop(size_t index) {
+            currentQueue = index;
+            for (;;) {
+                if (runOne()) continue;
+                std::unique_lock<std::mutex> lock(sleepMutex);
+                sleepers.fetch_add(1);
+                wakeUp.wait(lock, [this] { return queued.load() > 0; });
+                sleepers.fetch_sub(1);
+            }
+        }
+
+        // Queues a range on the current thread's queue and wakes up a sleeping worker to steal it.
+        // A worker about to sleep either sees the new range or is counted in sleepers, so no wakeup is lost.
+        void push(const Range& range) {
+            queues[currentQueue]->push(range);
+            queued.fetch_add(1);
+            if (sleepers.load() > 0) {
+                std::lock_guard<std::mutex> lock(sleepMutex);
+                wakeUp.notify_one();
+            }
+        }
+
+        // Processes a range, pushing back its upper halves until it is no larger than the grain
+        void run(Range range) {
+            while (range.end - range.begin > range.job->grain) {
+                const int64_t middle = range.begin + (range.end - range.begin) / 2;
+                push(Range { range.job, middle, range.end });
+                range.end = middle;
+            }
+            range.job->body(range.job->context, range.begin, range.end);
+            range.job->remaining.fetch_sub(range.end - range.begin);
+        }
+
+        // Runs one range from the current thread's queue or stolen from another one
+        bool runOne() {
+            Range range;
+            if (queues[currentQueue]->pop(range)) {
+                queued.fetch_sub(1);
+                run(range);
+                return true;
+            }
+            for (size_t i = 1; i < queues.size(); ++i) {
+                if (queues[(currentQueue + i) % queues.size()]->steal(range)) {
+                    queued.fetch_sub(1);
+                    run(range);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    public:
+        explicit ThreadPool(size_t workers) : workers(workers), nextCallerQueue(0), queued(0), sleepers(0) {
+            for (size_t i = 0; i < 2 * workers + 1; ++i) {
+                queues.emplace_back(new WorkQueue());
+            }
+            for (size_t i = 0; i < workers; ++i) {
+                std::thread(&ThreadPool::workerLoop, this, i).detach();
+            }
+        }
+
+        int32_t concurrency() const {
+            return (int32_t) workers + 1;
+        }
+
+        void parallelFor(int64_t begin, int64_t end, int64_t grain, void (*body)(void*, int64_t, int64_t), void* context) {
+            if (end <= begin) return;
+            Job job;
+            job.body = body;
+            job.context = context;
+            job.grain = grain < 1 ? 1 : grain;
+            job.remaining = end - begin;
+            if (end - begin <= job.grain) {
+                body(context, begin, end);
+                return;
+            }
+
+            if (currentQueue == NO_QUEUE) {
+                currentQueue = workers + nextCallerQueue.fetch_add(1) % (queues.size() - workers);
+            }
+            push(Range { &job, begin, end });
+
+            // Help until every range of this job is done. The last ranges may still be running on workers.
+            while (job.remaining.load() > 0) {
+                if (!runOne()) std::this_thread::yield();
+            }
+        }
+
+        // The pool is created on first use and never destroyed, so that detached workers can't outlive it
+        static ThreadPool& instance() {
+            static ThreadPool* pool = new ThreadPool(defaultWorkers());
+            return *pool;
+        }
+
+        // Workers besides the caller, can be overridden with UNSAFE_PARALLEL_THREADS
+        static size_t defaultWorkers() {
+            const char* threads = std::getenv("UNSAFE_PARALLEL_THREADS");
+            long n = threads ? std::atol(threads) : (long) std::thread::hardware_concurrency();
+            return n > 1 ? (size_t) (n - 1) : 0;
+        }
+    };
+}
+
+extern "C" {
+    void unsafe_parallel_for(int64_t begin, int64_t end, int64_t grain,
+                             void (*body)(void* context, int64_t begin, int64_t end), void* context) {
+        ThreadPool::instance().parallelFor(begin, end, grain, body, context);
+    }
+
+    int32_t unsafe_parallel_concurrency() {
+        return ThreadPool::instance().concurrency();
+    }
+}
+
+void registerParallelRuntimeSymbols() {
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_parallel_for", (void*) &unsafe_parallel_for);
+    llvm::sys::DynamicLibrary::AddSymbol("unsafe_parallel_concurrency", (void*) &unsafe_parallel_concurrency);
+}
@@ -0,0 +1,21 @@
+#include <stdint.h>
+
+#ifndef _Included_ParallelRuntime
+#define _Included_ParallelRuntime
+
+// C entry points of the parallel runtime. These are made visible to JIT compiled code by
+// registerParallelRuntimeSymbols() and wrapped by the templates in unsafe/parallel.h
+extern "C" {
+    // Calls body(context, b, e) for disjoint sub-ranges of [begin, end) no larger than grain, using all
+    // workers of the pool. Returns when the whole range has been processed. May be called from within a body.
+    void unsafe_parallel_for(int64_t begin, int64_t end, int64_t grain,
+                             void (*body)(void* context, int64_t begin, int64_t end), void* context);
+
+    // Number of threads that may run bodies concurrently, including the caller
+    int32_t unsafe_parallel_concurrency();
+}
+
+// Registers the runtime entry points so that the execution engine can resolve them
+void registerParallelRuntimeSymbols();
+
+#endif
@@ -0,0 +1,223 @@
+#include "PerfMap.h"
+
+#include <llvm/Object/ObjectFile.h>
+
+#include <llvm/ADT/Triple.h>
+#include <llvm/Support/Host.h>
+
+#include <algorithm>
+#include <atomic>
+#include <ctime>
+#include <iterator>
+#include <unistd.h>
+
+#ifdef __linux__
+#include <elf.h>
+#include <sys/mman.h>
+#include <sys/syscall.h>
+#endif
+
+namespace {
+    std::atomic<PerfMapListener*> listener(nullptr);
+    std::mutex enableMutex;
+
+    // Calls f(address, size, name) for each function symbol of a loaded object
+    template<typename F>
+    void forEachFunction(const llvm::ObjectImage &obj, F f) {
+        for (llvm::object::symbol_iterator it = obj.begin_symbols(), end = obj.end_symbols(); it != end; ++it) {
+            llvm::object::SymbolRef::Type type;
+            llvm::StringRef name;
+            uint64_t address;
+            uint64_t size;
+            if (it->getType(type) || type != llvm::object::SymbolRef::ST_Function) continue;
+            if (it->getName(name) || it->getAddress(address) || it->getSize(size)) continue;
+            f(address, size, name.str());
+        }
+    }
+
+    // Formats a symbol as a line of the map, without the newline
+    std::string mapLine(uint64_t address, uint64_t size, const std::string& name) {
+        char prefix[40];
+        snprintf(prefix, sizeof(prefix), "%llx %llx ", (unsigned long long) address, (unsigned long long) size);
+        return prefix + name;
+    }
+
+#ifdef __linux__
+    // Structures of the jitdump format, see tools/perf/Documentation/jitdump-specification.txt in the Linux sources
+    struct JitDumpHeader {
+        uint32_t magic;
+        uint32_t version;
+        uint32_t totalSize;
+        uint32_t elfMach;
+        uint32_t pad1;
+        uint32_t pid;
+        uint64_t timestamp;
+        uint64_t flags;
+    };
+
+    struct JitCodeLoad {
+        uint32_t id;
+        uint32_t totalSize;
+        uint64_t timestamp;
+        uint32_t pid;
+        uint32_t tid;
+        uint64_t vma;
+        uint64_t codeAddress;
+        uint64_t codeSize;
+        uint64_t codeIndex;
+    };
+
+    const uint32_t JIT_CODE_LOAD = 0;
+
+    // Returns the ELF machine of the host for the jitdump header, or EM_NONE if jitdump is not supported on it
+    uint32_t hostElfMachine() {
+        switch (llvm::Triple(llvm::sys::getProcessTriple()).getArch()) {
+            case llvm::Triple::x86: return EM_386;
+            case llvm::Triple::x86_64: return EM_X86_64;
+            case llvm::Triple::arm: return EM_ARM;
+            case llvm::Triple::aarch64: return EM_AARCH64;
+            default: return EM_NONE;
+        }
+    }
+
+    // jitdump timestamps must use the same clock as 'perf record -k mono'
+    uint64_t monotonicNanos() {
+        timespec ts;
+        clock_gettime(CLOCK_MONOTONIC, &ts);
+        return (uint64_t) ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+    }
+#endif
+}
+
+PerfMapListener::PerfMapListener(bool enableJitDump) :
+mapFileName("/tmp/perf-" + std::to_string(getpid()) + ".map"),
+jitDump(nullptr),
+jitDumpMarker(nullptr),
+codeIndex(0) {
+    if (enableJitDump) {
+        openJitDump();
+    }
+}
+
+PerfMapListener* PerfMapListener::instance() {
+    return listener.load();
+}
+
+void PerfMapListener::enable(bool jitDump) {
+    std::lock_guard<std::mutex> lock(enableMutex);
+    if (!listener.load()) {
+        // Never deleted, execution engines may notify it until the process exits
+        listener.store(new PerfMapListener(jitDump));
+    }
+}
+
+void PerfMapListener::NotifyObjectEmitted(const llvm::ObjectImage &obj) {
+    std::vector<Symbol> symbols;
+    forEachFunction(obj, [&symbols](uint64_t address, uint64_t size, const std::string& name) {
+        symbols.push_back(Symbol { address, size, name });
+    });
+    if (symbols.empty()) return;
+
+    std::lock_guard<std::mutex> lock(mutex);
+    appendToMap(symbols);
+    for (const Symbol& symbol : symbols) {
+        writeJitDumpLoad(symbol);
+    }
+}
+
+void PerfMapListener::NotifyFreeingObject(const llvm::ObjectImage &obj) {
+    std::vector<Symbol> symbols;
+    forEachFunction(obj, [&symbols](uint64_t address, uint64_t size, const std::string& name) {
+        symbols.push_back(Symbol { address, size, name });
+    });
+    if (symbols.empty()) return;
+
+    std::lock_guard<std::mutex> lock(mutex);
+    removeFromMap(symbols);
+}
+
+void PerfMapListener::appendToMap(const std::vector<Symbol>& symbols) {
+    FILE* map = fopen(mapFileName.c_str(), "a");
+    if (!map) return;
+    for (const Symbol& symbol : symbols) {
+        fprintf(map, "%s\n", mapLine(symbol.address, symbol.size, symbol.name).c_str());
+    }
+    fclose(map);
+}
+
+void PerfMapListener::removeFromMap(const std::vector<Symbol>& symbols) {
+    FILE* map = fopen(mapFileName.c_str(), "r");
+    if (!map) return;
+    std::vector<std::string> lines;
+    std::string line;
+    char buffer[4096];
+    while (fgets(buffer, sizeof(buffer), map)) {
+        line += buffer;
+        if (!line.empty() && line.back() == '\n') {
+            line.pop_back();
+            lines.push_back(line);
+            line.clear();
+        }
+    }
+    if (!line.empty()) lines.push_back(line);
+    fclose(map);
+
+    // Removes one line per symbol, the last one being the most recent entry for its address
+    bool removed = false;
+    for (const Symbol& symbol : symbols) {
+        const std::string symbolLine = mapLine(symbol.address, symbol.size, symbol.name);
+        std::vector<std::string>::reverse_iterator it = std::find(lines.rbegin(), lines.rend(), symbolLine);
+        if (it != lines.rend()) {
+            lines.erase(std::next(it).base());
+            removed = true;
+        }
+    }
+    if (!removed) return;
+
+    // Rewritten in place rather than renamed, so that writers holding the file open keep appending to the map.
+    // Lines appended by other writers while it is rewritten may be lost.
+    map = fopen(mapFileName.c_str(), "w");
+    if (!map) return;
+    for (const std::string& kept : lines) {
+        fprintf(map, "%s\n", kept.c_str());
+    }
+    fclose(map);
+}
+
+void PerfMapListener::openJitDump() {
+#ifdef __linux__
+    const uint32_t elfMachine = hostElfMachine();
+    if (elfMachine == EM_NONE) return;
+    const std::string fileName = "/tmp/jit-" + std::to_string(getpid()) + ".dump";
+    jitDump = fopen(fileName.c_str(), "w+");
+    if (!jitDump) return;
+
+    // perf record notices the dump through an executable mapping of the file
+    jitDumpMarker = mmap(nullptr, sysconf(_SC_PAGESIZE), PROT_READ | PROT_EXEC, MAP_PRIVATE, fileno(jitDump), 0);
+
+    const JitDumpHeader header { 0x4A695444, 1, sizeof(JitDumpHeader), elfMachine, 0, (uint32_t) getpid(), monotonicNanos(), 0 };
+    fwrite(&header, sizeof(header), 1, jitDump);
+    fflush(jitDump);
+#endif
+}
+
+void PerfMapListener::writeJitDumpLoad(const Symbol& symbol) {
+#ifdef __linux__
+    if (!jitDump) return;
+    const JitCodeLoad record {
+        JIT_CODE_LOAD,
+        (uint32_t) (sizeof(JitCodeLoad) + symbol.name.size() + 1 + symbol.size),
+        monotonicNanos(),
+        (uint32_t) getpid(),
+        (uint32_t) syscall(SYS_gettid),
+        symbol.address,
+        symbol.address,
+        symbol.size,
+        codeIndex++
+    };
+    fwrite(&record, sizeof(record), 1, jitDump);
+    fwrite(symbol.name.c_str(), symbol.name.size() + 1, 1, jitDump);
+    fwrite((const void*) symbol.address, symbol.size, 1, jitDump);
+    fflush(jitDump);
+#endif
+}
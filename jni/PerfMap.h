@@ -0,0 +1,48 @@
+#include <llvm/ExecutionEngine/JITEventListener.h>
+#include <llvm/ExecutionEngine/ObjectImage.h>
+
+#include <cstdio>
+#include <mutex>
+#include <string>
+#include <vector>
+
+#ifndef _Included_PerfMap
+#define _Included_PerfMap
+
+// Publishes the functions emitted by the execution engines to external profilers:
+//  - /tmp/perf-<pid>.map, the symbol map read by perf, async-profiler and similar tools.
+//    The map is shared with the JVM and agents such as perf-map-agent. When an object is freed, the map is rewritten
+//    without the lines written for it and the lines of the other writers are kept.
+//  - optionally /tmp/jit-<pid>.dump, the jitdump format read by 'perf inject --jit' (Linux on x86, x86-64, ARM and
+//    AArch64 hosts). Its records are timestamped, so samples are attributed to the code loaded at an address at the
+//    time, and freed code needs no record.
+// The listener is only registered on execution engines once enabled, so compilation does not take its lock otherwise.
+class PerfMapListener : public llvm::JITEventListener {
+    struct Symbol {
+        uint64_t address;
+        uint64_t size;
+        std::string name;
+    };
+
+    std::mutex mutex; // guards the writes to the files
+    std::string mapFileName;
+    FILE* jitDump;
+    void* jitDumpMarker;
+    uint64_t codeIndex;
+
+    explicit PerfMapListener(bool jitDump);
+    void appendToMap(const std::vector<Symbol>& symbols);
+    void removeFromMap(const std::vector<Symbol>& symbols);
+    void openJitDump();
+    void writeJitDumpLoad(const Symbol& symbol);
+public:
+    // Returns the listener, or nullptr if it was not enabled
+    static PerfMapListener* instance();
+    // Enables the listener for all modules compiled from now on. Later calls have no effect.
+    static void enable(bool jitDump);
+
+    virtual void NotifyObjectEmitted(const llvm::ObjectImage &obj);
+    virtual void NotifyFreeingObject(const llvm::ObjectImage &obj);
+};
+
+#endif
@@ -0,0 +1,13 @@
+#include "ProfileRuntime.h"
+
+#include <llvm/Support/DynamicLibrary.h>
+
+int __llvm_profile_runtime = 0;
+
+void __llvm_profile_register_function(void* data) {
+}
+
+void registerProfileRuntimeSymbols() {
+    llvm::sys::DynamicLibrary::AddSymbol("__llvm_profile_runtime", (void*) &__llvm_profile_runtime);
+    llvm::sys::DynamicLibrary::AddSymbol("__llvm_profile_register_function", (void*) &__llvm_profile_register_function);
+}
@@ -0,0 +1,18 @@
+#ifndef _Included_ProfileRuntime
+#define _Included_ProfileRuntime
+
+// Code compiled with -fprofile-instr-generate references a few symbols of the compiler-rt profile
+// runtime. Counters are read directly from the memory of each NativeModule, so the runtime is
+// reduced to stubs that satisfy those references.
+extern "C" {
+    // Referenced by every instrumented module to force the runtime to be linked
+    extern int __llvm_profile_runtime;
+
+    // Called by the static constructors of an instrumented module, which are never run
+    void __llvm_profile_register_function(void* data);
+}
+
+// Registers the runtime symbols so that the execution engine can resolve them
+void registerProfileRuntimeSymbols();
+
+#endif
@@ -0,0 +1,47 @@
+package com.medallia.unsafe;
+
+/**
+ * Options that change what is kept from a compilation.
+ * All options are off by default, see {@link Driver#compileInMemory(String, String, String[], java.util.Set)}.
+ */
+public enum CompileOption {
+	/**
+	 * Keeps the optimized IR, the assembly and the optimization remarks of the module, see
+	 * {@link NativeModule#getOptimizedIR()}, {@link NativeModule#getAssembly(String)} and
+	 * {@link NativeModule#getOptimizationRemarks()}.
+	 * This generates the code of the module twice, so it roughly doubles the code generation time.
+	 */
+	INTROSPECTION,
+
+	/**
+	 * Instruments the module with {@code -fprofile-instr-generate}, so that it counts how often each branch is taken.
+	 * The counters can be written with {@link NativeModule#writeProfile(java.nio.file.Path)} and used to recompile
+	 * the same source with {@code -fprofile-instr-use=<path>}. Instrumented code is noticeably slower.
+	 */
+	PROFILE_INSTRUMENTATION,
+
+	/**
+	 * Keeps the optimized bitcode of the module, see {@link NativeModule#getBitcode()}. The bitcode can be loaded
+	 * with {@link Driver#loadBitcode(String, byte[])}, which skips the frontend and the optimizer.
+	 */
+	BITCODE,
+
+	/**
+	 * Keeps the unoptimized IR of every function in a module of its own, and only optimizes and generates the code
+	 * of a function when its pointer is first requested, by {@link NativeFunction#getPointerToCompiledFunction()},
+	 * {@link NativeFunction#invoke(Object...)} or a thunk binding, so that the compile time and native memory of
+	 * large generated modules scale with the functions that are actually used.
+	 * The functions it still calls after inlining are compiled along with it. Inline and {@code static} functions
+	 * can still be inlined into their callers, but other functions are optimized separately.
+	 * <p>
+	 * Cannot be combined with {@link #INTROSPECTION}, {@link #PROFILE_INSTRUMENTATION} or {@link #BITCODE}.
+	 * {@link NativeModule#getCompileStatistics()} and {@link NativeModule#getNativeFootprint()} include the
+	 * functions compiled so far.
+	 */
+	LAZY;
+
+	/** @return the bit of this option in the flags passed to native code */
+	int flag() {
+		return 1 << ordinal();
+	}
+}
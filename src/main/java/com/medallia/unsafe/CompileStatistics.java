@@ -0,0 +1,79 @@
+package com.medallia.unsafe;
+
+/**
+ * Time spent in each phase of the compilation of a {@link NativeModule}, and the estimated size of the IR after
+ * the phases that produce it. The memory held after code generation is given by {@link NativeModule#getNativeFootprint()}.
+ * Phases that did not run, for example because of compilation errors, take zero time and produce no IR.
+ * For {@link CompileOption#LAZY} modules, optimization and code generation accumulate as functions are materialized.
+ */
+public class CompileStatistics {
+	/** Time spent parsing and generating LLVM IR, in nanoseconds */
+	private final long frontendNanos;
+
+	/** Time spent creating the execution engine, in nanoseconds */
+	private final long engineCreationNanos;
+
+	/** Time spent in the optimization passes, in nanoseconds */
+	private final long optimizationNanos;
+
+	/** Time spent generating and loading machine code, in nanoseconds */
+	private final long codeGenerationNanos;
+
+	/** Estimated bytes of IR generated by the frontend */
+	private final long frontendIrBytes;
+
+	/** Estimated bytes of IR left after optimization */
+	private final long optimizedIrBytes;
+
+	CompileStatistics(long frontendNanos, long engineCreationNanos, long optimizationNanos, long codeGenerationNanos,
+					  long frontendIrBytes, long optimizedIrBytes) {
+		this.frontendNanos = frontendNanos;
+		this.engineCreationNanos = engineCreationNanos;
+		this.optimizationNanos = optimizationNanos;
+		this.codeGenerationNanos = codeGenerationNanos;
+		this.frontendIrBytes = frontendIrBytes;
+		this.optimizedIrBytes = optimizedIrBytes;
+	}
+
+	/** @return time spent parsing and generating LLVM IR, in nanoseconds */
+	public long getFrontendNanos() {
+		return frontendNanos;
+	}
+
+	/** @return time spent creating the execution engine, in nanoseconds */
+	public long getEngineCreationNanos() {
+		return engineCreationNanos;
+	}
+
+	/** @return time spent in the optimization passes, in nanoseconds */
+	public long getOptimizationNanos() {
+		return optimizationNanos;
+	}
+
+	/** @return time spent generating and loading machine code, in nanoseconds */
+	public long getCodeGenerationNanos() {
+		return codeGenerationNanos;
+	}
+
+	/** @return total time spent in all phases, in nanoseconds */
+	public long getTotalNanos() {
+		return frontendNanos + engineCreationNanos + optimizationNanos + codeGenerationNanos;
+	}
+
+	/** @return estimated bytes of IR generated by the frontend */
+	public long getFrontendIrBytes() {
+		return frontendIrBytes;
+	}
+
+	/** @return estimated bytes of IR left after optimization */
+	public long getOptimizedIrBytes() {
+		return optimizedIrBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("frontend: %.3fms (IR: %dKB), engine creation: %.3fms, optimization: %.3fms (IR: %dKB), code generation: %.3fms",
+				frontendNanos / 1e6, frontendIrBytes >> 10, engineCreationNanos / 1e6, optimizationNanos / 1e6,
+				optimizedIrBytes >> 10, codeGenerationNanos / 1e6);
+	}
+}
@@ -4,21 +4,49 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Provides methods to compile C/C++ code in-memory.
+ * <p>
+ * All methods are thread safe. Each compilation has its own LLVM context, compiler instance and execution engine,
+ * so compile throughput scales with the number of calling threads. Only two pieces of state are shared: the
+ * {@link ModuleRegistry}, whose lock is briefly taken to register every new module, and the perf map listener,
+ * whose lock is taken for every object emitted while {@link #enablePerfMap(boolean)} is on.
+ * This is checked by {@code CompileScalingTest} and measured by the {@code CompileThroughput} example.
+ * <p>
+ * Besides the platform and JNI headers, the default include directories contain the runtime headers
+ * bundled with this library, such as {@code <unsafe/parallel.h>} and {@code <unsafe/kernels.h>}.
+ * <p>
+ * Setting the {@code unsafe.perfmap} system property to {@code true} or {@code jitdump} calls
+ * {@link #enablePerfMap(boolean)} when this class is initialized.
  */
 public class Driver {
 	/** List of arguments with default include directories for the current platform. */
 	public static final List<String> DEFAULT_INCLUDE_ARGS;
 
+	/** See {@link #getHostFeatures()} */
+	private static final Set<String> HOST_FEATURES;
+
+	/** Runtime headers bundled with this library, as resources relative to {@code include/}. */
+	private static final List<String> RUNTIME_HEADERS = Arrays.asList(
+			"unsafe/parallel.h",
+			"unsafe/kernels.h",
+			"unsafe/hashmap.h",
+			"unsafe/arena.h"
+	);
+
 	/**
 	 * Compiles the specified source code using a virtual file named {@code fileName}.
 	 * This method passes parameter to includes all platform default directories plus JNI headers.
@@ -43,6 +71,20 @@ public class Driver {
 	 * @return a compiled NativeModule
 	 */
 	public static NativeModule compileInMemory(String fileName, String sourceCode, String[] compilerArgs) {
+		return compileInMemory(fileName, sourceCode, compilerArgs, EnumSet.noneOf(CompileOption.class));
+	}
+
+	/**
+	 * Compiles the specified source code using a virtual file named {@code fileName} with the given options.
+	 * It passes the {@code compilerArgs} Clang.
+	 * Note that this method does not pass any default parameters to the the compiler.
+	 * @param fileName name of the virtual file
+	 * @param sourceCode code to be compiled
+	 * @param compilerArgs additional arguments for Clang
+	 * @param options compile options, see {@link CompileOption}
+	 * @return a compiled NativeModule
+	 */
+	public static NativeModule compileInMemory(String fileName, String sourceCode, String[] compilerArgs, Set<CompileOption> options) {
 		if (sourceCode == null) {
 			throw new IllegalArgumentException("missing source code");
 		}
@@ -60,14 +102,106 @@ public class Driver {
 			}
 		}
 
-		return compileInMemory0(fileName, sourceCode, compilerArgs);
+		if (options == null) {
+			throw new IllegalArgumentException("missing compile options");
+		}
+		if (options.contains(CompileOption.LAZY) && options.size() > 1) {
+			throw new IllegalArgumentException(CompileOption.LAZY + " cannot be combined with other options: " + options);
+		}
+		int flags = 0;
+		for (CompileOption option : options) {
+			flags |= option.flag();
+		}
+		if (options.contains(CompileOption.PROFILE_INSTRUMENTATION)) {
+			compilerArgs = Arrays.copyOf(compilerArgs, compilerArgs.length + 1);
+			compilerArgs[compilerArgs.length - 1] = "-fprofile-instr-generate";
+		}
+
+		return compileInMemory0(fileName, sourceCode, compilerArgs, flags);
+	}
+
+	/**
+	 * Compiles the specified source code for the newest of the instruction set levels supported by this CPU, so
+	 * that the same code uses e.g. AVX2 on recent machines and still runs on older ones.
+	 * The features of the chosen level are enabled in both the code generator and the frontend, which defines their
+	 * macros, so the source can also select hand-written kernels with {@code #ifdef __AVX2__}.
+	 * If none of the variants is supported the code is compiled for the baseline of the platform.
+	 * <p>
+	 * A module targets a single level: to keep variants for several levels, compile the source once per level with
+	 * {@link IsaVariant#getCompilerArgs()}.
+	 * @param sourceCode code to be compiled
+	 * @param variants the levels to choose from
+	 * @param additionalCompilerArgs additional arguments for Clang
+	 * @return a compiled NativeModule
+	 */
+	public static NativeModule compileForHost(String sourceCode, Set<IsaVariant> variants, String... additionalCompilerArgs) {
+		if (variants == null) {
+			throw new IllegalArgumentException("missing instruction set variants");
+		}
+		final IsaVariant variant = IsaVariant.best(getHostFeatures(), variants.toArray(new IsaVariant[variants.size()]));
+		final List<String> compilerArgs = new ArrayList<>();
+		if (variant != null) {
+			Collections.addAll(compilerArgs, variant.getCompilerArgs());
+		}
+		Collections.addAll(compilerArgs, additionalCompilerArgs);
+		return compileInMemory(sourceCode, compilerArgs.toArray(new String[compilerArgs.size()]));
+	}
+
+	/**
+	 * Returns the CPU features of this machine, with the names used by {@code -target-feature}, e.g. {@code avx2}.
+	 * Features that the operating system does not support, such as AVX without saving its registers on context
+	 * switches, are not reported.
+	 * @return an unmodifiable set of features
+	 */
+	public static Set<String> getHostFeatures() {
+		return HOST_FEATURES;
+	}
+
+	/**
+	 * Loads a module from the bitcode of a module compiled with {@link CompileOption#BITCODE}, generating its machine
+	 * code without running the frontend or the optimizer again.
+	 * Bitcode is specific to a target: loading bitcode written on a different platform fails with an error.
+	 * @param fileName name of the module, used in error messages
+	 * @param bitcode bitcode returned by {@link NativeModule#getBitcode()}
+	 * @return the loaded NativeModule, which has errors if the bitcode could not be loaded
+	 */
+	public static NativeModule loadBitcode(String fileName, byte[] bitcode) {
+		if (bitcode == null) {
+			throw new IllegalArgumentException("missing bitcode");
+		}
+		return loadBitcode0(fileName == null ? "code.bc" : fileName, bitcode);
 	}
 
 
 
-	private static native NativeModule compileInMemory0(String fileName, String sourceCode, String[] compilerArgs);
+	/**
+	 * Publishes the functions of all modules compiled from now on to external profilers such as perf or
+	 * async-profiler, so that frames in compiled code can be symbolized.
+	 * Functions are appended to {@code /tmp/perf-<pid>.map}, which is shared with the JVM and profiling agents. When a
+	 * module is deleted, the map is rewritten without its entries, keeping the entries of the other writers.
+	 * Optionally, functions are also written with their code to {@code /tmp/jit-<pid>.dump} for
+	 * {@code perf inject --jit} (Linux on x86, x86-64, ARM and AArch64 hosts, ignored elsewhere), whose timestamped
+	 * records attribute samples to the code loaded at an address at the time. Only the first call has any effect.
+	 * @param jitDump true to also write the jitdump file
+	 */
+	public static void enablePerfMap(boolean jitDump) {
+		enablePerfMap0(jitDump);
+	}
+
+	private static native void enablePerfMap0(boolean jitDump);
+	private static native NativeModule compileInMemory0(String fileName, String sourceCode, String[] compilerArgs, int options);
+	private static native NativeModule loadBitcode0(String fileName, byte[] bitcode);
+	private static native String[] getHostFeatures0();
 	static native Object invoke(NativeFunction function, Object[] args);
 	static native NativeFunction[] getFunctions(NativeModule nativeModule);
+	static native long getPointerToFunction(NativeFunction function);
+	static native long[] getCompileStatistics(NativeModule nativeModule);
+	static native long[] getNativeFootprint(NativeModule nativeModule);
+	static native String getOptimizedIR(NativeModule nativeModule);
+	static native String getAssembly(NativeModule nativeModule);
+	static native byte[] getBitcode(NativeModule nativeModule);
+	static native OptimizationRemark[] getOptimizationRemarks(NativeModule nativeModule);
+	static native String writeProfile(NativeModule nativeModule, String path);
 	static native void delete(NativeModule nativeModule);
 
 	/**
@@ -152,16 +286,54 @@ public class Driver {
 		return result;
 	}
 
+	/**
+	 * Copies the bundled runtime headers to a temporary directory that is deleted on exit.
+	 * @return the include parameter for the directory
+	 */
+	private static String extractRuntimeHeaders() throws IOException {
+		final Path includeDir = Files.createTempDirectory("unsafe-include");
+		includeDir.toFile().deleteOnExit();
+		for (String header : RUNTIME_HEADERS) {
+			// Directories are registered before their contents since files are deleted in reverse order
+			final Path relative = Paths.get(header);
+			Path dir = includeDir;
+			for (int i = 0; i < relative.getNameCount() - 1; i++) {
+				dir = dir.resolve(relative.getName(i));
+				if (!Files.isDirectory(dir)) {
+					Files.createDirectory(dir);
+					dir.toFile().deleteOnExit();
+				}
+			}
+			final Path target = includeDir.resolve(relative);
+			try (final InputStream in = Driver.class.getResourceAsStream("include/" + header)) {
+				Files.copy(in, target);
+			}
+			target.toFile().deleteOnExit();
+		}
+		return "-I" + includeDir;
+	}
+
 	static {
 		System.loadLibrary("UnsafeDriver");
 		initializeNativeCode();
 
-		List<String> defaultIncludeArgs = Collections.emptyList();
+		final List<String> defaultIncludeArgs = new ArrayList<>();
 		try {
-			defaultIncludeArgs = Collections.unmodifiableList(loadDefaultIncludeSearchPaths());
+			defaultIncludeArgs.addAll(loadDefaultIncludeSearchPaths());
 		} catch (IOException|InterruptedException e) {
 			e.printStackTrace();
 		}
-		DEFAULT_INCLUDE_ARGS = defaultIncludeArgs;
+		try {
+			defaultIncludeArgs.add(extractRuntimeHeaders());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		DEFAULT_INCLUDE_ARGS = Collections.unmodifiableList(defaultIncludeArgs);
+		HOST_FEATURES = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(getHostFeatures0())));
+
+		final String perfMap = System.getProperty("unsafe.perfmap");
+		if ("true".equals(perfMap) || "jitdump".equals(perfMap)) {
+			enablePerfMap("jitdump".equals(perfMap));
+		}
 	}
 }
\ No newline at end of file
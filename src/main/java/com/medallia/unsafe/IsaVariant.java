@@ -0,0 +1,65 @@
+package com.medallia.unsafe;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Instruction set levels that code can be compiled for, from the oldest to the newest, see
+ * {@link Driver#compileForHost(String, java.util.Set, String...)}.
+ * <p>
+ * Each level implies the features of the previous ones. Code compiled for a level can only run on CPUs that have
+ * all its features, otherwise it faults with an illegal instruction.
+ */
+public enum IsaVariant {
+	/** Nehalem and later: SSE4.2 and POPCNT */
+	SSE4_2("sse4.2", "popcnt"),
+
+	/** Haswell and later: AVX2, FMA and the bit manipulation instructions */
+	AVX2("sse4.2", "popcnt", "avx", "avx2", "fma", "f16c", "bmi", "bmi2", "lzcnt"),
+
+	/** Skylake-SP and later: AVX-512 foundation and conflict detection, which widen vectors to 512 bits */
+	AVX512("sse4.2", "popcnt", "avx", "avx2", "fma", "f16c", "bmi", "bmi2", "lzcnt", "avx512f", "avx512cd");
+
+	private final List<String> features;
+
+	IsaVariant(String... features) {
+		this.features = Collections.unmodifiableList(Arrays.asList(features));
+	}
+
+	/** @return the CPU features of this level, with the names used by {@code -target-feature} */
+	public List<String> getFeatures() {
+		return features;
+	}
+
+	/** @return whether code compiled for this level can run on a CPU with the given features */
+	public boolean isSupportedBy(Set<String> cpuFeatures) {
+		return cpuFeatures.containsAll(features);
+	}
+
+	/** @return the Clang arguments that enable the features of this level, and define their macros such as {@code __AVX2__} */
+	public String[] getCompilerArgs() {
+		final String[] args = new String[features.size() * 2];
+		for (int i = 0; i < features.size(); i++) {
+			args[2 * i] = "-target-feature";
+			args[2 * i + 1] = "+" + features.get(i);
+		}
+		return args;
+	}
+
+	/**
+	 * @param cpuFeatures features of the CPU, see {@link Driver#getHostFeatures()}
+	 * @param candidates the levels to choose from
+	 * @return the newest of the candidates supported by the CPU, or null if none is
+	 */
+	public static IsaVariant best(Set<String> cpuFeatures, IsaVariant... candidates) {
+		IsaVariant best = null;
+		for (IsaVariant candidate : candidates) {
+			if (candidate.isSupportedBy(cpuFeatures) && (best == null || candidate.compareTo(best) > 0)) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+}
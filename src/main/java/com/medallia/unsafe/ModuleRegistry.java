@@ -0,0 +1,403 @@
+package com.medallia.unsafe;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the native memory held by all live {@link NativeModule}s, and bounds it by evicting cached modules.
+ * <p>
+ * Every module is registered with its {@link NativeFootprint} when it is created, and unregistered when it is
+ * garbage collected. Caches of compiled code register the modules they hold with {@link #cached}, together with a
+ * callback that removes the module from the cache, and report hits with {@link #touch}. When the footprint of the
+ * live modules exceeds the budget, the least recently used cached modules that are not {@linkplain #pin pinned} are
+ * evicted and freed right away, so caches must pin their modules while they are used, see {@link #tryPin}.
+ * A module evicted while the garbage collector is already finalizing it is freed by its finalizer. Its memory is
+ * counted as pending release in the meantime, and still counts towards the budget.
+ * <p>
+ * The budget is unlimited unless set with {@link #setBudget(long)} or the {@code unsafe.nativeBudget} system property,
+ * in bytes. Totals are published through JMX as a {@link NativeMemoryMXBean}.
+ */
+public final class ModuleRegistry {
+	/** System property with the initial budget, in bytes */
+	public static final String BUDGET_PROPERTY = "unsafe.nativeBudget";
+
+	private static final Object LOCK = new Object();
+
+	/** Registrations of live modules, guarded by {@link #LOCK} */
+	private static final Set<Registration> LIVE = new HashSet<>();
+
+	/** Logical clock for the least recently used order */
+	private static final AtomicLong CLOCK = new AtomicLong();
+
+	// Guarded by LOCK
+	private static long irBytes;
+	private static long codeBytes;
+	private static long dataBytes;
+	private static long pendingReleaseBytes;
+	private static long evictionCount;
+	private static int cachedModuleCount;
+	private static long budgetBytes = Long.getLong(BUDGET_PROPERTY, Long.MAX_VALUE);
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new NativeMemoryMBean(),
+					new ObjectName("com.medallia.unsafe:type=NativeMemory"));
+		} catch (InstanceAlreadyExistsException e) {
+			// Loaded more than once, e.g. from different class loaders. Keep the first one.
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register native memory bean", e);
+		}
+	}
+
+	/** The registration of a module. It references the module weakly, so that the module can be garbage collected. */
+	static final class Registration {
+		private final WeakReference<NativeModule> module;
+		private final AtomicBoolean released = new AtomicBoolean();
+		private volatile long lastAccess;
+
+		// Guarded by LOCK
+		private NativeFootprint footprint;
+		private int pins;
+		private Runnable eviction;
+		private boolean evicted;
+
+		private Registration(NativeFootprint footprint, NativeModule module) {
+			this.module = new WeakReference<>(module);
+			this.footprint = footprint;
+			this.lastAccess = CLOCK.incrementAndGet();
+		}
+
+		/** @return the footprint last reported for the module */
+		NativeFootprint getFootprint() {
+			synchronized (LOCK) {
+				return footprint;
+			}
+		}
+
+		/** @return true for the only caller that should free the native memory of the module */
+		private boolean claimRelease() {
+			return released.compareAndSet(false, true);
+		}
+	}
+
+	private ModuleRegistry() {
+	}
+
+	/** Registers the footprint of a module that cannot be freed before it is garbage collected */
+	static Registration register(NativeFootprint footprint) {
+		return register(footprint, null);
+	}
+
+	/** Registers a new module, evicting cached modules if it does not fit in the budget */
+	static Registration register(NativeFootprint footprint, NativeModule module) {
+		final Registration registration = new Registration(footprint, module);
+		synchronized (LOCK) {
+			LIVE.add(registration);
+			irBytes += footprint.getIrBytes();
+			codeBytes += footprint.getCodeBytes();
+			dataBytes += footprint.getDataBytes();
+		}
+		evictOverBudget();
+		return registration;
+	}
+
+	/**
+	 * Unregisters a module that is being garbage collected.
+	 * @return true if the caller should free the native memory of the module, false if it was freed on eviction
+	 */
+	static boolean unregister(Registration registration) {
+		remove(registration);
+		return registration.claimRelease();
+	}
+
+	/** Removes the footprint of a module from the totals */
+	private static void remove(Registration registration) {
+		synchronized (LOCK) {
+			if (!LIVE.remove(registration)) {
+				return;
+			}
+			final NativeFootprint footprint = registration.footprint;
+			irBytes -= footprint.getIrBytes();
+			codeBytes -= footprint.getCodeBytes();
+			dataBytes -= footprint.getDataBytes();
+			if (registration.evicted) {
+				pendingReleaseBytes -= footprint.getTotalBytes();
+			}
+			if (registration.eviction != null) {
+				cachedModuleCount--;
+			}
+		}
+	}
+
+	/** Replaces the footprint of a module whose native memory changed, evicting cached modules if needed */
+	static void update(Registration registration, NativeFootprint footprint) {
+		synchronized (LOCK) {
+			if (!LIVE.contains(registration)) {
+				return;
+			}
+			irBytes += footprint.getIrBytes() - registration.footprint.getIrBytes();
+			codeBytes += footprint.getCodeBytes() - registration.footprint.getCodeBytes();
+			dataBytes += footprint.getDataBytes() - registration.footprint.getDataBytes();
+			if (registration.evicted) {
+				pendingReleaseBytes += footprint.getTotalBytes() - registration.footprint.getTotalBytes();
+			}
+			registration.footprint = footprint;
+		}
+		evictOverBudget();
+	}
+
+	/**
+	 * Registers a module held by a cache, which makes it a candidate for eviction. An evicted module is freed as soon
+	 * as it is removed from the cache, so the cache must {@linkplain #tryPin pin} it while it is used.
+	 * @param module the cached module
+	 * @param eviction removes the module from the cache. It is called at most once, from any thread, without holding
+	 *                 any lock of this class, so it must not block on the code that compiles modules for the cache.
+	 */
+	public static void cached(NativeModule module, Runnable eviction) {
+		cached(module.getRegistration(), eviction);
+	}
+
+	/**
+	 * Unregisters a module removed from its cache by the cache itself, which is then freed when it is garbage collected.
+	 */
+	public static void uncached(NativeModule module) {
+		uncached(module.getRegistration());
+	}
+
+	/**
+	 * Pins a module unless it was evicted. Caches should look up a module and pin it with this method before using it,
+	 * and treat a failure as a cache miss.
+	 * @return true if the module was pinned, false if it was evicted and must not be used
+	 */
+	public static boolean tryPin(NativeModule module) {
+		return tryPin(module.getRegistration());
+	}
+
+	/** Marks a cached module as recently used. This method does not lock, and can be called on every cache hit. */
+	public static void touch(NativeModule module) {
+		touch(module.getRegistration());
+	}
+
+	/** Prevents a module from being evicted until {@link #unpin} is called as many times as this method. */
+	public static void pin(NativeModule module) {
+		pin(module.getRegistration());
+	}
+
+	/** Releases a pin taken with {@link #pin} */
+	public static void unpin(NativeModule module) {
+		unpin(module.getRegistration());
+	}
+
+	static void cached(Registration registration, Runnable eviction) {
+		if (eviction == null) {
+			throw new IllegalArgumentException("missing eviction");
+		}
+		synchronized (LOCK) {
+			if (registration.eviction != null) {
+				throw new IllegalStateException("module is already cached");
+			}
+			registration.eviction = eviction;
+			cachedModuleCount++;
+		}
+		touch(registration);
+		evictOverBudget();
+	}
+
+	static void uncached(Registration registration) {
+		synchronized (LOCK) {
+			if (registration.eviction != null && !registration.evicted) {
+				registration.eviction = null;
+				if (LIVE.contains(registration)) {
+					cachedModuleCount--;
+				}
+			}
+		}
+	}
+
+	static boolean tryPin(Registration registration) {
+		synchronized (LOCK) {
+			if (registration.evicted) {
+				return false;
+			}
+			registration.pins++;
+			return true;
+		}
+	}
+
+	static void touch(Registration registration) {
+		registration.lastAccess = CLOCK.incrementAndGet();
+	}
+
+	static void pin(Registration registration) {
+		synchronized (LOCK) {
+			registration.pins++;
+		}
+	}
+
+	static void unpin(Registration registration) {
+		synchronized (LOCK) {
+			if (registration.pins == 0) {
+				throw new IllegalStateException("module is not pinned");
+			}
+			registration.pins--;
+		}
+		evictOverBudget();
+	}
+
+	/**
+	 * Pins every cached module that can still be evicted, so that tests can set budgets without evicting modules
+	 * cached by other tests. Release them with {@link #unpin(Registration)}.
+	 * @return the pinned registrations
+	 */
+	static List<Registration> pinCached() {
+		final List<Registration> pinned = new ArrayList<>();
+		synchronized (LOCK) {
+			for (Registration registration : LIVE) {
+				if (registration.eviction != null && !registration.evicted) {
+					registration.pins++;
+					pinned.add(registration);
+				}
+			}
+		}
+		return pinned;
+	}
+
+	/** @return the budget in bytes, {@code Long.MAX_VALUE} if unlimited */
+	public static long getBudget() {
+		synchronized (LOCK) {
+			return budgetBytes;
+		}
+	}
+
+	/** Sets the budget in bytes, evicting cached modules if needed. {@code Long.MAX_VALUE} disables eviction. */
+	public static void setBudget(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("negative budget: " + bytes);
+		}
+		synchronized (LOCK) {
+			budgetBytes = bytes;
+		}
+		evictOverBudget();
+	}
+
+	/** @return the sum of the footprints of all live modules, including evicted ones that were not finalized yet */
+	public static NativeFootprint getTotalFootprint() {
+		synchronized (LOCK) {
+			return new NativeFootprint(irBytes, codeBytes, dataBytes);
+		}
+	}
+
+	/** @return number of live modules */
+	public static int getModuleCount() {
+		synchronized (LOCK) {
+			return LIVE.size();
+		}
+	}
+
+	/**
+	 * Evicts cached modules in least recently used order until the live modules fit in the budget, and frees them.
+	 * Memory pending release counts towards the budget, so more modules are evicted while it is not freed.
+	 */
+	private static void evictOverBudget() {
+		final List<Registration> evicted = new ArrayList<>();
+		synchronized (LOCK) {
+			long excess = irBytes + codeBytes + dataBytes - budgetBytes;
+			if (excess <= 0) {
+				return;
+			}
+			final List<Registration> candidates = new ArrayList<>();
+			for (Registration registration : LIVE) {
+				if (registration.eviction != null && !registration.evicted && registration.pins == 0) {
+					candidates.add(registration);
+				}
+			}
+			candidates.sort(Comparator.comparingLong(registration -> registration.lastAccess));
+			for (int i = 0; i < candidates.size() && excess > 0; i++) {
+				final Registration registration = candidates.get(i);
+				registration.evicted = true;
+				pendingReleaseBytes += registration.footprint.getTotalBytes();
+				excess -= registration.footprint.getTotalBytes();
+				evictionCount++;
+				evicted.add(registration);
+			}
+		}
+		for (Registration registration : evicted) {
+			registration.eviction.run();
+			// The module was not pinned, and it cannot be pinned or found in the cache any more
+			final NativeModule module = registration.module.get();
+			if (module != null && registration.claimRelease()) {
+				remove(registration);
+				Driver.delete(module);
+			}
+		}
+	}
+
+	/** Exposes the totals through JMX */
+	private static class NativeMemoryMBean implements NativeMemoryMXBean {
+		@Override
+		public int getModuleCount() {
+			return ModuleRegistry.getModuleCount();
+		}
+
+		@Override
+		public int getCachedModuleCount() {
+			synchronized (LOCK) {
+				return cachedModuleCount;
+			}
+		}
+
+		@Override
+		public long getIrBytes() {
+			return getTotalFootprint().getIrBytes();
+		}
+
+		@Override
+		public long getCodeBytes() {
+			return getTotalFootprint().getCodeBytes();
+		}
+
+		@Override
+		public long getDataBytes() {
+			return getTotalFootprint().getDataBytes();
+		}
+
+		@Override
+		public long getTotalBytes() {
+			return getTotalFootprint().getTotalBytes();
+		}
+
+		@Override
+		public long getPendingReleaseBytes() {
+			synchronized (LOCK) {
+				return pendingReleaseBytes;
+			}
+		}
+
+		@Override
+		public long getEvictionCount() {
+			synchronized (LOCK) {
+				return evictionCount;
+			}
+		}
+
+		@Override
+		public long getBudgetBytes() {
+			return getBudget();
+		}
+
+		@Override
+		public void setBudgetBytes(long budgetBytes) {
+			setBudget(budgetBytes);
+		}
+	}
+}
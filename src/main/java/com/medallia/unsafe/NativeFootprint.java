@@ -0,0 +1,48 @@
+package com.medallia.unsafe;
+
+/**
+ * Approximate native memory held by a {@link NativeModule}, which the Java heap does not account for.
+ * Sizes are estimates: the IR is measured by the size of its objects, and sections by the bytes requested
+ * for them, before rounding up to pages.
+ */
+public class NativeFootprint {
+	/** Bytes of IR kept by the execution engine, plus the source and any introspection output */
+	private final long irBytes;
+
+	/** Bytes of the code sections */
+	private final long codeBytes;
+
+	/** Bytes of the data sections */
+	private final long dataBytes;
+
+	NativeFootprint(long irBytes, long codeBytes, long dataBytes) {
+		this.irBytes = irBytes;
+		this.codeBytes = codeBytes;
+		this.dataBytes = dataBytes;
+	}
+
+	/** @return bytes of IR kept by the execution engine, plus the source and any introspection output */
+	public long getIrBytes() {
+		return irBytes;
+	}
+
+	/** @return bytes of the code sections */
+	public long getCodeBytes() {
+		return codeBytes;
+	}
+
+	/** @return bytes of the data sections */
+	public long getDataBytes() {
+		return dataBytes;
+	}
+
+	/** @return total bytes */
+	public long getTotalBytes() {
+		return irBytes + codeBytes + dataBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("IR: %dKB, code: %dKB, data: %dKB", irBytes >> 10, codeBytes >> 10, dataBytes >> 10);
+	}
+}
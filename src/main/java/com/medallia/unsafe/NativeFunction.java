@@ -19,8 +19,8 @@ public class NativeFunction {
 	@Native
 	private final NativeModule parent;
 
-	/** pointer to the compiled function's entry point. */
-	private final long pointerToCompiledFunction;
+	/** pointer to the compiled function's entry point, zero until it is compiled in a {@link CompileOption#LAZY} module. */
+	private volatile long pointerToCompiledFunction;
 
 	/** this function's decorated name */
 	private final String name;
@@ -44,9 +44,17 @@ public class NativeFunction {
 		return parent;
 	}
 
-	/** @return a pointer to the compiled function. May be zero if the function is intrinsic. */
+	/**
+	 * Returns a pointer to the compiled function, compiling it first if its module is {@link CompileOption#LAZY}.
+	 * @return a pointer to the compiled function. May be zero if the function is intrinsic.
+	 */
 	public long getPointerToCompiledFunction() {
-		return pointerToCompiledFunction;
+		long pointer = pointerToCompiledFunction;
+		if (pointer == 0) {
+			pointer = pointerToCompiledFunction = Driver.getPointerToFunction(this);
+			parent.updateFootprint();
+		}
+		return pointer;
 	}
 
 	/**
@@ -85,6 +93,10 @@ public class NativeFunction {
 	 * @return the function's return value or null.
 	 */
 	public Object invoke(Object... args) {
+		if (pointerToCompiledFunction == 0) {
+			// Compiles the function of a lazy module here, so that its footprint is reported
+			getPointerToCompiledFunction();
+		}
 		return Driver.invoke(this, args == null ? new Object[0] : args);
 	}
 
@@ -0,0 +1,37 @@
+package com.medallia.unsafe;
+
+/**
+ * Management interface for the native memory of all live {@link NativeModule}s, registered as
+ * {@code com.medallia.unsafe:type=NativeMemory}. See {@link ModuleRegistry}.
+ */
+public interface NativeMemoryMXBean {
+	/** @return number of live modules */
+	int getModuleCount();
+
+	/** @return number of live modules registered by a cache */
+	int getCachedModuleCount();
+
+	/** @return bytes of IR of all live modules */
+	long getIrBytes();
+
+	/** @return bytes of code sections of all live modules */
+	long getCodeBytes();
+
+	/** @return bytes of data sections of all live modules */
+	long getDataBytes();
+
+	/** @return total bytes of all live modules */
+	long getTotalBytes();
+
+	/** @return bytes of evicted modules that are being garbage collected, and are freed by their finalizers */
+	long getPendingReleaseBytes();
+
+	/** @return number of modules evicted from caches to stay within the budget */
+	long getEvictionCount();
+
+	/** @return the budget in bytes, {@code Long.MAX_VALUE} if unlimited */
+	long getBudgetBytes();
+
+	/** Sets the budget, evicting cached modules if needed */
+	void setBudgetBytes(long budgetBytes);
+}
@@ -1,6 +1,10 @@
 package com.medallia.unsafe;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,6 +26,9 @@ public class NativeModule {
 	/** Any compilation errors */
 	private final String errors;
 
+	/** Registration of the native memory held by this module */
+	private final ModuleRegistry.Registration registration;
+
 	/**
 	 * Creates a new {@link com.medallia.unsafe.NativeModule}.
 	 * Used by native code, do not change.
@@ -35,6 +42,7 @@ public class NativeModule {
 		for (NativeFunction function : functions) {
 			nameIndex.put(function.getName(), function);
 		}
+		this.registration = ModuleRegistry.register(getNativeFootprint(), this);
 	}
 
 	/** @return all functions contained in this module.  */
@@ -74,6 +82,127 @@ public class NativeModule {
 		return errors;
 	}
 
+	/** @return time spent in each phase of the compilation of this module, and the size of the IR after each one */
+	public CompileStatistics getCompileStatistics() {
+		final long[] statistics = Driver.getCompileStatistics(this);
+		return new CompileStatistics(statistics[0], statistics[1], statistics[2], statistics[3], statistics[4], statistics[5]);
+	}
+
+	/** @return the approximate native memory held by this module, see {@link ModuleRegistry} */
+	public NativeFootprint getNativeFootprint() {
+		final long[] footprint = Driver.getNativeFootprint(this);
+		return new NativeFootprint(footprint[0], footprint[1], footprint[2]);
+	}
+
+	ModuleRegistry.Registration getRegistration() {
+		return registration;
+	}
+
+	/** Reports the footprint of this module again, after code was generated for a {@link CompileOption#LAZY} module */
+	void updateFootprint() {
+		if (registration != null) {
+			ModuleRegistry.update(registration, getNativeFootprint());
+		}
+	}
+
+	/**
+	 * @return the LLVM IR of this module after optimization
+	 * @throws IllegalStateException if the module was not compiled with {@link CompileOption#INTROSPECTION}
+	 */
+	public String getOptimizedIR() {
+		return checkIntrospection(Driver.getOptimizedIR(this));
+	}
+
+	/**
+	 * Returns the assembly generated for one function of this module.
+	 * @param function the function's decorated name
+	 * @return the assembly of the function, or null if the module has no such function
+	 * @throws IllegalStateException if the module was not compiled with {@link CompileOption#INTROSPECTION}
+	 */
+	public String getAssembly(String function) {
+		return extractFunction(checkIntrospection(Driver.getAssembly(this)), function);
+	}
+
+	/**
+	 * @return the remarks of the loop vectorizer and the inliner, in the order they were reported
+	 * @throws IllegalStateException if the module was not compiled with {@link CompileOption#INTROSPECTION}
+	 */
+	public List<OptimizationRemark> getOptimizationRemarks() {
+		return Arrays.asList(checkIntrospection(Driver.getOptimizationRemarks(this)));
+	}
+
+	/**
+	 * @return the bitcode of this module after optimization, which can be loaded with
+	 * {@link Driver#loadBitcode(String, byte[])} by a process running on the same target
+	 * @throws IllegalStateException if the module was not compiled with {@link CompileOption#BITCODE}
+	 */
+	public byte[] getBitcode() {
+		final byte[] bitcode = Driver.getBitcode(this);
+		if (bitcode == null) {
+			throw new IllegalStateException("module was not compiled with " + CompileOption.BITCODE);
+		}
+		return bitcode;
+	}
+
+	/**
+	 * Writes the current values of the profile counters of this module, in the indexed format read by Clang's
+	 * {@code -fprofile-instr-use=<path>} option. Counters are updated without synchronization, so the profile of a
+	 * module that is being executed is a close approximation.
+	 * @param path the file to write
+	 * @throws IOException if the profile cannot be written
+	 * @throws IllegalStateException if the module was not compiled with {@link CompileOption#PROFILE_INSTRUMENTATION}
+	 */
+	public void writeProfile(Path path) throws IOException {
+		final String error = Driver.writeProfile(this, path.toString());
+		if (error != null) {
+			throw new IOException("cannot write profile to " + path + ": " + error);
+		}
+	}
+
+	/** Native introspection getters return null for modules compiled without {@link CompileOption#INTROSPECTION} */
+	private static <T> T checkIntrospection(T value) {
+		if (value == null) {
+			throw new IllegalStateException("module was not compiled with " + CompileOption.INTROSPECTION);
+		}
+		return value;
+	}
+
+	/**
+	 * Extracts a function from the assembly of a whole module: from its label, which is prefixed with an underscore
+	 * on Mach-O, up to the end of its frame information or the next global label.
+	 */
+	static String extractFunction(String assembly, String function) {
+		final String[] lines = assembly.split("\n");
+		int start = -1;
+		for (int i = 0; i < lines.length && start < 0; i++) {
+			if (lines[i].equals(function + ":") || lines[i].equals("_" + function + ":")) {
+				start = i;
+			}
+		}
+		if (start < 0) {
+			return null;
+		}
+
+		final StringBuilder sb = new StringBuilder(lines[start]).append('\n');
+		for (int i = start + 1; i < lines.length; i++) {
+			final String line = lines[i];
+			if (isGlobalLabel(line)) {
+				break;
+			}
+			sb.append(line).append('\n');
+			if (line.trim().equals(".cfi_endproc")) {
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/** @return true if the line defines a label that is not local to a function */
+	private static boolean isGlobalLabel(String line) {
+		return line.endsWith(":") && !line.isEmpty() && !Character.isWhitespace(line.charAt(0))
+				&& !line.startsWith(".L") && !line.startsWith("L") && !line.startsWith("#");
+	}
+
 	@Override
 	public String toString() {
 		return "NativeModule <0x" + Long.toHexString(modulePtr) + ">";
@@ -82,6 +211,9 @@ public class NativeModule {
 	@Override
 	protected void finalize() throws Throwable {
 		super.finalize();
-		Driver.delete(this);
+		// Evicted modules may have been freed already
+		if (registration == null || ModuleRegistry.unregister(registration)) {
+			Driver.delete(this);
+		}
 	}
 }
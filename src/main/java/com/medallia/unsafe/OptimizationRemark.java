@@ -0,0 +1,62 @@
+package com.medallia.unsafe;
+
+/**
+ * An optimization applied by a pass while optimizing a {@link NativeModule}.
+ * Only the remarks of the loop vectorizer and the inliner are kept.
+ * <p>
+ * This version of LLVM only reports optimizations that were applied, so a loop that was not vectorized
+ * is recognized by the absence of a {@link #LOOP_VECTORIZE} remark for its function.
+ */
+public class OptimizationRemark {
+	/** Name of the loop vectorizer pass */
+	public static final String LOOP_VECTORIZE = "loop-vectorize";
+
+	/** Name of the inliner pass */
+	public static final String INLINE = "inline";
+
+	/** Name of the pass that reported this remark */
+	private final String passName;
+
+	/** Decorated name of the function the remark applies to */
+	private final String functionName;
+
+	/** Source line, zero if unknown */
+	private final int line;
+
+	/** What the pass did */
+	private final String message;
+
+	/** Called by native code. */
+	@Native
+	private OptimizationRemark(String passName, String functionName, int line, String message) {
+		this.passName = passName;
+		this.functionName = functionName;
+		this.line = line;
+		this.message = message;
+	}
+
+	/** @return the name of the pass that reported this remark, such as {@link #LOOP_VECTORIZE} */
+	public String getPassName() {
+		return passName;
+	}
+
+	/** @return the decorated name of the function the remark applies to */
+	public String getFunctionName() {
+		return functionName;
+	}
+
+	/** @return the source line the remark applies to, or zero if the module has no line information */
+	public int getLine() {
+		return line;
+	}
+
+	/** @return a description of what the pass did, for example the vectorization factor used */
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return functionName + ":" + line + ": [" + passName + "] " + message;
+	}
+}
@@ -0,0 +1,17 @@
+package com.medallia.unsafe.collections;
+
+/** Hash functions shared with the runtime headers. */
+final class Hashing {
+	private Hashing() {
+	}
+
+	/** The finalizer of MurmurHash3, same as {@code unsafe::kernels::fmix64} in {@code <unsafe/kernels.h>} */
+	static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
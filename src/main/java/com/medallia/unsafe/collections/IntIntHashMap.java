@@ -0,0 +1,51 @@
+package com.medallia.unsafe.collections;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An off-heap map from {@code int} to {@code int}, which compiled code can probe directly with
+ * {@code unsafe::int_int_map} from {@code <unsafe/hashmap.h>}. See {@link OffHeapHashMap}.
+ */
+public final class IntIntHashMap extends OffHeapHashMap {
+	private static final int SLOT_BYTES = 8;
+
+	/** Creates a map with room for {@code expectedSize} entries before growing */
+	public IntIntHashMap(int expectedSize) {
+		super(SLOT_BYTES, expectedSize);
+	}
+
+	public IntIntHashMap() {
+		this(0);
+	}
+
+	public boolean containsKey(int key) {
+		return containsKey0(key);
+	}
+
+	/** @return the value of {@code key}, or {@code defaultValue} if the map does not contain it */
+	public int get(int key, int defaultValue) {
+		return (int) get0(key, defaultValue);
+	}
+
+	/** Associates {@code value} with {@code key}, replacing any previous value */
+	public void put(int key, int value) {
+		put0(key, value);
+	}
+
+	@Override long hash(long key) {
+		return Hashing.fmix64(key & 0xffffffffL);
+	}
+
+	@Override long keyAt(ByteBuffer buffer, int offset) {
+		return buffer.getInt(offset);
+	}
+
+	@Override long valueAt(ByteBuffer buffer, int offset) {
+		return buffer.getInt(offset + 4);
+	}
+
+	@Override void putSlot(ByteBuffer buffer, int offset, long key, long value) {
+		buffer.putInt(offset, (int) key);
+		buffer.putInt(offset + 4, (int) value);
+	}
+}
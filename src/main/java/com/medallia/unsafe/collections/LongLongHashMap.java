@@ -0,0 +1,51 @@
+package com.medallia.unsafe.collections;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An off-heap map from {@code long} to {@code long}, which compiled code can probe directly with
+ * {@code unsafe::long_long_map} from {@code <unsafe/hashmap.h>}. See {@link OffHeapHashMap}.
+ */
+public final class LongLongHashMap extends OffHeapHashMap {
+	private static final int SLOT_BYTES = 16;
+
+	/** Creates a map with room for {@code expectedSize} entries before growing */
+	public LongLongHashMap(int expectedSize) {
+		super(SLOT_BYTES, expectedSize);
+	}
+
+	public LongLongHashMap() {
+		this(0);
+	}
+
+	public boolean containsKey(long key) {
+		return containsKey0(key);
+	}
+
+	/** @return the value of {@code key}, or {@code defaultValue} if the map does not contain it */
+	public long get(long key, long defaultValue) {
+		return get0(key, defaultValue);
+	}
+
+	/** Associates {@code value} with {@code key}, replacing any previous value */
+	public void put(long key, long value) {
+		put0(key, value);
+	}
+
+	@Override long hash(long key) {
+		return Hashing.fmix64(key);
+	}
+
+	@Override long keyAt(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset);
+	}
+
+	@Override long valueAt(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset + 8);
+	}
+
+	@Override void putSlot(ByteBuffer buffer, int offset, long key, long value) {
+		buffer.putLong(offset, key);
+		buffer.putLong(offset + 8, value);
+	}
+}
@@ -0,0 +1,185 @@
+package com.medallia.unsafe.collections;
+
+import com.medallia.unsafe.io.DirectMemory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Base class of the off-heap open addressing maps, with the layout read by {@code <unsafe/hashmap.h>}:
+ * <pre>
+ *     header: { uint64 mask; uint64 size; uint64 hasZero; int64 zeroValue; }
+ *     slots:  { K key; V value; }[mask + 1]
+ * </pre>
+ * Slots are probed linearly starting at the murmur3 finalizer of the key, zero-extended to 64 bits.
+ * Key 0 marks an empty slot, so its value is kept in the header.
+ * <p>
+ * Maps are meant to be built once and then probed by compiled kernels. Entries cannot be removed, and the map
+ * moves to a new address whenever it grows, so {@link #getAddress()} must be called after the last insertion.
+ * Maps are not thread safe.
+ */
+abstract class OffHeapHashMap {
+	static final int HEADER_BYTES = 32;
+	private static final int MASK_OFFSET = 0;
+	private static final int SIZE_OFFSET = 8;
+	private static final int HAS_ZERO_OFFSET = 16;
+	private static final int ZERO_VALUE_OFFSET = 24;
+
+	/** Slots are at most this full before the map grows */
+	private static final double MAX_LOAD = 0.75;
+
+	/** Size of a slot */
+	private final int slotBytes;
+
+	/** Memory of the map, in native byte order */
+	ByteBuffer buffer;
+
+	/** Number of slots minus one */
+	private int mask;
+
+	/** Number of occupied slots, which does not include key 0 */
+	private int occupied;
+
+	/** Address of {@link #buffer}, zero until it is requested */
+	private long address;
+
+	OffHeapHashMap(int slotBytes, int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("negative expected size: " + expectedSize);
+		}
+		this.slotBytes = slotBytes;
+		allocate(capacityFor(expectedSize));
+	}
+
+	/** @return the smallest power of two number of slots holding {@code size} entries below the maximum load */
+	private int capacityFor(long size) {
+		long capacity = 8;
+		while (capacity * MAX_LOAD < size) {
+			capacity <<= 1;
+		}
+		return checkCapacity(capacity);
+	}
+
+	/** @return {@code capacity} if a map with that many slots fits in a buffer */
+	private int checkCapacity(long capacity) {
+		if (HEADER_BYTES + capacity * slotBytes > Integer.MAX_VALUE) {
+			throw new IllegalStateException("map too large: " + capacity + " slots");
+		}
+		return (int) capacity;
+	}
+
+	private void allocate(int capacity) {
+		buffer = ByteBuffer.allocateDirect(HEADER_BYTES + capacity * slotBytes).order(ByteOrder.nativeOrder());
+		mask = capacity - 1;
+		occupied = 0;
+		address = 0;
+		buffer.putLong(MASK_OFFSET, mask);
+	}
+
+	abstract long hash(long key);
+	abstract long keyAt(ByteBuffer buffer, int offset);
+	abstract long valueAt(ByteBuffer buffer, int offset);
+	abstract void putSlot(ByteBuffer buffer, int offset, long key, long value);
+
+	/** @return offset of the slot holding {@code key}, or of the empty slot where it should be inserted */
+	private int find(long key) {
+		for (int slot = (int) (hash(key) & mask); ; slot = (slot + 1) & mask) {
+			final int offset = HEADER_BYTES + slot * slotBytes;
+			final long slotKey = keyAt(buffer, offset);
+			if (slotKey == key || slotKey == 0) {
+				return offset;
+			}
+		}
+	}
+
+	final boolean containsKey0(long key) {
+		if (key == 0) {
+			return buffer.getLong(HAS_ZERO_OFFSET) != 0;
+		}
+		return keyAt(buffer, find(key)) != 0;
+	}
+
+	final long get0(long key, long defaultValue) {
+		if (key == 0) {
+			return buffer.getLong(HAS_ZERO_OFFSET) != 0 ? buffer.getLong(ZERO_VALUE_OFFSET) : defaultValue;
+		}
+		final int offset = find(key);
+		return keyAt(buffer, offset) != 0 ? valueAt(buffer, offset) : defaultValue;
+	}
+
+	final void put0(long key, long value) {
+		if (key == 0) {
+			buffer.putLong(HAS_ZERO_OFFSET, 1);
+			buffer.putLong(ZERO_VALUE_OFFSET, value);
+			updateSize();
+			return;
+		}
+		int offset = find(key);
+		if (keyAt(buffer, offset) == 0) {
+			if (occupied + 1 > (mask + 1) * MAX_LOAD) {
+				grow();
+				offset = find(key);
+			}
+			occupied++;
+		}
+		putSlot(buffer, offset, key, value);
+		updateSize();
+	}
+
+	/** Moves all entries to a map with twice the slots */
+	private void grow() {
+		final ByteBuffer old = buffer;
+		final int oldCapacity = mask + 1;
+		allocate(checkCapacity((long) oldCapacity * 2));
+		buffer.putLong(HAS_ZERO_OFFSET, old.getLong(HAS_ZERO_OFFSET));
+		buffer.putLong(ZERO_VALUE_OFFSET, old.getLong(ZERO_VALUE_OFFSET));
+
+		for (int slot = 0; slot < oldCapacity; slot++) {
+			final int oldOffset = HEADER_BYTES + slot * slotBytes;
+			final long key = keyAt(old, oldOffset);
+			if (key != 0) {
+				putSlot(buffer, find(key), key, valueAt(old, oldOffset));
+				occupied++;
+			}
+		}
+	}
+
+	private void updateSize() {
+		buffer.putLong(SIZE_OFFSET, size());
+	}
+
+	/** @return number of slots */
+	final int capacity() {
+		return mask + 1;
+	}
+
+	/** @return number of entries */
+	public final int size() {
+		return occupied + (buffer.getLong(HAS_ZERO_OFFSET) != 0 ? 1 : 0);
+	}
+
+	/** @return true if the map has no entries */
+	public final boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/** Removes all entries, keeping the current address */
+	public final void clear() {
+		for (int i = SIZE_OFFSET; i < buffer.capacity(); i += 8) {
+			buffer.putLong(i, 0);
+		}
+		occupied = 0;
+	}
+
+	/**
+	 * Returns the address of the map, to be passed to compiled code using {@code <unsafe/hashmap.h>}.
+	 * The address changes when the map grows, and is only valid while this map is reachable.
+	 * @return address of the map
+	 */
+	public final long getAddress() {
+		if (address == 0) {
+			address = DirectMemory.address(buffer);
+		}
+		return address;
+	}
+}
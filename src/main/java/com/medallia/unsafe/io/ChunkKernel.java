@@ -0,0 +1,15 @@
+package com.medallia.unsafe.io;
+
+/**
+ * Processes a chunk of memory, usually by passing it to a compiled kernel.
+ * @param <R> type of the result of each chunk
+ */
+@FunctionalInterface
+public interface ChunkKernel<R> {
+	/**
+	 * @param address address of the first byte of the chunk
+	 * @param length length of the chunk in bytes
+	 * @return the result for this chunk
+	 */
+	R apply(long address, long length);
+}
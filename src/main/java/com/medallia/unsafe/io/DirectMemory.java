@@ -0,0 +1,87 @@
+package com.medallia.unsafe.io;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+import java.nio.Buffer;
+
+/**
+ * Helpers to hand direct buffers to compiled code as raw addresses.
+ * The helpers are compiled the first time they are used.
+ */
+public final class DirectMemory {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(DirectMemory.class);
+
+	private static final String SOURCE = "#include <jni.h>\n" +
+			"#include <stdint.h>\n" +
+			"#include <sys/mman.h>\n" +
+			"#include <unistd.h>\n" +
+			"jlong address0(JNIEnv* env, jobject self, jobject buffer) {\n" +
+			"  return (jlong) env->GetDirectBufferAddress(buffer);\n" +
+			"}\n" +
+			// Same order as Advice
+			"static const int ADVICE[] = { MADV_NORMAL, MADV_SEQUENTIAL, MADV_RANDOM, MADV_WILLNEED, MADV_DONTNEED };\n" +
+			"jint advise0(JNIEnv* env, jobject self, jlong address, jlong length, jint advice) {\n" +
+			"  const uintptr_t pageSize = (uintptr_t) sysconf(_SC_PAGESIZE);\n" +
+			"  const uintptr_t start = (uintptr_t) address & ~(pageSize - 1);\n" +
+			"  return madvise((void*) start, (size_t) ((uintptr_t) address + length - start), ADVICE[advice]);\n" +
+			"}\n";
+
+	@Native
+	private final long[] functions;
+
+	/** The helpers are compiled once, on first use */
+	private static class Holder {
+		static final DirectMemory INSTANCE = new DirectMemory(compile());
+	}
+
+	private DirectMemory(NativeModule implementation) {
+		functions = BINDINGS.getFunctionPointers(implementation);
+	}
+
+	private static NativeModule compile() {
+		final NativeModule nativeModule = Driver.compileInMemory(SOURCE, "-O3");
+		if (nativeModule.hasErrors()) {
+			throw new IllegalStateException(nativeModule.getErrors());
+		}
+		return nativeModule;
+	}
+
+	/**
+	 * Returns the address of the memory of a direct buffer. The address is only valid while the buffer is reachable.
+	 * @param buffer a direct buffer
+	 * @return the address of the first element of the buffer, ignoring its position
+	 */
+	public static long address(Buffer buffer) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("not a direct buffer");
+		}
+		return Holder.INSTANCE.address0(buffer);
+	}
+
+	/** Advice on the use of memory, see {@code madvise(2)} */
+	public enum Advice {
+		NORMAL, SEQUENTIAL, RANDOM, WILLNEED, DONTNEED
+	}
+
+	/**
+	 * Advises the kernel on how a range of memory, typically a memory mapped file, will be used.
+	 * The range is extended to start at a page boundary. Advice is a hint, so failures are ignored.
+	 * @param address start of the range
+	 * @param length length of the range in bytes
+	 * @param advice the advice
+	 * @return true if the advice was accepted
+	 */
+	public static boolean advise(long address, long length, Advice advice) {
+		if (address == 0 || length < 0) {
+			throw new IllegalArgumentException("invalid range: " + address + ", " + length);
+		}
+		return Holder.INSTANCE.advise0(address, length, advice.ordinal()) == 0;
+	}
+
+	private native long address0(Buffer buffer);
+	private native int advise0(long address, long length, int advice);
+}
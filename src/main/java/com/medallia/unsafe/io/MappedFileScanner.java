@@ -0,0 +1,204 @@
+package com.medallia.unsafe.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Scans a file, or a region of it, by memory mapping it in chunks and passing the address and length of each chunk
+ * to a {@link ChunkKernel}, so that compiled kernels read the file at memory bandwidth without copying it into the
+ * Java heap:
+ * <pre>
+ *     try (MappedFileScanner scanner = new MappedFileScanner(path)) {
+ *         final long sum = scanner.scan((address, length) -&gt; LongKernels.get().sum(address, (int) (length / 8)), 0L, Long::sum);
+ *     }
+ * </pre>
+ * Chunks start at multiples of the chunk size, relative to the start of the file, so they are page aligned except
+ * for the first chunk of a region. Each chunk can be advised as sequential, and the next chunk can be prefetched
+ * while the current one is processed.
+ * <p>
+ * The memory of a chunk is only valid during the call to the kernel. Each chunk is unmapped as soon as its kernel
+ * returns, and chunks still mapped, such as a prefetched chunk when a kernel throws, are unmapped by {@link #close()}.
+ * Where the JVM does not allow unmapping, chunks are released by the garbage collector once the scanner no longer
+ * references them.
+ */
+public class MappedFileScanner implements AutoCloseable {
+	/** Default size of a chunk */
+	public static final long DEFAULT_CHUNK_BYTES = 64 << 20;
+
+	/** Chunk sizes must be multiples of this, which is a multiple of the page size of all supported platforms */
+	public static final long CHUNK_ALIGNMENT = 64 << 10;
+
+	/** Unmaps a buffer, returning false if the JVM does not allow it */
+	private static final Predicate<MappedByteBuffer> UNMAPPER = unmapper();
+
+	private final FileChannel channel;
+	private final long chunkBytes;
+	private final boolean sequential;
+	private final boolean prefetch;
+
+	/** Chunks mapped and not unmapped yet. Holding them here keeps them mapped while kernels read their addresses. */
+	private final Set<MappedByteBuffer> mapped = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+	/** Opens a file for scanning, with the default chunk size, sequential advice and prefetching */
+	public MappedFileScanner(Path file) throws IOException {
+		this(file, DEFAULT_CHUNK_BYTES, true, true);
+	}
+
+	/**
+	 * Opens a file for scanning.
+	 * @param file the file to scan
+	 * @param chunkBytes size of the chunks, a multiple of {@link #CHUNK_ALIGNMENT} of at most 1GB
+	 * @param sequential whether to advise the kernel that chunks will be read sequentially
+	 * @param prefetch whether to request the next chunk to be read ahead while processing the current one
+	 * @throws IOException if the file cannot be opened
+	 */
+	public MappedFileScanner(Path file, long chunkBytes, boolean sequential, boolean prefetch) throws IOException {
+		if (chunkBytes <= 0 || chunkBytes % CHUNK_ALIGNMENT != 0 || chunkBytes > 1 << 30) {
+			throw new IllegalArgumentException("chunk size should be a positive multiple of " + CHUNK_ALIGNMENT
+					+ " of at most 1GB: " + chunkBytes);
+		}
+		this.chunkBytes = chunkBytes;
+		this.sequential = sequential;
+		this.prefetch = prefetch;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+	}
+
+	/** @return the size of the file */
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	/**
+	 * Scans the whole file.
+	 * @param kernel called for each chunk, in order
+	 * @param identity the initial result
+	 * @param combiner combines the result so far with the result of the next chunk
+	 * @return the combined result
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public <R> R scan(ChunkKernel<R> kernel, R identity, BinaryOperator<R> combiner) throws IOException {
+		return scan(0, size(), kernel, identity, combiner);
+	}
+
+	/**
+	 * Scans a region of the file.
+	 * @param position start of the region
+	 * @param length length of the region
+	 * @param kernel called for each chunk, in order
+	 * @param identity the initial result
+	 * @param combiner combines the result so far with the result of the next chunk
+	 * @return the combined result
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public <R> R scan(long position, long length, ChunkKernel<R> kernel, R identity, BinaryOperator<R> combiner) throws IOException {
+		if (position < 0 || length < 0 || position + length > size()) {
+			throw new IllegalArgumentException("region [" + position + ", " + position + " + " + length + ") outside of the file");
+		}
+		final long end = position + length;
+		R result = identity;
+		MappedByteBuffer chunk = position < end ? map(position, chunkEnd(position, end)) : null;
+		for (long start = position; start < end; ) {
+			final long chunkEnd = chunkEnd(start, end);
+			final MappedByteBuffer next = prefetch && chunkEnd < end ? map(chunkEnd, chunkEnd(chunkEnd, end)) : null;
+			if (next != null) {
+				DirectMemory.advise(DirectMemory.address(next), next.capacity(), DirectMemory.Advice.WILLNEED);
+			}
+			final MappedByteBuffer current = chunk != null ? chunk : map(start, chunkEnd);
+			final R chunkResult = kernel.apply(DirectMemory.address(current), chunkEnd - start);
+			release(current);
+			result = combiner.apply(result, chunkResult);
+			chunk = next;
+			start = chunkEnd;
+		}
+		return result;
+	}
+
+	/** @return end of the chunk starting at {@code start}, which is at the next multiple of the chunk size */
+	long chunkEnd(long start, long end) {
+		return Math.min(end, (start / chunkBytes + 1) * chunkBytes);
+	}
+
+	private MappedByteBuffer map(long start, long end) throws IOException {
+		final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		mapped.add(buffer);
+		if (sequential) {
+			DirectMemory.advise(DirectMemory.address(buffer), buffer.capacity(), DirectMemory.Advice.SEQUENTIAL);
+		}
+		return buffer;
+	}
+
+	/** Unmaps a chunk, or leaves it to the garbage collector once it is no longer referenced */
+	private void release(MappedByteBuffer buffer) {
+		if (mapped.remove(buffer)) {
+			unmap(buffer);
+		}
+	}
+
+	/** Closes the file and unmaps the chunks still mapped */
+	@Override
+	public void close() throws IOException {
+		final List<MappedByteBuffer> chunks;
+		synchronized (mapped) {
+			chunks = new ArrayList<>(mapped);
+		}
+		chunks.forEach(this::release);
+		channel.close();
+	}
+
+	/**
+	 * Unmaps a buffer right away. The buffer must not be used afterwards.
+	 * @return false if the JVM does not allow it, in which case the buffer is unmapped when it is garbage collected
+	 */
+	static boolean unmap(MappedByteBuffer buffer) {
+		return UNMAPPER.test(buffer);
+	}
+
+	/** @return a function that unmaps buffers through the cleaner of the JVM, Unsafe.invokeCleaner() since Java 9 */
+	private static Predicate<MappedByteBuffer> unmapper() {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return buffer -> invoke(invokeCleaner, unsafe, buffer) != null;
+		} catch (NoSuchMethodException e) {
+			// Java 8
+			try {
+				final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+				return buffer -> {
+					final Object bufferCleaner = invoke(cleaner, buffer);
+					return bufferCleaner != null && invoke(clean, bufferCleaner) != null;
+				};
+			} catch (ReflectiveOperationException | RuntimeException e8) {
+				return buffer -> false;
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return buffer -> false;
+		}
+	}
+
+	/** @return the result of a method, {@link Boolean#TRUE} for void methods, or null if it cannot be called */
+	private static Object invoke(Method method, Object target, Object... args) {
+		try {
+			final Object result = method.invoke(target, args);
+			return method.getReturnType() == Void.TYPE ? Boolean.TRUE : result;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.medallia.unsafe.io;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+/**
+ * Controls the per-thread scratch arenas that compiled code allocates temporary buffers from,
+ * see {@code <unsafe/arena.h>}.
+ * <p>
+ * Every thread has its own arena, a list of memory blocks that allocations bump a pointer through. Memory is
+ * released all at once, after each call to a native method annotated with
+ * {@link com.medallia.unsafe.thunk.ScratchArena} or explicitly by {@link #reset()}, and the blocks are kept for
+ * later allocations of the same thread until it exits or {@link #trim()} is called.
+ * Except for {@link #getTotalCapacity()} and {@link #setBlockSize(long)}, the methods apply to the arena of the
+ * calling thread. The helpers are compiled the first time they are used.
+ */
+public final class ScratchArenas {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(ScratchArenas.class);
+
+	private static final String SOURCE = "#include <jni.h>\n" +
+			"#include <stdint.h>\n" +
+			"extern \"C\" {\n" +
+			"  void unsafe_arena_reset();\n" +
+			"  void unsafe_arena_trim();\n" +
+			"  void unsafe_arena_stats(int64_t* stats);\n" +
+			"  int64_t unsafe_arena_total_capacity();\n" +
+			"  void unsafe_arena_set_block_size(int64_t bytes);\n" +
+			"}\n" +
+			"void reset0(JNIEnv* env, jobject self) {\n" +
+			"  unsafe_arena_reset();\n" +
+			"}\n" +
+			"void trim0(JNIEnv* env, jobject self) {\n" +
+			"  unsafe_arena_trim();\n" +
+			"}\n" +
+			"void stats0(JNIEnv* env, jobject self, jlongArray out) {\n" +
+			"  int64_t stats[3];\n" +
+			"  unsafe_arena_stats(stats);\n" +
+			"  env->SetLongArrayRegion(out, 0, 3, (const jlong*) stats);\n" +
+			"}\n" +
+			"jlong totalCapacity0(JNIEnv* env, jobject self) {\n" +
+			"  return unsafe_arena_total_capacity();\n" +
+			"}\n" +
+			"void setBlockSize0(JNIEnv* env, jobject self, jlong bytes) {\n" +
+			"  unsafe_arena_set_block_size(bytes);\n" +
+			"}\n";
+
+	/** Indexes of the values written by {@code stats0} */
+	private static final int USED = 0, CAPACITY = 1, PEAK = 2;
+
+	@Native
+	private final long[] functions;
+
+	/** The helpers are compiled once, on first use */
+	private static class Holder {
+		static final ScratchArenas INSTANCE = new ScratchArenas(compile());
+	}
+
+	private ScratchArenas(NativeModule implementation) {
+		functions = BINDINGS.getFunctionPointers(implementation);
+	}
+
+	private static NativeModule compile() {
+		final NativeModule nativeModule = Driver.compileInMemory(SOURCE, "-O3");
+		if (nativeModule.hasErrors()) {
+			throw new IllegalStateException(nativeModule.getErrors());
+		}
+		return nativeModule;
+	}
+
+	/**
+	 * Releases everything allocated from the arena of the calling thread. Memory allocated by native code
+	 * that has not returned yet, or that was kept past the call that allocated it, must not be used afterwards.
+	 */
+	public static void reset() {
+		Holder.INSTANCE.reset0();
+	}
+
+	/**
+	 * Frees the memory of the arena of the calling thread but for its first block, if nothing is allocated from it.
+	 * Useful after a call that needed much more scratch memory than usual.
+	 */
+	public static void trim() {
+		Holder.INSTANCE.trim0();
+	}
+
+	/** @return the bytes currently allocated from the arena of the calling thread */
+	public static long getUsed() {
+		return stats()[USED];
+	}
+
+	/** @return the size of the memory blocks of the arena of the calling thread, in bytes */
+	public static long getCapacity() {
+		return stats()[CAPACITY];
+	}
+
+	/** @return the largest number of bytes allocated at once from the arena of the calling thread */
+	public static long getPeak() {
+		return stats()[PEAK];
+	}
+
+	private static long[] stats() {
+		final long[] stats = new long[3];
+		Holder.INSTANCE.stats0(stats);
+		return stats;
+	}
+
+	/** @return the size of the memory blocks of the arenas of all live threads, in bytes */
+	public static long getTotalCapacity() {
+		return Holder.INSTANCE.totalCapacity0();
+	}
+
+	/**
+	 * Sets the size of the memory blocks added to arenas from now on, 1 MB by default. Allocations larger than
+	 * the block size get a block of their own.
+	 * @param bytes size of the blocks
+	 */
+	public static void setBlockSize(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("invalid block size: " + bytes);
+		}
+		Holder.INSTANCE.setBlockSize0(bytes);
+	}
+
+	private native void reset0();
+	private native void trim0();
+	private native void stats0(long[] out);
+	private native long totalCapacity0();
+	private native void setBlockSize0(long bytes);
+}
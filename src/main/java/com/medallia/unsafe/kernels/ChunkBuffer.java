@@ -0,0 +1,51 @@
+package com.medallia.unsafe.kernels;
+
+/**
+ * The buffer of a chunk of a primitive stream, shared by {@link LongChunks}, {@link IntChunks} and {@link DoubleChunks}.
+ * @param <A> type of the array of values
+ * @param <K> type of the consumer appending values to the chunk
+ */
+abstract class ChunkBuffer<A, K> {
+	final A values;
+	final int capacity;
+	int length;
+
+	/** Called when the chunk becomes full, or null to let the caller check {@link #isFull()} */
+	Runnable onFull;
+
+	ChunkBuffer(A values, int capacity) {
+		this.values = values;
+		this.capacity = capacity;
+	}
+
+	/** @return the buffer holding the values of the chunk */
+	public A getValues() {
+		return values;
+	}
+
+	/** @return the number of values in the chunk */
+	public int getLength() {
+		return length;
+	}
+
+	/** @return a consumer appending values to this chunk, which must not be full */
+	abstract K appender();
+
+	boolean isFull() {
+		return length == capacity;
+	}
+
+	/** Called by the appender after storing a value at {@code values[length]} */
+	final void appended() {
+		if (++length == capacity && onFull != null) {
+			onFull.run();
+		}
+	}
+
+	static int checkChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunk size should be positive: " + chunkSize);
+		}
+		return chunkSize;
+	}
+}
@@ -0,0 +1,71 @@
+package com.medallia.unsafe.kernels;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Groups the elements of a primitive spliterator into chunks, splitting along with it.
+ * Each split reuses a single chunk for all its elements.
+ * @param <C> type of the chunks
+ * @param <K> type of the consumer of the elements
+ * @param <S> type of the source spliterator
+ */
+final class ChunkSpliterator<C extends ChunkBuffer<?, K>, K, S extends Spliterator.OfPrimitive<?, K, S>> implements Spliterator<C> {
+	private final S source;
+	private final C chunk;
+	private final IntFunction<C> newChunk;
+
+	ChunkSpliterator(S source, int chunkSize, IntFunction<C> newChunk) {
+		this.source = source;
+		this.chunk = newChunk.apply(chunkSize);
+		this.newChunk = newChunk;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super C> action) {
+		chunk.length = 0;
+		final K appender = chunk.appender();
+		while (!chunk.isFull() && source.tryAdvance(appender)) {
+		}
+		if (chunk.length == 0) {
+			return false;
+		}
+		action.accept(chunk);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super C> action) {
+		chunk.length = 0;
+		chunk.onFull = () -> {
+			action.accept(chunk);
+			chunk.length = 0;
+		};
+		try {
+			source.forEachRemaining(chunk.appender());
+		} finally {
+			chunk.onFull = null;
+		}
+		if (chunk.length > 0) {
+			action.accept(chunk);
+		}
+	}
+
+	@Override
+	public Spliterator<C> trySplit() {
+		final S prefix = source.trySplit();
+		return prefix == null ? null : new ChunkSpliterator<>(prefix, chunk.capacity, newChunk);
+	}
+
+	@Override
+	public long estimateSize() {
+		final long size = source.estimateSize();
+		return size == Long.MAX_VALUE ? size : (size + chunk.capacity - 1) / chunk.capacity;
+	}
+
+	@Override
+	public int characteristics() {
+		return source.characteristics() & ORDERED | NONNULL;
+	}
+}
@@ -0,0 +1,24 @@
+package com.medallia.unsafe.kernels;
+
+/**
+ * Conditions on the values of a column, used by the {@code filter} and {@code count} kernels.
+ * Conditions compare each value against a {@code low} bound; only {@link #BETWEEN} also uses the {@code high} bound.
+ * Comparisons follow the C++ semantics of the element type, so no condition but {@link #NOT_EQUAL} matches NaN.
+ */
+public enum Condition {
+	// The ordinals are used by kernels.cpp, do not reorder
+	/** {@code value < low} */
+	LESS,
+	/** {@code value <= low} */
+	LESS_EQUAL,
+	/** {@code value > low} */
+	GREATER,
+	/** {@code value >= low} */
+	GREATER_EQUAL,
+	/** {@code value == low} */
+	EQUAL,
+	/** {@code value != low} */
+	NOT_EQUAL,
+	/** {@code low <= value && value <= high} */
+	BETWEEN
+}
@@ -0,0 +1,135 @@
+package com.medallia.unsafe.kernels;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Adapters feeding the elements of a {@link DoubleStream} to a kernel in chunks, so that compiled aggregations can be
+ * used from existing stream code:
+ * <pre>
+ *     final double total = DoubleChunks.sum(values.stream().parallel().mapToDouble(Order::getPrice));
+ * </pre>
+ * Elements are buffered into an array that is reused for every chunk of the same split, so no memory is allocated
+ * per chunk. The kernel returns a partial result per chunk, and partial results are merged with an associative
+ * operator, which makes the adapters safe to use with parallel streams.
+ */
+public final class DoubleChunks {
+	/** Default number of elements per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	/** Aggregates a chunk, usually by calling a compiled kernel */
+	@FunctionalInterface
+	public interface Kernel {
+		/** @return the partial result for the first {@code length} values of {@code chunk} */
+		double apply(double[] chunk, int length);
+	}
+
+	/** A chunk of a stream. The values are only valid until the next chunk of the same split is produced. */
+	public static final class Chunk extends ChunkBuffer<double[], DoubleConsumer> {
+		private final DoubleConsumer appender = value -> {
+			values[length] = value;
+			appended();
+		};
+
+		private Chunk(int chunkSize) {
+			super(new double[checkChunkSize(chunkSize)], chunkSize);
+		}
+
+		@Override
+		DoubleConsumer appender() {
+			return appender;
+		}
+	}
+
+	private DoubleChunks() {
+	}
+
+	/** @return a stream of the chunks of {@code stream}, which is parallel if {@code stream} is */
+	public static Stream<Chunk> chunks(DoubleStream stream, int chunkSize) {
+		return StreamSupport.stream(new ChunkSpliterator<>(stream.spliterator(), chunkSize, Chunk::new), stream.isParallel())
+				.onClose(stream::close);
+	}
+
+	/**
+	 * Aggregates a stream chunk by chunk.
+	 * @param kernel computes the partial result of a chunk
+	 * @param identity identity of {@code merge}
+	 * @param merge associative operator merging partial results
+	 * @return the merge of the partial results of all chunks, or {@code identity} if the stream is empty
+	 */
+	public static double aggregate(DoubleStream stream, int chunkSize, Kernel kernel, double identity, DoubleBinaryOperator merge) {
+		return chunks(stream, chunkSize).mapToDouble(chunk -> kernel.apply(chunk.values, chunk.length)).reduce(identity, merge);
+	}
+
+	/**
+	 * Returns a collector aggregating boxed values chunk by chunk. Prefer {@link #aggregate} on a {@link DoubleStream},
+	 * which does not box the values.
+	 * @see #aggregate(DoubleStream, int, Kernel, double, DoubleBinaryOperator)
+	 */
+	public static Collector<Double, ?, Double> collector(int chunkSize, Kernel kernel, double identity, DoubleBinaryOperator merge) {
+		ChunkBuffer.checkChunkSize(chunkSize);
+		return Collector.of(() -> new Accumulator(chunkSize, kernel, identity, merge),
+				(accumulator, value) -> accumulator.accept(value.doubleValue()), Accumulator::combine, Accumulator::finish);
+	}
+
+	/** @return the sum of the values of a stream, computed by {@link DoubleKernels} */
+	public static double sum(DoubleStream stream) {
+		final DoubleKernels kernels = DoubleKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.sum(chunk, 0, length), 0.0, Double::sum);
+	}
+
+	/** @return the smallest value of a stream computed by {@link DoubleKernels}, or {@code Double.MAX_VALUE} if it is empty */
+	public static double min(DoubleStream stream) {
+		final DoubleKernels kernels = DoubleKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.min(chunk, 0, length), Double.MAX_VALUE, Math::min);
+	}
+
+	/** @return the largest value of a stream computed by {@link DoubleKernels}, or {@code -Double.MAX_VALUE} if it is empty */
+	public static double max(DoubleStream stream) {
+		final DoubleKernels kernels = DoubleKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.max(chunk, 0, length), -Double.MAX_VALUE, Math::max);
+	}
+
+	/** Mutable state of {@link #collector}, one per split */
+	private static class Accumulator {
+		private final Chunk chunk;
+		private final Kernel kernel;
+		private final DoubleBinaryOperator merge;
+		private double result;
+
+		Accumulator(int chunkSize, Kernel kernel, double identity, DoubleBinaryOperator merge) {
+			this.chunk = new Chunk(chunkSize);
+			this.chunk.onFull = this::flush;
+			this.kernel = kernel;
+			this.merge = merge;
+			this.result = identity;
+		}
+
+		void accept(double value) {
+			chunk.appender.accept(value);
+		}
+
+		Accumulator combine(Accumulator other) {
+			flush();
+			other.flush();
+			result = merge.applyAsDouble(result, other.result);
+			return this;
+		}
+
+		Double finish() {
+			flush();
+			return result;
+		}
+
+		private void flush() {
+			if (chunk.length > 0) {
+				result = merge.applyAsDouble(result, kernel.apply(chunk.values, chunk.length));
+				chunk.length = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.medallia.unsafe.kernels;
+
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+/**
+ * Vectorized kernels over columns of {@code double} values, stored in arrays or off-heap.
+ * The kernels are compiled from {@code <unsafe/kernels.h>} the first time {@link #get()} is called.
+ * <p>
+ * Off-heap kernels take raw addresses, which are not checked. Neither are the indexes of a selection
+ * passed to the off-heap {@code gather}: they must be valid indexes of the values, as the ones written by
+ * {@code filter}. The indexes passed to the array {@code gather} are checked.
+ * <p>
+ * Sums, minimums and maximums are not vectorized, since that would change the order of the floating point
+ * operations. Unlike {@link Math#min(double, double)} and {@link Math#max(double, double)}, {@code min} and
+ * {@code max} ignore NaN values instead of returning NaN, and do not order {@code -0.0} before {@code 0.0}.
+ */
+public final class DoubleKernels {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(DoubleKernels.class);
+
+	@Native
+	private final long[] functions;
+
+	/** The kernels are compiled once, on first use */
+	private static class Holder {
+		static final DoubleKernels INSTANCE = new DoubleKernels(KernelLibrary.compile("jdouble", "jdoubleArray", "jdouble"));
+	}
+
+	private DoubleKernels(NativeModule implementation) {
+		functions = BINDINGS.getFunctionPointers(implementation);
+	}
+
+	/** @return the kernels, compiling them if needed */
+	public static DoubleKernels get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Writes the indexes, relative to {@code offset}, of the values matching a condition to {@code selection}.
+	 * @param selection indexes of the matching values, must have room for {@code length} indexes
+	 * @return the number of matching values
+	 */
+	public int filter(double[] values, int offset, int length, Condition condition, double low, double high, int[] selection) {
+		KernelLibrary.checkRange(values.length, offset, length, selection.length);
+		return filter0(values, offset, length, condition.ordinal(), low, high, selection);
+	}
+
+	/** @return the number of values matching a condition */
+	public long count(double[] values, int offset, int length, Condition condition, double low, double high) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return count0(values, offset, length, condition.ordinal(), low, high);
+	}
+
+	/** @return the sum of the values */
+	public double sum(double[] values, int offset, int length) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return sum0(values, offset, length);
+	}
+
+	/** @return the smallest value that is not NaN, or {@code Double.MAX_VALUE} if there is none */
+	public double min(double[] values, int offset, int length) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return min0(values, offset, length);
+	}
+
+	/** @return the largest value that is not NaN, or {@code -Double.MAX_VALUE} if there is none */
+	public double max(double[] values, int offset, int length) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return max0(values, offset, length);
+	}
+
+	/**
+	 * Copies {@code values[selection[i]]} to {@code out[i]} for the first {@code count} indexes of a selection,
+	 * which must be valid indexes of {@code values}.
+	 */
+	public void gather(double[] values, int[] selection, int count, double[] out) {
+		KernelLibrary.checkGather(values.length, selection, count, out.length);
+		gather0(values, selection, count, out);
+	}
+
+	/** Writes a 64 bit hash of every value to {@code hashes}, which must have room for {@code length} hashes. */
+	public void hash(double[] values, int offset, int length, long[] hashes) {
+		KernelLibrary.checkRange(values.length, offset, length, hashes.length);
+		hash0(values, offset, length, hashes);
+	}
+
+	/** Off-heap version of {@link #filter(double[], int, int, Condition, double, double, int[])}, {@code selection} is an {@code int} array. */
+	public int filter(long address, int length, Condition condition, double low, double high, long selection) {
+		KernelLibrary.checkAddress(address, length, selection);
+		return filterAt0(address, length, condition.ordinal(), low, high, selection);
+	}
+
+	/** Off-heap version of {@link #count(double[], int, int, Condition, double, double)} */
+	public long count(long address, int length, Condition condition, double low, double high) {
+		KernelLibrary.checkAddress(address, length);
+		return countAt0(address, length, condition.ordinal(), low, high);
+	}
+
+	/** Off-heap version of {@link #sum(double[], int, int)} */
+	public double sum(long address, int length) {
+		KernelLibrary.checkAddress(address, length);
+		return sumAt0(address, length);
+	}
+
+	/** Off-heap version of {@link #min(double[], int, int)} */
+	public double min(long address, int length) {
+		KernelLibrary.checkAddress(address, length);
+		return minAt0(address, length);
+	}
+
+	/** Off-heap version of {@link #max(double[], int, int)} */
+	public double max(long address, int length) {
+		KernelLibrary.checkAddress(address, length);
+		return maxAt0(address, length);
+	}
+
+	/** Off-heap version of {@link #gather(double[], int[], int, double[])}, {@code selection} is an {@code int} array. */
+	public void gather(long address, long selection, int count, long out) {
+		KernelLibrary.checkAddress(address, selection, count, out);
+		gatherAt0(address, selection, count, out);
+	}
+
+	/** Off-heap version of {@link #hash(double[], int, int, long[])}, {@code hashes} is a {@code long} array. */
+	public void hash(long address, int length, long hashes) {
+		KernelLibrary.checkAddress(address, length, hashes);
+		hashAt0(address, length, hashes);
+	}
+
+	private native int filter0(double[] values, int offset, int length, int condition, double low, double high, int[] selection);
+	private native long count0(double[] values, int offset, int length, int condition, double low, double high);
+	private native double sum0(double[] values, int offset, int length);
+	private native double min0(double[] values, int offset, int length);
+	private native double max0(double[] values, int offset, int length);
+	private native void gather0(double[] values, int[] selection, int count, double[] out);
+	private native void hash0(double[] values, int offset, int length, long[] hashes);
+	private native int filterAt0(long address, int length, int condition, double low, double high, long selection);
+	private native long countAt0(long address, int length, int condition, double low, double high);
+	private native double sumAt0(long address, int length);
+	private native double minAt0(long address, int length);
+	private native double maxAt0(long address, int length);
+	private native void gatherAt0(long address, long selection, int count, long out);
+	private native void hashAt0(long address, int length, long hashes);
+}
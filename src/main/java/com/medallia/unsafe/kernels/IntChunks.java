@@ -0,0 +1,135 @@
+package com.medallia.unsafe.kernels;
+
+import java.util.function.IntConsumer;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Adapters feeding the elements of an {@link IntStream} to a kernel in chunks, so that compiled aggregations can be
+ * used from existing stream code:
+ * <pre>
+ *     final long total = IntChunks.sum(values.stream().parallel().mapToInt(Order::getQuantity));
+ * </pre>
+ * Elements are buffered into an array that is reused for every chunk of the same split, so no memory is allocated
+ * per chunk. The kernel returns a {@code long} partial result per chunk, and partial results are merged with an
+ * associative operator, which makes the adapters safe to use with parallel streams.
+ */
+public final class IntChunks {
+	/** Default number of elements per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	/** Aggregates a chunk, usually by calling a compiled kernel */
+	@FunctionalInterface
+	public interface Kernel {
+		/** @return the partial result for the first {@code length} values of {@code chunk} */
+		long apply(int[] chunk, int length);
+	}
+
+	/** A chunk of a stream. The values are only valid until the next chunk of the same split is produced. */
+	public static final class Chunk extends ChunkBuffer<int[], IntConsumer> {
+		private final IntConsumer appender = value -> {
+			values[length] = value;
+			appended();
+		};
+
+		private Chunk(int chunkSize) {
+			super(new int[checkChunkSize(chunkSize)], chunkSize);
+		}
+
+		@Override
+		IntConsumer appender() {
+			return appender;
+		}
+	}
+
+	private IntChunks() {
+	}
+
+	/** @return a stream of the chunks of {@code stream}, which is parallel if {@code stream} is */
+	public static Stream<Chunk> chunks(IntStream stream, int chunkSize) {
+		return StreamSupport.stream(new ChunkSpliterator<>(stream.spliterator(), chunkSize, Chunk::new), stream.isParallel())
+				.onClose(stream::close);
+	}
+
+	/**
+	 * Aggregates a stream chunk by chunk.
+	 * @param kernel computes the partial result of a chunk
+	 * @param identity identity of {@code merge}
+	 * @param merge associative operator merging partial results
+	 * @return the merge of the partial results of all chunks, or {@code identity} if the stream is empty
+	 */
+	public static long aggregate(IntStream stream, int chunkSize, Kernel kernel, long identity, LongBinaryOperator merge) {
+		return chunks(stream, chunkSize).mapToLong(chunk -> kernel.apply(chunk.values, chunk.length)).reduce(identity, merge);
+	}
+
+	/**
+	 * Returns a collector aggregating boxed values chunk by chunk. Prefer {@link #aggregate} on a {@link IntStream},
+	 * which does not box the values.
+	 * @see #aggregate(IntStream, int, Kernel, long, LongBinaryOperator)
+	 */
+	public static Collector<Integer, ?, Long> collector(int chunkSize, Kernel kernel, long identity, LongBinaryOperator merge) {
+		ChunkBuffer.checkChunkSize(chunkSize);
+		return Collector.of(() -> new Accumulator(chunkSize, kernel, identity, merge),
+				(accumulator, value) -> accumulator.accept(value.intValue()), Accumulator::combine, Accumulator::finish);
+	}
+
+	/** @return the sum of the values of a stream as a {@code long}, computed by {@link IntKernels} */
+	public static long sum(IntStream stream) {
+		final IntKernels kernels = IntKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.sum(chunk, 0, length), 0, Long::sum);
+	}
+
+	/** @return the smallest value of a stream computed by {@link IntKernels}, or {@code Integer.MAX_VALUE} if it is empty */
+	public static int min(IntStream stream) {
+		final IntKernels kernels = IntKernels.get();
+		return (int) aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.min(chunk, 0, length), Integer.MAX_VALUE, Math::min);
+	}
+
+	/** @return the largest value of a stream computed by {@link IntKernels}, or {@code Integer.MIN_VALUE} if it is empty */
+	public static int max(IntStream stream) {
+		final IntKernels kernels = IntKernels.get();
+		return (int) aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.max(chunk, 0, length), Integer.MIN_VALUE, Math::max);
+	}
+
+	/** Mutable state of {@link #collector}, one per split */
+	private static class Accumulator {
+		private final Chunk chunk;
+		private final Kernel kernel;
+		private final LongBinaryOperator merge;
+		private long result;
+
+		Accumulator(int chunkSize, Kernel kernel, long identity, LongBinaryOperator merge) {
+			this.chunk = new Chunk(chunkSize);
+			this.chunk.onFull = this::flush;
+			this.kernel = kernel;
+			this.merge = merge;
+			this.result = identity;
+		}
+
+		void accept(int value) {
+			chunk.appender.accept(value);
+		}
+
+		Accumulator combine(Accumulator other) {
+			flush();
+			other.flush();
+			result = merge.applyAsLong(result, other.result);
+			return this;
+		}
+
+		Long finish() {
+			flush();
+			return result;
+		}
+
+		private void flush() {
+			if (chunk.length > 0) {
+				result = merge.applyAsLong(result, kernel.apply(chunk.values, chunk.length));
+				chunk.length = 0;
+			}
+		}
+	}
+}
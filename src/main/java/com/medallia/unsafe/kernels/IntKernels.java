@@ -0,0 +1,141 @@
+package com.medallia.unsafe.kernels;
+
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+/**
+ * Vectorized kernels over columns of {@code int} values, stored in arrays or off-heap.
+ * The kernels are compiled from {@code <unsafe/kernels.h>} the first time {@link #get()} is called.
+ * <p>
+ * Off-heap kernels take raw addresses, which are not checked. Neither are the indexes of a selection
+ * passed to the off-heap {@code gather}: they must be valid indexes of the values, as the ones written by
+ * {@code filter}. The indexes passed to the array {@code gather} are checked.
+ */
+public final class IntKernels {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(IntKernels.class);
+
+	@Native
+	private final long[] functions;
+
+	/** The kernels are compiled once, on first use */
+	private static class Holder {
+		static final IntKernels INSTANCE = new IntKernels(KernelLibrary.compile("jint", "jintArray", "jlong"));
+	}
+
+	private IntKernels(NativeModule implementation) {
+		functions = BINDINGS.getFunctionPointers(implementation);
+	}
+
+	/** @return the kernels, compiling them if needed */
+	public static IntKernels get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Writes the indexes, relative to {@code offset}, of the values matching a condition to {@code selection}.
+	 * @param selection indexes of the matching values, must have room for {@code length} indexes
+	 * @return the number of matching values
+	 */
+	public int filter(int[] values, int offset, int length, Condition condition, int low, int high, int[] selection) {
+		KernelLibrary.checkRange(values.length, offset, length, selection.length);
+		return filter0(values, offset, length, condition.ordinal(), low, high, selection);
+	}
+
+	/** @return the number of values matching a condition */
+	public long count(int[] values, int offset, int length, Condition condition, int low, int high) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return count0(values, offset, length, condition.ordinal(), low, high);
+	}
+
+	/** @return the sum of the values, widened to {@code long} */
+	public long sum(int[] values, int offset, int length) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return sum0(values, offset, length);
+	}
+
+	/** @return the smallest value, or {@code Integer.MAX_VALUE} if {@code length} is zero */
+	public int min(int[] values, int offset, int length) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return min0(values, offset, length);
+	}
+
+	/** @return the largest value, or {@code Integer.MIN_VALUE} if {@code length} is zero */
+	public int max(int[] values, int offset, int length) {
+		KernelLibrary.checkRange(values.length, offset, length);
+		return max0(values, offset, length);
+	}
+
+	/**
+	 * Copies {@code values[selection[i]]} to {@code out[i]} for the first {@code count} indexes of a selection,
+	 * which must be valid indexes of {@code values}.
+	 */
+	public void gather(int[] values, int[] selection, int count, int[] out) {
+		KernelLibrary.checkGather(values.length, selection, count, out.length);
+		gather0(values, selection, count, out);
+	}
+
+	/** Writes a 64 bit hash of every value to {@code hashes}, which must have room for {@code length} hashes. */
+	public void hash(int[] values, int offset, int length, long[] hashes) {
+		KernelLibrary.checkRange(values.length, offset, length, hashes.length);
+		hash0(values, offset, length, hashes);
+	}
+
+	/** Off-heap version of {@link #filter(int[], int, int, Condition, int, int, int[])}, {@code selection} is an {@code int} array. */
+	public int filter(long address, int length, Condition condition, int low, int high, long selection) {
+		KernelLibrary.checkAddress(address, length, selection);
+		return filterAt0(address, length, condition.ordinal(), low, high, selection);
+	}
+
+	/** Off-heap version of {@link #count(int[], int, int, Condition, int, int)} */
+	public long count(long address, int length, Condition condition, int low, int high) {
+		KernelLibrary.checkAddress(address, length);
+		return countAt0(address, length, condition.ordinal(), low, high);
+	}
+
+	/** Off-heap version of {@link #sum(int[], int, int)} */
+	public long sum(long address, int length) {
+		KernelLibrary.checkAddress(address, length);
+		return sumAt0(address, length);
+	}
+
+	/** Off-heap version of {@link #min(int[], int, int)} */
+	public int min(long address, int length) {
+		KernelLibrary.checkAddress(address, length);
+		return minAt0(address, length);
+	}
+
+	/** Off-heap version of {@link #max(int[], int, int)} */
+	public int max(long address, int length) {
+		KernelLibrary.checkAddress(address, length);
+		return maxAt0(address, length);
+	}
+
+	/** Off-heap version of {@link #gather(int[], int[], int, int[])}, {@code selection} is an {@code int} array. */
+	public void gather(long address, long selection, int count, long out) {
+		KernelLibrary.checkAddress(address, selection, count, out);
+		gatherAt0(address, selection, count, out);
+	}
+
+	/** Off-heap version of {@link #hash(int[], int, int, long[])}, {@code hashes} is a {@code long} array. */
+	public void hash(long address, int length, long hashes) {
+		KernelLibrary.checkAddress(address, length, hashes);
+		hashAt0(address, length, hashes);
+	}
+
+	private native int filter0(int[] values, int offset, int length, int condition, int low, int high, int[] selection);
+	private native long count0(int[] values, int offset, int length, int condition, int low, int high);
+	private native long sum0(int[] values, int offset, int length);
+	private native int min0(int[] values, int offset, int length);
+	private native int max0(int[] values, int offset, int length);
+	private native void gather0(int[] values, int[] selection, int count, int[] out);
+	private native void hash0(int[] values, int offset, int length, long[] hashes);
+	private native int filterAt0(long address, int length, int condition, int low, int high, long selection);
+	private native long countAt0(long address, int length, int condition, int low, int high);
+	private native long sumAt0(long address, int length);
+	private native int minAt0(long address, int length);
+	private native int maxAt0(long address, int length);
+	private native void gatherAt0(long address, long selection, int count, long out);
+	private native void hashAt0(long address, int length, long hashes);
+}
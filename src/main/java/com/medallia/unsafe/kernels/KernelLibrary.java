@@ -0,0 +1,101 @@
+package com.medallia.unsafe.kernels;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Compiles the kernel implementations and checks the arguments passed to them. */
+class KernelLibrary {
+	/** Source of the implementation shared by all element types */
+	private static final String SOURCE = loadSource();
+
+	private KernelLibrary() {
+	}
+
+	/**
+	 * Compiles the kernels for one element type.
+	 * @param element JNI element type
+	 * @param array JNI array type
+	 * @param sum JNI type sums are accumulated in
+	 * @return the implementation
+	 */
+	static NativeModule compile(String element, String array, String sum) {
+		final NativeModule nativeModule = Driver.compileInMemory(SOURCE, "-std=c++11", "-O3",
+				"-DELEMENT=" + element, "-DARRAY=" + array, "-DSUM=" + sum);
+		if (nativeModule.hasErrors()) {
+			throw new IllegalStateException(nativeModule.getErrors());
+		}
+		return nativeModule;
+	}
+
+	/** Checks that {@code [offset, offset + length)} is within an array of {@code arrayLength} elements */
+	static void checkRange(int arrayLength, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > arrayLength - length) {
+			throw new ArrayIndexOutOfBoundsException("range [" + offset + ", " + offset + " + " + length
+					+ ") out of bounds for length " + arrayLength);
+		}
+	}
+
+	/**
+	 * Checks that {@code [offset, offset + length)} is within an array of {@code arrayLength} elements
+	 * and that the output array has room for {@code length} elements
+	 */
+	static void checkRange(int arrayLength, int offset, int length, int outLength) {
+		checkRange(arrayLength, offset, length);
+		checkRange(outLength, 0, length);
+	}
+
+	/**
+	 * Checks the arguments of a gather: the first {@code count} indexes of the selection must be valid indexes
+	 * of an array of {@code arrayLength} elements, and the output array must have room for {@code count} elements.
+	 */
+	static void checkGather(int arrayLength, int[] selection, int count, int outLength) {
+		checkRange(selection.length, 0, count, outLength);
+		for (int i = 0; i < count; i++) {
+			final int index = selection[i];
+			if (index < 0 || index >= arrayLength) {
+				throw new ArrayIndexOutOfBoundsException("selection[" + i + "] = " + index
+						+ " out of bounds for length " + arrayLength);
+			}
+		}
+	}
+
+	/** Checks the arguments of an off-heap kernel */
+	static void checkAddress(long address, int length) {
+		if (address == 0) {
+			throw new IllegalArgumentException("null address");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("negative length: " + length);
+		}
+	}
+
+	/** Checks the arguments of an off-heap kernel with an output */
+	static void checkAddress(long address, int length, long out) {
+		checkAddress(address, length);
+		checkAddress(out, length);
+	}
+
+	/** Checks the arguments of an off-heap gather, whose indexes are not checked */
+	static void checkAddress(long address, long selection, int count, long out) {
+		checkAddress(address, count, out);
+		checkAddress(selection, count);
+	}
+
+	private static String loadSource() {
+		try (final InputStream in = KernelLibrary.class.getResourceAsStream("kernels.cpp")) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) > 0; ) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot load kernels.cpp", e);
+		}
+	}
+}
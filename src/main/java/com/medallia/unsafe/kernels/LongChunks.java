@@ -0,0 +1,135 @@
+package com.medallia.unsafe.kernels;
+
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.stream.Collector;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Adapters feeding the elements of a {@link LongStream} to a kernel in chunks, so that compiled aggregations can be
+ * used from existing stream code:
+ * <pre>
+ *     final long total = LongChunks.sum(values.stream().parallel().mapToLong(Order::getAmount));
+ * </pre>
+ * Elements are buffered into an array that is reused for every chunk of the same split, so no memory is allocated
+ * per chunk. The kernel returns a partial result per chunk, and partial results are merged with an associative
+ * operator, which makes the adapters safe to use with parallel streams.
+ */
+public final class LongChunks {
+	/** Default number of elements per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	/** Aggregates a chunk, usually by calling a compiled kernel */
+	@FunctionalInterface
+	public interface Kernel {
+		/** @return the partial result for the first {@code length} values of {@code chunk} */
+		long apply(long[] chunk, int length);
+	}
+
+	/** A chunk of a stream. The values are only valid until the next chunk of the same split is produced. */
+	public static final class Chunk extends ChunkBuffer<long[], LongConsumer> {
+		private final LongConsumer appender = value -> {
+			values[length] = value;
+			appended();
+		};
+
+		private Chunk(int chunkSize) {
+			super(new long[checkChunkSize(chunkSize)], chunkSize);
+		}
+
+		@Override
+		LongConsumer appender() {
+			return appender;
+		}
+	}
+
+	private LongChunks() {
+	}
+
+	/** @return a stream of the chunks of {@code stream}, which is parallel if {@code stream} is */
+	public static Stream<Chunk> chunks(LongStream stream, int chunkSize) {
+		return StreamSupport.stream(new ChunkSpliterator<>(stream.spliterator(), chunkSize, Chunk::new), stream.isParallel())
+				.onClose(stream::close);
+	}
+
+	/**
+	 * Aggregates a stream chunk by chunk.
+	 * @param kernel computes the partial result of a chunk
+	 * @param identity identity of {@code merge}
+	 * @param merge associative operator merging partial results
+	 * @return the merge of the partial results of all chunks, or {@code identity} if the stream is empty
+	 */
+	public static long aggregate(LongStream stream, int chunkSize, Kernel kernel, long identity, LongBinaryOperator merge) {
+		return chunks(stream, chunkSize).mapToLong(chunk -> kernel.apply(chunk.values, chunk.length)).reduce(identity, merge);
+	}
+
+	/**
+	 * Returns a collector aggregating boxed values chunk by chunk. Prefer {@link #aggregate} on a {@link LongStream},
+	 * which does not box the values.
+	 * @see #aggregate(LongStream, int, Kernel, long, LongBinaryOperator)
+	 */
+	public static Collector<Long, ?, Long> collector(int chunkSize, Kernel kernel, long identity, LongBinaryOperator merge) {
+		ChunkBuffer.checkChunkSize(chunkSize);
+		return Collector.of(() -> new Accumulator(chunkSize, kernel, identity, merge),
+				(accumulator, value) -> accumulator.accept(value.longValue()), Accumulator::combine, Accumulator::finish);
+	}
+
+	/** @return the sum of the values of a stream, computed by {@link LongKernels} */
+	public static long sum(LongStream stream) {
+		final LongKernels kernels = LongKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.sum(chunk, 0, length), 0, Long::sum);
+	}
+
+	/** @return the smallest value of a stream computed by {@link LongKernels}, or {@code Long.MAX_VALUE} if it is empty */
+	public static long min(LongStream stream) {
+		final LongKernels kernels = LongKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.min(chunk, 0, length), Long.MAX_VALUE, Math::min);
+	}
+
+	/** @return the largest value of a stream computed by {@link LongKernels}, or {@code Long.MIN_VALUE} if it is empty */
+	public static long max(LongStream stream) {
+		final LongKernels kernels = LongKernels.get();
+		return aggregate(stream, DEFAULT_CHUNK_SIZE, (chunk, length) -> kernels.max(chunk, 0, length), Long.MIN_VALUE, Math::max);
+	}
+
+	/** Mutable state of {@link #collector}, one per split */
+	private static class Accumulator {
+		private final Chunk chunk;
+		private final Kernel kernel;
+		private final LongBinaryOperator merge;
+		private long result;
+
+		Accumulator(int chunkSize, Kernel kernel, long identity, LongBinaryOperator merge) {
+			this.chunk = new Chunk(chunkSize);
+			this.chunk.onFull = this::flush;
+			this.kernel = kernel;
+			this.merge = merge;
+			this.result = identity;
+		}
+
+		void accept(long value) {
+			chunk.appender.accept(value);
+		}
+
+		Accumulator combine(Accumulator other) {
+			flush();
+			other.flush();
+			result = merge.applyAsLong(result, other.result);
+			return this;
+		}
+
+		Long finish() {
+			flush();
+			return result;
+		}
+
+		private void flush() {
+			if (chunk.length > 0) {
+				result = merge.applyAsLong(result, kernel.apply(chunk.values, chunk.length));
+				chunk.length = 0;
+			}
+		}
+	}
+}
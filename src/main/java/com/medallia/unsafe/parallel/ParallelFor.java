@@ -0,0 +1,167 @@
+package com.medallia.unsafe.parallel;
+
+import com.medallia.unsafe.NativeFunction;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs a {@link RangeKernel} over the elements of an array using a {@link ForkJoinPool}.
+ * <p>
+ * The input is split in chunks small enough to fit in a core's L2 cache, but never smaller than needed
+ * to keep every worker of the pool busy. Each chunk is processed by the kernel and the partial results are
+ * combined with a user supplied reducer, which should be associative.
+ * <p>
+ * Fork-join workers are regular JVM threads, so the JVM attaches them to JNI and passes a valid {@code JNIEnv*}
+ * to thunked native methods as well as to {@link NativeFunction#invoke(Object...)}. The kernel must be safe to call
+ * from several threads at the same time.
+ * <p>
+ * The following is a simple usage example:
+ * <pre>
+ *     final Query query = new Query(implementation); // has a native long process(long[] data, int start, int end)
+ *     final long sum = new ParallelFor().reduce(data, query::process, Long::sum);
+ * </pre>
+ */
+public class ParallelFor {
+	/** Default chunk size in bytes, half of a typical L2 cache. */
+	public static final int DEFAULT_CHUNK_BYTES = 128 * 1024;
+
+	/** Chunks will not be split below this size in bytes, to amortize the cost of a task and a native call. */
+	private static final int MIN_CHUNK_BYTES = 4 * 1024;
+
+	/** Number of chunks per worker we aim for, so that stealing can balance the load. */
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	/** Pool used to run the chunks */
+	private final ForkJoinPool pool;
+
+	/** Maximum chunk size in bytes */
+	private final int chunkBytes;
+
+	/** Creates a new instance that uses the common pool and the default chunk size. */
+	public ParallelFor() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+	}
+
+	/**
+	 * Creates a new instance.
+	 * @param pool pool used to run the chunks
+	 * @param chunkBytes maximum chunk size in bytes
+	 */
+	public ParallelFor(ForkJoinPool pool, int chunkBytes) {
+		if (pool == null) {
+			throw new IllegalArgumentException("missing pool");
+		}
+		if (chunkBytes <= 0) {
+			throw new IllegalArgumentException("chunk size should be positive");
+		}
+		this.pool = pool;
+		this.chunkBytes = chunkBytes;
+	}
+
+	/**
+	 * Runs the kernel over all the elements of a primitive array.
+	 * @param data a primitive array
+	 * @param kernel kernel to run on each chunk
+	 * @param reducer combines two partial results
+	 * @return the combined result, or null if the array is empty
+	 */
+	public <A, R> R reduce(A data, RangeKernel<A, R> kernel, BinaryOperator<R> reducer) {
+		if (data == null || !data.getClass().isArray() || !data.getClass().getComponentType().isPrimitive()) {
+			throw new IllegalArgumentException("expected a primitive array");
+		}
+		return reduce(data, Array.getLength(data), elementSize(data.getClass().getComponentType()), kernel, reducer);
+	}
+
+	/**
+	 * Runs the kernel over {@code length} elements of arbitrary data, such as an off-heap buffer.
+	 * @param data data passed as is to the kernel
+	 * @param length number of elements
+	 * @param elementSize size of each element in bytes, used to size the chunks
+	 * @param kernel kernel to run on each chunk
+	 * @param reducer combines two partial results
+	 * @return the combined result, or null if {@code length} is zero
+	 */
+	public <A, R> R reduce(A data, int length, int elementSize, RangeKernel<A, R> kernel, BinaryOperator<R> reducer) {
+		if (length < 0 || elementSize <= 0) {
+			throw new IllegalArgumentException("invalid length or element size");
+		}
+		if (length == 0) {
+			return null;
+		}
+		return pool.invoke(new Chunk<>(data, 0, length, chunkSize(length, elementSize), kernel, reducer));
+	}
+
+	/**
+	 * Computes the number of elements per chunk
+	 * @param length total number of elements
+	 * @param elementSize element size in bytes
+	 * @return the number of elements per chunk
+	 */
+	int chunkSize(int length, int elementSize) {
+		final int cacheFriendly = Math.max(1, chunkBytes / elementSize);
+		final int balanced = (int) ((length + (long) pool.getParallelism() * CHUNKS_PER_WORKER - 1) / ((long) pool.getParallelism() * CHUNKS_PER_WORKER));
+		final int minimum = Math.max(1, MIN_CHUNK_BYTES / elementSize);
+		return Math.max(minimum, Math.min(cacheFriendly, balanced));
+	}
+
+	/**
+	 * Adapts a {@link NativeFunction} with signature {@code jlong f(JNIEnv* env, <array type> data, jint start, jint end)}
+	 * to a {@link RangeKernel}.
+	 * Note that {@link NativeFunction#invoke(Object...)} is slow, so chunks should be large or a thunk should be used instead.
+	 * @param function a compiled function
+	 * @return a kernel that calls the function
+	 */
+	public static <A> RangeKernel<A, Long> kernel(NativeFunction function) {
+		return (data, start, end) -> (Long) function.invoke(null, data, start, end);
+	}
+
+	/** @return size in bytes of a primitive type */
+	private static int elementSize(Class<?> type) {
+		if (type == Long.TYPE || type == Double.TYPE) {
+			return 8;
+		} else if (type == Integer.TYPE || type == Float.TYPE) {
+			return 4;
+		} else if (type == Short.TYPE || type == Character.TYPE) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/** A range of elements that is split in halves until it is no larger than a chunk */
+	private static class Chunk<A, R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+
+		private final A data;
+		private final int start;
+		private final int end;
+		private final int chunkSize;
+		private final RangeKernel<A, R> kernel;
+		private final BinaryOperator<R> reducer;
+
+		private Chunk(A data, int start, int end, int chunkSize, RangeKernel<A, R> kernel, BinaryOperator<R> reducer) {
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			this.chunkSize = chunkSize;
+			this.kernel = kernel;
+			this.reducer = reducer;
+		}
+
+		@Override
+		protected R compute() {
+			if (end - start <= chunkSize) {
+				return kernel.apply(data, start, end);
+			}
+			// Split on a chunk boundary so that chunks are evenly sized
+			final int chunks = (end - start + chunkSize - 1) / chunkSize;
+			final int middle = start + chunks / 2 * chunkSize;
+			final Chunk<A, R> left = new Chunk<>(data, start, middle, chunkSize, kernel, reducer);
+			left.fork();
+			final R right = new Chunk<>(data, middle, end, chunkSize, kernel, reducer).compute();
+			return reducer.apply(left.join(), right);
+		}
+	}
+}
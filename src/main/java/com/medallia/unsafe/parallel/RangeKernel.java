@@ -0,0 +1,20 @@
+package com.medallia.unsafe.parallel;
+
+/**
+ * A kernel that processes the elements of {@code data} in the range {@code [start, end)}.
+ * A thunked native method with a {@code (data, start, end)} signature can be used through a method reference,
+ * e.g. {@code query::process} for {@code native long process(long[] data, int start, int end)}.
+ * @param <A> type of the data, usually a primitive array
+ * @param <R> type of the partial result
+ */
+@FunctionalInterface
+public interface RangeKernel<A, R> {
+	/**
+	 * Processes a range of elements.
+	 * @param data the data being processed
+	 * @param start first element of the range, inclusive
+	 * @param end last element of the range, exclusive
+	 * @return the partial result for the range
+	 */
+	R apply(A data, int start, int end);
+}
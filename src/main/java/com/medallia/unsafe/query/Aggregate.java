@@ -0,0 +1,78 @@
+package com.medallia.unsafe.query;
+
+/**
+ * An aggregate computed over the rows matching a {@link Query}.
+ * Results are {@code long}s: sums wrap around on overflow, and the minimum and maximum of no rows are
+ * {@link Long#MAX_VALUE} and {@link Long#MIN_VALUE}.
+ */
+public final class Aggregate {
+	/** Kinds of aggregates */
+	public enum Kind {
+		COUNT("0", "%1$s += match;"),
+		SUM("0", "%1$s = _add(%1$s, match ? %2$s : 0);"),
+		MIN("0x7fffffffffffffffLL", "%1$s = match & (%2$s < %1$s) ? %2$s : %1$s;"),
+		MAX("(-0x7fffffffffffffffLL - 1)", "%1$s = match & (%2$s > %1$s) ? %2$s : %1$s;");
+
+		/** Initial value of the accumulator */
+		private final String identity;
+
+		/** Statement updating accumulator {@code %1$s} with value {@code %2$s} */
+		private final String update;
+
+		Kind(String identity, String update) {
+			this.identity = identity;
+			this.update = update;
+		}
+	}
+
+	private final Kind kind;
+	private final Expression expression;
+
+	private Aggregate(Kind kind, Expression expression) {
+		if (expression != null && expression.isBoolean()) {
+			throw new IllegalArgumentException(kind + " expects a numeric expression: " + expression);
+		}
+		this.kind = kind;
+		this.expression = expression;
+	}
+
+	/** @return the number of matching rows */
+	public static Aggregate count() {
+		return new Aggregate(Kind.COUNT, null);
+	}
+
+	/** @return the sum of a numeric expression over the matching rows */
+	public static Aggregate sum(Expression expression) {
+		return new Aggregate(Kind.SUM, expression);
+	}
+
+	/** @return the minimum of a numeric expression over the matching rows */
+	public static Aggregate min(Expression expression) {
+		return new Aggregate(Kind.MIN, expression);
+	}
+
+	/** @return the maximum of a numeric expression over the matching rows */
+	public static Aggregate max(Expression expression) {
+		return new Aggregate(Kind.MAX, expression);
+	}
+
+	/** @return the kind of this aggregate */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return the C++ initial value of the accumulator */
+	String identity() {
+		return kind.identity;
+	}
+
+	/** @return the C++ statement that updates {@code accumulator} for row {@code i} */
+	String generateUpdate(QueryGenerator generator, String accumulator) {
+		return String.format(kind.update, accumulator, expression == null ? "" : expression.generate(generator));
+	}
+
+	@Override
+	public String toString() {
+		return kind.name().toLowerCase() + "(" + (expression == null ? "" : expression) + ")";
+	}
+}
@@ -0,0 +1,91 @@
+package com.medallia.unsafe.query;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.ModuleRegistry;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** A compiled {@link Plan}, shared by all queries with the same structure. */
+final class CompiledQuery {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(CompiledQuery.class);
+
+	/** Compiled plans by source */
+	private static final ConcurrentMap<String, CompiledQuery> CACHE = new ConcurrentHashMap<>();
+
+	@Native
+	private final long[] functions;
+
+	/** Kept to prevent the implementation from being garbage collected while the query is cached */
+	private final NativeModule implementation;
+
+	private CompiledQuery(NativeModule implementation) {
+		this.implementation = implementation;
+		this.functions = BINDINGS.getFunctionPointers(implementation);
+	}
+
+	/**
+	 * Returns the compiled plan, compiling it if it is not cached. Cached plans are registered with the
+	 * {@link ModuleRegistry}, which may evict and free them to stay within the native memory budget, so the plan
+	 * is returned pinned and must be released with {@link #release()} once it is executed.
+	 * Two threads may compile the same plan concurrently, only one of them is cached.
+	 */
+	static CompiledQuery forPlan(Plan plan) {
+		final String source = plan.getSource();
+		while (true) {
+			final CompiledQuery cached = CACHE.get(source);
+			if (cached != null) {
+				if (ModuleRegistry.tryPin(cached.implementation)) {
+					ModuleRegistry.touch(cached.implementation);
+					return cached;
+				}
+				// Evicted after the lookup
+				CACHE.remove(source, cached);
+				continue;
+			}
+
+			final NativeModule nativeModule = Driver.compileInMemory(source, "-O3");
+			if (nativeModule.hasErrors()) {
+				throw new IllegalStateException(nativeModule.getErrors());
+			}
+			final CompiledQuery compiled = new CompiledQuery(nativeModule);
+			if (CACHE.putIfAbsent(source, compiled) == null) {
+				ModuleRegistry.pin(nativeModule);
+				ModuleRegistry.cached(nativeModule, () -> CACHE.remove(source, compiled));
+				return compiled;
+			}
+		}
+	}
+
+	/** Releases a plan returned by {@link #forPlan(Plan)} */
+	void release() {
+		ModuleRegistry.unpin(implementation);
+	}
+
+	/** @return number of cached plans */
+	static int cacheSize() {
+		return CACHE.size();
+	}
+
+	/** Removes all the plans from the cache. They are freed once they are no longer used. */
+	static void clearCache() {
+		for (CompiledQuery compiled : CACHE.values()) {
+			if (CACHE.values().remove(compiled)) {
+				ModuleRegistry.uncached(compiled.implementation);
+			}
+		}
+	}
+
+	/** Runs the plan over the first {@code length} rows of the columns, which must have been checked */
+	long[] execute(long[][] columns, int length, long[] parameters, int results) {
+		final long[] values = new long[results];
+		execute0(columns, length, parameters, values);
+		return values;
+	}
+
+	private native void execute0(long[][] columns, int length, long[] parameters, long[] results);
+}
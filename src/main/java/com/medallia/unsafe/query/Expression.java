@@ -0,0 +1,150 @@
+package com.medallia.unsafe.query;
+
+/**
+ * A scalar expression evaluated for each row of a set of {@code long} columns.
+ * Expressions are either numeric, with Java {@code long} semantics, or boolean.
+ * Instances are immutable and created with the factory methods in {@link Expressions}.
+ */
+public abstract class Expression {
+	Expression() {
+	}
+
+	/** @return true if this expression is a condition, false if it is a number */
+	public abstract boolean isBoolean();
+
+	/**
+	 * Generates the C++ code evaluating this expression for row {@code i}.
+	 * @param generator receives the constants and column references of the expression
+	 * @return a C++ expression
+	 */
+	abstract String generate(QueryGenerator generator);
+
+	/** Column {@code c<index>[i]} */
+	static final class ColumnRef extends Expression {
+		private final int index;
+
+		ColumnRef(int index) {
+			if (index < 0) {
+				throw new IllegalArgumentException("negative column index: " + index);
+			}
+			this.index = index;
+		}
+
+		@Override public boolean isBoolean() {
+			return false;
+		}
+
+		@Override String generate(QueryGenerator generator) {
+			return generator.column(index);
+		}
+
+		@Override public String toString() {
+			return "column(" + index + ")";
+		}
+	}
+
+	/** A constant, generated as a parameter so that plans only differing in constants share their code */
+	static final class Constant extends Expression {
+		private final long value;
+
+		Constant(long value) {
+			this.value = value;
+		}
+
+		@Override public boolean isBoolean() {
+			return false;
+		}
+
+		@Override String generate(QueryGenerator generator) {
+			return generator.parameter(value);
+		}
+
+		@Override public String toString() {
+			return Long.toString(value);
+		}
+	}
+
+	/** An operator applied to two expressions */
+	static final class Binary extends Expression {
+		private final Operator operator;
+		private final Expression left;
+		private final Expression right;
+
+		Binary(Operator operator, Expression left, Expression right) {
+			if (left.isBoolean() != operator.booleanOperands || right.isBoolean() != operator.booleanOperands) {
+				throw new IllegalArgumentException(operator + " expects " + (operator.booleanOperands ? "boolean" : "numeric")
+						+ " operands: " + left + ", " + right);
+			}
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override public boolean isBoolean() {
+			return operator.booleanResult;
+		}
+
+		@Override String generate(QueryGenerator generator) {
+			return String.format(operator.template, left.generate(generator), right.generate(generator));
+		}
+
+		@Override public String toString() {
+			return operator.name().toLowerCase() + "(" + left + ", " + right + ")";
+		}
+	}
+
+	/** Negation of a condition */
+	static final class Not extends Expression {
+		private final Expression operand;
+
+		Not(Expression operand) {
+			if (!operand.isBoolean()) {
+				throw new IllegalArgumentException("NOT expects a boolean operand: " + operand);
+			}
+			this.operand = operand;
+		}
+
+		@Override public boolean isBoolean() {
+			return true;
+		}
+
+		@Override String generate(QueryGenerator generator) {
+			return "(!" + operand.generate(generator) + ")";
+		}
+
+		@Override public String toString() {
+			return "not(" + operand + ")";
+		}
+	}
+
+	/**
+	 * Binary operators and the C++ code implementing them.
+	 * Arithmetic wraps around on overflow like Java, using the helpers emitted by {@link QueryGenerator}.
+	 * Boolean operators do not short-circuit, so that the generated loops have no data dependent branches.
+	 */
+	enum Operator {
+		ADD("_add(%s, %s)", false, false),
+		SUB("_sub(%s, %s)", false, false),
+		MUL("_mul(%s, %s)", false, false),
+		DIV("_div(%s, %s)", false, false),
+		REM("_rem(%s, %s)", false, false),
+		LT("(%s < %s)", false, true),
+		LE("(%s <= %s)", false, true),
+		GT("(%s > %s)", false, true),
+		GE("(%s >= %s)", false, true),
+		EQ("(%s == %s)", false, true),
+		NE("(%s != %s)", false, true),
+		AND("(%s & %s)", true, true),
+		OR("(%s | %s)", true, true);
+
+		private final String template;
+		private final boolean booleanOperands;
+		private final boolean booleanResult;
+
+		Operator(String template, boolean booleanOperands, boolean booleanResult) {
+			this.template = template;
+			this.booleanOperands = booleanOperands;
+			this.booleanResult = booleanResult;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.medallia.unsafe.query;
+
+import com.medallia.unsafe.query.Expression.Operator;
+
+/** Factory methods for {@link Expression}s. */
+public final class Expressions {
+	private Expressions() {
+	}
+
+	/** @return the value of a column in the current row */
+	public static Expression column(int index) {
+		return new Expression.ColumnRef(index);
+	}
+
+	/** @return a constant */
+	public static Expression constant(long value) {
+		return new Expression.Constant(value);
+	}
+
+	public static Expression add(Expression left, Expression right) {
+		return new Expression.Binary(Operator.ADD, left, right);
+	}
+
+	public static Expression sub(Expression left, Expression right) {
+		return new Expression.Binary(Operator.SUB, left, right);
+	}
+
+	public static Expression mul(Expression left, Expression right) {
+		return new Expression.Binary(Operator.MUL, left, right);
+	}
+
+	/** @return {@code left / right}, or zero if {@code right} is zero */
+	public static Expression div(Expression left, Expression right) {
+		return new Expression.Binary(Operator.DIV, left, right);
+	}
+
+	/** @return {@code left % right}, or zero if {@code right} is zero */
+	public static Expression rem(Expression left, Expression right) {
+		return new Expression.Binary(Operator.REM, left, right);
+	}
+
+	public static Expression lt(Expression left, Expression right) {
+		return new Expression.Binary(Operator.LT, left, right);
+	}
+
+	public static Expression le(Expression left, Expression right) {
+		return new Expression.Binary(Operator.LE, left, right);
+	}
+
+	public static Expression gt(Expression left, Expression right) {
+		return new Expression.Binary(Operator.GT, left, right);
+	}
+
+	public static Expression ge(Expression left, Expression right) {
+		return new Expression.Binary(Operator.GE, left, right);
+	}
+
+	public static Expression eq(Expression left, Expression right) {
+		return new Expression.Binary(Operator.EQ, left, right);
+	}
+
+	public static Expression ne(Expression left, Expression right) {
+		return new Expression.Binary(Operator.NE, left, right);
+	}
+
+	/** @return the conjunction of one or more conditions */
+	public static Expression and(Expression first, Expression... rest) {
+		if (!first.isBoolean()) {
+			throw new IllegalArgumentException("AND expects boolean operands: " + first);
+		}
+		Expression result = first;
+		for (Expression condition : rest) {
+			result = new Expression.Binary(Operator.AND, result, condition);
+		}
+		return result;
+	}
+
+	/** @return the disjunction of one or more conditions */
+	public static Expression or(Expression first, Expression... rest) {
+		if (!first.isBoolean()) {
+			throw new IllegalArgumentException("OR expects boolean operands: " + first);
+		}
+		Expression result = first;
+		for (Expression condition : rest) {
+			result = new Expression.Binary(Operator.OR, result, condition);
+		}
+		return result;
+	}
+
+	public static Expression not(Expression condition) {
+		return new Expression.Not(condition);
+	}
+}
@@ -0,0 +1,39 @@
+package com.medallia.unsafe.query;
+
+/** The normalized form of a {@link Query}: generated source code, plus the values of its parameters. */
+final class Plan {
+	/** C++ source, identical for queries with the same structure */
+	private final String source;
+
+	/** Number of columns referenced */
+	private final int columns;
+
+	/** Values of the constants of the query */
+	private final long[] parameters;
+
+	/** Number of aggregates */
+	private final int results;
+
+	Plan(String source, int columns, long[] parameters, int results) {
+		this.source = source;
+		this.columns = columns;
+		this.parameters = parameters;
+		this.results = results;
+	}
+
+	String getSource() {
+		return source;
+	}
+
+	int getColumns() {
+		return columns;
+	}
+
+	long[] getParameters() {
+		return parameters;
+	}
+
+	int getResults() {
+		return results;
+	}
+}
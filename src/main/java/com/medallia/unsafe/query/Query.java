@@ -0,0 +1,99 @@
+package com.medallia.unsafe.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An aggregation over the rows of a set of {@code long[]} columns that match a condition:
+ * <pre>
+ *     import static com.medallia.unsafe.query.Expressions.*;
+ *
+ *     final long[] results = Query.select(Aggregate.count(), Aggregate.sum(mul(column(1), column(2))))
+ *         .where(and(ge(column(0), constant(10)), lt(column(0), constant(20))))
+ *         .execute(columns);
+ * </pre>
+ * A query is compiled to a single native loop evaluating the condition and all the aggregates.
+ * Constants are passed as parameters, so queries that only differ in their constants share the same
+ * compiled plan, which is cached until {@link #clearPlanCache()} is called, or until it is evicted by the
+ * {@link com.medallia.unsafe.ModuleRegistry} to stay within the native memory budget.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class Query {
+	private final List<Aggregate> aggregates;
+	private final Expression condition;
+
+	private Query(List<Aggregate> aggregates, Expression condition) {
+		this.aggregates = aggregates;
+		this.condition = condition;
+	}
+
+	/**
+	 * Creates a query over all rows.
+	 * @param aggregates aggregates to compute, at least one
+	 * @return a new query
+	 */
+	public static Query select(Aggregate... aggregates) {
+		if (aggregates.length == 0) {
+			throw new IllegalArgumentException("a query needs at least one aggregate");
+		}
+		return new Query(Collections.unmodifiableList(new ArrayList<>(Arrays.asList(aggregates))), null);
+	}
+
+	/**
+	 * @param condition a boolean expression
+	 * @return a query over the rows matching the condition
+	 */
+	public Query where(Expression condition) {
+		if (!condition.isBoolean()) {
+			throw new IllegalArgumentException("condition should be boolean: " + condition);
+		}
+		return new Query(aggregates, condition);
+	}
+
+	/** @return the normalized plan of this query */
+	Plan plan() {
+		return QueryGenerator.generate(aggregates, condition);
+	}
+
+	/**
+	 * Runs this query, compiling it if no query with the same structure was compiled before.
+	 * @param columns columns of the same length, indexed by {@link Expressions#column(int)}
+	 * @return the value of each aggregate, in the order they were selected
+	 */
+	public long[] execute(long[]... columns) {
+		final Plan plan = plan();
+		if (columns.length == 0 || columns.length < plan.getColumns()) {
+			throw new IllegalArgumentException("query uses " + Math.max(1, plan.getColumns()) + " columns, got " + columns.length);
+		}
+		final int length = columns[0].length;
+		for (long[] column : columns) {
+			if (column.length != length) {
+				throw new IllegalArgumentException("columns should have the same length");
+			}
+		}
+		final CompiledQuery compiled = CompiledQuery.forPlan(plan);
+		try {
+			return compiled.execute(columns, length, plan.getParameters(), plan.getResults());
+		} finally {
+			compiled.release();
+		}
+	}
+
+	/** @return number of compiled plans in the cache */
+	public static int getCachedPlans() {
+		return CompiledQuery.cacheSize();
+	}
+
+	/** Removes all compiled plans from the cache. Running queries are not affected. */
+	public static void clearPlanCache() {
+		CompiledQuery.clearCache();
+	}
+
+	@Override
+	public String toString() {
+		return "select " + aggregates + (condition == null ? "" : " where " + condition);
+	}
+}
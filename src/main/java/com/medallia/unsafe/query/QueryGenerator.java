@@ -0,0 +1,111 @@
+package com.medallia.unsafe.query;
+
+import com.medallia.unsafe.io.IndentedPrintWriter;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a single fused loop evaluating the condition and all the aggregates of a {@link Query}.
+ * <p>
+ * Constants are turned into parameters, so the generated source only depends on the structure of the query:
+ * it is used as the normalized plan, and as the key of the compiled plan cache.
+ */
+final class QueryGenerator {
+	/** Values of the parameters, in the order they were referenced */
+	private final List<Long> parameters = new ArrayList<>();
+
+	/** Number of columns referenced: one more than the largest index */
+	private int columns;
+
+	private QueryGenerator() {
+	}
+
+	/** @return the C++ expression reading a column in the current row */
+	String column(int index) {
+		columns = Math.max(columns, index + 1);
+		return "c" + index + "[i]";
+	}
+
+	/** @return the C++ expression reading a new parameter with the given value */
+	String parameter(long value) {
+		parameters.add(value);
+		return "p" + (parameters.size() - 1);
+	}
+
+	/** @return the plan of a query */
+	static Plan generate(List<Aggregate> aggregates, Expression condition) {
+		final QueryGenerator generator = new QueryGenerator();
+
+		// Generate the loop body first, to find out which columns and parameters are needed
+		final String match = condition == null ? "true" : condition.generate(generator);
+		final List<String> updates = new ArrayList<>();
+		for (int i = 0; i < aggregates.size(); i++) {
+			updates.add(aggregates.get(i).generateUpdate(generator, "r" + i));
+		}
+
+		final StringWriter sw = new StringWriter();
+		final IndentedPrintWriter pw = new IndentedPrintWriter(sw);
+		pw.println("#include <jni.h>");
+		pw.println("#include <stdint.h>");
+		pw.println();
+		pw.println("// Arithmetic with the semantics of Java longs, except that division by zero yields zero");
+		pw.println("static inline jlong _add(jlong a, jlong b) { return (jlong) ((uint64_t) a + (uint64_t) b); }");
+		pw.println("static inline jlong _sub(jlong a, jlong b) { return (jlong) ((uint64_t) a - (uint64_t) b); }");
+		pw.println("static inline jlong _mul(jlong a, jlong b) { return (jlong) ((uint64_t) a * (uint64_t) b); }");
+		pw.println("static inline jlong _div(jlong a, jlong b) { return b == 0 ? 0 : b == -1 ? _sub(0, a) : a / b; }");
+		pw.println("static inline jlong _rem(jlong a, jlong b) { return b == 0 || b == -1 ? 0 : a % b; }");
+		pw.println();
+		pw.println("void execute0(JNIEnv* env, jobject self, jobjectArray columnArrays, jint length, jlongArray parameterArray, jlongArray resultArray) {");
+		pw.indent();
+
+		final int nParameters = generator.parameters.size();
+		if (nParameters > 0) {
+			pw.printf("jlong p[%d];%n", nParameters);
+			pw.printf("env->GetLongArrayRegion(parameterArray, 0, %d, p);%n", nParameters);
+			for (int i = 0; i < nParameters; i++) {
+				pw.printf("const jlong p%d = p[%d];%n", i, i);
+			}
+		}
+
+		// No JNI calls are allowed once the first column is pinned
+		for (int i = 0; i < generator.columns; i++) {
+			pw.printf("const jlongArray a%d = (jlongArray) env->GetObjectArrayElement(columnArrays, %d);%n", i, i);
+		}
+		for (int i = 0; i < generator.columns; i++) {
+			pw.printf("const jlong* __restrict c%d = (const jlong*) env->GetPrimitiveArrayCritical(a%d, nullptr);%n", i, i);
+		}
+
+		for (int i = 0; i < aggregates.size(); i++) {
+			pw.printf("jlong r%d = %s;%n", i, aggregates.get(i).identity());
+		}
+		pw.println("for (jint i = 0; i < length; i++) {");
+		pw.indent();
+		pw.printf("const bool match = %s;%n", match);
+		for (String update : updates) {
+			pw.println(update);
+		}
+		pw.dedent();
+		pw.println("}");
+
+		for (int i = generator.columns - 1; i >= 0; i--) {
+			pw.printf("env->ReleasePrimitiveArrayCritical(a%d, (void*) c%d, JNI_ABORT);%n", i, i);
+		}
+		pw.print("const jlong results[] = {");
+		for (int i = 0; i < aggregates.size(); i++) {
+			pw.print((i == 0 ? " r" : ", r") + i);
+		}
+		pw.println(" };");
+		pw.printf("env->SetLongArrayRegion(resultArray, 0, %d, results);%n", aggregates.size());
+		pw.dedent();
+		pw.println("}");
+		pw.flush();
+
+		final long[] parameterValues = new long[nParameters];
+		for (int i = 0; i < nParameters; i++) {
+			parameterValues[i] = generator.parameters.get(i);
+		}
+		return new Plan(sw.toString(), generator.columns, parameterValues, aggregates.size());
+	}
+}
@@ -0,0 +1,235 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Dispatches calls to a Java implementation of an interface while a native implementation compiles in the
+ * background, and switches to the native one once it is ready, so that first-seen code does not wait for Clang:
+ * <pre>
+ *     final AdaptiveBinding&lt;Aggregator&gt; binding = new AdaptiveBinding&lt;&gt;(new JavaAggregator(),
+ *             NativeAggregator::new, BINDINGS, sourceCode, "-O3");
+ *     long sum = binding.get().sum(values);
+ * </pre>
+ * The native implementation is a class with native methods bound by {@link ThunkBuilder}, constructed from the
+ * function pointers of the compiled module, see {@link NativeBindings#getFunctionPointers(NativeModule)}.
+ * <p>
+ * Optionally, the native implementation is only adopted if it is faster on live inputs: for a number of trial calls
+ * made through {@link #apply(Function)}, calls alternate between both implementations and are timed, and the
+ * implementation with the lower total time is kept. Calls through {@link #get()} are not timed and use the Java
+ * implementation until the trial decides. If the native implementation fails to compile the Java one is kept.
+ * @param <T> the interface of both implementations
+ */
+public class AdaptiveBinding<T> {
+	/** Stages of the dispatch, from the initial to the final ones */
+	public enum State {
+		/** Calls go to the Java implementation while the native one compiles */
+		COMPILING,
+		/** Calls through {@link #apply(Function)} alternate between both implementations and are timed */
+		TRIAL,
+		/** Calls go to the native implementation */
+		NATIVE,
+		/** Calls go to the Java implementation, because the native one failed to compile or was slower */
+		FALLBACK
+	}
+
+	/** Compiles native implementations for all instances that do not specify an executor */
+	private static final ExecutorService COMPILER = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "unsafe-adaptive-compiler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final T fallback;
+
+	/** Number of timed calls to each implementation before deciding, or zero to adopt the native one right away */
+	private final long trialCalls;
+
+	/** Released when the state becomes {@link State#NATIVE} or {@link State#FALLBACK} */
+	private final CountDownLatch decided = new CountDownLatch(1);
+
+	private final AtomicLong trialCallsStarted = new AtomicLong();
+	private final AtomicLong trialCallsFinished = new AtomicLong();
+	private final LongAdder fallbackNanos = new LongAdder();
+	private final LongAdder nativeNanos = new LongAdder();
+
+	/** The implementation returned by {@link #get()} */
+	private volatile T current;
+
+	/** The native implementation, null until compiled */
+	private volatile T candidate;
+
+	private volatile State state = State.COMPILING;
+
+	/** Why the native implementation is not used, if it failed to compile */
+	private volatile Throwable failure;
+
+	/** Kept so that the implementation is not garbage collected while the native implementation is in use */
+	private volatile NativeModule nativeModule;
+
+	/**
+	 * Binds the Java implementation and starts compiling the native one, adopting it as soon as it is ready.
+	 * @param fallback the Java implementation
+	 * @param nativeConstructor creates the native implementation from the function pointers of the compiled module
+	 * @param bindings bindings of the class of the native implementation
+	 * @param sourceCode code of the native implementation
+	 * @param additionalCompilerArgs additional arguments for Clang
+	 */
+	public AdaptiveBinding(T fallback, Function<long[], ? extends T> nativeConstructor, NativeBindings bindings,
+						   String sourceCode, String... additionalCompilerArgs) {
+		this(fallback, nativeConstructor, bindings, sourceCode, COMPILER, 0, additionalCompilerArgs);
+	}
+
+	/**
+	 * Binds the Java implementation and starts compiling the native one.
+	 * @param fallback the Java implementation
+	 * @param nativeConstructor creates the native implementation from the function pointers of the compiled module
+	 * @param bindings bindings of the class of the native implementation
+	 * @param sourceCode code of the native implementation
+	 * @param executor runs the compilation
+	 * @param trialCalls number of timed calls to each implementation before deciding which one to keep,
+	 *                   or zero to adopt the native implementation without a trial
+	 * @param additionalCompilerArgs additional arguments for Clang
+	 */
+	public AdaptiveBinding(T fallback, Function<long[], ? extends T> nativeConstructor, NativeBindings bindings,
+						   String sourceCode, Executor executor, int trialCalls, String... additionalCompilerArgs) {
+		this(fallback, executor, trialCalls);
+		start(executor, () -> {
+			final NativeModule implementation = Driver.compileInMemory(sourceCode, additionalCompilerArgs);
+			if (implementation.hasErrors()) {
+				throw new IllegalArgumentException(implementation.getErrors());
+			}
+			nativeModule = implementation;
+			return nativeConstructor.apply(bindings.getFunctionPointers(implementation));
+		});
+	}
+
+	/** Binds the Java implementation and starts running {@code compilation}, which returns the native one */
+	AdaptiveBinding(T fallback, Callable<? extends T> compilation, Executor executor, int trialCalls) {
+		this(fallback, executor, trialCalls);
+		start(executor, compilation);
+	}
+
+	private AdaptiveBinding(T fallback, Executor executor, int trialCalls) {
+		if (fallback == null || executor == null) {
+			throw new IllegalArgumentException("missing fallback or executor");
+		}
+		if (trialCalls < 0) {
+			throw new IllegalArgumentException("negative number of trial calls: " + trialCalls);
+		}
+		this.fallback = fallback;
+		this.current = fallback;
+		this.trialCalls = trialCalls;
+	}
+
+	private void start(Executor executor, Callable<? extends T> compilation) {
+		executor.execute(() -> {
+			final T implementation;
+			try {
+				implementation = compilation.call();
+			} catch (Throwable e) {
+				failure = e;
+				decide(State.FALLBACK);
+				return;
+			}
+			candidate = implementation;
+			if (trialCalls == 0) {
+				decide(State.NATIVE);
+			} else {
+				state = State.TRIAL;
+			}
+		});
+	}
+
+	private synchronized void decide(State decision) {
+		if (state == State.NATIVE || state == State.FALLBACK) {
+			return;
+		}
+		current = decision == State.NATIVE ? candidate : fallback;
+		state = decision;
+		decided.countDown();
+	}
+
+	/** @return the implementation to call, the Java one until the native one is adopted */
+	public T get() {
+		return current;
+	}
+
+	/**
+	 * Calls the current implementation. During the trial, calls alternate between both implementations and are timed.
+	 * @param call the call to make
+	 * @param <R> type of the result
+	 * @return the result of the call
+	 */
+	public <R> R apply(Function<? super T, ? extends R> call) {
+		if (state != State.TRIAL) {
+			return call.apply(current);
+		}
+		final long trialCall = trialCallsStarted.getAndIncrement();
+		if (trialCall >= 2 * trialCalls) {
+			return call.apply(current);
+		}
+
+		final boolean useNative = (trialCall & 1) == 1;
+		final long start = System.nanoTime();
+		try {
+			return call.apply(useNative ? candidate : fallback);
+		} finally {
+			(useNative ? nativeNanos : fallbackNanos).add(System.nanoTime() - start);
+			if (trialCallsFinished.incrementAndGet() == 2 * trialCalls) {
+				decide(nativeNanos.sum() < fallbackNanos.sum() ? State.NATIVE : State.FALLBACK);
+			}
+		}
+	}
+
+	/**
+	 * Waits until it is decided which implementation to keep.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of {@code timeout}
+	 * @return true if decided, false if the timeout elapsed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitDecision(long timeout, TimeUnit unit) throws InterruptedException {
+		return decided.await(timeout, unit);
+	}
+
+	/** @return the current stage of the dispatch */
+	public State getState() {
+		return state;
+	}
+
+	/** @return true if calls go to the native implementation */
+	public boolean isNative() {
+		return state == State.NATIVE;
+	}
+
+	/** @return why the native implementation failed to compile, or null */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/** @return the total time of the trial calls to the Java implementation, in nanoseconds */
+	public long getFallbackTrialNanos() {
+		return fallbackNanos.sum();
+	}
+
+	/** @return the total time of the trial calls to the native implementation, in nanoseconds */
+	public long getNativeTrialNanos() {
+		return nativeNanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveBinding " + state + (failure == null ? "" : " (" + failure.getMessage() + ")");
+	}
+}
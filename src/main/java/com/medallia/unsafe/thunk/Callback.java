@@ -0,0 +1,27 @@
+package com.medallia.unsafe.thunk;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an instance method as a callback that will be invoked from native code.
+ * <p>
+ * The {@code jmethodID} of every callback is resolved once, when the class is bound by
+ * {@link ThunkBuilder#initializeNative(Class)}, and typed inline wrappers are made available to the implementation
+ * through {@link NativeBindings#getHeader()}.
+ * <p>
+ * If {@link #batchSize()} is positive the method must have the signature {@code void name(P[] values, int count)},
+ * where {@code P} is a primitive type. A batch class is then generated that buffers values on the native side
+ * and delivers them to Java {@code batchSize} at a time. The array passed to Java is reused across calls and should
+ * not be retained.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Callback {
+	/** @return number of values buffered before each upcall, or 0 for a plain callback. */
+	int batchSize() default 0;
+}
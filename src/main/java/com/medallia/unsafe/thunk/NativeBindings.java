@@ -12,20 +12,75 @@ public class NativeBindings {
 	 * We keep a reference to the {@link com.medallia.unsafe.NativeModule} holding the thunk to prevent
 	 * it from being prematurely garbage collected
 	 */
-	@SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
 	private final NativeModule nativeModule;
 
+	/** Prefix of the entry points of these bindings in {@link #nativeModule}, which may hold several classes */
+	private final String prefix;
+
 	/** List of native methods in the order used by thunk generation. */
 	private final List<Method> nativeMethods;
 
-	NativeBindings(NativeModule nativeModule, List<Method> nativeMethods) {
+	/** List of {@link Callback} methods in the order used by thunk generation. */
+	private final List<Method> callbacks;
+
+	/** Address of the {@code jmethodID} table for {@link #callbacks}, owned by {@link #nativeModule}. */
+	private final long callbackIds;
+
+	/** Profiling code the thunks were generated with */
+	private final ProfilingMode profilingMode;
+
+	NativeBindings(NativeModule nativeModule, String prefix, List<Method> nativeMethods, List<Method> callbacks,
+				   long callbackIds, ProfilingMode profilingMode) {
 		this.nativeModule = nativeModule;
+		this.prefix = prefix;
 		this.nativeMethods = nativeMethods;
+		this.callbacks = callbacks;
+		this.callbackIds = callbackIds;
+		this.profilingMode = profilingMode;
+	}
+
+	/** @return the profiling code the thunks were generated with */
+	public ProfilingMode getProfilingMode() {
+		return profilingMode;
+	}
+
+	/**
+	 * Takes a snapshot of the profile counters of all thunks.
+	 * @return the current profile
+	 * @throws IllegalStateException if the bindings were created without profiling
+	 */
+	public ThunkProfile getProfile() {
+		if (profilingMode == ProfilingMode.NONE) {
+			throw new IllegalStateException("bindings were created without profiling");
+		}
+		final long[] values = new long[Math.max(1, nativeMethods.size()) * ThunkBuilder.profileWidth(profilingMode)];
+		nativeModule.getFunctionByName(prefix + "snapshotProfile").invoke(null, values);
+		return ThunkProfile.fromSnapshot(nativeMethods, profilingMode, values);
+	}
+
+	/**
+	 * Returns C++ declarations that should be prepended to the source code of an implementation.
+	 * For every method annotated with {@link Callback} there is an inline wrapper in the {@code callbacks}
+	 * namespace with the same name, taking {@code (JNIEnv* env, jobject self, ...)} followed by the method arguments.
+	 * For batched callbacks there is a {@code callbacks::<name>_batch} class instead, constructed from
+	 * {@code (env, self)}, with {@code add(value)} and {@code flush()} methods. Pending values are flushed
+	 * when the batch goes out of scope. If an upcall throws, both methods return false and the batch makes no more
+	 * upcalls, so the implementation should return and let the exception propagate.
+	 * <p>
+	 * The header also defines the structs of the {@link NativeStruct} classes passed to the native methods.
+	 * <p>
+	 * The wrappers use {@code jmethodID}s cached by these bindings, which are handed to the implementation by
+	 * {@link #getFunctionPointers(NativeModule)}. Callbacks can't be used before, and the implementation must not
+	 * outlive these bindings.
+	 * @return C++ source code
+	 */
+	public String getHeader() {
+		return ThunkBuilder.generateHeader(callbacks, ThunkBuilder.structClasses(nativeMethods));
 	}
 
 	/**
 	 * Given an implementation, it builds a function pointer array suitable to be used on the class for which these
-	 * bindings where created.
+	 * bindings where created. If the class has callbacks, the implementation is also given their {@code jmethodID}s.
 	 * @param implementation a {@link com.medallia.unsafe.NativeModule} containing all the required method implementations.
 	 * @return an array of pointers.
 	 */
@@ -45,6 +100,31 @@ public class NativeBindings {
 			functions[i] = compiledFunction.getPointerToCompiledFunction();
 		}
 
+		if (!callbacks.isEmpty()) {
+			final NativeFunction setCallbackIds = implementation.getFunctionByName(ThunkBuilder.SET_CALLBACK_IDS);
+			if (setCallbackIds == null) {
+				throw new IllegalArgumentException("Missing " + ThunkBuilder.SET_CALLBACK_IDS + ", the implementation should include getHeader()");
+			}
+			setCallbackIds.invoke(callbackIds);
+		}
 		return functions;
 	}
+
+	/**
+	 * Replaces the function pointers of an array returned by {@link #getFunctionPointers(NativeModule)} in place,
+	 * so that every object holding the array calls the new implementation from its next call on.
+	 * <p>
+	 * Pointers are replaced one at a time, so concurrent calls may briefly use a mix of both implementations,
+	 * and calls that are already running finish in the old one. The old implementation must therefore remain
+	 * reachable after this method returns.
+	 * @param functions array of function pointers for this class
+	 * @param implementation a {@link com.medallia.unsafe.NativeModule} containing all the required method implementations.
+	 */
+	public void rebind(long[] functions, NativeModule implementation) {
+		if (functions.length != nativeMethods.size()) {
+			throw new IllegalArgumentException("Expected " + nativeMethods.size() + " function pointers, got " + functions.length);
+		}
+		final long[] replacement = getFunctionPointers(implementation);
+		System.arraycopy(replacement, 0, functions, 0, replacement.length);
+	}
 }
@@ -0,0 +1,43 @@
+package com.medallia.unsafe.thunk;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@code String} parameter of a native method that is passed to the implementation as characters and a
+ * length instead of a {@code jstring}, so that the implementation does not call {@code GetStringUTFChars}, which
+ * allocates on every call.
+ * <p>
+ * With {@link Encoding#UTF16} the implementation receives {@code (const jchar* chars, jsize length)}, pointing to the
+ * characters of the string itself through {@code GetStringCritical}, without copying them. The implementation then
+ * runs in a JNI critical region: it must not call JNI functions, including {@link Callback}s, and should not block,
+ * since the garbage collector may be held off until it returns.
+ * <p>
+ * With {@link Encoding#UTF8} the implementation receives {@code (const char* chars, jsize length)}, a NUL terminated
+ * copy in modified UTF-8 whose length is in bytes. Strings of up to {@link #STACK_BYTES} bytes are copied to the
+ * stack of the thunk, only longer ones are copied to the scratch arena of the thread, see {@link ScratchArena}, and
+ * released when the call returns.
+ * <p>
+ * A null string is passed as {@code (nullptr, 0)}.
+ */
+@Documented
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NativeString {
+	/** Size of the buffer on the stack of the thunk for {@link Encoding#UTF8} strings, including the terminator */
+	int STACK_BYTES = 256;
+
+	/** How the characters are passed */
+	enum Encoding {
+		/** The characters of the string itself, as {@code const jchar*} */
+		UTF16,
+		/** A copy in modified UTF-8, as {@code const char*} */
+		UTF8
+	}
+
+	/** @return how the characters are passed */
+	Encoding value() default Encoding.UTF16;
+}
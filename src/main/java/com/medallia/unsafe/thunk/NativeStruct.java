@@ -0,0 +1,28 @@
+package com.medallia.unsafe.thunk;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a value class whose instances are passed to native methods as plain C++ structs.
+ * <p>
+ * All instance fields of the class must be primitive. For every native method parameter of an annotated class,
+ * the generated thunk copies the fields into a struct with the same simple name as the class and the fields in
+ * declaration order, e.g. {@code struct Point { jint x; jint y; };}, and passes a pointer to it, or {@code nullptr}
+ * for a null reference. The {@code jfieldID}s are resolved once, when the class is bound by
+ * {@link ThunkBuilder#initializeNative(Class)}, so the implementation makes no JNI calls to read the fields.
+ * The struct definitions are available to the implementation through {@link NativeBindings#getHeader()}.
+ * <p>
+ * If {@link #writeBack()} is true, the fields are copied back to the object after the call, so the implementation
+ * can modify them. Fields of such classes must not be final.
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NativeStruct {
+	/** @return whether the fields modified by the implementation are written back to the object */
+	boolean writeBack() default false;
+}
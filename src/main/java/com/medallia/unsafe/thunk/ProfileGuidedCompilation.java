@@ -0,0 +1,112 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.CompileOption;
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Profile guided compilation of an implementation for {@link NativeBindings}, without an offline training step.
+ * <p>
+ * The implementation is first compiled with {@link CompileOption#PROFILE_INSTRUMENTATION}, so it counts how often
+ * each branch is taken while it serves real traffic. Calling {@link #recompile()} then compiles it again using those
+ * counts for branch weights and code layout, and swaps the function pointers of the bound objects in place:
+ * <pre>
+ *     final ProfileGuidedCompilation compilation = new ProfileGuidedCompilation(BINDINGS, sourceCode, "-O3");
+ *     final Query query = new Query(compilation.getFunctionPointers());
+ *     // ... run for a while ...
+ *     compilation.recompile();
+ * </pre>
+ * Only branch and call counts are profiled, this version of LLVM has no value profiling.
+ * The instrumented module is kept for the lifetime of this object because calls may still be running in it
+ * when the pointers are swapped.
+ */
+public class ProfileGuidedCompilation {
+	/** Bindings of the class the implementation is for */
+	private final NativeBindings bindings;
+
+	/** Source code of the implementation */
+	private final String sourceCode;
+
+	/** Compiler arguments used for both compilations, including {@link Driver#DEFAULT_INCLUDE_ARGS} */
+	private final List<String> compilerArgs;
+
+	/** The instrumented implementation */
+	private final NativeModule instrumented;
+
+	/** Function pointers shared by all the bound objects, swapped in place by {@link #recompile()} */
+	private final long[] functions;
+
+	/** The optimized implementation, null until {@link #recompile()} is called */
+	private NativeModule optimized;
+
+	/**
+	 * Compiles the instrumented implementation.
+	 * @param bindings bindings of the class the implementation is for
+	 * @param sourceCode code to be compiled
+	 * @param additionalCompilerArgs additional arguments for Clang
+	 * @throws IllegalArgumentException if the implementation does not compile or is incomplete
+	 */
+	public ProfileGuidedCompilation(NativeBindings bindings, String sourceCode, String... additionalCompilerArgs) {
+		this.bindings = bindings;
+		this.sourceCode = sourceCode;
+		this.compilerArgs = new ArrayList<>(Driver.DEFAULT_INCLUDE_ARGS);
+		Collections.addAll(compilerArgs, additionalCompilerArgs);
+
+		instrumented = compile(compilerArgs, EnumSet.of(CompileOption.PROFILE_INSTRUMENTATION));
+		if (instrumented.hasErrors()) {
+			throw new IllegalArgumentException(instrumented.getErrors());
+		}
+		functions = bindings.getFunctionPointers(instrumented);
+	}
+
+	/** @return the function pointers to be assigned to the {@code functions} field of the bound objects */
+	public long[] getFunctionPointers() {
+		return functions;
+	}
+
+	/** @return true if {@link #recompile()} was called */
+	public synchronized boolean isRecompiled() {
+		return optimized != null;
+	}
+
+	/**
+	 * Recompiles the implementation with the profile collected so far and rebinds the function pointers to it.
+	 * Profiling stops, so this can only be done once.
+	 * @return the optimized implementation
+	 * @throws IOException if the profile cannot be written
+	 * @throws IllegalStateException if already recompiled, or if the recompilation fails
+	 */
+	public synchronized NativeModule recompile() throws IOException {
+		if (optimized != null) {
+			throw new IllegalStateException("already recompiled");
+		}
+
+		final Path profile = Files.createTempFile("unsafe", ".profdata");
+		try {
+			instrumented.writeProfile(profile);
+			final List<String> profileArgs = new ArrayList<>(compilerArgs);
+			profileArgs.add("-fprofile-instr-use=" + profile);
+			final NativeModule nativeModule = compile(profileArgs, EnumSet.noneOf(CompileOption.class));
+			if (nativeModule.hasErrors()) {
+				throw new IllegalStateException(nativeModule.getErrors());
+			}
+			bindings.rebind(functions, nativeModule);
+			optimized = nativeModule;
+		} finally {
+			Files.deleteIfExists(profile);
+		}
+		return optimized;
+	}
+
+	private NativeModule compile(List<String> args, EnumSet<CompileOption> options) {
+		return Driver.compileInMemory(null, sourceCode, args.toArray(new String[args.size()]), options);
+	}
+}
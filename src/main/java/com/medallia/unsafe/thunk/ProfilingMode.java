@@ -0,0 +1,25 @@
+package com.medallia.unsafe.thunk;
+
+/**
+ * Profiling code generated in each thunk by {@link ThunkBuilder#initializeNative(Class, ProfilingMode)}.
+ * Counters are kept in native memory, striped over cache-line padded slots so that threads calling the same
+ * method do not contend on a single cache line.
+ */
+public enum ProfilingMode {
+	/** No profiling code, the thunk only calls the implementation. */
+	NONE,
+	/** Counts calls to each method. */
+	COUNTERS,
+	/**
+	 * Counts calls and records their latency, measured with the time stamp counter, in a log2 histogram.
+	 * Latencies are expressed in TSC cycles. The counter is read with {@code __rdtsc()}, so this mode is only
+	 * supported on x86 and x86-64 hosts, see {@link #isX86Host()}.
+	 */
+	LATENCY;
+
+	/** @return true if the JVM runs on x86 or x86-64, where {@link #LATENCY} is supported */
+	public static boolean isX86Host() {
+		final String arch = System.getProperty("os.arch");
+		return arch.equals("amd64") || arch.equals("x86_64") || arch.equals("x86") || arch.matches("i[3-6]86");
+	}
+}
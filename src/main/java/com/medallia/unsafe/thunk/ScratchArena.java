@@ -0,0 +1,29 @@
+package com.medallia.unsafe.thunk;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a native method whose implementation allocates temporary buffers from the scratch arena of its thread,
+ * declared in {@code <unsafe/arena.h>}:
+ * <pre>
+ *     jlong distinct(JNIEnv* env, jobject self, jlong values, jint n) {
+ *         int64_t* sorted = unsafe::arena::allocate_array&lt;int64_t&gt;(n);
+ *         ...
+ *     }
+ * </pre>
+ * The thunk marks the arena before the call and releases everything allocated after the mark when the call returns,
+ * so buffers allocated by the implementation are only valid until it returns. The memory of the arena is kept for
+ * later calls on the same thread, see {@link com.medallia.unsafe.io.ScratchArenas}.
+ * <p>
+ * Finding the arena of the thread is a call into the driver library, so implementations that allocate in a loop
+ * should look it up once with {@code unsafe::arena::state()} and pass it to the allocation functions.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ScratchArena {
+}
@@ -6,12 +6,14 @@ import com.medallia.unsafe.NativeFunction;
 import com.medallia.unsafe.NativeModule;
 
 import java.io.StringWriter;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -54,8 +56,25 @@ import java.util.Map;
  *
  * This function will lookup the function pointer in element 0 of the {@code functions} array, cast it and invoke
  * passing the arguments.
+ * <p>
+ * Instance methods annotated with {@link Callback} can be called back from the implementation. Their
+ * {@code jmethodID}s are resolved once by {@code registerNative()} and exposed as typed inline wrappers in the
+ * {@code callbacks} namespace of {@link NativeBindings#getHeader()}, which the implementation should include
+ * before its own code.
+ * <p>
+ * Thunks can optionally be generated with profiling code, see {@link ProfilingMode}. Thunks generated
+ * without profiling are exactly the same as above, so profiling costs nothing when disabled.
+ * <p>
+ * Thunks precompiled at build time by {@link ThunkPrecompiler} are loaded from the class path instead of being
+ * compiled, which removes Clang from the initialization of the class.
  */
 public abstract class ThunkBuilder {
+	/** Number of cache-line padded counter slots per method, threads are spread over them to avoid contention. */
+	static final int PROFILE_STRIPES = 16;
+
+	/** Number of latency buckets, bucket {@code i} counts calls that took {@code [2^i, 2^(i+1))} cycles. */
+	static final int LATENCY_BUCKETS = 32;
+
 	/**
 	 * Creates a set of native bindings for a all native methods in the specified class.
 	 * The returned {@link com.medallia.unsafe.thunk.NativeBindings} should be held for the lifetime of the class,
@@ -69,7 +88,123 @@ public abstract class ThunkBuilder {
 	 * @return {@link NativeBindings} for the class.
 	 */
 	public static NativeBindings initializeNative(Class<?> aClass) {
+		return initializeNative(aClass, ProfilingMode.NONE);
+	}
+
+	/**
+	 * Creates a set of native bindings for a all native methods in the specified class, with optional profiling.
+	 * See {@link #initializeNative(Class)}.
+	 * <p>
+	 * If profiling is enabled, the profile is available from {@link NativeBindings#getProfile()} and through
+	 * a {@link ThunkProfileMXBean} registered as {@code com.medallia.unsafe:type=ThunkProfile,name=<class name>}.
+	 * @param aClass class to be processed
+	 * @param profiling profiling code to generate in each thunk
+	 * @return {@link NativeBindings} for the class.
+	 * @throws IllegalArgumentException if the profiling mode is not supported on this host
+	 */
+	public static NativeBindings initializeNative(Class<?> aClass, ProfilingMode profiling) {
+		checkProfiling(profiling);
+
+		final List<Method> nativeMethods = new ArrayList<>();
+		final List<Method> callbacks = new ArrayList<>();
+		final NativeModule nativeModule = compileThunk(aClass, generateThunk(aClass, profiling, nativeMethods, callbacks));
+		return bind(aClass, nativeModule, "", nativeMethods, callbacks, profiling);
+	}
+
+	/**
+	 * Creates native bindings for several classes at once, see {@link #initializeNative(Class)}.
+	 * The thunks of all classes are compiled together into a single module, which is much faster than compiling
+	 * one module per class and keeps a single execution engine resident.
+	 * <p>
+	 * Binding a class initializes it, so the classes should not get their bindings from the class that calls this
+	 * method while it is being initialized. Keep the bindings in a separate holder class instead.
+	 * @param classes classes to be processed
+	 * @return {@link NativeBindings} for each class, in the same order
+	 */
+	public static NativeBindings[] initializeNative(Class<?>... classes) {
+		return initializeNative(ProfilingMode.NONE, classes);
+	}
+
+	/**
+	 * Creates native bindings for several classes at once with optional profiling, see
+	 * {@link #initializeNative(Class...)} and {@link #initializeNative(Class, ProfilingMode)}.
+	 * @param profiling profiling code to generate in each thunk
+	 * @param classes classes to be processed
+	 * @return {@link NativeBindings} for each class, in the same order
+	 * @throws IllegalArgumentException if the profiling mode is not supported on this host
+	 */
+	public static NativeBindings[] initializeNative(ProfilingMode profiling, Class<?>... classes) {
+		checkProfiling(profiling);
+		if (classes == null || classes.length == 0) {
+			throw new IllegalArgumentException("missing classes");
+		}
+
+		final List<List<Method>> nativeMethods = new ArrayList<>();
+		final List<List<Method>> callbacks = new ArrayList<>();
+		for (Class<?> aClass : classes) {
+			final List<Method> classNativeMethods = new ArrayList<>();
+			final List<Method> classCallbacks = new ArrayList<>();
+			collectMethods(aClass, classNativeMethods, classCallbacks);
+			nativeMethods.add(classNativeMethods);
+			callbacks.add(classCallbacks);
+		}
+
+		final NativeModule nativeModule = compileThunk(classes[0], generateThunks(nativeMethods, callbacks, profiling));
+		final NativeBindings[] bindings = new NativeBindings[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			bindings[i] = bind(classes[i], nativeModule, thunkNamespace(i) + "_", nativeMethods.get(i), callbacks.get(i), profiling);
+		}
+		return bindings;
+	}
+
+	/** Checks that a profiling mode is given and supported on this host */
+	private static void checkProfiling(ProfilingMode profiling) {
+		if (profiling == null) {
+			throw new IllegalArgumentException("missing profiling mode");
+		}
+		if (profiling == ProfilingMode.LATENCY && !ProfilingMode.isX86Host()) {
+			throw new IllegalArgumentException("LATENCY profiling is only supported on x86 hosts, not " + System.getProperty("os.arch"));
+		}
+	}
+
+	/**
+	 * Registers the thunks of a class with the JVM.
+	 * @param prefix prefix of the entry points of the class in the module
+	 */
+	private static NativeBindings bind(Class<?> aClass, NativeModule nativeModule, String prefix,
+									   List<Method> nativeMethods, List<Method> callbacks, ProfilingMode profiling) {
+		final NativeFunction registerNative = nativeModule.getFunctionByName(prefix + "registerNative");
+		registerNative.invoke(null, aClass);
+
+		final List<Class<?>> structs = structClasses(nativeMethods);
+		if (!structs.isEmpty()) {
+			nativeModule.getFunctionByName(prefix + "registerStructs").invoke(null, structs.toArray(new Class<?>[structs.size()]));
+		}
+
+		long callbackIds = 0;
+		if (!callbacks.isEmpty()) {
+			callbackIds = (Long) nativeModule.getFunctionByName(prefix + "getCallbackIds").invoke();
+		}
+		final NativeBindings bindings = new NativeBindings(nativeModule, prefix, nativeMethods, callbacks, callbackIds, profiling);
+		if (profiling != ProfilingMode.NONE) {
+			ThunkProfileBean.register(aClass, bindings);
+		}
+		return bindings;
+	}
+
+	/**
+	 * Generates the thunks of a class, as compiled by {@link #initializeNative(Class, ProfilingMode)}.
+	 * @param nativeMethods filled with the native methods of the class, in the order of the thunks
+	 * @param callbacks filled with the methods annotated with {@link Callback}, in the order of their ids
+	 * @return C++ source code of the thunks
+	 */
+	static String generateThunk(Class<?> aClass, ProfilingMode profiling, List<Method> nativeMethods, List<Method> callbacks) {
+		collectMethods(aClass, nativeMethods, callbacks);
+		return generateThunk(nativeMethods, callbacks, profiling);
+	}
 
+	/** Checks the {@code functions} field of a class and collects its native and callback methods. */
+	private static void collectMethods(Class<?> aClass, List<Method> nativeMethods, List<Method> callbacks) {
 		try {
 			final Field functions = aClass.getDeclaredField("functions");
 			if (Modifier.isStatic(functions.getModifiers())) {
@@ -82,56 +217,256 @@ public abstract class ThunkBuilder {
 			throw new IllegalArgumentException("Class should have a 'long[] functions' field declared", e);
 		}
 
-		final List<Method> nativeMethods = new ArrayList<>();
 		for (Method method : aClass.getDeclaredMethods()) {
 			if (Modifier.isNative(method.getModifiers())) {
+				checkStructs(method);
+				checkStrings(method);
 				nativeMethods.add(method);
+			} else if (method.isAnnotationPresent(Callback.class)) {
+				checkCallback(method);
+				callbacks.add(method);
 			}
 		}
+	}
 
-		final NativeModule nativeModule = Driver.compileInMemory(generateThunk(nativeMethods));
+	/** Loads the thunks precompiled by {@link ThunkPrecompiler} for this source if there are any, or compiles them. */
+	private static NativeModule compileThunk(Class<?> aClass, String source) {
+		final NativeModule precompiled = ThunkPrecompiler.load(aClass.getClassLoader(), source);
+		if (precompiled != null) {
+			return precompiled;
+		}
+		final NativeModule nativeModule = Driver.compileInMemory(source);
 		if (nativeModule.hasErrors()) {
 			throw new IllegalStateException(nativeModule.getErrors());
 		}
+		return nativeModule;
+	}
 
-		final NativeFunction registerNative = nativeModule.getFunctionByName("registerNative");
-		registerNative.invoke(null, aClass);
-		return new NativeBindings(nativeModule, nativeMethods);
+	/** Checks that the {@link NativeStruct} classes used by a native method can be passed as structs. */
+	private static void checkStructs(Method nativeMethod) {
+		if (isStruct(nativeMethod.getReturnType())) {
+			throw new IllegalArgumentException("NativeStruct classes can only be passed as parameters: " + nativeMethod);
+		}
+		for (Class<?> type : nativeMethod.getParameterTypes()) {
+			if (isStruct(type)) {
+				final boolean writeBack = type.getAnnotation(NativeStruct.class).writeBack();
+				for (Field field : structFields(type)) {
+					if (!field.getType().isPrimitive()) {
+						throw new IllegalArgumentException("NativeStruct fields should be primitive: " + field);
+					}
+					if (writeBack && Modifier.isFinal(field.getModifiers())) {
+						throw new IllegalArgumentException("NativeStruct fields written back should not be final: " + field);
+					}
+				}
+			}
+		}
+	}
+
+	/** Checks that {@link NativeString} only annotates {@code String} parameters. */
+	private static void checkStrings(Method nativeMethod) {
+		final Class<?>[] parameterTypes = nativeMethod.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (stringEncoding(nativeMethod, i) != null && parameterTypes[i] != String.class) {
+				throw new IllegalArgumentException("NativeString should annotate String parameters: " + nativeMethod);
+			}
+		}
+	}
+
+	/** @return how a parameter of a native method is passed as characters, or null if it is not annotated with {@link NativeString} */
+	static NativeString.Encoding stringEncoding(Method nativeMethod, int parameter) {
+		for (Annotation annotation : nativeMethod.getParameterAnnotations()[parameter]) {
+			if (annotation instanceof NativeString) {
+				return ((NativeString) annotation).value();
+			}
+		}
+		return null;
+	}
+
+	/** @return true if instances of the type are passed to native methods as structs */
+	static boolean isStruct(Class<?> type) {
+		return type.isAnnotationPresent(NativeStruct.class);
+	}
+
+	/** @return the fields of a {@link NativeStruct} class, in the order of the struct */
+	static List<Field> structFields(Class<?> struct) {
+		final List<Field> fields = new ArrayList<>();
+		for (Field field : struct.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers())) {
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+
+	/** @return the {@link NativeStruct} classes passed to some native methods, in order of first use */
+	static List<Class<?>> structClasses(List<Method> nativeMethods) {
+		final Map<String, Class<?>> structs = new LinkedHashMap<>();
+		for (Method nativeMethod : nativeMethods) {
+			for (Class<?> type : nativeMethod.getParameterTypes()) {
+				final Class<?> previous = isStruct(type) ? structs.putIfAbsent(type.getSimpleName(), type) : null;
+				if (previous != null && previous != type) {
+					throw new IllegalArgumentException("NativeStruct classes should have different simple names: " + previous + ", " + type);
+				}
+			}
+		}
+		return new ArrayList<>(structs.values());
+	}
+
+	/** Checks that a method annotated with {@link Callback} can be called from the generated wrappers. */
+	private static void checkCallback(Method callback) {
+		if (Modifier.isStatic(callback.getModifiers())) {
+			throw new IllegalArgumentException("Callback should be an instance method: " + callback);
+		}
+		if (callback.getAnnotation(Callback.class).batchSize() > 0) {
+			final Class<?>[] parameterTypes = callback.getParameterTypes();
+			if (parameterTypes.length != 2
+					|| !parameterTypes[0].isArray() || !parameterTypes[0].getComponentType().isPrimitive()
+					|| parameterTypes[1] != Integer.TYPE
+					|| callback.getReturnType() != Void.TYPE) {
+				throw new IllegalArgumentException("Batched callback should have signature 'void name(<primitive>[] values, int count)': " + callback);
+			}
+		}
 	}
 
 	/**
 	 * Generates a thunk for all the specifed methods plus a {@code registerNative())
-	 * that registers the generated thunks with the JVM
+	 * that registers the generated thunks with the JVM and resolves the ids of all callbacks.
+	 */
+	private static String generateThunk(List<Method> nativeMethods, List<Method> callbacks, ProfilingMode profiling) {
+		final StringWriter sw = new StringWriter();
+		final IndentedPrintWriter pw = new IndentedPrintWriter(sw);
+		generateIncludes(pw, profiling, usesArena(nativeMethods));
+		generateClassThunk(pw, nativeMethods, callbacks, profiling, true);
+		return sw.toString();
+	}
+
+	/**
+	 * Generates the thunks of several classes in a single source. The thunks of each class are generated as by
+	 * {@link #generateThunk(List, List, ProfilingMode)}, in their own namespace, and their entry points are
+	 * exported with the namespace as prefix, e.g. {@code thunks0_registerNative()}.
 	 */
-	private static String generateThunk(List<Method> nativeMethods) {
+	private static String generateThunks(List<List<Method>> nativeMethods, List<List<Method>> callbacks, ProfilingMode profiling) {
 		final StringWriter sw = new StringWriter();
 		final IndentedPrintWriter pw = new IndentedPrintWriter(sw);
+		boolean arena = false;
+		for (List<Method> classMethods : nativeMethods) {
+			arena |= usesArena(classMethods);
+		}
+		generateIncludes(pw, profiling, arena);
+		for (int i = 0; i < nativeMethods.size(); i++) {
+			pw.printf("namespace %s {%n", thunkNamespace(i));
+			generateClassThunk(pw, nativeMethods.get(i), callbacks.get(i), profiling, false);
+			pw.println("}");
+			pw.println();
+		}
+
+		pw.println("extern \"C\" {");
+		for (int i = 0; i < nativeMethods.size(); i++) {
+			final String namespace = thunkNamespace(i);
+			pw.printf("void %1$s_registerNative(JNIEnv* env, jclass aClass) { %1$s::registerNative(env, aClass); }%n", namespace);
+			if (!structClasses(nativeMethods.get(i)).isEmpty()) {
+				pw.printf("void %1$s_registerStructs(JNIEnv* env, jobjectArray classes) { %1$s::registerStructs(env, classes); }%n", namespace);
+			}
+			if (!callbacks.get(i).isEmpty()) {
+				pw.printf("jlong %1$s_getCallbackIds() { return %1$s::getCallbackIds(); }%n", namespace);
+			}
+			if (profiling != ProfilingMode.NONE) {
+				pw.printf("void %1$s_snapshotProfile(JNIEnv* env, jlongArray out) { %1$s::snapshotProfile(env, out); }%n", namespace);
+			}
+		}
+		pw.println("}");
+		return sw.toString();
+	}
+
+	/** @return the namespace of the thunks of the class at the specified index of a batch */
+	private static String thunkNamespace(int index) {
+		return "thunks" + index;
+	}
+
+	private static void generateIncludes(IndentedPrintWriter pw, ProfilingMode profiling, boolean arena) {
 		pw.println("#include <jni.h>");
+		if (profiling == ProfilingMode.LATENCY) {
+			pw.println("#include <x86intrin.h>");
+		}
+		if (arena) {
+			pw.println("#include <unsafe/arena.h>");
+		}
+	}
+
+	/**
+	 * @return true if some of the native methods are annotated with {@link ScratchArena}, or take {@link NativeString}
+	 * arguments in UTF-8, whose long copies are allocated from the scratch arena
+	 */
+	private static boolean usesArena(List<Method> nativeMethods) {
+		for (Method nativeMethod : nativeMethods) {
+			if (nativeMethod.isAnnotationPresent(ScratchArena.class)) {
+				return true;
+			}
+			for (int i = 0; i < nativeMethod.getParameterTypes().length; i++) {
+				if (stringEncoding(nativeMethod, i) == NativeString.Encoding.UTF8) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Generates the thunks of one class.
+	 * @param externC whether to give the functions C linkage, so that they can be looked up by their plain names
+	 */
+	private static void generateClassThunk(IndentedPrintWriter pw, List<Method> nativeMethods, List<Method> callbacks,
+										   ProfilingMode profiling, boolean externC) {
 		pw.println("jfieldID functionsFldId;");
+		if (!callbacks.isEmpty()) {
+			pw.printf("jmethodID callbackIds[%d];%n", callbacks.size());
+		}
+		final List<Class<?>> structs = structClasses(nativeMethods);
+		for (Class<?> struct : structs) {
+			generateStruct(pw, struct, false);
+			pw.printf("jfieldID %s_fieldIds[%d];%n", struct.getSimpleName(), Math.max(1, structFields(struct).size()));
+		}
 
-		pw.println("extern \"C\" {");
+		if (externC) {
+			pw.println("extern \"C\" {");
+		}
 		pw.println();
 
 		generateGetFunctionHelper(pw);
+		if (profiling != ProfilingMode.NONE) {
+			pw.println();
+			generateProfileHelpers(pw, nativeMethods.size(), profiling);
+		}
 
 		for (int i = 0; i < nativeMethods.size(); i++) {
 			final Method nativeMethod = nativeMethods.get(i);
 			pw.println();
-			generateNativeMethodThunk(pw, nativeMethod, i);
+			generateNativeMethodThunk(pw, nativeMethod, i, profiling);
 		}
 
-		generateRegisterNative(pw, nativeMethods);
+		generateRegisterNative(pw, nativeMethods, callbacks);
+		if (!structs.isEmpty()) {
+			generateRegisterStructs(pw, structs);
+		}
 
-		pw.println("}");
+		if (!callbacks.isEmpty()) {
+			pw.println("jlong getCallbackIds() { return (jlong) callbackIds; }");
+		}
 
-		return sw.toString();
+		if (externC) {
+			pw.println("}");
+		}
 	}
 
 	/** Generates the {@code registerNative()} helper function for the specified native methods */
-	private static void generateRegisterNative(IndentedPrintWriter pw, List<Method> nativeMethods) {
+	private static void generateRegisterNative(IndentedPrintWriter pw, List<Method> nativeMethods, List<Method> callbacks) {
 		pw.println("void registerNative(JNIEnv* env, jclass fastCallClass) {");
 		pw.indent();
 		pw.println("functionsFldId = env->GetFieldID(fastCallClass, \"functions\", \"[J\");");
+		for (int i = 0; i < callbacks.size(); i++) {
+			final Method callback = callbacks.get(i);
+			pw.printf("callbackIds[%d] = env->GetMethodID(fastCallClass, \"%s\", \"%s\");%n", i, callback.getName(), toMethodSignature(callback));
+		}
 		pw.println("JNINativeMethod methods[] = {");
 		pw.indent();
 		for (Method nativeMethod : nativeMethods) {
@@ -144,16 +479,170 @@ public abstract class ThunkBuilder {
 		pw.println("}");
 	}
 
+	/**
+	 * Generates the {@code registerStructs()} helper function, which resolves the field ids of the
+	 * {@link NativeStruct} classes passed in the same order as {@link #structClasses(List)}.
+	 */
+	private static void generateRegisterStructs(IndentedPrintWriter pw, List<Class<?>> structs) {
+		pw.println("void registerStructs(JNIEnv* env, jobjectArray classes) {");
+		pw.indent();
+		for (int i = 0; i < structs.size(); i++) {
+			final Class<?> struct = structs.get(i);
+			pw.printf("jclass struct%d = (jclass) env->GetObjectArrayElement(classes, %d);%n", i, i);
+			final List<Field> fields = structFields(struct);
+			for (int f = 0; f < fields.size(); f++) {
+				final Field field = fields.get(f);
+				pw.printf("%s_fieldIds[%d] = env->GetFieldID(struct%d, \"%s\", \"%s\");%n",
+						struct.getSimpleName(), f, i, field.getName(), toJavaSignature(field.getType()));
+			}
+		}
+		pw.dedent();
+		pw.println("}");
+	}
+
+	/**
+	 * Generates the C++ struct of a {@link NativeStruct} class.
+	 * @param guarded whether to guard the definition, so that it can be included from several headers
+	 */
+	private static void generateStruct(IndentedPrintWriter pw, Class<?> struct, boolean guarded) {
+		final String name = struct.getSimpleName();
+		if (guarded) {
+			pw.printf("#ifndef NATIVE_STRUCT_%s%n", name);
+			pw.printf("#define NATIVE_STRUCT_%s%n", name);
+		}
+		pw.printf("struct %s {%n", name);
+		pw.indent();
+		for (Field field : structFields(struct)) {
+			pw.printf("%s %s;%n", toJNIType(field.getType()), field.getName());
+		}
+		pw.dedent();
+		pw.println("};");
+		if (guarded) {
+			pw.println("#endif");
+		}
+	}
+
 	/** Generates a JNINativeMethod struct for the specified native method. */
 	private static void generateJNINativeMethod(IndentedPrintWriter pw, Method nativeMethod) {
-		pw.printf("{ (char*)\"%s\", (char*)\"", nativeMethod.getName());
-		pw.print("(");
-		for (Class<?> argType : nativeMethod.getParameterTypes()) {
-			pw.print(toJavaSignature(argType));
+		pw.printf("{ (char*)\"%s\", (char*)\"%s\", (void*)%s },\n", nativeMethod.getName(), toMethodSignature(nativeMethod), nativeMethod.getName());
+	}
+
+	/** Name of the function of an implementation that receives the {@code jmethodID} table of its callbacks */
+	static final String SET_CALLBACK_IDS = "_setCallbackIds";
+
+	/**
+	 * Generates the C++ declarations needed by an implementation to call back the specified methods.
+	 * The {@code jmethodID} table is not known when the header is generated, it is passed to the
+	 * {@link #SET_CALLBACK_IDS} function of the implementation when it is bound.
+	 * @param callbacks methods annotated with {@link Callback}, in the order used by {@code registerNative()}
+	 * @param structs {@link NativeStruct} classes passed to the native methods
+	 * @return C++ source code to be prepended to the implementation
+	 */
+	static String generateHeader(List<Method> callbacks, List<Class<?>> structs) {
+		final StringWriter sw = new StringWriter();
+		final IndentedPrintWriter pw = new IndentedPrintWriter(sw);
+		pw.println("#include <jni.h>");
+		for (Class<?> struct : structs) {
+			generateStruct(pw, struct, true);
 		}
-		pw.print(")");
-		pw.print(toJavaSignature(nativeMethod.getReturnType()));
-		pw.printf("\", (void*)%s },\n", nativeMethod.getName());
+		pw.println("namespace callbacks {");
+		pw.indent();
+		if (!callbacks.isEmpty()) {
+			pw.println("static jmethodID* _ids = NULL;");
+		}
+		for (int i = 0; i < callbacks.size(); i++) {
+			final Method callback = callbacks.get(i);
+			pw.println();
+			if (callback.getAnnotation(Callback.class).batchSize() > 0) {
+				generateBatchCallback(pw, callback, i);
+			} else {
+				generateCallback(pw, callback, i);
+			}
+		}
+		pw.dedent();
+		pw.println("}");
+		if (!callbacks.isEmpty()) {
+			pw.printf("extern \"C\" void %s(jlong ids) { callbacks::_ids = (jmethodID*) ids; }%n", SET_CALLBACK_IDS);
+		}
+		return sw.toString();
+	}
+
+	/** Generates a typed inline wrapper that calls back the specified method. */
+	private static void generateCallback(IndentedPrintWriter pw, Method callback, int index) {
+		final Class<?> returnType = callback.getReturnType();
+		pw.printf("inline %s %s(JNIEnv* env, jobject self", toJNIType(returnType), callback.getName());
+		final Class<?>[] parameterTypes = callback.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			pw.printf(", %s arg%d", toJNIType(parameterTypes[i]), i);
+		}
+		pw.println(") {");
+		pw.indent();
+
+		if (returnType != Void.TYPE) {
+			pw.print("return ");
+		}
+		if (!returnType.isPrimitive()) {
+			pw.printf("(%s) ", toJNIType(returnType));
+		}
+		pw.printf("env->Call%sMethod(self, _ids[%d]", toCallType(returnType), index);
+		for (int i = 0; i < parameterTypes.length; i++) {
+			pw.printf(", arg%d", i);
+		}
+		pw.println(");");
+
+		pw.dedent();
+		pw.println("}");
+	}
+
+	/**
+	 * Generates a class that buffers values and delivers them to the specified method
+	 * {@link Callback#batchSize()} at a time, reusing a single Java array. The buffer is allocated on the heap
+	 * since batches may be large. Once an upcall throws, the exception is left pending and no more upcalls are made:
+	 * {@code add()} and {@code flush()} return false and later values are dropped.
+	 */
+	private static void generateBatchCallback(IndentedPrintWriter pw, Method callback, int index) {
+		final int batchSize = callback.getAnnotation(Callback.class).batchSize();
+		final Class<?> componentType = callback.getParameterTypes()[0].getComponentType();
+		final String elementType = toJNIType(componentType);
+		final String arrayType = toJNIType(callback.getParameterTypes()[0]);
+		final String callType = toCallType(componentType);
+		final String className = callback.getName() + "_batch";
+
+		pw.printf("class %s {%n", className);
+		pw.indent();
+		pw.println("JNIEnv* env;");
+		pw.println("jobject self;");
+		pw.printf("%s array;%n", arrayType);
+		pw.printf("%s* buffer;%n", elementType);
+		pw.println("jint count;");
+		pw.printf("%s(const %s&);%n", className, className);
+		pw.printf("%s& operator=(const %s&);%n", className, className);
+		pw.dedent();
+		pw.println("public:");
+		pw.indent();
+		pw.printf("%s(JNIEnv* env, jobject self) : env(env), self(self), array(env->New%sArray(%d)), buffer(new %s[%d]), count(0) {}%n",
+				className, callType, batchSize, elementType, batchSize);
+		pw.printf("~%s() { flush(); env->DeleteLocalRef(array); delete[] buffer; }%n", className);
+		pw.printf("inline bool add(%s value) {%n", elementType);
+		pw.indent();
+		pw.println("buffer[count++] = value;");
+		pw.printf("return count < %d || flush();%n", batchSize);
+		pw.dedent();
+		pw.println("}");
+		pw.println("inline bool flush() {");
+		pw.indent();
+		pw.println("if (count > 0 && !env->ExceptionCheck()) {");
+		pw.indent();
+		pw.printf("env->Set%sArrayRegion(array, 0, count, buffer);%n", callType);
+		pw.printf("env->CallVoidMethod(self, _ids[%d], array, count);%n", index);
+		pw.dedent();
+		pw.println("}");
+		pw.println("count = 0;");
+		pw.println("return !env->ExceptionCheck();");
+		pw.dedent();
+		pw.println("}");
+		pw.dedent();
+		pw.println("};");
 	}
 
 	/** Generate a helper function to access a specific function pointer in the containing object. */
@@ -167,13 +656,84 @@ public abstract class ThunkBuilder {
 		pw.println("}");
 	}
 
+	/**
+	 * Generates the profile counters, the helpers used by profiled thunks to update them and a
+	 * {@code snapshotProfile(JNIEnv*, jlongArray)} function that sums all stripes into a Java array,
+	 * using {@link #profileWidth(ProfilingMode)} values per method.
+	 */
+	private static void generateProfileHelpers(IndentedPrintWriter pw, int methods, ProfilingMode profiling) {
+		final boolean latency = profiling == ProfilingMode.LATENCY;
+		pw.println("struct __attribute__((aligned(64))) _ProfileSlot {");
+		pw.indent();
+		pw.println("jlong calls;");
+		if (latency) {
+			pw.println("jlong cycles;");
+			pw.printf("jlong buckets[%d];%n", LATENCY_BUCKETS);
+		}
+		pw.dedent();
+		pw.println("};");
+		pw.printf("_ProfileSlot profile[%d];%n", Math.max(1, methods) * PROFILE_STRIPES);
+		pw.println();
+
+		// Threads run on different stacks, so the stack address spreads them over the stripes without
+		// needing thread local storage
+		pw.println("inline _ProfileSlot& _profileSlot(jint index) {");
+		pw.indent();
+		pw.println("char marker;");
+		pw.println("const unsigned long long hash = ((unsigned long long) &marker >> 16) * 0x9E3779B97F4A7C15ULL;");
+		pw.printf("return profile[index * %d + (jint) (hash >> %d)];%n", PROFILE_STRIPES, 64 - Integer.numberOfTrailingZeros(PROFILE_STRIPES));
+		pw.dedent();
+		pw.println("}");
+
+		if (latency) {
+			pw.println();
+			pw.println("inline void _recordLatency(_ProfileSlot& slot, unsigned long long cycles) {");
+			pw.indent();
+			pw.println("__atomic_fetch_add(&slot.cycles, (jlong) cycles, __ATOMIC_RELAXED);");
+			pw.println("jint bucket = 63 - __builtin_clzll(cycles | 1);");
+			pw.printf("if (bucket > %1$d) bucket = %1$d;%n", LATENCY_BUCKETS - 1);
+			pw.println("__atomic_fetch_add(&slot.buckets[bucket], 1, __ATOMIC_RELAXED);");
+			pw.dedent();
+			pw.println("}");
+		}
+
+		pw.println();
+		pw.println("void snapshotProfile(JNIEnv* env, jlongArray out) {");
+		pw.indent();
+		final int width = profileWidth(profiling);
+		pw.println("jlong* values = (jlong*) env->GetPrimitiveArrayCritical(out, 0);");
+		pw.printf("for (jint m = 0; m < %d; ++m) {%n", methods);
+		pw.indent();
+		pw.printf("for (jint s = 0; s < %d; ++s) {%n", PROFILE_STRIPES);
+		pw.indent();
+		pw.printf("const _ProfileSlot& slot = profile[m * %d + s];%n", PROFILE_STRIPES);
+		pw.printf("values[m * %d] += slot.calls;%n", width);
+		if (latency) {
+			pw.printf("values[m * %d + 1] += slot.cycles;%n", width);
+			pw.printf("for (jint b = 0; b < %d; ++b) values[m * %d + 2 + b] += slot.buckets[b];%n", LATENCY_BUCKETS, width);
+		}
+		pw.dedent();
+		pw.println("}");
+		pw.dedent();
+		pw.println("}");
+		pw.println("env->ReleasePrimitiveArrayCritical(out, values, 0);");
+		pw.dedent();
+		pw.println("}");
+	}
+
+	/** @return number of values per method written by {@code snapshotProfile()} */
+	static int profileWidth(ProfilingMode profiling) {
+		return profiling == ProfilingMode.LATENCY ? 2 + LATENCY_BUCKETS : 1;
+	}
+
 	/**
 	 *
 	 * @param pw print writer used to emit the code
 	 * @param nativeMethod the native method we want to generate the thunk for
 	 * @param index index into the function table that will hold the pointer to the implementation at runtime.
+	 * @param profiling profiling code to add around the call
 	 */
-	private static void generateNativeMethodThunk(IndentedPrintWriter pw, Method nativeMethod, int index) {
+	private static void generateNativeMethodThunk(IndentedPrintWriter pw, Method nativeMethod, int index, ProfilingMode profiling) {
 		pw.printf("%s %s(JNIEnv* env, jobject self", toJNIType(nativeMethod.getReturnType()), nativeMethod.getName());
 		final Class<?>[] parameterTypes = nativeMethod.getParameterTypes();
 		for (int i = 0; i < parameterTypes.length; i++) {
@@ -183,28 +743,240 @@ public abstract class ThunkBuilder {
 		pw.println(") {");
 		pw.indent();
 
-		if (nativeMethod.getReturnType() != Void.TYPE) {
+		// Copy the fields of struct arguments
+		boolean writesBack = false;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (isStruct(parameterTypes[i])) {
+				generateStructCopy(pw, parameterTypes[i], i, true);
+				writesBack |= parameterTypes[i].getAnnotation(NativeStruct.class).writeBack();
+			}
+		}
+
+		// Strings are acquired last, since no JNI functions can be called while the critical ones are held:
+		// lengths and UTF-8 copies come first, then all the critical regions are entered back to back
+		final NativeString.Encoding[] encodings = new NativeString.Encoding[parameterTypes.length];
+		boolean strings = false;
+		boolean critical = false;
+		for (int i = 0; i < parameterTypes.length; i++) {
+			encodings[i] = stringEncoding(nativeMethod, i);
+			strings |= encodings[i] != null;
+			critical |= encodings[i] == NativeString.Encoding.UTF16;
+		}
+		if (critical) {
+			pw.printf("typedef %s;%n", toFunctionType(nativeMethod, encodings, "_Function"));
+			pw.printf("const _Function _function = (_Function)_getFunction(env, self, %d);%n", index);
+		}
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (encodings[i] != null) {
+				generateStringCopy(pw, encodings[i], i);
+			}
+		}
+		if (critical) {
+			generateStringCritical(pw, nativeMethod, encodings);
+		}
+
+		final boolean returnsValue = nativeMethod.getReturnType() != Void.TYPE;
+		if (profiling != ProfilingMode.NONE) {
+			pw.printf("_ProfileSlot& _slot = _profileSlot(%d);%n", index);
+			pw.println("__atomic_fetch_add(&_slot.calls, 1, __ATOMIC_RELAXED);");
+			if (profiling == ProfilingMode.LATENCY) {
+				pw.println("const unsigned long long _start = __rdtsc();");
+			}
+		}
+		// Everything the implementation allocates from the scratch arena is released when it returns
+		final boolean scratchArena = nativeMethod.isAnnotationPresent(ScratchArena.class);
+		if (scratchArena) {
+			pw.println("unsafe::arena::state_t* const _arena = unsafe::arena::state();");
+			pw.println("const unsafe::arena::mark_t _arenaMark = unsafe::arena::mark(_arena);");
+		}
+		final boolean keepsResult = returnsValue && (profiling != ProfilingMode.NONE || writesBack || strings || scratchArena);
+		if (keepsResult) {
+			pw.printf("const %s _result = ", toJNIType(nativeMethod.getReturnType()));
+		} else if (returnsValue) {
 			pw.print("return ");
 		}
 
 		// Cast the function pointer to the correct type
-		pw.printf("((%s(*)(JNIEnv*, jobject", toJNIType(nativeMethod.getReturnType()));
-		for (Class<?> argType : parameterTypes) {
-			pw.printf(", %s", toJNIType(argType));
+		if (critical) {
+			pw.print("_function");
+		} else {
+			pw.printf("((%s)_getFunction(env, self, %d))", toFunctionType(nativeMethod, encodings, ""), index);
 		}
-		pw.printf("))_getFunction(env, self, %d))", index);
 
 		// Call it
 		pw.printf("(env, self");
 		for (int i = 0; i < parameterTypes.length; i++) {
-			pw.printf(", arg%d", i);
+			if (isStruct(parameterTypes[i])) {
+				pw.printf(", arg%1$d ? &_struct%1$d : NULL", i);
+			} else if (encodings[i] != null) {
+				pw.printf(", _chars%1$d, _length%1$d", i);
+			} else {
+				pw.printf(", arg%d", i);
+			}
 		}
 		pw.println(");");
 
+		if (scratchArena) {
+			pw.println("unsafe::arena::release(_arena, _arenaMark);");
+		}
+		if (profiling == ProfilingMode.LATENCY) {
+			pw.println("_recordLatency(_slot, __rdtsc() - _start);");
+		}
+		for (int i = parameterTypes.length - 1; i >= 0; i--) {
+			if (encodings[i] != null) {
+				generateStringRelease(pw, encodings[i], i);
+			}
+		}
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (isStruct(parameterTypes[i]) && parameterTypes[i].getAnnotation(NativeStruct.class).writeBack()) {
+				generateStructCopy(pw, parameterTypes[i], i, false);
+			}
+		}
+		if (keepsResult) {
+			pw.println("return _result;");
+		}
+
 		pw.dedent();
 		pw.println("}");
 	}
 
+	/**
+	 * @param name name of the declared pointer, or an empty string for the type alone
+	 * @return the C++ declaration of a pointer to the implementation of a native method
+	 */
+	private static String toFunctionType(Method nativeMethod, NativeString.Encoding[] encodings, String name) {
+		final StringBuilder sb = new StringBuilder(toJNIType(nativeMethod.getReturnType()))
+				.append("(*").append(name).append(")(JNIEnv*, jobject");
+		final Class<?>[] parameterTypes = nativeMethod.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			if (isStruct(parameterTypes[i])) {
+				sb.append(", ").append(parameterTypes[i].getSimpleName()).append("*");
+			} else if (encodings[i] == NativeString.Encoding.UTF16) {
+				sb.append(", const jchar*, jsize");
+			} else if (encodings[i] == NativeString.Encoding.UTF8) {
+				sb.append(", const char*, jsize");
+			} else {
+				sb.append(", ").append(toJNIType(parameterTypes[i]));
+			}
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * Generates the declaration of the length of a {@link NativeString} argument and, for UTF-8, of the copy of its
+	 * characters. Long copies are allocated from the scratch arena of the thread, after a mark that is released by
+	 * {@link #generateStringRelease}, so repeated calls reuse its memory. The characters of UTF-16 arguments are
+	 * acquired by {@link #generateStringCritical}.
+	 */
+	private static void generateStringCopy(IndentedPrintWriter pw, NativeString.Encoding encoding, int index) {
+		if (encoding == NativeString.Encoding.UTF16) {
+			pw.printf("const jsize _length%1$d = arg%1$d ? env->GetStringLength(arg%1$d) : 0;%n", index);
+		} else {
+			pw.printf("const jsize _length%1$d = arg%1$d ? env->GetStringUTFLength(arg%1$d) : 0;%n", index);
+			pw.printf("char _stack%d[%d];%n", index, NativeString.STACK_BYTES);
+			pw.printf("unsafe::arena::state_t* _stringArena%d = NULL;%n", index);
+			pw.printf("unsafe::arena::mark_t _stringMark%d;%n", index);
+			pw.printf("char* _chars%1$d = !arg%1$d ? NULL : _length%1$d < %2$d ? _stack%1$d : (_stringArena%1$d = unsafe::arena::state(), "
+					+ "_stringMark%1$d = unsafe::arena::mark(_stringArena%1$d), (char*) unsafe::arena::allocate(_stringArena%1$d, _length%1$d + 1, 1));%n",
+					index, NativeString.STACK_BYTES);
+			pw.printf("if (arg%d) {%n", index);
+			pw.indent();
+			pw.printf("env->GetStringUTFRegion(arg%1$d, 0, env->GetStringLength(arg%1$d), _chars%1$d);%n", index);
+			pw.printf("_chars%1$d[_length%1$d] = 0;%n", index);
+			pw.dedent();
+			pw.println("}");
+		}
+	}
+
+	/**
+	 * Generates the acquisition of the characters of all UTF-16 {@link NativeString} arguments, without other JNI calls
+	 * in between. If one cannot be acquired, the ones acquired so far are released and an {@code OutOfMemoryError}
+	 * is thrown instead of calling the implementation.
+	 */
+	private static void generateStringCritical(IndentedPrintWriter pw, Method nativeMethod, NativeString.Encoding[] encodings) {
+		final StringBuilder failed = new StringBuilder();
+		for (int i = 0; i < encodings.length; i++) {
+			if (encodings[i] == NativeString.Encoding.UTF16) {
+				pw.printf("const jchar* _chars%1$d = arg%1$d ? env->GetStringCritical(arg%1$d, NULL) : NULL;%n", i);
+				failed.append(failed.length() == 0 ? "" : " || ").append(String.format("(_length%1$d && !_chars%1$d)", i));
+			}
+		}
+		pw.printf("if (%s) {%n", failed);
+		pw.indent();
+		for (int i = encodings.length - 1; i >= 0; i--) {
+			if (encodings[i] != null) {
+				generateStringRelease(pw, encodings[i], i);
+			}
+		}
+		pw.println("if (!env->ExceptionCheck()) env->ThrowNew(env->FindClass(\"java/lang/OutOfMemoryError\"), \"GetStringCritical failed\");");
+		final Class<?> returnType = nativeMethod.getReturnType();
+		pw.println(returnType == Void.TYPE ? "return;" : returnType.isPrimitive() ? "return 0;" : "return NULL;");
+		pw.dedent();
+		pw.println("}");
+	}
+
+	/** Generates the release of the characters of a {@link NativeString} argument. */
+	private static void generateStringRelease(IndentedPrintWriter pw, NativeString.Encoding encoding, int index) {
+		if (encoding == NativeString.Encoding.UTF16) {
+			pw.printf("if (_chars%1$d) env->ReleaseStringCritical(arg%1$d, _chars%1$d);%n", index);
+		} else {
+			pw.printf("if (_stringArena%1$d) unsafe::arena::release(_stringArena%1$d, _stringMark%1$d);%n", index);
+		}
+	}
+
+	/**
+	 * Generates the copy of the fields of a {@link NativeStruct} argument to its struct, or back to the object.
+	 * @param index index of the argument
+	 * @param load true to declare the struct and load it from the object, false to store it to the object
+	 */
+	private static void generateStructCopy(IndentedPrintWriter pw, Class<?> struct, int index, boolean load) {
+		final String name = struct.getSimpleName();
+		if (load) {
+			pw.printf("%s _struct%d;%n", name, index);
+		}
+		pw.printf("if (arg%d) {%n", index);
+		pw.indent();
+		final List<Field> fields = structFields(struct);
+		for (int f = 0; f < fields.size(); f++) {
+			final Field field = fields.get(f);
+			final String callType = toCallType(field.getType());
+			if (load) {
+				pw.printf("_struct%d.%s = env->Get%sField(arg%d, %s_fieldIds[%d]);%n", index, field.getName(), callType, index, name, f);
+			} else {
+				pw.printf("env->Set%sField(arg%d, %s_fieldIds[%d], _struct%d.%s);%n", callType, index, name, f, index, field.getName());
+			}
+		}
+		pw.dedent();
+		pw.println("}");
+	}
+
+	/**
+	 * Builds the JNI signature of a method, e.g. {@code (IJ)V}
+	 * @param method a java method
+	 * @return the JNI signature for the specified method
+	 */
+	static String toMethodSignature(Method method) {
+		final StringBuilder sb = new StringBuilder("(");
+		for (Class<?> argType : method.getParameterTypes()) {
+			sb.append(toJavaSignature(argType));
+		}
+		return sb.append(")").append(toJavaSignature(method.getReturnType())).toString();
+	}
+
+	/**
+	 * Returns the type part of the JNI {@code Call<type>Method} family for a class, e.g. {@code Long} for {@code long}.
+	 * The same name is used by the {@code New<type>Array} and {@code Set<type>ArrayRegion} families.
+	 * @param type a class
+	 * @return the type name used by JNI functions
+	 */
+	private static String toCallType(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return "Object";
+		}
+		final String name = type.getName();
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
 	/**
 	 * Converts a {@link java.lang.Class} to it's JNI signature
 	 * @param type a java class
@@ -279,8 +1051,15 @@ public abstract class ThunkBuilder {
 		m.function(nativeMethod.getName());
 		m.pStruct("JNIEnv_");
 		m.pStruct("_jobject");
-		for (Class<?> argType : nativeMethod.getParameterTypes()) {
-			if (argType.isPrimitive()) {
+		final Class<?>[] parameterTypes = nativeMethod.getParameterTypes();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			final Class<?> argType = parameterTypes[i];
+			final NativeString.Encoding encoding = stringEncoding(nativeMethod, i);
+			if (encoding != null) {
+				// const jchar* or const char*, followed by the jsize length
+				m.addPart(encoding == NativeString.Encoding.UTF16 ? "PKt" : "PKc");
+				m.sb.append(JAVA_TO_ABI.get(Integer.TYPE));
+			} else if (argType.isPrimitive()) {
 				// These are not subject to substitutions. Just append them.
 				m.sb.append(JAVA_TO_ABI.get(argType));
 			} else if (argType.isArray()){
@@ -289,6 +1068,8 @@ public abstract class ThunkBuilder {
 				} else {
 					m.pStruct("_jobjectArray");
 				}
+			} else if (isStruct(argType)) {
+				m.pStruct(argType.getSimpleName());
 			} else {
 				final String jniType = JAVA_TO_JNI.get(argType);
 				if (jniType == null) {
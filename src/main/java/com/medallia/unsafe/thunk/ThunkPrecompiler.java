@@ -0,0 +1,158 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.CompileOption;
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Precompiles the thunks of classes at build time, so that {@link ThunkBuilder#initializeNative(Class)} loads them
+ * instead of running Clang while the class is initialized.
+ * <p>
+ * The thunks are generated exactly as {@link ThunkBuilder} does at runtime, compiled, and their optimized bitcode is
+ * written to {@code META-INF/unsafe/thunks/<SHA-256 of the source>.bc} under the output directory, to be packaged
+ * with the classes. At runtime the thunk source is generated again, which is cheap, and the bitcode of the same
+ * source is loaded from the class path: only machine code is generated. If there is no bitcode for the source,
+ * because the class changed or profiling is enabled, or if it cannot be loaded, because it was compiled for another
+ * platform, the thunks are compiled as before.
+ * <p>
+ * Generating the thunks needs the classes and the native library, so this is run after compilation by the
+ * {@code precompile-thunks} Maven profile:
+ * <pre>
+ *     java -Djava.library.path=jni -cp &lt;class path&gt; com.medallia.unsafe.thunk.ThunkPrecompiler &lt;output directory&gt; [class names]
+ * </pre>
+ * Without class names, all classes under the output directory that have native methods and a {@code functions}
+ * field are precompiled.
+ */
+public final class ThunkPrecompiler {
+	/** Class path directory of the precompiled thunks */
+	static final String RESOURCE_DIRECTORY = "META-INF/unsafe/thunks/";
+
+	private ThunkPrecompiler() {
+	}
+
+	/** Precompiles the thunks of the classes given as arguments, or of all classes in the output directory */
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		if (args.length < 1) {
+			System.err.println("usage: ThunkPrecompiler <output directory> [class names]");
+			System.exit(1);
+		}
+		final Path outputDirectory = Paths.get(args[0]);
+		final List<String> classNames = args.length > 1
+				? Arrays.asList(args).subList(1, args.length)
+				: findClassNames(outputDirectory);
+
+		final ClassLoader loader = ThunkPrecompiler.class.getClassLoader();
+		int precompiled = 0;
+		for (String className : classNames) {
+			final Class<?> aClass = Class.forName(className, false, loader);
+			if (args.length > 1 || hasThunks(aClass)) {
+				final Path path = precompile(aClass, outputDirectory);
+				System.out.println("Precompiled thunks of " + className + " to " + path);
+				precompiled++;
+			}
+		}
+		System.out.println("Precompiled thunks of " + precompiled + " classes");
+	}
+
+	/**
+	 * Precompiles the thunks of a class, without profiling.
+	 * @return the file the bitcode was written to
+	 */
+	public static Path precompile(Class<?> aClass, Path outputDirectory) throws IOException {
+		final String source = ThunkBuilder.generateThunk(aClass, ProfilingMode.NONE, new ArrayList<Method>(), new ArrayList<Method>());
+		final List<String> args = Driver.DEFAULT_INCLUDE_ARGS;
+		final NativeModule nativeModule = Driver.compileInMemory(null, source, args.toArray(new String[args.size()]),
+				EnumSet.of(CompileOption.BITCODE));
+		if (nativeModule.hasErrors()) {
+			throw new IllegalStateException(aClass + ": " + nativeModule.getErrors());
+		}
+		final Path path = outputDirectory.resolve(resourceName(source));
+		Files.createDirectories(path.getParent());
+		Files.write(path, nativeModule.getBitcode());
+		return path;
+	}
+
+	/**
+	 * Loads the precompiled thunks of a source.
+	 * @return the loaded module, or null if there are no precompiled thunks for the source or they cannot be loaded
+	 */
+	static NativeModule load(ClassLoader loader, String source) {
+		final String name = resourceName(source);
+		final InputStream in = loader == null ? ClassLoader.getSystemResourceAsStream(name) : loader.getResourceAsStream(name);
+		if (in == null) {
+			return null;
+		}
+		final NativeModule nativeModule = Driver.loadBitcode(name, readFully(in));
+		return nativeModule.hasErrors() ? null : nativeModule;
+	}
+
+	/** @return the class path resource of the precompiled thunks of a source */
+	static String resourceName(String source) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder sb = new StringBuilder(RESOURCE_DIRECTORY);
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.append(".bc").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** @return true if the class has native methods implemented by thunks */
+	static boolean hasThunks(Class<?> aClass) {
+		final boolean hasNativeMethods = Stream.of(aClass.getDeclaredMethods()).anyMatch(m -> Modifier.isNative(m.getModifiers()));
+		try {
+			final Field functions = aClass.getDeclaredField("functions");
+			return hasNativeMethods && !Modifier.isStatic(functions.getModifiers()) && functions.getType() == long[].class;
+		} catch (NoSuchFieldException e) {
+			return false;
+		}
+	}
+
+	/** @return names of all classes in a class path directory */
+	private static List<String> findClassNames(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.map(directory::relativize)
+					.map(Path::toString)
+					.filter(name -> name.endsWith(".class"))
+					.map(name -> name.substring(0, name.length() - ".class".length()).replace(directory.getFileSystem().getSeparator(), "."))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static byte[] readFully(InputStream in) {
+		try (InputStream input = in) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			for (int read; (read = input.read(buffer)) > 0; ) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package com.medallia.unsafe.thunk;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot of the profile counters of a set of {@link NativeBindings}.
+ * Counters are cumulative since the bindings were created.
+ */
+public class ThunkProfile {
+	/** Profile of each native method, in thunk order. */
+	private final List<MethodProfile> methods;
+
+	ThunkProfile(List<MethodProfile> methods) {
+		this.methods = Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * Builds a profile from the values written by the generated {@code snapshotProfile()} function.
+	 * @param nativeMethods native methods in thunk order
+	 * @param profiling profiling mode the thunks were generated with
+	 * @param values {@link ThunkBuilder#profileWidth(ProfilingMode)} values per method
+	 */
+	static ThunkProfile fromSnapshot(List<Method> nativeMethods, ProfilingMode profiling, long[] values) {
+		final int width = ThunkBuilder.profileWidth(profiling);
+		final List<MethodProfile> methods = new ArrayList<>();
+		for (int i = 0; i < nativeMethods.size(); i++) {
+			final int offset = i * width;
+			final long[] histogram = new long[profiling == ProfilingMode.LATENCY ? ThunkBuilder.LATENCY_BUCKETS : 0];
+			if (histogram.length > 0) {
+				System.arraycopy(values, offset + 2, histogram, 0, histogram.length);
+			}
+			final Method method = nativeMethods.get(i);
+			methods.add(new MethodProfile(method.getName(), ThunkBuilder.toMethodSignature(method), values[offset],
+					profiling == ProfilingMode.LATENCY ? values[offset + 1] : 0, histogram));
+		}
+		return new ThunkProfile(methods);
+	}
+
+	/** @return the profile of each native method */
+	public List<MethodProfile> getMethods() {
+		return methods;
+	}
+
+	/**
+	 * Looks up a method's profile by name. If the method is overloaded, returns the first overload.
+	 * @param name the method name
+	 * @return the profile or null if not found.
+	 */
+	public MethodProfile getMethod(String name) {
+		for (MethodProfile method : methods) {
+			if (method.getName().equals(name)) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up a method's profile by name and JNI signature.
+	 * @param name the method name
+	 * @param signature the JNI signature of the method, e.g. {@code (IJ)V}
+	 * @return the profile or null if not found.
+	 */
+	public MethodProfile getMethod(String name, String signature) {
+		for (MethodProfile method : methods) {
+			if (method.getName().equals(name) && method.getSignature().equals(signature)) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "ThunkProfile " + methods;
+	}
+
+	/** Profile counters of a single native method */
+	public static class MethodProfile {
+		private final String name;
+		private final String signature;
+		private final long calls;
+		private final long totalCycles;
+		private final long[] latencyHistogram;
+
+		MethodProfile(String name, String signature, long calls, long totalCycles, long[] latencyHistogram) {
+			this.name = name;
+			this.signature = signature;
+			this.calls = calls;
+			this.totalCycles = totalCycles;
+			this.latencyHistogram = latencyHistogram;
+		}
+
+		/** @return the method name */
+		public String getName() {
+			return name;
+		}
+
+		/** @return the JNI signature of the method, e.g. {@code (IJ)V}, which tells overloads apart */
+		public String getSignature() {
+			return signature;
+		}
+
+		/** @return number of calls */
+		public long getCalls() {
+			return calls;
+		}
+
+		/** @return TSC cycles spent in all calls, or 0 if latency is not profiled */
+		public long getTotalCycles() {
+			return totalCycles;
+		}
+
+		/**
+		 * @return number of calls that took {@code [2^i, 2^(i+1))} TSC cycles for each bucket {@code i},
+		 * the last bucket also counts all slower calls. Empty if latency is not profiled.
+		 */
+		public long[] getLatencyHistogram() {
+			return latencyHistogram.clone();
+		}
+
+		@Override
+		public String toString() {
+			return name + signature + ": " + calls + " calls" + (totalCycles == 0 ? "" : ", " + totalCycles / Math.max(1, calls) + " cycles/call");
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.medallia.unsafe.thunk;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exposes the profile of a set of {@link NativeBindings} through JMX.
+ * The bindings are only weakly referenced so the bean does not keep their {@link com.medallia.unsafe.NativeModule} alive;
+ * the bean is unregistered once they are collected.
+ */
+class ThunkProfileBean implements ThunkProfileMXBean {
+	/** Bindings of registered beans that have been garbage collected */
+	private static final ReferenceQueue<NativeBindings> COLLECTED = new ReferenceQueue<>();
+
+	private final BindingsReference bindings;
+
+	private ThunkProfileBean(BindingsReference bindings) {
+		this.bindings = bindings;
+	}
+
+	/** Registers a bean for the bindings of the specified class with the platform MBean server. */
+	static void register(Class<?> aClass, NativeBindings bindings) {
+		unregisterCollected();
+		final ObjectName name;
+		try {
+			name = new ObjectName("com.medallia.unsafe:type=ThunkProfile,name=" + ObjectName.quote(aClass.getName()));
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register profile for " + aClass, e);
+		}
+		final BindingsReference ref = new BindingsReference(bindings, name);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new ThunkProfileBean(ref), name);
+		} catch (InstanceAlreadyExistsException e) {
+			// The class was bound more than once, e.g. from different class loaders. Keep the first one, and
+			// clear the reference so it is never enqueued and cannot unregister the first bean.
+			ref.clear();
+		} catch (JMException e) {
+			ref.clear();
+			throw new IllegalStateException("Could not register profile for " + aClass, e);
+		}
+	}
+
+	/** Unregisters the beans whose bindings have been garbage collected */
+	private static void unregisterCollected() {
+		for (Reference<? extends NativeBindings> ref; (ref = COLLECTED.poll()) != null; ) {
+			((BindingsReference) ref).unregister();
+		}
+	}
+
+	/** @return the profile of the bindings, or null if they were garbage collected */
+	private ThunkProfile getProfile() {
+		final NativeBindings nativeBindings = bindings.get();
+		if (nativeBindings == null) {
+			bindings.unregister();
+			return null;
+		}
+		return nativeBindings.getProfile();
+	}
+
+	/** @return the key of a method in the maps of this bean, its name followed by its JNI signature */
+	private static String key(ThunkProfile.MethodProfile method) {
+		return method.getName() + method.getSignature();
+	}
+
+	@Override
+	public Map<String, Long> getCallCounts() {
+		final ThunkProfile profile = getProfile();
+		if (profile == null) {
+			return Collections.emptyMap();
+		}
+		final Map<String, Long> result = new LinkedHashMap<>();
+		for (ThunkProfile.MethodProfile method : profile.getMethods()) {
+			result.put(key(method), method.getCalls());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getTotalCycles() {
+		final ThunkProfile profile = getProfile();
+		final Map<String, Long> result = new LinkedHashMap<>();
+		if (profile != null && bindings.profilingMode == ProfilingMode.LATENCY) {
+			for (ThunkProfile.MethodProfile method : profile.getMethods()) {
+				result.put(key(method), method.getTotalCycles());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, long[]> getLatencyHistograms() {
+		final ThunkProfile profile = getProfile();
+		final Map<String, long[]> result = new LinkedHashMap<>();
+		if (profile != null && bindings.profilingMode == ProfilingMode.LATENCY) {
+			for (ThunkProfile.MethodProfile method : profile.getMethods()) {
+				result.put(key(method), method.getLatencyHistogram());
+			}
+		}
+		return result;
+	}
+
+	/** Weak reference to the bindings of a bean that remembers where the bean is registered */
+	private static class BindingsReference extends WeakReference<NativeBindings> {
+		private final ObjectName name;
+		private final ProfilingMode profilingMode;
+		/** Set once the bean is unregistered, so a later bean registered under the same name is left alone */
+		private final AtomicBoolean unregistered = new AtomicBoolean();
+
+		BindingsReference(NativeBindings bindings, ObjectName name) {
+			super(bindings, COLLECTED);
+			this.name = name;
+			this.profilingMode = bindings.getProfilingMode();
+		}
+
+		/** Unregisters the bean, at most once */
+		void unregister() {
+			if (!unregistered.compareAndSet(false, true)) {
+				return;
+			}
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.unregisterMBean(name);
+			} catch (InstanceNotFoundException e) {
+				// Unregistered by someone else through the MBean server
+			} catch (JMException e) {
+				throw new IllegalStateException("Could not unregister profile " + name, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.medallia.unsafe.thunk;
+
+import java.util.Map;
+
+/**
+ * Management interface for the profile of thunks generated with a {@link ProfilingMode} other than NONE.
+ * Methods are keyed by name followed by their JNI signature, e.g. {@code sum([II)J}, so overloads are kept apart.
+ */
+public interface ThunkProfileMXBean {
+	/** @return number of calls by method */
+	Map<String, Long> getCallCounts();
+
+	/** @return TSC cycles spent in all calls by method, empty unless profiling latency */
+	Map<String, Long> getTotalCycles();
+
+	/** @return log2 latency histogram by method, empty unless profiling latency. See {@link ThunkProfile.MethodProfile#getLatencyHistogram()} */
+	Map<String, long[]> getLatencyHistograms();
+}
@@ -0,0 +1,114 @@
+// Per-thread scratch arenas: bump-pointer allocation of temporary buffers for kernels.
+// Every thread has its own arena, so allocation needs no synchronization. Memory is not freed individually,
+// instead everything allocated after a mark is released at once, and blocks are kept for reuse by the thread.
+// Thunks of methods annotated with @ScratchArena release everything their call allocated when it returns.
+// Finding the arena of the thread is a call into the driver library, unsafe_arena_current(). The functions below
+// that take no state make that call every time, code that allocates repeatedly should look the state up once with
+// state() and pass it to the others, whose fast paths are then inline bump-pointer operations.
+#ifndef UNSAFE_ARENA_H
+#define UNSAFE_ARENA_H
+
+#include <stdint.h>
+#include <stddef.h>
+
+extern "C" {
+    struct unsafe_arena_state {
+        char* cursor;
+        char* limit;
+        char* high;
+        uint32_t block;
+    };
+
+    struct unsafe_arena_mark {
+        uint32_t block;
+        char* cursor;
+    };
+
+    unsafe_arena_state* unsafe_arena_current();
+    void* unsafe_arena_allocate_slow(uint64_t size, uint64_t alignment);
+    void unsafe_arena_release(unsafe_arena_mark mark);
+    void unsafe_arena_reset();
+}
+
+namespace unsafe {
+namespace arena {
+    typedef unsafe_arena_mark mark_t;
+    typedef unsafe_arena_state state_t;
+
+    // Returns the arena of this thread, valid until the thread exits
+    inline state_t* state() {
+        return unsafe_arena_current();
+    }
+
+    // Allocates size bytes, aligned to alignment, which must be a power of two.
+    // The memory is uninitialized and valid until it is released.
+    inline void* allocate(state_t* state, size_t size, size_t alignment = 16) {
+        const uintptr_t start = ((uintptr_t) state->cursor + alignment - 1) & ~(uintptr_t) (alignment - 1);
+        if (__builtin_expect(start + size <= (uintptr_t) state->limit, 1)) {
+            state->cursor = (char*) (start + size);
+            return (void*) start;
+        }
+        return unsafe_arena_allocate_slow(size, alignment);
+    }
+
+    inline void* allocate(size_t size, size_t alignment = 16) {
+        return allocate(state(), size, alignment);
+    }
+
+    // Allocates an uninitialized array of n values of type T
+    template<typename T>
+    inline T* allocate_array(state_t* state, size_t n) {
+        return static_cast<T*>(allocate(state, n * sizeof(T), __alignof__(T) < 16 ? 16 : __alignof__(T)));
+    }
+
+    template<typename T>
+    inline T* allocate_array(size_t n) {
+        return allocate_array<T>(state(), n);
+    }
+
+    // Returns the current position of the arena
+    inline mark_t mark(const state_t* state) {
+        const mark_t mark = { state->block, state->cursor };
+        return mark;
+    }
+
+    inline mark_t mark() {
+        return mark(state());
+    }
+
+    // Releases everything allocated since the mark was taken
+    inline void release(state_t* state, mark_t mark) {
+        if (state->block == mark.block) {
+            if (state->cursor > state->high) state->high = state->cursor;
+            state->cursor = mark.cursor;
+        } else {
+            unsafe_arena_release(mark);
+        }
+    }
+
+    inline void release(mark_t mark) {
+        release(state(), mark);
+    }
+
+    // Releases everything allocated in the arena of this thread
+    inline void reset() {
+        unsafe_arena_reset();
+    }
+
+    // Releases everything allocated during its lifetime
+    class scope {
+        state_t* const arena;
+        const mark_t start;
+        scope(const scope&);
+        scope& operator=(const scope&);
+    public:
+        scope() : arena(state()), start(mark(arena)) {}
+        explicit scope(state_t* state) : arena(state), start(mark(state)) {}
+        ~scope() { release(arena, start); }
+        // Returns the arena of this thread, to pass to the allocation functions
+        state_t* get() const { return arena; }
+    };
+}
+}
+
+#endif
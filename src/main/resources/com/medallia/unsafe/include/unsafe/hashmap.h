@@ -0,0 +1,71 @@
+// Read-only access from compiled code to the off-heap maps of com.medallia.unsafe.collections.
+// A map is built in Java and its address, from getAddress(), is passed to the kernel:
+//
+//     unsafe::long_long_map map(address);
+//     int64_t value;
+//     if (map.find(key, value)) ...
+//
+// The layout must match OffHeapHashMap: a header followed by a power of two number of slots, probed linearly
+// from the hash of the key. Key 0 marks empty slots, so its value is kept in the header.
+#ifndef UNSAFE_HASHMAP_H
+#define UNSAFE_HASHMAP_H
+
+#include <stdint.h>
+#include <unsafe/kernels.h>
+
+namespace unsafe {
+    template<typename K, typename V>
+    class hash_map_view {
+        struct header {
+            uint64_t mask;
+            uint64_t size;
+            uint64_t has_zero;
+            int64_t zero_value;
+        };
+        struct entry {
+            K key;
+            V value;
+        };
+        const header* h;
+        const entry* entries;
+    public:
+        explicit hash_map_view(int64_t address) : h((const header*) address), entries((const entry*) (h + 1)) {}
+
+        // Number of entries
+        uint64_t size() const { return h->size; }
+
+        // Stores the value of key in value and returns true if the map contains the key
+        bool find(K key, V& value) const {
+            if (key == 0) {
+                value = (V) h->zero_value;
+                return h->has_zero != 0;
+            }
+            for (uint64_t slot = kernels::hash(key) & h->mask; ; slot = (slot + 1) & h->mask) {
+                const entry& e = entries[slot];
+                if (e.key == key) {
+                    value = e.value;
+                    return true;
+                }
+                if (e.key == 0) {
+                    return false;
+                }
+            }
+        }
+
+        // Returns the value of key, or default_value if the map does not contain the key
+        V get(K key, V default_value) const {
+            V value;
+            return find(key, value) ? value : default_value;
+        }
+
+        bool contains(K key) const {
+            V value;
+            return find(key, value);
+        }
+    };
+
+    typedef hash_map_view<int64_t, int64_t> long_long_map;
+    typedef hash_map_view<int32_t, int32_t> int_int_map;
+}
+
+#endif
@@ -0,0 +1,111 @@
+// Columnar kernels over contiguous arrays of a primitive type.
+// The loops are written without data dependent branches so that the loop vectorizer can turn them into SIMD code.
+// Floating point sums, minimums and maximums are only vectorized with -ffast-math, since it reorders operations.
+#ifndef UNSAFE_KERNELS_H
+#define UNSAFE_KERNELS_H
+
+#include <stdint.h>
+#include <string.h>
+#include <limits>
+
+namespace unsafe {
+namespace kernels {
+    // Predicates
+    template<typename T> struct less          { T value; bool operator()(T x) const { return x <  value; } };
+    template<typename T> struct less_equal    { T value; bool operator()(T x) const { return x <= value; } };
+    template<typename T> struct greater       { T value; bool operator()(T x) const { return x >  value; } };
+    template<typename T> struct greater_equal { T value; bool operator()(T x) const { return x >= value; } };
+    template<typename T> struct equal         { T value; bool operator()(T x) const { return x == value; } };
+    template<typename T> struct not_equal     { T value; bool operator()(T x) const { return x != value; } };
+    // Inclusive on both ends
+    template<typename T> struct between       { T low, high; bool operator()(T x) const { return (x >= low) & (x <= high); } };
+
+    // Writes the indexes of the values matching the predicate to selection, which must have room for n indexes.
+    // Returns the number of matches.
+    template<typename T, typename Predicate>
+    inline int32_t filter(const T* __restrict values, int32_t n, Predicate predicate, int32_t* __restrict selection) {
+        int32_t count = 0;
+        for (int32_t i = 0; i < n; i++) {
+            selection[count] = i;
+            count += predicate(values[i]);
+        }
+        return count;
+    }
+
+    // Returns the number of values matching the predicate
+    template<typename T, typename Predicate>
+    inline int64_t count(const T* __restrict values, int32_t n, Predicate predicate) {
+        int64_t count = 0;
+        for (int32_t i = 0; i < n; i++) {
+            count += predicate(values[i]);
+        }
+        return count;
+    }
+
+    // Returns the sum of the values, accumulated in type R
+    template<typename R, typename T>
+    inline R sum(const T* __restrict values, int32_t n) {
+        R sum = 0;
+        for (int32_t i = 0; i < n; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    // Returns the smallest value, or the largest value of T if n is zero
+    template<typename T>
+    inline T min(const T* __restrict values, int32_t n) {
+        T min = std::numeric_limits<T>::max();
+        for (int32_t i = 0; i < n; i++) {
+            min = values[i] < min ? values[i] : min;
+        }
+        return min;
+    }
+
+    // Returns the largest value, or the lowest value of T if n is zero
+    template<typename T>
+    inline T max(const T* __restrict values, int32_t n) {
+        T max = std::numeric_limits<T>::lowest();
+        for (int32_t i = 0; i < n; i++) {
+            max = values[i] > max ? values[i] : max;
+        }
+        return max;
+    }
+
+    // Copies values[selection[i]] to out[i] for the first n indexes of a selection
+    template<typename T>
+    inline void gather(const T* __restrict values, const int32_t* __restrict selection, int32_t n, T* __restrict out) {
+        for (int32_t i = 0; i < n; i++) {
+            out[i] = values[selection[i]];
+        }
+    }
+
+    // The finalizer of MurmurHash3, a fast hash with good avalanche behavior
+    inline uint64_t fmix64(uint64_t k) {
+        k ^= k >> 33;
+        k *= 0xff51afd7ed558ccdULL;
+        k ^= k >> 33;
+        k *= 0xc4ceb9fe1a85ec53ULL;
+        k ^= k >> 33;
+        return k;
+    }
+
+    // Hashes the bit pattern of a value, widened to 64 bits
+    template<typename T>
+    inline uint64_t hash(T value) {
+        uint64_t bits = 0;
+        memcpy(&bits, &value, sizeof(T));
+        return fmix64(bits);
+    }
+
+    // Writes the hash of every value to hashes
+    template<typename T>
+    inline void hash(const T* __restrict values, int32_t n, uint64_t* __restrict hashes) {
+        for (int32_t i = 0; i < n; i++) {
+            hashes[i] = hash(values[i]);
+        }
+    }
+}
+}
+
+#endif
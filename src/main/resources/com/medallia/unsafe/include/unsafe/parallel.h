@@ -0,0 +1,59 @@
+// Parallel loops for compiled code, backed by the work-stealing pool in the UnsafeDriver library.
+// The pool is shared by all modules and sized to the number of cores (UNSAFE_PARALLEL_THREADS overrides it).
+#ifndef UNSAFE_PARALLEL_H
+#define UNSAFE_PARALLEL_H
+
+#include <stdint.h>
+#include <vector>
+
+extern "C" {
+    void unsafe_parallel_for(int64_t begin, int64_t end, int64_t grain,
+                             void (*body)(void* context, int64_t begin, int64_t end), void* context);
+    int32_t unsafe_parallel_concurrency();
+}
+
+namespace unsafe {
+    // Number of threads that may run loop bodies concurrently
+    inline int32_t concurrency() {
+        return unsafe_parallel_concurrency();
+    }
+
+    // Calls body(b, e) for disjoint sub-ranges of [begin, end) no larger than grain.
+    // Bodies run concurrently and must not call back into the JVM.
+    template<typename Body>
+    inline void parallel_for(int64_t begin, int64_t end, int64_t grain, const Body& body) {
+        struct Trampoline {
+            static void call(void* context, int64_t b, int64_t e) {
+                (*static_cast<const Body*>(context))(b, e);
+            }
+        };
+        unsafe_parallel_for(begin, end, grain, &Trampoline::call, (void*) &body);
+    }
+
+    // Computes body(b, e) for consecutive chunks of [begin, end) of size grain and folds the
+    // partial results, in order, with combine(a, b) starting from identity.
+    template<typename T, typename Body, typename Combine>
+    inline T parallel_reduce(int64_t begin, int64_t end, int64_t grain, T identity, const Body& body, const Combine& combine) {
+        if (end <= begin) return identity;
+        if (grain < 1) grain = 1;
+        const int64_t chunks = (end - begin + grain - 1) / grain;
+        // Partials are wrapped so that std::vector<bool> can't pack them into shared words written concurrently
+        struct Partial {
+            T value;
+        };
+        std::vector<Partial> partials(chunks, Partial { identity });
+        parallel_for(0, chunks, 1, [&](int64_t first, int64_t last) {
+            for (int64_t chunk = first; chunk < last; ++chunk) {
+                const int64_t b = begin + chunk * grain;
+                partials[chunk].value = body(b, end - b < grain ? end : b + grain);
+            }
+        });
+        T result = identity;
+        for (const Partial& partial : partials) {
+            result = combine(result, partial.value);
+        }
+        return result;
+    }
+}
+
+#endif
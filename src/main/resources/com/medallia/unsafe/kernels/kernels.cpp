@@ -0,0 +1,108 @@
+// Implementation of the native methods of IntKernels, LongKernels and DoubleKernels.
+// It is compiled once per element type, with these macros defined by KernelLibrary:
+//  ELEMENT: the JNI element type, such as jint
+//  ARRAY:   the JNI array type, such as jintArray
+//  SUM:     the JNI type sums are accumulated in
+#include <jni.h>
+#include <unsafe/kernels.h>
+
+using namespace unsafe::kernels;
+
+namespace {
+    // Pins a primitive array for the duration of a call
+    template<typename T>
+    class Critical {
+        JNIEnv* env;
+        jarray array;
+        T* elements;
+        jint mode;
+    public:
+        Critical(JNIEnv* env, jarray array, bool write) :
+            env(env), array(array), elements((T*) env->GetPrimitiveArrayCritical(array, nullptr)), mode(write ? 0 : JNI_ABORT) {}
+        ~Critical() { env->ReleasePrimitiveArrayCritical(array, elements, mode); }
+        T* get() const { return elements; }
+    };
+}
+
+// Evaluates expr with 'predicate' bound to the condition with the given Condition ordinal
+#define WITH_CONDITION(condition, low, high, expr)                                  \
+    switch (condition) {                                                            \
+        case 0:  { const less<ELEMENT> predicate { low }; return expr; }            \
+        case 1:  { const less_equal<ELEMENT> predicate { low }; return expr; }      \
+        case 2:  { const greater<ELEMENT> predicate { low }; return expr; }         \
+        case 3:  { const greater_equal<ELEMENT> predicate { low }; return expr; }   \
+        case 4:  { const equal<ELEMENT> predicate { low }; return expr; }           \
+        case 5:  { const not_equal<ELEMENT> predicate { low }; return expr; }       \
+        default: { const between<ELEMENT> predicate { low, high }; return expr; }   \
+    }
+
+// Arrays
+
+jint filter0(JNIEnv* env, jobject self, ARRAY array, jint offset, jint length, jint condition, ELEMENT low, ELEMENT high, jintArray selectionArray) {
+    const Critical<ELEMENT> values(env, array, false);
+    const Critical<jint> selection(env, selectionArray, true);
+    WITH_CONDITION(condition, low, high, filter(values.get() + offset, length, predicate, selection.get()));
+}
+
+jlong count0(JNIEnv* env, jobject self, ARRAY array, jint offset, jint length, jint condition, ELEMENT low, ELEMENT high) {
+    const Critical<ELEMENT> values(env, array, false);
+    WITH_CONDITION(condition, low, high, count(values.get() + offset, length, predicate));
+}
+
+SUM sum0(JNIEnv* env, jobject self, ARRAY array, jint offset, jint length) {
+    const Critical<ELEMENT> values(env, array, false);
+    return sum<SUM>(values.get() + offset, length);
+}
+
+ELEMENT min0(JNIEnv* env, jobject self, ARRAY array, jint offset, jint length) {
+    const Critical<ELEMENT> values(env, array, false);
+    return unsafe::kernels::min(values.get() + offset, length);
+}
+
+ELEMENT max0(JNIEnv* env, jobject self, ARRAY array, jint offset, jint length) {
+    const Critical<ELEMENT> values(env, array, false);
+    return unsafe::kernels::max(values.get() + offset, length);
+}
+
+void gather0(JNIEnv* env, jobject self, ARRAY array, jintArray selectionArray, jint n, ARRAY outArray) {
+    const Critical<ELEMENT> values(env, array, false);
+    const Critical<jint> selection(env, selectionArray, false);
+    const Critical<ELEMENT> out(env, outArray, true);
+    gather(values.get(), selection.get(), n, out.get());
+}
+
+void hash0(JNIEnv* env, jobject self, ARRAY array, jint offset, jint length, jlongArray hashArray) {
+    const Critical<ELEMENT> values(env, array, false);
+    const Critical<jlong> hashes(env, hashArray, true);
+    hash(values.get() + offset, length, (uint64_t*) hashes.get());
+}
+
+// Off-heap memory
+
+jint filterAt0(JNIEnv* env, jobject self, jlong address, jint length, jint condition, ELEMENT low, ELEMENT high, jlong selection) {
+    WITH_CONDITION(condition, low, high, filter((const ELEMENT*) address, length, predicate, (int32_t*) selection));
+}
+
+jlong countAt0(JNIEnv* env, jobject self, jlong address, jint length, jint condition, ELEMENT low, ELEMENT high) {
+    WITH_CONDITION(condition, low, high, count((const ELEMENT*) address, length, predicate));
+}
+
+SUM sumAt0(JNIEnv* env, jobject self, jlong address, jint length) {
+    return sum<SUM>((const ELEMENT*) address, length);
+}
+
+ELEMENT minAt0(JNIEnv* env, jobject self, jlong address, jint length) {
+    return unsafe::kernels::min((const ELEMENT*) address, length);
+}
+
+ELEMENT maxAt0(JNIEnv* env, jobject self, jlong address, jint length) {
+    return unsafe::kernels::max((const ELEMENT*) address, length);
+}
+
+void gatherAt0(JNIEnv* env, jobject self, jlong address, jlong selection, jint n, jlong out) {
+    gather((const ELEMENT*) address, (const int32_t*) selection, n, (ELEMENT*) out);
+}
+
+void hashAt0(JNIEnv* env, jobject self, jlong address, jint length, jlong hashes) {
+    hash((const ELEMENT*) address, length, (uint64_t*) hashes);
+}
@@ -0,0 +1,33 @@
+package com.medallia.unsafe;
+
+import com.medallia.unsafe.example.CompileThroughput;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that concurrent calls to {@link Driver#compileInMemory(String, String...)} are not serialized, by comparing
+ * the throughput of several compiling threads with a single one. See {@link CompileThroughput} for the full report.
+ * <p>
+ * Serialized compiles get no speedup while independent ones approach one per thread. The bound only asks for a
+ * quarter of the ideal extra speedup, well clear of both, so that noisy hosts and coverage agents do not fail it.
+ * The test is skipped on hosts with fewer processors than threads, set with {@code -Dunsafe.scalingThreads}.
+ */
+public class CompileScalingTest {
+	private static final int THREADS = Integer.getInteger("unsafe.scalingThreads", 4);
+
+	private static final long MEASURE_NS = TimeUnit.SECONDS.toNanos(2);
+
+	@Test public void testCompilesScale() throws InterruptedException {
+		Assume.assumeTrue(THREADS > 1 && Runtime.getRuntime().availableProcessors() >= THREADS);
+		CompileThroughput.warmUp();
+		final double singleThread = CompileThroughput.measure(1, MEASURE_NS);
+		final double parallel = CompileThroughput.measure(THREADS, MEASURE_NS);
+		final double speedup = parallel / singleThread;
+		assertTrue(String.format("%d threads compile %.2fx faster than one, compiles are probably serialized", THREADS, speedup),
+				speedup >= 1 + (THREADS - 1) / 4.0);
+	}
+}
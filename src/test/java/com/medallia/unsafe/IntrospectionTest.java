@@ -0,0 +1,77 @@
+package com.medallia.unsafe;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for the {@link CompileOption#INTROSPECTION} getters of {@link NativeModule} */
+public class IntrospectionTest {
+	private static final String SOURCE =
+			"extern \"C\" int sum(const int* values, int n) {\n" +
+			"  int sum = 0;\n" +
+			"  for (int i = 0; i < n; i++) sum += values[i];\n" +
+			"  return sum;\n" +
+			"}\n";
+
+	private static NativeModule compile(String source, EnumSet<CompileOption> options) {
+		final String[] args = Driver.DEFAULT_INCLUDE_ARGS.toArray(new String[Driver.DEFAULT_INCLUDE_ARGS.size()]);
+		final NativeModule nativeModule = Driver.compileInMemory(null, source, args, options);
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	@Test public void testIntrospection() {
+		final NativeModule nativeModule = compile(SOURCE, EnumSet.of(CompileOption.INTROSPECTION));
+		assertTrue(nativeModule.getOptimizedIR().contains("@sum("));
+		assertTrue(nativeModule.getAssembly("sum").contains("sum:"));
+		assertNull(nativeModule.getAssembly("missing"));
+		assertTrue(nativeModule.getOptimizationRemarks().stream()
+				.anyMatch(remark -> remark.getPassName().equals(OptimizationRemark.LOOP_VECTORIZE) && remark.getFunctionName().equals("sum")));
+	}
+
+	@Test(expected = IllegalStateException.class) public void testDisabledByDefault() {
+		compile(SOURCE, EnumSet.noneOf(CompileOption.class)).getOptimizedIR();
+	}
+
+	@Test public void testExtractFunctionElf() {
+		final String assembly =
+				"\t.text\n" +
+				"\t.globl\tfoo\n" +
+				"\t.type\tfoo,@function\n" +
+				"foo:\n" +
+				"\t.cfi_startproc\n" +
+				".LBB0_1:\n" +
+				"\tretq\n" +
+				"\t.size\tfoo, .Ltmp0-foo\n" +
+				"\t.cfi_endproc\n" +
+				"\n" +
+				"\t.globl\tbar\n" +
+				"bar:\n" +
+				"\tretq\n";
+		assertThat(NativeModule.extractFunction(assembly, "foo"),
+				is("foo:\n\t.cfi_startproc\n.LBB0_1:\n\tretq\n\t.size\tfoo, .Ltmp0-foo\n\t.cfi_endproc\n"));
+		assertThat(NativeModule.extractFunction(assembly, "bar"), is("bar:\n\tretq\n"));
+		assertNull(NativeModule.extractFunction(assembly, "baz"));
+	}
+
+	@Test public void testExtractFunctionMachO() {
+		final String assembly =
+				"\t.globl\t_foo\n" +
+				"_foo:\n" +
+				"\t.cfi_startproc\n" +
+				"LBB0_1:\n" +
+				"\tretq\n" +
+				"\t.cfi_endproc\n" +
+				"\t.globl\t_bar\n" +
+				"_bar:\n" +
+				"\tretq\n";
+		assertThat(NativeModule.extractFunction(assembly, "foo"), is("_foo:\n\t.cfi_startproc\nLBB0_1:\n\tretq\n\t.cfi_endproc\n"));
+		assertThat(NativeModule.extractFunction(assembly, "bar"), is("_bar:\n\tretq\n"));
+	}
+}
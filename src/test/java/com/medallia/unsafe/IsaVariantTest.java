@@ -0,0 +1,35 @@
+package com.medallia.unsafe;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+/** Tests for {@link IsaVariant} */
+public class IsaVariantTest {
+	private static Set<String> features(String... features) {
+		return new HashSet<>(Arrays.asList(features));
+	}
+
+	@Test public void testBest() {
+		final Set<String> haswell = features("sse4.2", "popcnt", "avx", "avx2", "fma", "f16c", "bmi", "bmi2", "lzcnt");
+		assertThat(IsaVariant.best(haswell, IsaVariant.values()), is(IsaVariant.AVX2));
+		assertThat(IsaVariant.best(haswell, IsaVariant.SSE4_2, IsaVariant.AVX512), is(IsaVariant.SSE4_2));
+		assertThat(IsaVariant.best(features("sse4.2"), IsaVariant.values()), is(nullValue()));
+		assertThat(IsaVariant.best(haswell), is(nullValue()));
+
+		final Set<String> skylake = new HashSet<>(haswell);
+		skylake.addAll(features("avx512f", "avx512cd"));
+		assertThat(IsaVariant.best(skylake, IsaVariant.AVX512, IsaVariant.SSE4_2), is(IsaVariant.AVX512));
+	}
+
+	@Test public void testCompilerArgs() {
+		assertThat(Arrays.asList(IsaVariant.SSE4_2.getCompilerArgs()),
+				is(Arrays.asList("-target-feature", "+sse4.2", "-target-feature", "+popcnt")));
+	}
+}
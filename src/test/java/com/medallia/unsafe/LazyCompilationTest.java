@@ -0,0 +1,66 @@
+package com.medallia.unsafe;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for {@link CompileOption#LAZY} */
+public class LazyCompilationTest {
+	/** Calls across functions, an inline helper, file local state and a vtable */
+	private static final String SOURCE =
+			"static int calls = 0;\n" +
+			"inline int square(int x) { return x * x; }\n" +
+			"struct Shape { virtual int area() const = 0; };\n" +
+			"struct Square : Shape { int side; int area() const { return square(side); } };\n" +
+			"extern \"C\" int sumOfSquares(int n) {\n" +
+			"  calls++;\n" +
+			"  int sum = 0;\n" +
+			"  for (int i = 1; i <= n; i++) sum += square(i);\n" +
+			"  return sum;\n" +
+			"}\n" +
+			"extern \"C\" int twice(int n) { return 2 * sumOfSquares(n); }\n" +
+			"extern \"C\" int area(int side) { Square s; s.side = side; const Shape& shape = s; return shape.area(); }\n" +
+			"extern \"C\" int getCalls() { return calls; }\n";
+
+	private static NativeModule compile(EnumSet<CompileOption> options) {
+		final String[] args = Driver.DEFAULT_INCLUDE_ARGS.toArray(new String[Driver.DEFAULT_INCLUDE_ARGS.size()]);
+		final NativeModule nativeModule = Driver.compileInMemory(null, SOURCE, args, options);
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	@Test public void testLazy() {
+		final NativeModule nativeModule = compile(EnumSet.of(CompileOption.LAZY));
+		assertThat(nativeModule.getCompileStatistics().getCodeGenerationNanos(), is(0L));
+		assertThat(nativeModule.getCompileStatistics().getOptimizedIrBytes(), is(0L));
+		assertTrue(nativeModule.getCompileStatistics().getFrontendIrBytes() > 0);
+		assertThat(nativeModule.getNativeFootprint().getCodeBytes(), is(0L));
+
+		assertThat(nativeModule.getFunctionByName("twice").invoke(3L), is(28L));
+		assertThat(nativeModule.getFunctionByName("sumOfSquares").invoke(3L), is(14L));
+		assertThat(nativeModule.getFunctionByName("area").invoke(5L), is(25L));
+		assertThat(nativeModule.getFunctionByName("getCalls").invoke(), is(2L));
+		assertTrue(nativeModule.getCompileStatistics().getCodeGenerationNanos() > 0);
+		assertTrue(nativeModule.getCompileStatistics().getOptimizedIrBytes() > 0);
+		assertTrue(nativeModule.getNativeFootprint().getCodeBytes() > 0);
+		// The code generated on first use counts towards the native memory budget
+		assertThat(nativeModule.getRegistration().getFootprint().getCodeBytes(), is(nativeModule.getNativeFootprint().getCodeBytes()));
+	}
+
+	@Test public void testPointer() {
+		final NativeModule nativeModule = compile(EnumSet.of(CompileOption.LAZY));
+		final NativeFunction function = nativeModule.getFunctionByName("sumOfSquares");
+		final long pointer = function.getPointerToCompiledFunction();
+		assertTrue(pointer != 0);
+		assertThat(function.getPointerToCompiledFunction(), is(pointer));
+	}
+
+	@Test(expected = IllegalArgumentException.class) public void testExclusive() {
+		compile(EnumSet.of(CompileOption.LAZY, CompileOption.INTROSPECTION));
+	}
+}
@@ -0,0 +1,147 @@
+package com.medallia.unsafe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ModuleRegistry}. The registry is shared by the whole JVM, so modules cached by other tests are
+ * pinned while these tests run, and budgets only leave room for the registrations of each test on top of the rest.
+ */
+public class ModuleRegistryTest {
+	/** Registrations of the current test that were not unregistered */
+	private final List<ModuleRegistry.Registration> registrations = new ArrayList<>();
+	private final List<String> evicted = new ArrayList<>();
+	private List<ModuleRegistry.Registration> others;
+
+	@Before public void setUp() {
+		others = ModuleRegistry.pinCached();
+	}
+
+	@After public void tearDown() {
+		registrations.forEach(ModuleRegistry::unregister);
+		ModuleRegistry.setBudget(Long.MAX_VALUE);
+		others.forEach(ModuleRegistry::unpin);
+	}
+
+	private ModuleRegistry.Registration register(long bytes) {
+		final ModuleRegistry.Registration registration = ModuleRegistry.register(new NativeFootprint(bytes, 0, 0));
+		registrations.add(registration);
+		return registration;
+	}
+
+	private ModuleRegistry.Registration cached(String name, long bytes) {
+		final ModuleRegistry.Registration registration = register(bytes);
+		ModuleRegistry.cached(registration, () -> evicted.add(name));
+		return registration;
+	}
+
+	private void unregister(ModuleRegistry.Registration registration) {
+		ModuleRegistry.unregister(registration);
+		registrations.remove(registration);
+	}
+
+	/** @return bytes of the live modules that were not registered by this test */
+	private long othersBytes() {
+		long bytes = ModuleRegistry.getTotalFootprint().getTotalBytes();
+		for (ModuleRegistry.Registration registration : registrations) {
+			bytes -= registration.getFootprint().getTotalBytes();
+		}
+		return bytes;
+	}
+
+	/** Sets a budget that leaves {@code bytes} for the registrations of this test */
+	private void setBudget(long bytes) {
+		ModuleRegistry.setBudget(othersBytes() + bytes);
+	}
+
+	@Test public void testAccounting() {
+		final long before = ModuleRegistry.getTotalFootprint().getTotalBytes();
+		final ModuleRegistry.Registration registration = ModuleRegistry.register(new NativeFootprint(100, 20, 3));
+		assertThat(ModuleRegistry.getTotalFootprint().getTotalBytes(), is(before + 123));
+		ModuleRegistry.unregister(registration);
+		ModuleRegistry.unregister(registration);
+		assertThat(ModuleRegistry.getTotalFootprint().getTotalBytes(), is(before));
+	}
+
+	@Test public void testEviction() {
+		final ModuleRegistry.Registration a = cached("a", 100);
+		final ModuleRegistry.Registration b = cached("b", 100);
+		final ModuleRegistry.Registration c = cached("c", 100);
+		ModuleRegistry.touch(a);
+		ModuleRegistry.pin(b);
+
+		// b is pinned and a was used after c
+		setBudget(200);
+		assertThat(evicted.toString(), is("[c]"));
+
+		// Modules that cannot be freed on eviction are pending release until they are finalized,
+		// still count towards the budget, and are not evicted again
+		setBudget(150);
+		assertThat(evicted.toString(), is("[c, a]"));
+		final long total = ModuleRegistry.getTotalFootprint().getTotalBytes();
+		unregister(c);
+		unregister(a);
+		assertThat(ModuleRegistry.getTotalFootprint().getTotalBytes(), is(total - 200));
+
+		ModuleRegistry.unpin(b);
+		setBudget(0);
+		assertThat(evicted.toString(), is("[c, a, b]"));
+	}
+
+	@Test public void testNewModuleOverBudget() {
+		setBudget(150);
+		cached("a", 100);
+		assertTrue(evicted.isEmpty());
+		register(100);
+		assertThat(evicted.toString(), is("[a]"));
+	}
+
+	@Test public void testPendingReleaseCounted() {
+		cached("a", 100);
+		cached("b", 100);
+		setBudget(150);
+		assertThat(evicted.toString(), is("[a]"));
+		// a is not freed yet, so b does not fit either
+		register(10);
+		assertThat(evicted.toString(), is("[a, b]"));
+	}
+
+	@Test public void testTryPin() {
+		final ModuleRegistry.Registration a = cached("a", 100);
+		assertTrue(ModuleRegistry.tryPin(a));
+		setBudget(0);
+		assertTrue(evicted.isEmpty());
+		ModuleRegistry.unpin(a);
+		assertThat(evicted.toString(), is("[a]"));
+		assertFalse(ModuleRegistry.tryPin(a));
+	}
+
+	@Test public void testUncached() {
+		final ModuleRegistry.Registration a = cached("a", 100);
+		ModuleRegistry.uncached(a);
+		setBudget(0);
+		assertTrue(evicted.isEmpty());
+	}
+
+	@Test public void testUpdate() {
+		final long before = ModuleRegistry.getTotalFootprint().getTotalBytes();
+		final ModuleRegistry.Registration registration = register(100);
+		ModuleRegistry.update(registration, new NativeFootprint(100, 50, 8));
+		assertThat(ModuleRegistry.getTotalFootprint().getTotalBytes(), is(before + 158));
+		assertThat(ModuleRegistry.getTotalFootprint().getCodeBytes() >= 50, is(true));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnpinned() {
+		ModuleRegistry.unpin(cached("a", 1));
+	}
+}
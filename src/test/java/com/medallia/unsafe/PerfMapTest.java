@@ -0,0 +1,54 @@
+package com.medallia.unsafe;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Driver#enablePerfMap}. The perf map stays enabled for the modules compiled by the tests that run
+ * after this one, as with {@code -Dunsafe.perfmap=true}.
+ */
+public class PerfMapTest {
+	private static File mapFile() {
+		final String name = ManagementFactory.getRuntimeMXBean().getName();
+		return new File("/tmp/perf-" + name.substring(0, name.indexOf('@')) + ".map");
+	}
+
+	private static boolean mapContains(String function) throws IOException {
+		final List<String> lines = Files.readAllLines(mapFile().toPath(), StandardCharsets.UTF_8);
+		for (String line : lines) {
+			if (line.endsWith(" " + function)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test public void testPerfMap() throws IOException {
+		Driver.enablePerfMap(false);
+		final String function = "perfMapProbe" + System.nanoTime();
+		final NativeModule nativeModule = Driver.compileInMemory("extern \"C\" int " + function + "(int x) { return x + 1; }\n");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		assertTrue(mapContains(function));
+
+		// Evicting the module deletes it, modules cached by other tests are pinned meanwhile
+		final List<ModuleRegistry.Registration> others = ModuleRegistry.pinCached();
+		final long budget = ModuleRegistry.getBudget();
+		try {
+			ModuleRegistry.cached(nativeModule, () -> { });
+			ModuleRegistry.setBudget(0);
+		} finally {
+			ModuleRegistry.setBudget(budget);
+			others.forEach(ModuleRegistry::unpin);
+		}
+		assertFalse(mapContains(function));
+	}
+}
@@ -0,0 +1,101 @@
+package com.medallia.unsafe;
+
+import com.medallia.unsafe.example.AvxBenchmark;
+import com.medallia.unsafe.example.Util;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the kernels in avx.cpp for correctness and verifies that the plain C++ version is still
+ * auto-vectorized by {@link NativeModule}'s pass pipeline, by looking for vector operations in its optimized IR.
+ * Their throughput is reported by {@link AvxBenchmark}, timing is too noisy to assert on.
+ * <p>
+ * The kernels are also compiled for the best instruction set of the host, see {@link Driver#compileForHost}.
+ */
+public class VectorizationTest {
+	/** Kernel names, in the same order as the KERNELS table in avx.cpp */
+	private static final String[] NAMES = { "normal", "sse", "ssei", "ssep", "avx" };
+
+	/** Decorated name of the scalar kernel that should be auto-vectorized */
+	private static final String SCALAR = "_Z11countNormalPfi";
+
+	/** Matches an LLVM vector of floats, e.g. {@code <4 x float>} */
+	private static final Pattern FLOAT_VECTOR = Pattern.compile("<\\d+ x float>");
+
+	private static NativeModule nativeModule;
+	private static float[] data;
+	private static int expected;
+
+	@BeforeClass public static void compile() throws IOException {
+		final List<String> args = new ArrayList<>(Driver.DEFAULT_INCLUDE_ARGS);
+		args.addAll(Arrays.asList("-std=c++11", "-O3"));
+		nativeModule = Driver.compileInMemory("avx.cpp", Util.loadResource(AvxBenchmark.class, "avx.cpp"),
+				args.toArray(new String[args.size()]), EnumSet.of(CompileOption.INTROSPECTION));
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+
+		// Kernels count values > 0 or >= 0 so exact zeroes are avoided
+		final Random random = new Random(42);
+		data = new float[4096];
+		for (int i = 0; i < data.length; i++) {
+			do {
+				data[i] = random.nextFloat() * 2 - 1;
+			} while (data[i] == 0);
+			if (data[i] > 0) {
+				expected++;
+			}
+		}
+	}
+
+	@Test public void testCorrectness() {
+		for (int kernel = 0; kernel < kernelCount(); kernel++) {
+			assertThat(NAMES[kernel], (long) nativeModule.getFunctionByName("runKernel").invoke(null, kernel, data), is((long) expected));
+		}
+	}
+
+	@Test public void testScalarIsVectorized() {
+		final String ir = functionIR(nativeModule.getOptimizedIR(), SCALAR);
+		assertTrue("scalar kernel is not vectorized:\n" + ir, FLOAT_VECTOR.matcher(ir).find());
+		assertTrue(nativeModule.getOptimizationRemarks().stream()
+				.anyMatch(remark -> remark.getPassName().equals(OptimizationRemark.LOOP_VECTORIZE) && remark.getFunctionName().equals(SCALAR)));
+	}
+
+	@Test public void testHostVariant() throws IOException {
+		final NativeModule hostModule = Driver.compileForHost(Util.loadResource(AvxBenchmark.class, "avx.cpp"),
+				EnumSet.allOf(IsaVariant.class), "-std=c++11", "-O3");
+		assertFalse(hostModule.getErrors(), hostModule.hasErrors());
+
+		// The AVX2 kernel is only compiled when the host supports it
+		final int kernelCount = (int) (long) hostModule.getFunctionByName("kernelCount").invoke();
+		assertThat(kernelCount, is(IsaVariant.AVX2.isSupportedBy(Driver.getHostFeatures()) ? NAMES.length : NAMES.length - 1));
+		for (int kernel = 0; kernel < kernelCount; kernel++) {
+			assertThat(NAMES[kernel], (long) hostModule.getFunctionByName("runKernel").invoke(null, kernel, data), is((long) expected));
+		}
+	}
+
+	/** @return number of kernels compiled for the current target */
+	private static int kernelCount() {
+		return (int) (long) nativeModule.getFunctionByName("kernelCount").invoke();
+	}
+
+	/** @return the definition of a function in the IR of a module */
+	private static String functionIR(String ir, String function) {
+		final Matcher define = Pattern.compile("^define .*@" + Pattern.quote(function) + "\\(", Pattern.MULTILINE).matcher(ir);
+		assertTrue("no definition of " + function, define.find());
+		final int end = ir.indexOf("\n}", define.start());
+		return ir.substring(define.start(), end < 0 ? ir.length() : end + 2);
+	}
+}
@@ -0,0 +1,101 @@
+package com.medallia.unsafe.collections;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+/** Tests for {@link LongLongHashMap} and {@link IntIntHashMap}, from Java and from compiled code */
+public class OffHeapHashMapTest {
+	@Test public void testLongLong() {
+		final Random random = new Random(1);
+		final LongLongHashMap map = new LongLongHashMap();
+		final Map<Long, Long> expected = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			final long key = random.nextInt(5000) - 2500;
+			final long value = random.nextLong();
+			map.put(key, value);
+			expected.put(key, value);
+		}
+		assertThat(map.size(), is(expected.size()));
+		for (long key = -3000; key < 3000; key++) {
+			assertThat(map.containsKey(key), is(expected.containsKey(key)));
+			assertThat(map.get(key, 42), is(expected.getOrDefault(key, 42L)));
+		}
+	}
+
+	@Test public void testIntInt() {
+		final IntIntHashMap map = new IntIntHashMap(10);
+		map.put(0, 7);
+		map.put(-1, -2);
+		map.put(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		map.put(-1, -3);
+		assertThat(map.size(), is(3));
+		assertThat(map.get(0, 0), is(7));
+		assertThat(map.get(-1, 0), is(-3));
+		assertThat(map.get(Integer.MIN_VALUE, 0), is(Integer.MAX_VALUE));
+		assertThat(map.get(1, 99), is(99));
+
+		map.clear();
+		assertThat(map.isEmpty(), is(true));
+		assertThat(map.containsKey(0), is(false));
+		assertThat(map.containsKey(-1), is(false));
+	}
+
+	@Test public void testGrowDoubles() {
+		final IntIntHashMap map = new IntIntHashMap(6);
+		assertThat(map.capacity(), is(8));
+		for (int key = 1; key <= 7; key++) {
+			map.put(key, key);
+		}
+		assertThat(map.capacity(), is(16));
+		for (int key = 1; key <= 7; key++) {
+			assertThat(map.get(key, 0), is(key));
+		}
+	}
+
+	@Test public void testNativeProbe() {
+		final LongLongHashMap map = new LongLongHashMap(1000);
+		long expected = 0;
+		for (long key = 0; key < 1000; key++) {
+			map.put(key * 31, key);
+			expected += key;
+		}
+
+		final NativeModule nativeModule = Driver.compileInMemory("#include <unsafe/hashmap.h>\n" +
+				"extern \"C\" int64_t probe(int64_t address, int64_t n) {\n" +
+				"  const unsafe::long_long_map map(address);\n" +
+				"  int64_t sum = 0;\n" +
+				"  for (int64_t key = 0; key < n; key++) sum += map.get(key, 0);\n" +
+				"  return sum;\n" +
+				"}", "-O3");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		assertThat((long) nativeModule.getFunctionByName("probe").invoke(map.getAddress(), 31 * 1000L), is(expected));
+	}
+
+	@Test public void testNativeProbeIntInt() {
+		final IntIntHashMap map = new IntIntHashMap();
+		long expected = 0;
+		for (int key = -500; key < 500; key++) {
+			map.put(key * 31, key);
+			expected += key;
+		}
+
+		final NativeModule nativeModule = Driver.compileInMemory("#include <unsafe/hashmap.h>\n" +
+				"extern \"C\" int64_t probe(int64_t address, int64_t from, int64_t to) {\n" +
+				"  const unsafe::int_int_map map(address);\n" +
+				"  int64_t sum = 0;\n" +
+				"  for (int64_t key = from; key < to; key++) if (map.contains((int32_t) key)) sum += map.get((int32_t) key, 0);\n" +
+				"  return sum;\n" +
+				"}", "-O3");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		assertThat((long) nativeModule.getFunctionByName("probe").invoke(map.getAddress(), -31 * 500L, 31 * 500L), is(expected));
+	}
+}
@@ -4,9 +4,16 @@ import com.medallia.unsafe.Driver;
 import com.medallia.unsafe.NativeModule;
 
 import java.io.IOException;
+import java.util.Random;
 
-/** Runs a simple benchmark using AVX, SSE and Clang's auto-vectorization */
+/**
+ * Runs a simple benchmark using AVX, SSE and Clang's auto-vectorization, then reports the throughput of each kernel
+ * when called from Java. The auto-vectorized kernel should be close to the SSE ones.
+ */
 public class AvxBenchmark {
+	/** Kernel names, in the same order as the KERNELS table in avx.cpp */
+	private static final String[] NAMES = { "normal", "sse", "ssei", "ssep", "avx" };
+
 	public static void main(String[] args) throws IOException {
 		final NativeModule nativeModule = Driver.compileInMemory(Util.loadResource(AvxBenchmark.class, "avx.cpp"),
 				"-std=c++11",
@@ -18,5 +25,17 @@ public class AvxBenchmark {
 		}
 
 		nativeModule.getFunctionByName("main").invoke();
+
+		final float[] data = new float[4096];
+		final Random random = new Random(42);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextFloat() * 2 - 1;
+		}
+		final int times = 100_000;
+		final int kernelCount = (int) (long) nativeModule.getFunctionByName("kernelCount").invoke();
+		for (int kernel = 0; kernel < kernelCount; kernel++) {
+			final long nanos = (long) nativeModule.getFunctionByName("timeKernel").invoke(null, kernel, data, times);
+			System.out.printf("%-6s: %6.2f GB/s%n", NAMES[kernel], (double) data.length * 4 * times / nanos);
+		}
 	}
 }
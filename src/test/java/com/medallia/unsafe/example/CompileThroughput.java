@@ -0,0 +1,109 @@
+package com.medallia.unsafe.example;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how compile throughput scales with the number of threads calling {@link Driver#compileInMemory(String, String...)}.
+ * Reports modules/second for 1, 2, 4... up to the number of available processors.
+ * <p>
+ * {@code CompileScalingTest} uses the same measurement to check that concurrent compiles are not serialized.
+ */
+public class CompileThroughput {
+	/** How long each thread count is measured */
+	private static final long MEASURE_NS = Long.getLong("unsafe.measureSeconds", 10) * 1_000_000_000L;
+
+	/** Used to make every compiled source unique */
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	public static void main(String[] args) throws InterruptedException {
+		final int maxThreads = Runtime.getRuntime().availableProcessors();
+		warmUp();
+
+		double singleThread = 0;
+		final List<Integer> threadCounts = new ArrayList<>();
+		for (int threads = 1; threads < maxThreads; threads *= 2) {
+			threadCounts.add(threads);
+		}
+		threadCounts.add(maxThreads);
+
+		for (int threads : threadCounts) {
+			final double modulesPerSecond = measure(threads, MEASURE_NS);
+			if (threads == 1) {
+				singleThread = modulesPerSecond;
+			}
+			System.out.printf("%3d threads: %8.1f modules/s (speedup %.2fx, efficiency %.0f%%)%n",
+					threads, modulesPerSecond, modulesPerSecond / singleThread, modulesPerSecond / (threads * singleThread) * 100);
+		}
+	}
+
+	/** Compiles a few modules, the first compile in a JVM loads and parses much more than the following ones */
+	public static void warmUp() {
+		for (int i = 0; i < 20; i++) {
+			compileOne();
+		}
+	}
+
+	/**
+	 * @param threads number of threads compiling concurrently
+	 * @param measureNanos how long each thread keeps compiling
+	 * @return modules compiled per second by the specified number of threads
+	 */
+	public static double measure(int threads, long measureNanos) throws InterruptedException {
+		final AtomicLong compiled = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long[] elapsed = new long[threads];
+		for (int t = 0; t < threads; t++) {
+			final int index = t;
+			new Thread(() -> {
+				try {
+					start.await();
+					final long begin = System.nanoTime();
+					long now;
+					do {
+						compileOne();
+						compiled.incrementAndGet();
+						now = System.nanoTime();
+					} while (now - begin < measureNanos);
+					elapsed[index] = now - begin;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+
+		long maxElapsed = 0;
+		for (long e : elapsed) {
+			maxElapsed = Math.max(maxElapsed, e);
+		}
+		return compiled.get() / (maxElapsed / 1e9);
+	}
+
+	/** Compiles a small kernel typical of generated code */
+	private static void compileOne() {
+		final int id = SEQUENCE.incrementAndGet();
+		final NativeModule module = Driver.compileInMemory("#include<jni.h>\n" +
+				"jlong process" + id + "(JNIEnv* env, jobject self, jlongArray data) {\n" +
+				"jint len = env->GetArrayLength(data);\n" +
+				"jlong* rawData = env->GetLongArrayElements(data, NULL);\n" +
+				"jlong result = 0;\n" +
+				"for (int i = 0; i < len; ++i) if (rawData[i] > " + id + ") result += rawData[i];\n" +
+				"env->ReleaseLongArrayElements(data, rawData, JNI_ABORT);\n" +
+				"return result;\n" +
+				"}", "-O3");
+		if (module.hasErrors()) {
+			throw new IllegalStateException(module.getErrors());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.medallia.unsafe.io;
+
+import com.medallia.unsafe.kernels.LongKernels;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/** Tests for {@link MappedFileScanner} */
+public class MappedFileScannerTest {
+	private static final long CHUNK = MappedFileScanner.CHUNK_ALIGNMENT;
+
+	@Test public void testChunkEnd() throws IOException {
+		final Path file = Files.createTempFile("scan", ".bin");
+		try (MappedFileScanner scanner = new MappedFileScanner(file, CHUNK, false, false)) {
+			assertThat(scanner.chunkEnd(0, 10 * CHUNK), is(CHUNK));
+			assertThat(scanner.chunkEnd(100, 10 * CHUNK), is(CHUNK));
+			assertThat(scanner.chunkEnd(CHUNK, 10 * CHUNK), is(2 * CHUNK));
+			assertThat(scanner.chunkEnd(CHUNK, CHUNK + 10), is(CHUNK + 10));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test public void testUnmap() throws IOException {
+		final Path file = Files.createTempFile("scan", ".bin");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4096));
+			assertThat(MappedFileScanner.unmap(channel.map(FileChannel.MapMode.READ_ONLY, 0, 4096)), is(true));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnalignedChunk() throws IOException {
+		final Path file = Files.createTempFile("scan", ".bin");
+		try {
+			new MappedFileScanner(file, CHUNK + 1, false, false);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test public void testSum() throws IOException {
+		final int n = (int) (3 * CHUNK / 8) + 100;
+		final Path file = Files.createTempFile("scan", ".bin");
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocate(n * 8).order(ByteOrder.nativeOrder());
+			long expected = 0;
+			for (int i = 0; i < n; i++) {
+				buffer.putLong(i * 31L);
+				expected += i * 31L;
+			}
+			buffer.flip();
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write(buffer);
+			}
+			try (MappedFileScanner scanner = new MappedFileScanner(file, CHUNK, true, true)) {
+				final ChunkKernel<Long> sum = (address, length) -> LongKernels.get().sum(address, (int) (length / 8));
+				assertThat(scanner.scan(sum, 0L, Long::sum), is(expected));
+				assertThat(scanner.scan(8 * 10, 8 * 5, sum, 0L, Long::sum), is(31L * (10 + 11 + 12 + 13 + 14)));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
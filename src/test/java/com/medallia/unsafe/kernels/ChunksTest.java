@@ -0,0 +1,77 @@
+package com.medallia.unsafe.kernels;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for {@link LongChunks}, {@link IntChunks} and {@link DoubleChunks} */
+public class ChunksTest {
+	private static final int N = 100_003;
+
+	/** Java implementation of a sum kernel */
+	private static long sum(long[] chunk, int length) {
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += chunk[i];
+		}
+		return sum;
+	}
+
+	@Test public void testAggregate() {
+		final long expected = LongStream.range(0, N).sum();
+		assertThat(LongChunks.aggregate(LongStream.range(0, N), 100, ChunksTest::sum, 0, Long::sum), is(expected));
+		assertThat(LongChunks.aggregate(LongStream.range(0, N).parallel(), 100, ChunksTest::sum, 0, Long::sum), is(expected));
+		assertThat(LongChunks.aggregate(LongStream.empty(), 100, ChunksTest::sum, 0, Long::sum), is(0L));
+	}
+
+	@Test public void testChunks() {
+		final long chunks = LongChunks.chunks(LongStream.range(0, N).parallel(), 1000)
+				.peek(chunk -> assertTrue(chunk.getLength() > 0 && chunk.getLength() <= 1000))
+				.mapToLong(chunk -> sum(chunk.getValues(), chunk.getLength()))
+				.sum();
+		assertThat(chunks, is(LongStream.range(0, N).sum()));
+	}
+
+	@Test public void testBufferReused() {
+		// A sequential stream is a single split, which reuses one buffer for all its chunks
+		final Set<long[]> buffers = ConcurrentHashMap.newKeySet();
+		final long chunks = LongChunks.chunks(LongStream.range(0, N), 1000)
+				.peek(chunk -> buffers.add(chunk.getValues()))
+				.count();
+		assertThat(chunks, is((N + 999L) / 1000));
+		assertThat(buffers.size(), is(1));
+	}
+
+	@Test public void testCollector() {
+		final long expected = LongStream.range(0, N).sum();
+		assertThat(LongStream.range(0, N).boxed().parallel().collect(LongChunks.collector(64, ChunksTest::sum, 0, Long::sum)), is(expected));
+		assertThat(IntStream.range(0, N).boxed().collect(IntChunks.collector(64, (chunk, length) -> {
+			long sum = 0;
+			for (int i = 0; i < length; i++) {
+				sum += chunk[i];
+			}
+			return sum;
+		}, 0, Long::sum)), is(expected));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChunkSize() {
+		LongChunks.chunks(LongStream.empty(), 0);
+	}
+
+	@Test public void testKernels() {
+		assertThat(LongChunks.sum(LongStream.range(0, N).parallel()), is(LongStream.range(0, N).sum()));
+		assertThat(LongChunks.min(LongStream.range(-5, N).parallel()), is(-5L));
+		assertThat(IntChunks.max(IntStream.range(0, N).parallel()), is(N - 1));
+		assertThat(IntChunks.sum(IntStream.range(0, N)), is(LongStream.range(0, N).sum()));
+		assertThat(DoubleChunks.sum(DoubleStream.of(0.5, 1.5, 2.0)), is(4.0));
+	}
+}
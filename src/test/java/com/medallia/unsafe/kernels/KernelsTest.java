@@ -0,0 +1,152 @@
+package com.medallia.unsafe.kernels;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** Compares the kernels against plain Java */
+public class KernelsTest {
+	private static final int N = 10_003;
+
+	private static int[] randomInts() {
+		final Random random = new Random(42);
+		final int[] values = new int[N];
+		for (int i = 0; i < N; i++) {
+			values[i] = random.nextInt(2000) - 1000;
+		}
+		return values;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	@Test public void testInts() {
+		final IntKernels kernels = IntKernels.get();
+		final int[] values = randomInts();
+		final int offset = 3, length = N - 10;
+
+		final int[] selection = new int[length];
+		final int selected = kernels.filter(values, offset, length, Condition.BETWEEN, -100, 100, selection);
+		int expected = 0;
+		for (int i = 0; i < length; i++) {
+			if (values[offset + i] >= -100 && values[offset + i] <= 100) {
+				assertThat(selection[expected++], is(i));
+			}
+		}
+		assertThat(selected, is(expected));
+		assertThat(kernels.count(values, offset, length, Condition.GREATER, 500, 0),
+				is(Arrays.stream(values, offset, offset + length).filter(v -> v > 500).count()));
+
+		final int[] gathered = new int[selected];
+		kernels.gather(values, selection, selected, gathered);
+		for (int i = 0; i < selected; i++) {
+			assertThat(gathered[i], is(values[selection[i]]));
+		}
+
+		long sum = 0;
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		final long[] expectedHashes = new long[length];
+		for (int i = 0; i < length; i++) {
+			final int value = values[offset + i];
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			expectedHashes[i] = fmix64(value & 0xffffffffL);
+		}
+		assertThat(kernels.sum(values, offset, length), is(sum));
+		assertThat(kernels.min(values, offset, length), is(min));
+		assertThat(kernels.max(values, offset, length), is(max));
+		assertThat(kernels.min(values, 0, 0), is(Integer.MAX_VALUE));
+
+		final long[] hashes = new long[length];
+		kernels.hash(values, offset, length, hashes);
+		assertArrayEquals(expectedHashes, hashes);
+	}
+
+	@Test public void testDoubles() {
+		final int[] ints = randomInts();
+		final double[] values = new double[N];
+		double sum = 0;
+		for (int i = 0; i < N; i++) {
+			values[i] = ints[i] / 8.0;
+			sum += values[i];
+		}
+		final DoubleKernels kernels = DoubleKernels.get();
+		assertThat(kernels.sum(values, 0, N), is(sum));
+		assertThat(kernels.count(values, 0, N, Condition.LESS, 0.5, 0),
+				is(Arrays.stream(values).filter(v -> v < 0.5).count()));
+		assertThat(kernels.min(values, 0, N), is(Arrays.stream(values).min().getAsDouble()));
+		assertThat(kernels.max(values, 0, N), is(Arrays.stream(values).max().getAsDouble()));
+
+		// NaN values are skipped, unlike Math.min and Math.max
+		final double[] withNaN = { Double.NaN, 2.5, Double.NaN, -1.5, 4.0, Double.NaN };
+		assertThat(kernels.min(withNaN, 0, withNaN.length), is(-1.5));
+		assertThat(kernels.max(withNaN, 0, withNaN.length), is(4.0));
+		assertThat(kernels.min(withNaN, 0, 1), is(Double.MAX_VALUE));
+		assertThat(kernels.max(withNaN, 0, 1), is(-Double.MAX_VALUE));
+		assertThat(kernels.count(withNaN, 0, withNaN.length, Condition.LESS, 3.0, 0), is(2L));
+	}
+
+	@Test public void testOffHeap() {
+		final NativeModule addressModule = Driver.compileInMemory("#include<jni.h>\n" +
+				"extern \"C\" jlong address(JNIEnv* env, jobject buffer) { return (jlong) env->GetDirectBufferAddress(buffer); }");
+		assertFalse(addressModule.getErrors(), addressModule.hasErrors());
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(N * 8 + N * 4).order(ByteOrder.nativeOrder());
+		final int[] ints = randomInts();
+		long sum = 0;
+		long negative = 0;
+		for (int i = 0; i < N; i++) {
+			buffer.putLong(i * 8, ints[i]);
+			sum += ints[i];
+			negative += ints[i] < 0 ? 1 : 0;
+		}
+		final long address = (long) addressModule.getFunctionByName("address").invoke(null, buffer);
+		final LongKernels kernels = LongKernels.get();
+		assertThat(kernels.sum(address, N), is(sum));
+		assertThat(kernels.filter(address, N, Condition.LESS, 0, 0, address + N * 8), is((int) negative));
+		assertThat(kernels.count(address, N, Condition.LESS, 0, 0), is(negative));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class) public void testRangeChecked() {
+		KernelLibrary.checkRange(10, 5, 6);
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class) public void testNegativeSelectionIndex() {
+		IntKernels.get().gather(new int[10], new int[] { 1, -1 }, 2, new int[2]);
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class) public void testLargeSelectionIndex() {
+		LongKernels.get().gather(new long[10], new int[] { 1, 10 }, 2, new long[2]);
+	}
+
+	@Test public void testSelectionChecked() {
+		// Only the first count indexes are used
+		KernelLibrary.checkGather(10, new int[] { 0, 9, -1, 10 }, 2, 2);
+		for (int index : new int[] { -1, 10, Integer.MIN_VALUE, Integer.MAX_VALUE }) {
+			try {
+				KernelLibrary.checkGather(10, new int[] { 0, index }, 2, 2);
+				fail("index " + index + " accepted");
+			} catch (ArrayIndexOutOfBoundsException e) {
+				// expected
+			}
+		}
+	}
+}
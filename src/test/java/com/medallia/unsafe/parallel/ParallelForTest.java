@@ -0,0 +1,81 @@
+package com.medallia.unsafe.parallel;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests {@link ParallelFor} with plain Java kernels */
+public class ParallelForTest {
+	@Test public void testReduce() {
+		final long[] data = new long[1_000_003];
+		long expected = 0;
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i % 17;
+			expected += data[i];
+		}
+		final ForkJoinPool pool = new ForkJoinPool(8);
+		try {
+			final Long sum = new ParallelFor(pool, 16 * 1024).reduce(data, ParallelForTest::sum, Long::sum);
+			assertThat(sum, is(expected));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test public void testChunksCoverInput() {
+		final int[] data = new int[100_000];
+		final AtomicLong covered = new AtomicLong();
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		final Integer chunks;
+		try {
+			chunks = new ParallelFor(pool, 4096).reduce(data, (array, start, end) -> {
+				assertTrue(start < end);
+				for (int i = start; i < end; i++) {
+					array[i]++;
+				}
+				covered.addAndGet(end - start);
+				return 1;
+			}, Integer::sum);
+		} finally {
+			pool.shutdown();
+		}
+		assertThat(covered.get(), is((long) data.length));
+		for (int value : data) {
+			assertThat(value, is(1));
+		}
+		assertTrue(chunks > 1);
+	}
+
+	@Test public void testChunkSize() {
+		final ForkJoinPool pool = new ForkJoinPool(32);
+		try {
+			final ParallelFor parallelFor = new ParallelFor(pool, ParallelFor.DEFAULT_CHUNK_BYTES);
+			// Large inputs are bounded by the cache size
+			assertThat(parallelFor.chunkSize(100_000_000, 8), is(ParallelFor.DEFAULT_CHUNK_BYTES / 8));
+			// Medium inputs are split so every worker gets some chunks
+			assertThat(parallelFor.chunkSize(256_000, 8), is(2000));
+			// Small inputs are not split below the minimum
+			assertThat(parallelFor.chunkSize(100, 8), is(512));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test public void testEmpty() {
+		assertNull(new ParallelFor().reduce(new long[0], ParallelForTest::sum, Long::sum));
+	}
+
+	private static Long sum(long[] data, int start, int end) {
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			result += data[i];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,74 @@
+package com.medallia.unsafe.parallel.example;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+/**
+ * Parallelizes a loop inside compiled code using {@code <unsafe/parallel.h>}, without leaving native code.
+ */
+public class NativeParallelLoop {
+
+	/** Compiled query thunk */
+	public static class Query {
+		private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Query.class);
+		@Native private final long[] functions;
+
+		public Query(NativeModule implementation) {
+			functions = BINDINGS.getFunctionPointers(implementation);
+		}
+
+		public native long serial(long[] rawData);
+
+		public native long parallel(long[] rawData);
+	}
+
+	public static void main(String[] args) {
+		final NativeModule nativeModule = Driver.compileInMemory("#include<jni.h>\n" +
+				"#include<unsafe/parallel.h>\n" +
+				"jlong serial(JNIEnv* env, jobject self, jlongArray data) {\n" +
+				"jint len = env->GetArrayLength(data);\n" +
+				"jlong* rawData = (jlong*) env->GetPrimitiveArrayCritical(data, NULL);\n" +
+				"jlong result = 0;\n" +
+				"for (int i = 0; i < len; ++i) result += rawData[i] * rawData[i];\n" +
+				"env->ReleasePrimitiveArrayCritical(data, rawData, JNI_ABORT);\n" +
+				"return result;\n" +
+				"}\n" +
+				"jlong parallel(JNIEnv* env, jobject self, jlongArray data) {\n" +
+				"jint len = env->GetArrayLength(data);\n" +
+				"jlong* rawData = (jlong*) env->GetPrimitiveArrayCritical(data, NULL);\n" +
+				"jlong result = unsafe::parallel_reduce(0, len, 64 * 1024, (jlong) 0,\n" +
+				"    [=](int64_t begin, int64_t end) {\n" +
+				"        jlong partial = 0;\n" +
+				"        for (int64_t i = begin; i < end; ++i) partial += rawData[i] * rawData[i];\n" +
+				"        return partial;\n" +
+				"    },\n" +
+				"    [](jlong a, jlong b) { return a + b; });\n" +
+				"env->ReleasePrimitiveArrayCritical(data, rawData, JNI_ABORT);\n" +
+				"return result;\n" +
+				"}", "-std=c++11", "-O3");
+		if (nativeModule.hasErrors()) {
+			System.out.println(nativeModule.getErrors());
+			return;
+		}
+
+		final long[] data = new long[64 * 1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (long) (Math.random() * 10);
+		}
+		final Query query = new Query(nativeModule);
+
+		for (int i = 0; i < 10; i++) {
+			long start = System.nanoTime();
+			final long serial = query.serial(data);
+			long end = System.nanoTime();
+			System.out.printf("  serial: %d in %d us%n", serial, (end - start) / 1000);
+			start = System.nanoTime();
+			final long parallel = query.parallel(data);
+			end = System.nanoTime();
+			System.out.printf("parallel: %d in %d us%n", parallel, (end - start) / 1000);
+		}
+	}
+}
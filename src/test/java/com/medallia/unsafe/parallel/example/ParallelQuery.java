@@ -0,0 +1,60 @@
+package com.medallia.unsafe.parallel.example;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.parallel.ParallelFor;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+/**
+ * Runs a thunked kernel over all cores using {@link ParallelFor}.
+ */
+public class ParallelQuery {
+
+	/** Compiled query thunk */
+	public static class Query {
+		private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Query.class);
+		@Native private final long[] functions;
+
+		public Query(NativeModule implementation) {
+			functions = BINDINGS.getFunctionPointers(implementation);
+		}
+
+		public native long process(long[] rawData, int start, int end);
+	}
+
+	public static void main(String[] args) {
+		final NativeModule nativeModule = Driver.compileInMemory("#include<jni.h>\n" +
+				"jlong process(JNIEnv* env, jobject self, jlongArray data, jint start, jint end) {\n" +
+				"jlong* rawData = (jlong*) env->GetPrimitiveArrayCritical(data, NULL);\n" +
+				"jlong result = 0;\n" +
+				"for (int i = start; i < end; ++i)\n" +
+				"result += rawData[i] * rawData[i];\n" +
+				"env->ReleasePrimitiveArrayCritical(data, rawData, JNI_ABORT);\n" +
+				"return result;\n" +
+				"}", "-O3");
+		if (nativeModule.hasErrors()) {
+			System.out.println(nativeModule.getErrors());
+			return;
+		}
+
+		final long[] data = new long[64 * 1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (long) (Math.random() * 10);
+		}
+		final Query query = new Query(nativeModule);
+		final ParallelFor parallelFor = new ParallelFor();
+
+		for (int i = 0; i < 10; i++) {
+			long start = System.nanoTime();
+			final long serial = query.process(data, 0, data.length);
+			long end = System.nanoTime();
+			System.out.printf("  serial: %d in %d us%n", serial, (end - start) / 1000);
+			start = System.nanoTime();
+			final long parallel = parallelFor.reduce(data, query::process, Long::sum);
+			end = System.nanoTime();
+			System.out.printf("parallel: %d in %d us%n", parallel, (end - start) / 1000);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.medallia.unsafe.query;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.medallia.unsafe.query.Expressions.*;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/** Tests for {@link Query}: normalization and code generation, then execution against plain Java */
+public class QueryTest {
+	private static Query rangeQuery(long low, long high) {
+		return Query.select(Aggregate.count(), Aggregate.sum(mul(column(1), column(2))), Aggregate.max(column(1)))
+				.where(and(ge(column(0), constant(low)), lt(column(0), constant(high))));
+	}
+
+	@Test public void testConstantsAreParameters() {
+		final Plan plan = rangeQuery(10, 20).plan();
+		final Plan other = rangeQuery(-5, 100).plan();
+		assertThat(plan.getSource(), is(other.getSource()));
+		assertArrayEquals(new long[] { 10, 20 }, plan.getParameters());
+		assertArrayEquals(new long[] { -5, 100 }, other.getParameters());
+		assertThat(plan.getColumns(), is(3));
+		assertThat(plan.getResults(), is(3));
+	}
+
+	@Test public void testStructureChangesPlan() {
+		final Plan plan = rangeQuery(10, 20).plan();
+		final Plan other = Query.select(Aggregate.count(), Aggregate.sum(mul(column(1), column(2))), Aggregate.max(column(1)))
+				.where(and(ge(column(0), constant(10)), le(column(0), constant(20)))).plan();
+		assertThat(plan.getSource(), not(other.getSource()));
+	}
+
+	@Test public void testFusedLoop() {
+		final String source = rangeQuery(10, 20).plan().getSource();
+		assertThat(source.split("for \\(").length, is(2));
+		assertThat(source.contains("const bool match = ((c0[i] >= p0) & (c0[i] < p1));"), is(true));
+		assertThat(source.contains("r1 = _add(r1, match ? _mul(c1[i], c2[i]) : 0);"), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class) public void testNumericCondition() {
+		Query.select(Aggregate.count()).where(add(column(0), constant(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class) public void testBooleanArithmetic() {
+		add(column(0), lt(column(1), constant(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class) public void testBooleanAggregate() {
+		Aggregate.sum(eq(column(0), constant(1)));
+	}
+
+	@Test public void testExecute() {
+		final Random random = new Random(7);
+		final long[][] columns = new long[3][1000];
+		for (long[] column : columns) {
+			for (int i = 0; i < column.length; i++) {
+				column[i] = random.nextInt(100) - 20;
+			}
+		}
+
+		for (long low = 0; low < 30; low += 10) {
+			long count = 0, sum = 0, max = Long.MIN_VALUE;
+			for (int i = 0; i < columns[0].length; i++) {
+				if (columns[0][i] >= low && columns[0][i] < low + 10) {
+					count++;
+					sum += columns[1][i] * columns[2][i];
+					max = Math.max(max, columns[1][i]);
+				}
+			}
+			assertArrayEquals(new long[] { count, sum, max }, rangeQuery(low, low + 10).execute(columns));
+		}
+		assertThat(Query.getCachedPlans(), is(1));
+	}
+}
@@ -0,0 +1,84 @@
+package com.medallia.unsafe.thunk;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for {@link AdaptiveBinding}, with a Java stand-in for the native implementation */
+public class AdaptiveBindingTest {
+	private static final LongUnaryOperator FALLBACK = x -> x + 1;
+	private static final LongUnaryOperator COMPILED = x -> x + 1;
+
+	/** @return an operator that takes at least a millisecond */
+	private static LongUnaryOperator slow(LongUnaryOperator operator) {
+		return x -> {
+			final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1);
+			while (System.nanoTime() < end) {
+				Thread.yield();
+			}
+			return operator.applyAsLong(x);
+		};
+	}
+
+	private static void run(Runnable runnable) {
+		new Thread(runnable).start();
+	}
+
+	@Test public void testSwitch() throws InterruptedException {
+		final CountDownLatch compiled = new CountDownLatch(1);
+		final AdaptiveBinding<LongUnaryOperator> binding = new AdaptiveBinding<>(FALLBACK, () -> {
+			compiled.await();
+			return COMPILED;
+		}, AdaptiveBindingTest::run, 0);
+
+		assertThat(binding.getState(), is(AdaptiveBinding.State.COMPILING));
+		assertThat(binding.get(), sameInstance(FALLBACK));
+		assertThat(binding.apply(f -> f.applyAsLong(1)), is(2L));
+
+		compiled.countDown();
+		assertTrue(binding.awaitDecision(10, TimeUnit.SECONDS));
+		assertThat(binding.isNative(), is(true));
+		assertThat(binding.get(), sameInstance(COMPILED));
+	}
+
+	@Test public void testFailure() throws InterruptedException {
+		final AdaptiveBinding<LongUnaryOperator> binding = new AdaptiveBinding<>(FALLBACK, () -> {
+			throw new IllegalArgumentException("does not compile");
+		}, AdaptiveBindingTest::run, 0);
+
+		assertTrue(binding.awaitDecision(10, TimeUnit.SECONDS));
+		assertThat(binding.getState(), is(AdaptiveBinding.State.FALLBACK));
+		assertThat(binding.getFailure(), instanceOf(IllegalArgumentException.class));
+		assertThat(binding.get(), sameInstance(FALLBACK));
+	}
+
+	private static AdaptiveBinding<LongUnaryOperator> trial(LongUnaryOperator fallback, LongUnaryOperator compiled) throws InterruptedException {
+		final AdaptiveBinding<LongUnaryOperator> binding = new AdaptiveBinding<>(fallback, () -> compiled, Runnable::run, 5);
+		assertThat(binding.getState(), is(AdaptiveBinding.State.TRIAL));
+		for (int i = 0; i < 10; i++) {
+			assertThat(binding.apply(f -> f.applyAsLong(1)), is(2L));
+		}
+		assertTrue(binding.awaitDecision(10, TimeUnit.SECONDS));
+		return binding;
+	}
+
+	@Test public void testTrialKeepsFaster() throws InterruptedException {
+		final LongUnaryOperator slowCompiled = slow(COMPILED);
+		final AdaptiveBinding<LongUnaryOperator> slower = trial(FALLBACK, slowCompiled);
+		assertThat(slower.getState(), is(AdaptiveBinding.State.FALLBACK));
+		assertThat(slower.get(), sameInstance(FALLBACK));
+
+		final AdaptiveBinding<LongUnaryOperator> faster = trial(slow(FALLBACK), COMPILED);
+		assertThat(faster.getState(), is(AdaptiveBinding.State.NATIVE));
+		assertThat(faster.get(), sameInstance(COMPILED));
+		assertTrue(faster.getNativeTrialNanos() < faster.getFallbackTrialNanos());
+	}
+}
@@ -0,0 +1,44 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+/** Tests for {@link ThunkBuilder#initializeNative(Class...)} */
+public class BatchBindingTest {
+	/** Bindings of both classes, compiled together. Their methods have the same names and signatures. */
+	private static class Holder {
+		static final NativeBindings[] BINDINGS = ThunkBuilder.initializeNative(Adder.class, Multiplier.class);
+	}
+
+	private static NativeModule implement(String operator) {
+		final NativeModule nativeModule = Driver.compileInMemory(
+				"#include <jni.h>\njlong apply(JNIEnv* env, jobject self, jlong a, jlong b) { return a " + operator + " b; }\n");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	static class Adder {
+		@Native
+		private final long[] functions = Holder.BINDINGS[0].getFunctionPointers(implement("+"));
+
+		native long apply(long a, long b);
+	}
+
+	static class Multiplier {
+		@Native
+		private final long[] functions = Holder.BINDINGS[1].getFunctionPointers(implement("*"));
+
+		native long apply(long a, long b);
+	}
+
+	@Test public void testBatch() {
+		assertThat(new Adder().apply(6, 7), is(13L));
+		assertThat(new Multiplier().apply(6, 7), is(42L));
+	}
+}
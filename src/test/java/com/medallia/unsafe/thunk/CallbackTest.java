@@ -0,0 +1,87 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/** Tests for {@link Callback} methods called from an implementation */
+public class CallbackTest {
+	private static class Holder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Consumer.class);
+	}
+
+	private static NativeModule implement() {
+		final NativeModule nativeModule = Driver.compileInMemory(Holder.BINDINGS.getHeader() +
+				"jlong twice(JNIEnv* env, jobject self, jlong value) { return callbacks::doubled(env, self, value); }\n" +
+				"jint consumeAll(JNIEnv* env, jobject self, jint n) {\n" +
+				"	callbacks::consume_batch batch(env, self);\n" +
+				"	for (jint i = 0; i < n; i++) {\n" +
+				"		if (!batch.add(i)) return i;\n" +
+				"	}\n" +
+				"	return n;\n" +
+				"}\n");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	static class Consumer {
+		/** Keeps the implementation from being freed while its functions are bound */
+		private final NativeModule implementation = implement();
+		@Native
+		private final long[] functions = Holder.BINDINGS.getFunctionPointers(implementation);
+
+		/** Number of batches after which {@link #consume(int[], int)} throws */
+		int failAfter = Integer.MAX_VALUE;
+		int batches;
+		long sum;
+
+		@Callback
+		long doubled(long value) {
+			return value * 2;
+		}
+
+		@Callback(batchSize = 100)
+		void consume(int[] values, int count) {
+			if (batches++ == failAfter) {
+				throw new IllegalStateException("batch " + failAfter);
+			}
+			for (int i = 0; i < count; i++) {
+				sum += values[i];
+			}
+		}
+
+		native long twice(long value);
+		native int consumeAll(int n);
+	}
+
+	@Test public void testCallback() {
+		assertThat(new Consumer().twice(21), is(42L));
+	}
+
+	@Test public void testBatch() {
+		final Consumer consumer = new Consumer();
+		assertThat(consumer.consumeAll(1050), is(1050));
+		assertThat(consumer.batches, is(11));
+		assertThat(consumer.sum, is(1049L * 1050 / 2));
+	}
+
+	@Test public void testBatchStopsOnException() {
+		final Consumer consumer = new Consumer();
+		consumer.failAfter = 2;
+		try {
+			consumer.consumeAll(1050);
+			fail();
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("batch 2"));
+		}
+		// The batch that threw is the last upcall, also when the batch is flushed going out of scope
+		assertThat(consumer.batches, is(3));
+		assertThat(consumer.sum, is(199L * 200 / 2));
+	}
+}
@@ -0,0 +1,120 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.io.ScratchArenas;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for {@link NativeString} parameters */
+public class NativeStringTest {
+	private static class Holder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Text.class);
+	}
+
+	private static NativeModule implement() {
+		final NativeModule nativeModule = Driver.compileInMemory(
+				"#include <jni.h>\n" +
+				"#include <string.h>\n" +
+				"jint length(JNIEnv* env, jobject self, const jchar* chars, jsize length) { return chars ? length : -1; }\n" +
+				"jint hash(JNIEnv* env, jobject self, const jchar* chars, jsize length) {\n" +
+				"	jint hash = 0;\n" +
+				"	for (jsize i = 0; i < length; i++) hash = 31 * hash + chars[i];\n" +
+				"	return hash;\n" +
+				"}\n" +
+				"jboolean startsWith(JNIEnv* env, jobject self, const char* text, jsize textLength, const char* prefix, jsize prefixLength) {\n" +
+				"	return textLength >= prefixLength && strncmp(text, prefix, prefixLength) == 0 && text[textLength] == 0;\n" +
+				"}\n");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	static class Text {
+		@Native
+		private final long[] functions = Holder.BINDINGS.getFunctionPointers(implement());
+
+		native int length(@NativeString String s);
+		native int hash(@NativeString(NativeString.Encoding.UTF16) String s);
+		native boolean startsWith(@NativeString(NativeString.Encoding.UTF8) String text,
+								  @NativeString(NativeString.Encoding.UTF8) String prefix);
+	}
+
+	@Test public void testMangling() throws NoSuchMethodException {
+		assertThat(ThunkBuilder.getMangledName(Text.class.getDeclaredMethod("hash", String.class)),
+				is("_Z4hashP7JNIEnv_P8_jobjectPKti"));
+		assertThat(ThunkBuilder.getMangledName(Text.class.getDeclaredMethod("startsWith", String.class, String.class)),
+				is("_Z10startsWithP7JNIEnv_P8_jobjectPKciS4_i"));
+	}
+
+	@Test public void testStrings() {
+		final Text text = new Text();
+		assertThat(text.length(null), is(-1));
+		assertThat(text.length(""), is(0));
+		assertThat(text.hash("unsafe"), is("unsafe".hashCode()));
+
+		final StringBuilder longText = new StringBuilder();
+		while (longText.length() <= NativeString.STACK_BYTES) {
+			longText.append("medallia ");
+		}
+		assertThat(text.hash(longText.toString()), is(longText.toString().hashCode()));
+		assertThat(text.startsWith("medallia", "med"), is(true));
+		assertThat(text.startsWith(longText.toString(), "medallia medallia"), is(true));
+		assertThat(text.startsWith("med", "medallia"), is(false));
+	}
+
+	@Test public void testLongUtf8Repeated() {
+		final Text text = new Text();
+		final StringBuilder longText = new StringBuilder();
+		while (longText.length() <= NativeString.STACK_BYTES) {
+			longText.append("m\u00e9dallia ");
+		}
+		final String s = longText.toString();
+		assertTrue(text.startsWith(s, "m\u00e9dallia m\u00e9dallia"));
+		// The copies are allocated from the scratch arena and released by each call, so it does not grow
+		final long used = ScratchArenas.getUsed();
+		final long capacity = ScratchArenas.getCapacity();
+		for (int i = 0; i < 100000; i++) {
+			assertTrue(text.startsWith(s, s));
+		}
+		assertThat(ScratchArenas.getUsed(), is(used));
+		assertThat(ScratchArenas.getCapacity(), is(capacity));
+		assertTrue(ScratchArenas.getPeak() > NativeString.STACK_BYTES);
+	}
+
+	static class Mixed {
+		private long[] functions;
+
+		native int compare(@NativeString String a, @NativeString(NativeString.Encoding.UTF8) String b, @NativeString String c);
+	}
+
+	@Test public void testNoJNICallsInCriticalRegion() {
+		final String thunk = ThunkBuilder.generateThunk(Mixed.class, ProfilingMode.NONE, new ArrayList<Method>(), new ArrayList<Method>());
+		final int firstCritical = thunk.indexOf("GetStringCritical(arg0");
+		assertTrue(thunk, firstCritical > thunk.lastIndexOf("GetStringUTFRegion"));
+		assertTrue(thunk, firstCritical > thunk.lastIndexOf("GetStringLength"));
+		final int lastCritical = thunk.indexOf("GetStringCritical(arg2");
+		assertTrue(thunk, lastCritical > firstCritical);
+		// Only the failure check separates the critical regions from the call
+		assertTrue(thunk, thunk.indexOf("(_length0 && !_chars0) || (_length2 && !_chars2)", lastCritical) > 0);
+		assertTrue(thunk, thunk.contains("java/lang/OutOfMemoryError"));
+	}
+
+	static class NotAString {
+		private long[] functions;
+
+		native void call(@NativeString Object o);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotAString() {
+		ThunkBuilder.initializeNative(NotAString.class);
+	}
+}
@@ -0,0 +1,92 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests for {@link NativeStruct} parameters */
+public class NativeStructTest {
+	@NativeStruct
+	static class Point {
+		int x;
+		int y;
+		Point(int x, int y) { this.x = x; this.y = y; }
+	}
+
+	@NativeStruct(writeBack = true)
+	static class Accumulator {
+		long sum;
+		int count;
+	}
+
+	private static class Holder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Geometry.class);
+	}
+
+	private static NativeModule implement() {
+		final NativeModule nativeModule = Driver.compileInMemory(Holder.BINDINGS.getHeader() +
+				"jint dot(JNIEnv* env, jobject self, Point* a, Point* b) { return a->x * b->x + a->y * b->y; }\n" +
+				"jboolean add(JNIEnv* env, jobject self, Accumulator* acc, Point* p) {\n" +
+				"	if (!p) return false;\n" +
+				"	acc->sum += p->x + p->y;\n" +
+				"	acc->count++;\n" +
+				"	return true;\n" +
+				"}\n");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	static class Geometry {
+		@Native
+		private final long[] functions = Holder.BINDINGS.getFunctionPointers(implement());
+
+		native int dot(Point a, Point b);
+		native boolean add(Accumulator acc, Point p);
+	}
+
+	@Test public void testMangling() throws NoSuchMethodException {
+		assertThat(ThunkBuilder.getMangledName(Geometry.class.getDeclaredMethod("dot", Point.class, Point.class)),
+				is("_Z3dotP7JNIEnv_P8_jobjectP5PointS4_"));
+		assertThat(ThunkBuilder.getMangledName(Geometry.class.getDeclaredMethod("add", Accumulator.class, Point.class)),
+				is("_Z3addP7JNIEnv_P8_jobjectP11AccumulatorP5Point"));
+	}
+
+	@Test public void testStructs() {
+		final Geometry geometry = new Geometry();
+		assertThat(geometry.dot(new Point(1, 2), new Point(3, 4)), is(11));
+
+		final Accumulator acc = new Accumulator();
+		assertThat(geometry.add(acc, new Point(1, 2)), is(true));
+		assertThat(geometry.add(acc, new Point(3, 4)), is(true));
+		assertThat(geometry.add(acc, null), is(false));
+		assertThat(acc.sum, is(10L));
+		assertThat(acc.count, is(2));
+	}
+
+	static class FinalFields {
+		private long[] functions;
+
+		native void call(Frozen frozen);
+	}
+
+	@NativeStruct(writeBack = true)
+	static class Frozen {
+		final int x = 0;
+	}
+
+	@Test public void testFinalWriteBack() {
+		try {
+			ThunkBuilder.initializeNative(FinalFields.class);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("NativeStruct fields written back should not be final: "));
+		}
+	}
+}
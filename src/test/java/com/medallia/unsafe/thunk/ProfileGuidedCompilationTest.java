@@ -0,0 +1,112 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.CompileOption;
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests for {@link ProfileGuidedCompilation}, {@link NativeBindings#rebind} and {@link NativeModule#writeProfile} */
+public class ProfileGuidedCompilationTest {
+	private static class Holder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Filter.class);
+	}
+
+	private static final String SOURCE = "#include<jni.h>\n" +
+			"jlong filter(JNIEnv* env, jobject self, jintArray array, jint low, jint high) {\n" +
+			"  jint len = env->GetArrayLength(array);\n" +
+			"  jint* values = (jint*) env->GetPrimitiveArrayCritical(array, 0);\n" +
+			"  jlong result = 0;\n" +
+			"  for (jint i = 0; i < len; i++) {\n" +
+			"    if (values[i] < low || values[i] > high) result += (jlong) values[i] * values[i];\n" +
+			"    else result += values[i];\n" +
+			"  }\n" +
+			"  env->ReleasePrimitiveArrayCritical(array, values, JNI_ABORT);\n" +
+			"  return result;\n" +
+			"}\n";
+
+	private static final int[] VALUES = { 1, 2, 3, 50, 4, 5 };
+	private static final long EXPECTED = 1 + 2 + 3 + 50 * 50 + 4 + 5;
+
+	static class Filter {
+		@Native
+		private final long[] functions;
+
+		Filter(long[] functions) {
+			this.functions = functions;
+		}
+
+		native long filter(int[] values, int low, int high);
+	}
+
+	@Test public void testWriteProfile() throws IOException {
+		final String[] args = Driver.DEFAULT_INCLUDE_ARGS.toArray(new String[Driver.DEFAULT_INCLUDE_ARGS.size()]);
+		final NativeModule instrumented = Driver.compileInMemory(null, SOURCE, args, EnumSet.of(CompileOption.PROFILE_INSTRUMENTATION));
+		assertFalse(instrumented.getErrors(), instrumented.hasErrors());
+		final Filter filter = new Filter(Holder.BINDINGS.getFunctionPointers(instrumented));
+		assertThat(filter.filter(VALUES, 0, 10), is(EXPECTED));
+
+		final Path profile = Files.createTempFile("unsafe", ".profdata");
+		try {
+			instrumented.writeProfile(profile);
+			assertTrue(Files.size(profile) > 0);
+		} finally {
+			Files.deleteIfExists(profile);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWriteProfileNotInstrumented() throws IOException {
+		final NativeModule nativeModule = Driver.compileInMemory(SOURCE);
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		final Path profile = Files.createTempFile("unsafe", ".profdata");
+		try {
+			nativeModule.writeProfile(profile);
+		} finally {
+			Files.deleteIfExists(profile);
+		}
+	}
+
+	@Test public void testRecompile() throws IOException {
+		final ProfileGuidedCompilation compilation = new ProfileGuidedCompilation(Holder.BINDINGS, SOURCE, "-O2");
+		final long[] functions = compilation.getFunctionPointers();
+		final Filter filter = new Filter(functions);
+		for (int i = 0; i < 100; i++) {
+			assertThat(filter.filter(VALUES, 0, 10), is(EXPECTED));
+		}
+		final long[] instrumented = functions.clone();
+		assertFalse(compilation.isRecompiled());
+
+		final NativeModule optimized = compilation.recompile();
+		assertTrue(compilation.isRecompiled());
+		assertThat(compilation.getFunctionPointers(), sameInstance(functions));
+		assertThat(Arrays.equals(functions, instrumented), is(false));
+		assertThat(functions, is(Holder.BINDINGS.getFunctionPointers(optimized)));
+		assertThat(filter.filter(VALUES, 0, 10), is(EXPECTED));
+
+		try {
+			compilation.recompile();
+			fail();
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("already recompiled"));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRebindWrongLength() {
+		Holder.BINDINGS.rebind(new long[2], null);
+	}
+}
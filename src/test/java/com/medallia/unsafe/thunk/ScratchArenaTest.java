@@ -0,0 +1,125 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import com.medallia.unsafe.io.ScratchArenas;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for {@link ScratchArena} methods and {@link ScratchArenas} */
+public class ScratchArenaTest {
+	private static class Holder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Scratch.class);
+	}
+
+	private static NativeModule implement() {
+		final NativeModule nativeModule = Driver.compileInMemory(
+				"#include <jni.h>\n" +
+				"#include <unsafe/arena.h>\n" +
+				"jlong fill(JNIEnv* env, jobject self, jint n) {\n" +
+				"	jlong* values = unsafe::arena::allocate_array<jlong>(n);\n" +
+				"	jlong sum = 0;\n" +
+				"	for (jint i = 0; i < n; i++) values[i] = i;\n" +
+				"	for (jint i = 0; i < n; i++) sum += values[i];\n" +
+				"	return sum;\n" +
+				"}\n" +
+				"jlong scratch(JNIEnv* env, jobject self, jint bytes) {\n" +
+				"	return (jlong) unsafe::arena::allocate(bytes);\n" +
+				"}\n" +
+				"jlong keep(JNIEnv* env, jobject self, jint bytes) {\n" +
+				"	return (jlong) unsafe::arena::allocate(bytes);\n" +
+				"}\n");
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	static class Scratch {
+		@Native
+		private final long[] functions = Holder.BINDINGS.getFunctionPointers(implement());
+
+		@ScratchArena
+		native long fill(int n);
+		@ScratchArena
+		native long scratch(int bytes);
+		native long keep(int bytes);
+	}
+
+	@Test public void testThunk() {
+		final String thunk = ThunkBuilder.generateThunk(Scratch.class, ProfilingMode.NONE, new ArrayList<Method>(), new ArrayList<Method>());
+		assertTrue(thunk, thunk.contains("#include <unsafe/arena.h>"));
+		assertTrue(thunk, thunk.contains("unsafe::arena::release(_arena, _arenaMark);"));
+	}
+
+	@Test public void testReleasedAfterCall() {
+		final Scratch scratch = new Scratch();
+		ScratchArenas.reset();
+		final int n = 1 << 20;
+		assertThat(scratch.fill(n), is((long) n * (n - 1) / 2));
+		assertThat(ScratchArenas.getUsed(), is(0L));
+		assertTrue(ScratchArenas.getPeak() >= 8L * n);
+		assertTrue(ScratchArenas.getCapacity() >= 8L * n);
+
+		ScratchArenas.trim();
+		assertTrue(ScratchArenas.getCapacity() < 8L * n);
+	}
+
+	@Test public void testPeakWithinBlock() throws Exception {
+		final Scratch scratch = new Scratch();
+		// A new thread has a new arena, with a single block
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(() -> {
+				assertTrue(scratch.scratch(1000) != 0);
+				assertThat(ScratchArenas.getUsed(), is(0L));
+				assertTrue(ScratchArenas.getPeak() >= 1000);
+				assertTrue(ScratchArenas.getPeak() < ScratchArenas.getCapacity());
+			}).get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test public void testExplicitReset() {
+		final Scratch scratch = new Scratch();
+		ScratchArenas.reset();
+		final long first = scratch.keep(64);
+		assertTrue(scratch.keep(64) > first);
+		assertThat(ScratchArenas.getUsed() >= 128, is(true));
+		ScratchArenas.reset();
+		assertThat(ScratchArenas.getUsed(), is(0L));
+		assertThat(scratch.keep(64), is(first));
+		ScratchArenas.reset();
+	}
+
+	@Test public void testPerThread() throws Exception {
+		final Scratch scratch = new Scratch();
+		ScratchArenas.reset();
+		scratch.keep(1000);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Long> used = executor.submit(ScratchArenas::getUsed);
+			assertThat(used.get(), is(0L));
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(ScratchArenas.getUsed() >= 1000);
+		assertTrue(ScratchArenas.getTotalCapacity() >= ScratchArenas.getCapacity());
+		ScratchArenas.reset();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBlockSize() {
+		ScratchArenas.setBlockSize(0);
+	}
+}
@@ -0,0 +1,31 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.kernels.LongKernels;
+import com.medallia.unsafe.query.Query;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/** Tests for {@link ThunkPrecompiler} that do not need the native library */
+public class ThunkPrecompilerTest {
+	@Test public void testResourceName() {
+		final String name = ThunkPrecompiler.resourceName("void f() {}");
+		assertTrue(name, name.matches("META-INF/unsafe/thunks/[0-9a-f]{64}\\.bc"));
+		assertThat(ThunkPrecompiler.resourceName("void f() {}"), is(name));
+		assertThat(ThunkPrecompiler.resourceName("void g() {}"), not(name));
+	}
+
+	@Test public void testHasThunks() {
+		assertTrue(ThunkPrecompiler.hasThunks(LongKernels.class));
+		assertFalse(ThunkPrecompiler.hasThunks(Query.class));
+		assertFalse(ThunkPrecompiler.hasThunks(String.class));
+	}
+
+	@Test public void testMissingPrecompiledThunks() {
+		assertThat(ThunkPrecompiler.load(getClass().getClassLoader(), "void f() {}"), is((Object) null));
+	}
+}
@@ -0,0 +1,116 @@
+package com.medallia.unsafe.thunk;
+
+import com.medallia.unsafe.Driver;
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.NativeModule;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests for {@link ThunkProfile}, from profiled thunks and with counters written from Java */
+public class ThunkProfileTest {
+	private static final int CALLS = 1000;
+
+	private static class CountedHolder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Counted.class, ProfilingMode.COUNTERS);
+	}
+
+	private static class TimedHolder {
+		static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(Timed.class, ProfilingMode.LATENCY);
+	}
+
+	private static final String SOURCE = "#include <jni.h>\n" +
+			"jint increment(JNIEnv* env, jobject self, jint value) { return value + 1; }\n" +
+			"void ignore(JNIEnv* env, jobject self) { }\n";
+
+	private static NativeModule implement() {
+		final NativeModule nativeModule = Driver.compileInMemory(SOURCE);
+		assertFalse(nativeModule.getErrors(), nativeModule.hasErrors());
+		return nativeModule;
+	}
+
+	static class Counted {
+		private final NativeModule implementation = implement();
+		@Native
+		private final long[] functions = CountedHolder.BINDINGS.getFunctionPointers(implementation);
+
+		native int increment(int value);
+		native void ignore();
+	}
+
+	static class Timed {
+		private final NativeModule implementation = implement();
+		@Native
+		private final long[] functions = TimedHolder.BINDINGS.getFunctionPointers(implementation);
+
+		native int increment(int value);
+		native void ignore();
+	}
+
+	@Test public void testCounters() {
+		final Counted counted = new Counted();
+		final long before = CountedHolder.BINDINGS.getProfile().getMethod("increment").getCalls();
+		for (int i = 0; i < CALLS; i++) {
+			assertThat(counted.increment(i), is(i + 1));
+		}
+		final ThunkProfile profile = CountedHolder.BINDINGS.getProfile();
+		assertThat(profile.getMethod("increment").getCalls(), is(before + CALLS));
+		assertThat(profile.getMethod("ignore").getCalls(), is(0L));
+		assertThat(profile.getMethod("increment").getTotalCycles(), is(0L));
+		assertThat(profile.getMethod("increment").getLatencyHistogram().length, is(0));
+	}
+
+	@Test public void testLatency() {
+		Assume.assumeTrue(ProfilingMode.isX86Host());
+		final Timed timed = new Timed();
+		for (int i = 0; i < CALLS; i++) {
+			timed.ignore();
+		}
+		final ThunkProfile.MethodProfile profile = TimedHolder.BINDINGS.getProfile().getMethod("ignore");
+		assertThat(profile.getCalls(), is((long) CALLS));
+		assertTrue(profile.getTotalCycles() > 0);
+		long histogramCalls = 0;
+		for (long calls : profile.getLatencyHistogram()) {
+			histogramCalls += calls;
+		}
+		assertThat(histogramCalls, is((long) CALLS));
+		assertThat(TimedHolder.BINDINGS.getProfile().getMethod("increment").getCalls(), is(0L));
+	}
+
+	@Test public void testLatencyOnlyOnX86() {
+		Assume.assumeTrue(!ProfilingMode.isX86Host());
+		try {
+			ThunkBuilder.initializeNative(Overloads.class, ProfilingMode.LATENCY);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("LATENCY profiling is only supported on x86 hosts"));
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static class Overloads {
+		native long sum(int[] values);
+		native long sum(long[] values);
+	}
+
+	@Test public void testOverloadsKeptApart() throws NoSuchMethodException {
+		final Method ints = Overloads.class.getDeclaredMethod("sum", int[].class);
+		final Method longs = Overloads.class.getDeclaredMethod("sum", long[].class);
+		final int width = ThunkBuilder.profileWidth(ProfilingMode.COUNTERS);
+		final long[] values = new long[2 * width];
+		values[0] = 3;
+		values[width] = 5;
+		final ThunkProfile profile = ThunkProfile.fromSnapshot(Arrays.asList(ints, longs), ProfilingMode.COUNTERS, values);
+		assertThat(profile.getMethods().size(), is(2));
+		assertThat(profile.getMethod("sum", "([I)J").getCalls(), is(3L));
+		assertThat(profile.getMethod("sum", "([J)J").getCalls(), is(5L));
+	}
+}
@@ -0,0 +1,65 @@
+package com.medallia.unsafe.thunk.example;
+
+import com.medallia.unsafe.Native;
+import com.medallia.unsafe.thunk.NativeBindings;
+import com.medallia.unsafe.thunk.ProfileGuidedCompilation;
+import com.medallia.unsafe.thunk.ThunkBuilder;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Example of {@link ProfileGuidedCompilation}: a filter with a data dependent branch is profiled while it runs,
+ * then recompiled with the profile.
+ */
+public class ProfileGuidedFilter {
+	private static final NativeBindings BINDINGS = ThunkBuilder.initializeNative(ProfileGuidedFilter.class);
+
+	@Native
+	private final long[] functions;
+
+	public ProfileGuidedFilter(long[] functions) {
+		this.functions = functions;
+	}
+
+	/** @return sum of the values in range, or of their squares when out of range */
+	public native long filter(int[] values, int low, int high);
+
+	private static final String SOURCE = "#include<jni.h>\n" +
+			"jlong filter(JNIEnv* env, jobject self, jintArray array, jint low, jint high) {\n" +
+			"  jint len = env->GetArrayLength(array);\n" +
+			"  jint* values = (jint*) env->GetPrimitiveArrayCritical(array, 0);\n" +
+			"  jlong result = 0;\n" +
+			"  for (jint i = 0; i < len; i++) {\n" +
+			"    if (values[i] < low || values[i] > high) result += (jlong) values[i] * values[i];\n" +
+			"    else result += values[i];\n" +
+			"  }\n" +
+			"  env->ReleasePrimitiveArrayCritical(array, values, JNI_ABORT);\n" +
+			"  return result;\n" +
+			"}";
+
+	public static void main(String[] args) throws IOException {
+		final ProfileGuidedCompilation compilation = new ProfileGuidedCompilation(BINDINGS, SOURCE, "-O3");
+		final ProfileGuidedFilter filter = new ProfileGuidedFilter(compilation.getFunctionPointers());
+
+		// Almost all values are in range
+		final Random random = new Random(0);
+		final int[] values = new int[1 << 20];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(1000) == 0 ? 5000 : random.nextInt(1000);
+		}
+
+		for (int round = 0; round < 3; round++) {
+			if (round == 2) {
+				compilation.recompile();
+				System.out.println("--- recompiled with profile ---");
+			}
+			for (int i = 0; i < 5; i++) {
+				final long start = System.nanoTime();
+				final long result = filter.filter(values, 0, 999);
+				final long end = System.nanoTime();
+				System.out.printf("%s: %d in %.3f ms%n", round < 2 ? "instrumented" : "optimized", result, (end - start) / 1e6);
+			}
+		}
+	}
+}
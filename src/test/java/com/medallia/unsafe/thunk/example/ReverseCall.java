@@ -1,5 +1,6 @@
 package com.medallia.unsafe.thunk.example;
 
+import com.medallia.unsafe.thunk.Callback;
 import com.medallia.unsafe.thunk.NativeBindings;
 import com.medallia.unsafe.thunk.ThunkBuilder;
 import com.medallia.unsafe.Driver;
@@ -22,15 +23,31 @@ public class ReverseCall {
 		functions = BINDINGS.getFunctionPointers(implementation);
 	}
 
+	/** Sum of all values received by {@link #consume(long[], int)} */
+	private long consumed;
+
+	@Callback
 	public long benchmarked(long val) {
 		if (val == 0) System.out.println("ReverseCall.benchmarked");
 		return val;
 	}
 
+	@Callback(batchSize = 1024)
+	public void consume(long[] values, int count) {
+		for (int i = 0; i < count; i++) {
+			consumed += values[i];
+		}
+	}
+
 	public native long benchmark(int n);
 
+	public native long benchmarkCallback(int n);
+
+	public native long benchmarkBatch(int n);
+
 	public static void main(String[] args) throws IOException {
-		final NativeModule implementation = Driver.compileInMemory(Util.loadResource(ReverseCall.class, "jni2java.cpp"), "--std=c++11");
+		final NativeModule implementation = Driver.compileInMemory(
+				BINDINGS.getHeader() + Util.loadResource(ReverseCall.class, "jni2java.cpp"), "--std=c++11");
 		if (implementation.hasErrors()) {
 			System.out.println(implementation.getErrors());
 			return;
@@ -42,6 +59,13 @@ public class ReverseCall {
 		final long totalNs = rc.benchmark(n);
 		System.out.printf("JNI to Java - per-call cost: %dns (%d calls in %ss)%n", totalNs / n, n, totalNs/1e9);
 
+		final long callbackNs = rc.benchmarkCallback(n);
+		System.out.printf("JNI to Java (cached callback) - per-call cost: %dns (%d calls in %ss)%n", callbackNs / n, n, callbackNs/1e9);
+
+		final long batchNs = rc.benchmarkBatch(n);
+		if (rc.consumed == n/2L*(n-1))
+			System.out.printf("JNI to Java (batched callback) - per-value cost: %dns (%d values in %ss)%n", batchNs / n, n, batchNs/1e9);
+
 		long total = 0;
 		long start = System.nanoTime();
 		for (int i = 0; i < n; i++) {
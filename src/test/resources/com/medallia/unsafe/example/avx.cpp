@@ -11,6 +11,7 @@
 #include <stdint.h>
 #include <random>
 #include <cassert>
+#include <jni.h>
 
 using namespace std;
 
@@ -115,6 +116,46 @@ int countAVX(float *data, int len) {
 }
 #endif
 
+// Kernels exposed to Java, in the order expected by VectorizationTest
+typedef int (*Kernel)(float*, int);
+static const Kernel KERNELS[] = {
+	countNormal,
+	countSSE,
+	countSSEinv,
+	countSSEp,
+#ifdef __AVX2__
+	countAVX,
+#endif
+};
+
+extern "C" jint kernelCount() {
+	return sizeof(KERNELS) / sizeof(KERNELS[0]);
+}
+
+// Runs a kernel once over the array. The length should be a multiple of 16
+extern "C" jint runKernel(JNIEnv* env, jint kernel, jfloatArray data) {
+	const jint len = env->GetArrayLength(data);
+	float* rawData = (float*) env->GetPrimitiveArrayCritical(data, NULL);
+	const jint count = KERNELS[kernel](rawData, len);
+	env->ReleasePrimitiveArrayCritical(data, rawData, JNI_ABORT);
+	return count;
+}
+
+// Runs a kernel the specified number of times after a warm up, returns the elapsed nanoseconds
+extern "C" jlong timeKernel(JNIEnv* env, jint kernel, jfloatArray data, jint times) {
+	const jint len = env->GetArrayLength(data);
+	float* rawData = (float*) env->GetPrimitiveArrayCritical(data, NULL);
+	volatile jint sink = 0;
+	for (jint i = 0; i < times / 10; ++i)
+		sink += KERNELS[kernel](rawData, len);
+	auto start = std::chrono::steady_clock::now();
+	for (jint i = 0; i < times; ++i)
+		sink += KERNELS[kernel](rawData, len);
+	auto end = std::chrono::steady_clock::now();
+	env->ReleasePrimitiveArrayCritical(data, rawData, JNI_ABORT);
+	return std::chrono::duration_cast<std::chrono::nanoseconds>(end - start).count();
+}
+
 void benchmark(const std::string &str, function<int(float*, int)> call, vector<float> data) {
         long long int count = 0;
         for (int i = 0; i < WARMUP; ++i)
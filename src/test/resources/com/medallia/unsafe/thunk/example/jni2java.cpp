@@ -13,3 +13,28 @@ long benchmark(JNIEnv* env, jobject self, jint n) {
     std::chrono::nanoseconds elapsed = end - start;
     return elapsed.count();
 }
+
+// Same as benchmark() but uses the wrapper generated by ThunkBuilder, no lookups needed
+long benchmarkCallback(JNIEnv* env, jobject self, jint n) {
+    auto start = std::chrono::system_clock::now();
+    for (int i = 0; i < n; ++i) {
+        callbacks::benchmarked(env, self, (jlong)i);
+    }
+    auto end = std::chrono::system_clock::now();
+    std::chrono::nanoseconds elapsed = end - start;
+    return elapsed.count();
+}
+
+// Delivers the values to Java in batches, one upcall per batch
+long benchmarkBatch(JNIEnv* env, jobject self, jint n) {
+    auto start = std::chrono::system_clock::now();
+    {
+        callbacks::consume_batch batch(env, self);
+        for (int i = 0; i < n; ++i) {
+            batch.add((jlong)i);
+        }
+    }
+    auto end = std::chrono::system_clock::now();
+    std::chrono::nanoseconds elapsed = end - start;
+    return elapsed.count();
+}